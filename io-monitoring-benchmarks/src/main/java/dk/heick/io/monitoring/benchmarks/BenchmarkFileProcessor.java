@@ -0,0 +1,40 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dk.heick.io.monitoring.processor.DefaultFileProcessor;
+
+/**
+ * File processor that do nothing but count the processed files, so the benchmarks measures the task and not the processing.
+ * @author Frederik Heick
+ */
+public class BenchmarkFileProcessor extends DefaultFileProcessor {
+	
+	private final AtomicInteger processed = new AtomicInteger();
+	
+	public BenchmarkFileProcessor() {
+		super();
+	}
+
+	@Override
+	public void process(Properties context, File file) throws Exception {
+		processed.incrementAndGet();
+	}
+	
+	/**
+	 * The number of processed files.
+	 * @return processed files count.
+	 */
+	public int getProcessed() {
+		return processed.get();
+	}
+	
+	/**
+	 * Resets the number of processed files.
+	 */
+	public void reset() {
+		processed.set(0);
+	}
+}
@@ -0,0 +1,96 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Helpers for creating and deleting the files the benchmarks run on.
+ * @author Frederik Heick
+ */
+public final class BenchmarkUtils {
+	
+	private BenchmarkUtils() {
+		super();
+	}
+	
+	/**
+	 * Creates a new temporary directory.
+	 * @param prefix the directory name prefix.
+	 * @return the directory.
+	 * @throws IOException if the directory can not be created.
+	 */
+	public static File createTempDirectory(String prefix) throws IOException {
+		return Files.createTempDirectory("io-monitoring-benchmark-"+prefix).toFile();
+	}
+	
+	/**
+	 * Creates files named "data-&lt;index&gt;.txt" in the directory.
+	 * @param directory the directory.
+	 * @param count the number of files.
+	 * @param size the size of each file in bytes.
+	 * @throws IOException if a file can not be written.
+	 */
+	public static void createFiles(File directory,int count,int size) throws IOException {
+		byte[] data = createData(size);
+		for (int i=0;i<count;i++) {
+			Files.write(new File(directory,"data-"+i+".txt").toPath(), data);
+		}
+	}
+	
+	/**
+	 * Creates data of the given size.
+	 * @param size the size in bytes.
+	 * @return the data.
+	 */
+	public static byte[] createData(int size) {
+		byte[] data = new byte[size];
+		Arrays.fill(data, (byte)'a');
+		return data;
+	}
+	
+	/**
+	 * Deletes the directory, its files and sub directories.
+	 * @param directory the directory, if <code>null</code> or it do not exists nothing happens.
+	 * @throws IOException if something can not be deleted.
+	 */
+	public static void deleteDirectory(File directory) throws IOException {
+		if ((directory!=null) && (directory.exists())) {
+			Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Deletes the files and sub directories in the directory, but not the directory itself.
+	 * @param directory the directory.
+	 * @throws IOException if something can not be deleted.
+	 */
+	public static void cleanDirectory(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files!=null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDirectory(file);
+				} else {
+					Files.delete(file.toPath());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.heick.io.monitoring.file.DirectoryMonitorTask;
+import dk.heick.io.monitoring.file.DirectoryMonitorTaskConfiguration;
+import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
+import dk.heick.io.monitoring.file.LockProbeStrategy;
+import dk.heick.io.monitoring.utils.TimeSpan;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * Benchmarks <tt>DirectoryMonitorTask</tt> detecting and monitoring on a directory with 1k, 10k and 100k files. <br>
+ * The stable time is so long, that no file is moved to the ".process" directory, and max messages polling is the number of files, so every invocation works on all the files.
+ * <ul>
+ * 		<li>detectingNew : the files is detected for the first time, the file monitor is cleared before every invocation.</li>
+ * 		<li>detectingMonitored : all the files is already in the file monitor.</li>
+ * 		<li>monitoring : all the files in the file monitor is checked for stability.</li>
+ * </ul>
+ * @author Frederik Heick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class DirectoryMonitorTaskBenchmark {
+
+	@Param({"1000","10000","100000"})
+	private int files;
+
+	@Param({"ALWAYS","WHEN_STABLE"})
+	private LockProbeStrategy lockProbeStrategy;
+
+	private File root;
+	private BenchmarkDirectoryMonitorTask task;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ValidationException {
+		root = BenchmarkUtils.createTempDirectory("directory");
+		BenchmarkUtils.createFiles(root, files, 1024);
+		DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(root, new BenchmarkFileProcessor(), new OnlyFilesFileFilter(), TimeSpan.createHours(24));
+		configuration.setLockProbeStrategy(lockProbeStrategy);
+		configuration.setMaxMessagesPolling(files);
+		task = new BenchmarkDirectoryMonitorTask(configuration);
+		task.detecting();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		task.shutdown();
+		BenchmarkUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * Detecting, where all the files is new.
+	 * @param state the monitor is cleared before each invocation.
+	 * @return the number of monitored files.
+	 */
+	@Benchmark
+	public int detectingNew(ClearedFileMonitor state) {
+		task.detecting();
+		return task.size();
+	}
+
+	/**
+	 * Detecting, where all the files is already monitored.
+	 * @return the number of monitored files.
+	 */
+	@Benchmark
+	public int detectingMonitored() {
+		task.detecting();
+		return task.size();
+	}
+
+	/**
+	 * Monitoring all the files, none is stable.
+	 * @return the number of monitored files.
+	 */
+	@Benchmark
+	public int monitoring() {
+		task.monitoring();
+		return task.size();
+	}
+
+	/**
+	 * Clears the file monitor before each invocation.
+	 */
+	@State(Scope.Thread)
+	public static class ClearedFileMonitor {
+		@Setup(Level.Invocation)
+		public void clear(DirectoryMonitorTaskBenchmark benchmark) {
+			benchmark.task.clear();
+		}
+	}
+
+	/**
+	 * Exposes the protected steps of the task to the benchmarks.
+	 */
+	public static class BenchmarkDirectoryMonitorTask extends DirectoryMonitorTask {
+
+		public BenchmarkDirectoryMonitorTask(DirectoryMonitorTaskConfiguration configuration) throws ValidationException, NullPointerException {
+			super(configuration);
+		}
+
+		@Override
+		public void detecting() {
+			super.detecting();
+		}
+
+		@Override
+		public void monitoring() {
+			super.monitoring();
+		}
+
+		@Override
+		public void processing() {
+			super.processing();
+		}
+
+		public void clear() {
+			getFileMonitor().clear();
+		}
+	}
+}
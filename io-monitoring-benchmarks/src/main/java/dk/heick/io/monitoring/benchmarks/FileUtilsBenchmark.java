@@ -0,0 +1,53 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.heick.io.monitoring.utils.FileUtils;
+
+/**
+ * Benchmarks <tt>FileUtils.isFileLocked(file)</tt> on a file that is not locked, which is the cost paid for every monitored file on every run.
+ * @author Frederik Heick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class FileUtilsBenchmark {
+	
+	private File root;
+	private File file;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		root = BenchmarkUtils.createTempDirectory("lock");
+		BenchmarkUtils.createFiles(root, 1, 1024);
+		file = root.listFiles()[0];
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkUtils.deleteDirectory(root);
+	}
+	
+	@Benchmark
+	public boolean isFileLocked() {
+		return FileUtils.isFileLocked(file);
+	}
+}
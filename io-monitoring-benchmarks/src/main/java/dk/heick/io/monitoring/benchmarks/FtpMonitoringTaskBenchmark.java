@@ -0,0 +1,114 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.heick.io.monitoring.ftp.FtpConnectionPool;
+import dk.heick.io.monitoring.ftp.FtpMonitorTaskConfiguration;
+import dk.heick.io.monitoring.ftp.FtpMonitoringTask;
+import dk.heick.io.monitoring.utils.TimeSpan;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * Benchmarks one poll of the remote directory by <tt>FtpMonitoringTask</tt>, against an embedded <tt>FakeFtpServer</tt>. <br>
+ * The stable time is so long, that no file is downloaded, so it is the connection and the listing of all the files that is measured.
+ * @author Frederik Heick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class FtpMonitoringTaskBenchmark {
+
+	private final static String USERNAME="benchmark";
+	private final static String PASSWORD="benchmark";
+	private final static String HOME_DIRECTORY="/home";
+	private final static String REMOTE_DIRECTORY="/home/data";
+
+	@Param({"100","1000"})
+	private int files;
+
+	@Param({"false","true"})
+	private boolean ftpConnectionPooling;
+
+	private FakeFtpServer server;
+	private File root;
+	private BenchmarkFtpMonitoringTask task;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ValidationException {
+		FileSystem fileSystem = new UnixFakeFileSystem();
+		fileSystem.add(new DirectoryEntry(REMOTE_DIRECTORY));
+		String contents = new String(BenchmarkUtils.createData(1024), "US-ASCII");
+		for (int i=0;i<files;i++) {
+			fileSystem.add(new FileEntry(REMOTE_DIRECTORY+"/data-"+i+".txt", contents));
+		}
+		server = new FakeFtpServer();
+		server.setServerControlPort(0);
+		server.setFileSystem(fileSystem);
+		server.addUserAccount(new UserAccount(USERNAME, PASSWORD, HOME_DIRECTORY));
+		server.start();
+
+		root = BenchmarkUtils.createTempDirectory("ftp");
+		FtpMonitorTaskConfiguration configuration = new FtpMonitorTaskConfiguration("localhost", server.getServerControlPort(), USERNAME, PASSWORD, REMOTE_DIRECTORY, root, new BenchmarkFileProcessor(), null, TimeSpan.createHours(24));
+		configuration.setFtpConnectionPooling(ftpConnectionPooling);
+		task = new BenchmarkFtpMonitoringTask(configuration);
+		task.detecting();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		task.shutdown();
+		FtpConnectionPool.closeAll();
+		server.stop();
+		BenchmarkUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * One poll of the remote directory, all the files is already monitored.
+	 * @return the number of monitored files.
+	 */
+	@Benchmark
+	public int detecting() {
+		task.detecting();
+		return task.size();
+	}
+
+	/**
+	 * Exposes the protected steps of the task to the benchmarks.
+	 */
+	public static class BenchmarkFtpMonitoringTask extends FtpMonitoringTask {
+
+		public BenchmarkFtpMonitoringTask(FtpMonitorTaskConfiguration configuration) throws ValidationException, NullPointerException {
+			super(configuration);
+		}
+
+		@Override
+		public void detecting() {
+			super.detecting();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.heick.io.monitoring.GenericFileChange;
+import dk.heick.io.monitoring.file.FileChange;
+import dk.heick.io.monitoring.file.LockProbeStrategy;
+
+/**
+ * Benchmarks the stability check of a monitored file.
+ * <ul>
+ * 		<li>isStable : the check after an update, do not touch the file system.</li>
+ * 		<li>updateAndIsStable : the in place update and check done by the monitoring step for each file.</li>
+ * 		<li>newInstanceAndIsStable : the previous way, a new instance per run compared to the previous instance.</li>
+ * </ul>
+ * @author Frederik Heick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class GenericFileChangeBenchmark {
+	
+	private final static long STABLE_TIME=1L;
+	
+	@Param({"ALWAYS","WHEN_STABLE","NEVER"})
+	private LockProbeStrategy lockProbeStrategy;
+	
+	private File root;
+	private File file;
+	private GenericFileChange<File> fileChange;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		root = BenchmarkUtils.createTempDirectory("filechange");
+		BenchmarkUtils.createFiles(root, 1, 1024);
+		file = root.listFiles()[0];
+		fileChange = new FileChange(file,lockProbeStrategy);
+		fileChange.update(file);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkUtils.deleteDirectory(root);
+	}
+	
+	@Benchmark
+	public boolean isStable() {
+		return fileChange.isStable(STABLE_TIME);
+	}
+	
+	@Benchmark
+	public boolean updateAndIsStable() {
+		fileChange.update(file);
+		return fileChange.isStable(STABLE_TIME);
+	}
+	
+	@Benchmark
+	public boolean newInstanceAndIsStable() {
+		GenericFileChange<File> current = new FileChange(fileChange);
+		return current.isStable(fileChange,STABLE_TIME);
+	}
+}
@@ -0,0 +1,85 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.heick.io.monitoring.benchmarks.DirectoryMonitorTaskBenchmark.BenchmarkDirectoryMonitorTask;
+import dk.heick.io.monitoring.file.DirectoryMonitorTaskConfiguration;
+import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * Benchmarks the throughput of <tt>MonitorTask.processing()</tt>, in files per second. <br>
+ * Before each invocation {@value #FILES} files is placed in the ".process" directory, the invocation ends when all of them is processed and archived.
+ * The file processor do nothing, so it is the lock files, the moves to archive and the processing threads that is measured.
+ * @author Frederik Heick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class ProcessingBenchmark {
+
+	public final static int FILES=100;
+	private final static long PARK_NANOS=TimeUnit.MICROSECONDS.toNanos(50);
+
+	@Param({"1","4"})
+	private int processingThreads;
+
+	private File root;
+	private BenchmarkFileProcessor fileProcessor;
+	private BenchmarkDirectoryMonitorTask task;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ValidationException {
+		root = BenchmarkUtils.createTempDirectory("processing");
+		fileProcessor = new BenchmarkFileProcessor();
+		DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(root, fileProcessor, new OnlyFilesFileFilter());
+		configuration.setProcessingThreads(processingThreads);
+		task = new BenchmarkDirectoryMonitorTask(configuration);
+	}
+
+	@Setup(Level.Invocation)
+	public void createProcessFiles() throws IOException {
+		BenchmarkUtils.cleanDirectory(task.getConfiguration().getDirectoryArchive());
+		BenchmarkUtils.createFiles(task.getConfiguration().getDirectoryProcess(), FILES, 1024);
+		fileProcessor.reset();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		task.shutdown();
+		BenchmarkUtils.deleteDirectory(root);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FILES)
+	public int processing() {
+		task.processing();
+		//With more than one processing thread, processing returns before the files is processed
+		while ((fileProcessor.getProcessed()<FILES) || (task.getFilesInFlight()>0)) {
+			LockSupport.parkNanos(PARK_NANOS);
+			task.processing();
+		}
+		return fileProcessor.getProcessed();
+	}
+}
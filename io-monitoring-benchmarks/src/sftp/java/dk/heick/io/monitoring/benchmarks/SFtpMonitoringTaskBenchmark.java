@@ -0,0 +1,133 @@
+package dk.heick.io.monitoring.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.heick.io.monitoring.sftp.JSchConnectionPool;
+import dk.heick.io.monitoring.sftp.SFtpMonitorTaskConfiguration;
+import dk.heick.io.monitoring.sftp.SFtpMonitoringTask;
+import dk.heick.io.monitoring.utils.TimeSpan;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * Benchmarks one poll of the remote directory by <tt>SFtpMonitoringTask</tt>, against an embedded Apache SSHD server, 
+ * set up as the <tt>MockSFTPServer</tt> of the sftp tests. <br>
+ * The stable time is so long, that no file is downloaded, so it is the connection and the listing of all the files that is measured.
+ * Only build with the <tt>sftp</tt> profile.
+ * @author Frederik Heick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class SFtpMonitoringTaskBenchmark {
+
+	private final static String USERNAME="benchmark";
+	private final static String PASSWORD="benchmark";
+	private final static String REMOTE_DIRECTORY="/data";
+
+	@Param({"100","1000"})
+	private int files;
+
+	@Param({"false","true"})
+	private boolean sftpSessionPooling;
+
+	private SshServer server;
+	private File serverRoot;
+	private File root;
+	private BenchmarkSFtpMonitoringTask task;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ValidationException {
+		serverRoot = BenchmarkUtils.createTempDirectory("sftp-server");
+		File remoteDirectory = new File(serverRoot,REMOTE_DIRECTORY.substring(1));
+		remoteDirectory.mkdirs();
+		BenchmarkUtils.createFiles(remoteDirectory, files, 1024);
+		server = SshServer.setUpDefaultServer();
+		server.setPort(0);
+		SimpleGeneratorHostKeyProvider keyPairProvider = new SimpleGeneratorHostKeyProvider(new File(serverRoot,"hostkey.ser").toPath());
+		//JSch 0.2.x do not accept ssh-rsa host keys by default
+		keyPairProvider.setAlgorithm(KeyUtils.EC_ALGORITHM);
+		server.setKeyPairProvider(keyPairProvider);
+		server.setPasswordAuthenticator(new PasswordAuthenticator() {
+			@Override
+			public boolean authenticate(String username, String password, ServerSession session) {
+				return USERNAME.equals(username) && PASSWORD.equals(password);
+			}
+		});
+		List<NamedFactory<Command>> subsystemFactories = new ArrayList<NamedFactory<Command>>();
+		subsystemFactories.add(new SftpSubsystemFactory());
+		server.setSubsystemFactories(subsystemFactories);
+		server.setFileSystemFactory(new VirtualFileSystemFactory(serverRoot.toPath()));
+		server.start();
+
+		root = BenchmarkUtils.createTempDirectory("sftp");
+		SFtpMonitorTaskConfiguration configuration = new SFtpMonitorTaskConfiguration("localhost", server.getPort(), USERNAME, PASSWORD, REMOTE_DIRECTORY, root, new BenchmarkFileProcessor(), null, TimeSpan.createHours(24));
+		configuration.setStrictHostKeyChecking(false);
+		configuration.setSFtpSessionPooling(sftpSessionPooling);
+		task = new BenchmarkSFtpMonitoringTask(configuration);
+		task.detecting();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		task.shutdown();
+		JSchConnectionPool.closeAll();
+		server.stop(true);
+		BenchmarkUtils.deleteDirectory(root);
+		BenchmarkUtils.deleteDirectory(serverRoot);
+	}
+
+	/**
+	 * One poll of the remote directory, all the files is already monitored.
+	 * @return the number of monitored files.
+	 */
+	@Benchmark
+	public int detecting() {
+		task.detecting();
+		return task.size();
+	}
+
+	/**
+	 * Exposes the protected steps of the task to the benchmarks.
+	 */
+	public static class BenchmarkSFtpMonitoringTask extends SFtpMonitoringTask {
+
+		public BenchmarkSFtpMonitoringTask(SFtpMonitorTaskConfiguration configuration) throws ValidationException, NullPointerException {
+			super(configuration);
+		}
+
+		@Override
+		public void detecting() {
+			super.detecting();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package dk.heick.io.monitoring;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import dk.heick.io.monitoring.utils.StringUtils;
+
+/**
+ * An append-only journal of failed files, one journal per day in the error directory, instead of an ".errorlog" file per failed file. <br>
+ * A record is a header line with the fields separated by tabs
+ * <pre>
+ * 	[timestamp]	[file name]	[duration]	[exception class]
+ * 		[stacktrace, each line indented with a tab]
+ * </pre>
+ * and ends with an empty line. The offset returned by <tt>append</tt> is the position of the record in the journal,
+ * and it can be read with <tt>readRecord(journal,offset)</tt>.<br>
+ * Next to the journal a sidecar index "errors.journal.idx" is written, with a line per record
+ * <pre>
+ * 	[offset]	[file name]
+ * </pre>
+ * so the record of a file in the error directory can be found with <tt>readOffset(directory,fileName)</tt> after a restart.<br>
+ * The records is buffered, and written to the disk by <tt>flush()</tt>, <tt>close()</tt>, when the buffer is full or when the day changes.
+ * Thread safe.
+ * @author Frederik Heick
+ * @see MonitorTaskConfiguration#isErrorJournal()
+ */
+public class ErrorJournal implements Closeable {
+
+	private final static int BUFFER_SIZE=64*1024;
+	private final static String TIMESTAMP_FORMAT="yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+
+	private File journalFile=null;
+	private OutputStream out=null;
+	private Writer index=null;
+	private long position=0;
+	private SimpleDateFormat timestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+
+	/**
+	 * Constructor.
+	 */
+	public ErrorJournal() {
+		super();
+	}
+
+	/**
+	 * The journal file in a directory.
+	 * @param directory the date sub directory of the error directory.
+	 * @return the journal file.
+	 * @see IOMonitoringConstants#ERROR_JOURNAL_FILE_NAME
+	 */
+	public static final File getJournalFile(File directory) {
+		return new File(directory,IOMonitoringConstants.ERROR_JOURNAL_FILE_NAME);
+	}
+
+	/**
+	 * The index file of the journal in a directory.
+	 * @param directory the date sub directory of the error directory.
+	 * @return the sidecar index file.
+	 * @see IOMonitoringConstants#ARCHIVE_INDEX_EXTENSION
+	 */
+	public static final File getIndexFile(File directory) {
+		return new File(directory,IOMonitoringConstants.ERROR_JOURNAL_FILE_NAME+IOMonitoringConstants.ARCHIVE_INDEX_EXTENSION);
+	}
+
+	/**
+	 * Appends a record for a failed file.
+	 * @param directory the date sub directory of the error directory, if it differs from the previous record the previous journal is closed.
+	 * @param fileName the name of the file in the error directory.
+	 * @param duration the milliseconds the file was processed before it failed, negative if unknown.
+	 * @param exception the exception, can be <code>null</code>.
+	 * @return the offset of the record in the journal.
+	 * @throws IOException if the record could not be written.
+	 */
+	public synchronized long append(File directory,String fileName,long duration,Exception exception) throws IOException {
+		File file = getJournalFile(directory);
+		if (!file.equals(journalFile)) {
+			close();
+			out = new BufferedOutputStream(new FileOutputStream(file,true),BUFFER_SIZE);
+			try {
+				index = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(getIndexFile(directory),true)),StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				out.close();
+				out=null;
+				throw e;
+			}
+			journalFile = file;
+			position = file.length();
+		}
+		StringBuilder record = new StringBuilder(1024);
+		record.append(timestampFormat.format(new Date())).append('\t');
+		record.append(fileName).append('\t');
+		record.append(duration).append('\t');
+		record.append(exception!=null?exception.getClass().getName():"null").append('\n');
+		String stacktrace = exception!=null?StringUtils.getStacktrace(exception):"Exception is null.";
+		for (String line : stacktrace.split("\r?\n")) {
+			if (line.length()>0) {
+				record.append('\t').append(line).append('\n');
+			}
+		}
+		record.append('\n');
+		byte[] bytes = record.toString().getBytes(StandardCharsets.UTF_8);
+		long offset = position;
+		out.write(bytes);
+		position+=bytes.length;
+		index.write(offset+"\t"+fileName+"\n");
+		return offset;
+	}
+
+	/**
+	 * The journal the last record was appended to.
+	 * @return the journal file, <code>null</code> if nothing was appended.
+	 */
+	public synchronized File getJournalFile() {
+		return journalFile;
+	}
+
+	/**
+	 * Writes the buffered records to the journal.
+	 * @throws IOException if the records could not be written.
+	 */
+	public synchronized void flush() throws IOException {
+		if (out!=null) {
+			//The journal before the index, so the index do not point past the journal
+			out.flush();
+			index.flush();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and closes the journal, the next record opens it again.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (out!=null) {
+			try {
+				out.close();
+				index.close();
+			} finally {
+				out=null;
+				index=null;
+				journalFile=null;
+			}
+		}
+	}
+
+	/**
+	 * Reads a record of a journal.
+	 * @param journal the journal file.
+	 * @param offset the offset returned by <tt>append</tt>.
+	 * @return the record, without the ending empty line.
+	 * @throws IOException if the journal could not be read, or there is no record at the offset.
+	 */
+	public static final String readRecord(File journal,long offset) throws IOException {
+		FileInputStream in = new FileInputStream(journal);
+		try {
+			in.getChannel().position(offset);
+			InputStream buffered = new BufferedInputStream(in,BUFFER_SIZE);
+			ByteArrayOutputStream record = new ByteArrayOutputStream(1024);
+			int previous = -1;
+			int b;
+			while ((b=buffered.read())!=-1) {
+				if ((b=='\n') && (previous=='\n')) {
+					break;
+				}
+				record.write(b);
+				previous=b;
+			}
+			if (record.size()==0) {
+				throw new IOException("No record at offset ["+offset+"] in journal ["+journal.getAbsolutePath()+"].");
+			}
+			return new String(record.toByteArray(),StandardCharsets.UTF_8).trim();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Finds the offset of the record of a file in the journal of a directory, by the index.
+	 * @param directory the date sub directory of the error directory.
+	 * @param fileName the name of the file in the error directory.
+	 * @return the offset of the latest record of the file, <code>-1</code> if the file has no record in the index.
+	 * @throws IOException if the index could not be read.
+	 */
+	public static final long readOffset(File directory,String fileName) throws IOException {
+		File indexFile = getIndexFile(directory);
+		long result = -1;
+		if (indexFile.exists()) {
+			for (String line : Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8)) {
+				int tab = line.indexOf('\t');
+				if ((tab>0) && (line.substring(tab+1).equals(fileName))) {
+					result = Long.parseLong(line.substring(0, tab));
+				}
+			}
+		}
+		return result;
+	}
+}
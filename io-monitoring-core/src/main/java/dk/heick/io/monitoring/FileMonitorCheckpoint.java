@@ -0,0 +1,173 @@
+package dk.heick.io.monitoring;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A snapshot of the file monitor on disk, so a restarted task resumes monitoring instead of starting over. <br>
+ * For each monitored file the name, when it was first seen, the modified timestamp, the size and when it was last changed is stored in a compact binary format.
+ * The snapshot is written to a temporary file and moved into place atomically, so a crash while writing leaves the previous snapshot.
+ * A missing or unreadable snapshot is read as empty.
+ * @author Frederik Heick
+ * @see MonitorTaskConfiguration#isCheckpoint()
+ */
+public class FileMonitorCheckpoint {
+
+	private final static int MAGIC=0x494F4D43;
+	private final static int VERSION=1;
+	private final static int BUFFER_SIZE=64*1024;
+
+	private File file;
+	private Logger logger=null;
+
+	/**
+	 * Constructor.
+	 * @param file the snapshot file.
+	 */
+	public FileMonitorCheckpoint(File file) {
+		super();
+		this.file=file;
+	}
+
+	public final File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the snapshot, replacing the previous.
+	 * @param entries the monitored files.
+	 * @throws IOException if the snapshot could not be written, the previous snapshot is kept.
+	 */
+	public void write(Collection<Entry> entries) throws IOException {
+		File temporary = new File(file.getParentFile(),file.getName()+".tmp");
+		FileOutputStream fos = new FileOutputStream(temporary);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos,BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Entry entry : entries) {
+				out.writeUTF(entry.getFileName());
+				out.writeLong(entry.getCreated());
+				out.writeLong(entry.getModified());
+				out.writeLong(entry.getSize());
+				out.writeLong(entry.getLastChecked());
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the snapshot.
+	 * @return the monitored files by file name, empty if there is no snapshot or it could not be read.
+	 */
+	public Map<String,Entry> read() {
+		Map<String,Entry> result = new HashMap<String,Entry>();
+		if (file.isFile()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),BUFFER_SIZE));
+				try {
+					if ((in.readInt()!=MAGIC) || (in.readInt()!=VERSION)) {
+						throw new IOException("Unknown checkpoint format.");
+					}
+					int count = in.readInt();
+					for (int i=0;i<count;i++) {
+						Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+						result.put(entry.getFileName(), entry);
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				getLogger().warn("Unable to read checkpoint ["+file.getAbsolutePath()+"], monitoring starts over. "+e.getMessage());
+				result.clear();
+			}
+		}
+		return result;
+	}
+
+	private Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName());
+		}
+		return logger;
+	}
+
+	/**
+	 * The stored state of a monitored file.
+	 * @author Frederik Heick
+	 * @see GenericFileChange#restore(Entry)
+	 */
+	public static class Entry {
+
+		private String fileName;
+		private long created;
+		private long modified;
+		private long size;
+		private long lastChecked;
+
+		/**
+		 * Constructor.
+		 * @param fileChange the monitored file.
+		 */
+		public Entry(GenericFileChange<?> fileChange) {
+			this(fileChange.getFileName(),fileChange.getCreated(),fileChange.getModified(),fileChange.getSize(),fileChange.getLastChecked());
+		}
+
+		/**
+		 * Constructor.
+		 * @param fileName the file name.
+		 * @param created when the file was first seen.
+		 * @param modified the modified timestamp of the file.
+		 * @param size the size of the file.
+		 * @param lastChecked when the file was last changed.
+		 */
+		public Entry(String fileName,long created,long modified,long size,long lastChecked) {
+			super();
+			this.fileName=fileName;
+			this.created=created;
+			this.modified=modified;
+			this.size=size;
+			this.lastChecked=lastChecked;
+		}
+
+		public final String getFileName() {
+			return fileName;
+		}
+		public final long getCreated() {
+			return created;
+		}
+		public final long getModified() {
+			return modified;
+		}
+		public final long getSize() {
+			return size;
+		}
+		public final long getLastChecked() {
+			return lastChecked;
+		}
+
+		@Override
+		public String toString() {
+			return "Entry [fileName=" + fileName + ", created=" + created + ", modified=" + modified + ", size=" + size + ", lastChecked=" + lastChecked + "]";
+		}
+	}
+}
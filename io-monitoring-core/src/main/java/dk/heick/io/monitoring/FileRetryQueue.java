@@ -0,0 +1,232 @@
+package dk.heick.io.monitoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.heick.io.monitoring.metrics.Gauge;
+import dk.heick.io.monitoring.utils.BackoffPolicy;
+
+/**
+ * Retries failed local file operations on a background thread, so the timer thread do not wait for them. <br>
+ * <ul>
+ * 	<li>A failed operation is submitted after its first attempt, and is tried again after the delays of the <tt>BackoffPolicy</tt>.</li>
+ * 	<li>When the policy has no more attempts, the operation gives up and calls <tt>onGiveUp</tt>, typically the local file error handler.</li>
+ * 	<li>The file of an operation is pending until it succeeds or gives up, so the task can leave it alone in the meantime.</li>
+ * 	<li>The number of queued operations is kept in a <tt>Gauge</tt>.</li>
+ * </ul>
+ * The worker thread is a daemon thread, started by the first submit.
+ * @author Frederik Heick
+ * @see MonitorTaskConfiguration#isFileRetryQueue()
+ */
+public class FileRetryQueue {
+
+	private String name;
+	private BackoffPolicy backoffPolicy;
+	private Gauge depth;
+	private DelayQueue<Retry> queue = new DelayQueue<Retry>();
+	private Set<File> pending = ConcurrentHashMap.newKeySet();
+	private Thread worker=null;
+	private volatile boolean shutdown=false;
+	private Logger logger=null;
+
+	/**
+	 * Constructor.
+	 * @param name the name used for the worker thread, typically the local directory name.
+	 * @param backoffPolicy the delays between the attempts and the max number of attempts, the first attempt is made before the operation is submitted.
+	 * @param depth the gauge set to the number of queued operations, can be <code>null</code>.
+	 */
+	public FileRetryQueue(String name,BackoffPolicy backoffPolicy,Gauge depth) {
+		super();
+		this.name=name;
+		this.backoffPolicy=backoffPolicy;
+		this.depth=depth;
+	}
+
+	/**
+	 * Submits an operation that has failed its first attempt.<br>
+	 * If the policy has no more attempts, or the queue is shut down, the operation gives up at once.
+	 * @param retry the failed operation.
+	 * @param e the exception of the first attempt.
+	 */
+	public void submit(Retry retry,IOException e) {
+		if ((shutdown) || (!backoffPolicy.hasNext(1))) {
+			retry.onGiveUp(e);
+		} else {
+			getLogger().warn("Retrying ["+retry+"] in ["+backoffPolicy.getDelay(1)+"] ms, "+e.getMessage());
+			pending.add(retry.getFile());
+			schedule(retry,1);
+			startWorker();
+		}
+	}
+
+	/**
+	 * If an operation on the file is waiting to be retried.
+	 * @param file the file.
+	 * @return <code>true</code> if pending.
+	 */
+	public boolean isPending(File file) {
+		return pending.contains(file);
+	}
+
+	/**
+	 * The number of queued operations.
+	 * @return the queue depth.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	public final BackoffPolicy getBackoffPolicy() {
+		return backoffPolicy;
+	}
+
+	/**
+	 * Stops the worker thread, the queued operations is not retried. The files is left as they are, and is picked up when the task is initialized again.
+	 */
+	public void shutdown() {
+		shutdown=true;
+		synchronized (this) {
+			if (worker!=null) {
+				worker.interrupt();
+			}
+		}
+		if (queue.size()>0) {
+			getLogger().warn("Shutting down with ["+queue.size()+"] file operations not retried.");
+		}
+		queue.clear();
+		pending.clear();
+		updateDepth();
+	}
+
+	private void schedule(Retry retry,int failedAttempt) {
+		retry.attempt=failedAttempt;
+		retry.time=System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(backoffPolicy.getDelay(failedAttempt));
+		queue.add(retry);
+		updateDepth();
+	}
+
+	private synchronized void startWorker() {
+		if ((worker==null) && (!shutdown)) {
+			worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWorker();
+				}
+			},"io-monitoring-retry-"+name);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void runWorker() {
+		while (!shutdown) {
+			Retry retry = null;
+			try {
+				retry = queue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			updateDepth();
+			int attempt = retry.attempt+1;
+			try {
+				retry.execute();
+				pending.remove(retry.getFile());
+				getLogger().info("Retried ["+retry+"] successfully in attempt ["+attempt+"].");
+				retry.onSuccess();
+			} catch (IOException e) {
+				if ((!shutdown) && (backoffPolicy.hasNext(attempt))) {
+					schedule(retry,attempt);
+				} else {
+					pending.remove(retry.getFile());
+					getLogger().error("Gave up ["+retry+"] after ["+attempt+"] attempts, "+e.getMessage(),e);
+					retry.onGiveUp(e);
+				}
+			} catch (RuntimeException e) {
+				pending.remove(retry.getFile());
+				getLogger().error("Gave up ["+retry+"], "+e.getMessage(),e);
+			}
+		}
+	}
+
+	private void updateDepth() {
+		if (depth!=null) {
+			depth.set(queue.size());
+		}
+	}
+
+	private Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName());
+		}
+		return logger;
+	}
+
+	/**
+	 * A file operation to retry.
+	 * @author Frederik Heick
+	 */
+	public static abstract class Retry implements Delayed {
+
+		private File file;
+		private String description;
+		private volatile int attempt=0;
+		private volatile long time=0;
+
+		/**
+		 * Constructor.
+		 * @param file the file the operation is on, pending until the operation succeeds or gives up.
+		 * @param description the operation, used when logging.
+		 */
+		public Retry(File file,String description) {
+			super();
+			this.file=file;
+			this.description=description;
+		}
+
+		public final File getFile() {
+			return file;
+		}
+
+		/**
+		 * Makes an attempt, called on the worker thread.
+		 * @throws IOException if the attempt failed.
+		 */
+		protected abstract void execute() throws IOException;
+
+		/**
+		 * Called on the worker thread when an attempt has succeeded. Default implementation do nothing.
+		 */
+		protected void onSuccess() {
+			//NOTHING
+		}
+
+		/**
+		 * Called when there is no more attempts.
+		 * @param e the exception of the last attempt.
+		 */
+		protected abstract void onGiveUp(IOException e);
+
+		@Override
+		public final long getDelay(TimeUnit unit) {
+			return unit.convert(time-System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public final int compareTo(Delayed other) {
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package dk.heick.io.monitoring;
 
 /**
- * Abstract class that holds file infomations.
+ * Abstract class that holds file infomations. <br>
+ * The instance kept in the file monitor is updated in place with <tt>update(file)</tt> on every run, 
+ * so monitoring a file do not create a new instance per run.
  * @author Frederik Heick
  * @param <T> the generic file type
  * @version 1.0
@@ -14,6 +16,7 @@ public abstract class GenericFileChange<T> {
 	private long size;
 	private long lastChecked;
 	private boolean locked;
+	private boolean unchanged=false;
 	
 	/**
 	 * Constructor
@@ -21,12 +24,24 @@ public abstract class GenericFileChange<T> {
 	 * @throws NullPointerException if <tt>file</tt> is <code>null</code>.
 	 */
 	public GenericFileChange(T file) throws NullPointerException {
+		this(file,true);
+	}
+	
+	/**
+	 * Constructor for subclasses that need their own fields set before <tt>init(file)</tt> is called, 
+	 * they must call <tt>init(file)</tt> themselves.
+	 * @param file the file instance
+	 * @param initialize if <tt>init(file)</tt> is called.
+	 * @throws NullPointerException if <tt>file</tt> is <code>null</code>.
+	 */
+	protected GenericFileChange(T file,boolean initialize) throws NullPointerException {
 		super();
 		this.file=file;
 		this.created = System.currentTimeMillis();
 		this.lastChecked = System.currentTimeMillis();
-		init(file);
-		
+		if (initialize) {
+			init(file);
+		}
 	}
 	/**
 	 * Constructor.
@@ -34,7 +49,17 @@ public abstract class GenericFileChange<T> {
 	 * @throws NullPointerException if <tt>file</tt> is <code>null</code>.
 	 */
 	public GenericFileChange(GenericFileChange<T> previous) throws NullPointerException {
-		this(previous.getFile());
+		this(previous,previous.getFile());
+	}
+	
+	/**
+	 * Constructor, for remote files where a new file instance is returned by every listing.
+	 * @param previous the previous <tt>GenericFileChange</tt> instance.
+	 * @param file the current file instance.
+	 * @throws NullPointerException if <tt>previous</tt> or <tt>file</tt> is <code>null</code>.
+	 */
+	public GenericFileChange(GenericFileChange<T> previous,T file) throws NullPointerException {
+		this(file);
 		this.created = previous.getCreated();		
 		if (isStable(previous)) {		
 			this.lastChecked = previous.getLastChecked();
@@ -44,6 +69,55 @@ public abstract class GenericFileChange<T> {
 		}			
 	}
 	
+	/**
+	 * Updates this instance in place with the current state of the file. <br>
+	 * If the file exists, is not locked and the modified timestamp and size is the same as before the update, 
+	 * the file is unchanged and last checked is kept, otherwise last checked is set to now.
+	 * @param file the current file instance, for remote files the instance from the latest listing.
+	 * @return <code>true</code> if the file is unchanged since the previous update.
+	 * @see #isStable(long)
+	 */
+	public final boolean update(T file) {
+		long previousModified = getModified();
+		long previousSize = getSize();
+		this.file=file;
+		init(file);
+		unchanged = existsFile() && (getModified()==previousModified) && (getSize()==previousSize) && (!isLocked());
+		if (!unchanged) {
+			this.lastChecked = System.currentTimeMillis();
+		}
+		return unchanged;
+	}
+	
+	/**
+	 * Restores the monitoring state stored before a restart. <br>
+	 * When the file was first seen is always restored, so the monitor timeout counts from then. 
+	 * If the modified timestamp and size is the same as stored, the file has not changed while the task was stopped, 
+	 * and last checked is restored as well, so the file can be stable at the next <tt>update(file)</tt>.
+	 * @param entry the stored state of the file.
+	 * @return <code>true</code> if the file has not changed since the state was stored.
+	 * @see FileMonitorCheckpoint
+	 */
+	protected final boolean restore(FileMonitorCheckpoint.Entry entry) {
+		this.created = Math.min(created, entry.getCreated());
+		if ((getModified()==entry.getModified()) && (getSize()==entry.getSize())) {
+			this.lastChecked = entry.getLastChecked();
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Evaluates if the file is stable, after <tt>update(file)</tt>. Do not create any objects.
+	 * @param stableTime how long the file has to be stable before being deemed to be stable.
+	 * @return <code>true</code> if the file was unchanged by the latest update and has not changed for more than "stableTime" milliseconds, otherwise <code>false</code>.
+	 * @see #update(Object)
+	 */
+	public final boolean isStable(long stableTime) {
+		return unchanged && ((System.currentTimeMillis()-getLastChecked())>stableTime);
+	}
+	
 	/**
 	 * Evaluates if the file is stable.
 	 * @param previous a previous instance of FileChange
@@ -2,6 +2,7 @@ package dk.heick.io.monitoring;
 
 import java.text.SimpleDateFormat;
 
+import dk.heick.io.monitoring.utils.BackoffPolicy;
 import dk.heick.io.monitoring.utils.TimeSpan;
 
 public interface IOMonitoringConstants {
@@ -9,10 +10,17 @@ public interface IOMonitoringConstants {
 	public final static String DIRECTORY_NAME_ARCHIVE=".archive";
 	public final static String DIRECTORY_NAME_ERROR=".error";
 	public final static String DIRECTORY_NAME_PROCESS=".process";
+	public final static String DIRECTORY_NAME_CHECKPOINT=".checkpoint";
+	public final static String CHECKPOINT_FILE_NAME="filemonitor.dat";
+	public final static String DIRECTORY_NAME_ARCHIVE_PENDING=".pending";
+	public final static String ARCHIVE_CONTAINER_EXTENSION=".zip";
+	public final static String ARCHIVE_INDEX_EXTENSION=".idx";
 	public final static String FILE_DATE_FORMAT="yyyyMMdd_HHmmssSSS";
 	public final static String SUBDIRECTORY_DATE_FORMAT="yyyy-MM-dd";
 	public final static String LOCK_FILE_EXTENSION=".lock";
+	public final static String MOVE_FILE_EXTENSION=".moving";
 	public final static String ERROR_FILE_EXTENSION=".errorlog";
+	public final static String ERROR_JOURNAL_FILE_NAME="errors.journal";
 	//
 	public final static SimpleDateFormat FILE_DATE_FORMATTER = new SimpleDateFormat(FILE_DATE_FORMAT);
 	public final static SimpleDateFormat SUB_DIRECTORY_DATE_FORMATTER = new SimpleDateFormat(SUBDIRECTORY_DATE_FORMAT);	
@@ -24,6 +32,17 @@ public interface IOMonitoringConstants {
 	public final static TimeSpan DEFAULT_MONITOR_TIMEOUT=TimeSpan.createHours(1);
 	public final static TimeSpan DEFAULT_LOCK_FILE_TIMEOUT=TimeSpan.createMinutes(20);	
 	public final static TimeSpan DEFAULT_MAX_DELETING_PROCESSING_TIME=TimeSpan.createSeconds(90);
+	public final static TimeSpan DEFAULT_FULL_RESCAN_INTERVAL=TimeSpan.createMinutes(5);
+	public final static int DEFAULT_PROCESSING_THREADS=1;
+	public final static int DEFAULT_REMOTE_DOWNLOAD_THREADS=1;
+	public final static int DEFAULT_REMOTE_DOWNLOADS_PER_HOST=4;
+	public final static BackoffPolicy DEFAULT_FILE_RETRY_POLICY=new BackoffPolicy(8, 1000, 2.0, 60000);
+	public final static TimeSpan DEFAULT_CHECKPOINT_INTERVAL=TimeSpan.createSeconds(10);
+	public final static long DEFAULT_ARCHIVE_CONTAINER_MAX_SIZE=256L*1024L*1024L;
+	public final static TimeSpan DEFAULT_ARCHIVE_CONTAINER_MAX_AGE=TimeSpan.createHours(1);
+	public final static TimeSpan PROCESS_POLL_INTERVAL=TimeSpan.createSeconds(1);
+	public final static TimeSpan PROCESS_RECOVERY_INTERVAL=TimeSpan.createMinutes(1);
+	public final static TimeSpan PROCESS_SHUTDOWN_TIMEOUT=TimeSpan.createSeconds(30);
 	//
 	public final static TimeSpan MIN_STABLE_TIME=TimeSpan.createMilliSeconds(100);
 	public final static TimeSpan MIN_MONITOR_TIMEOUT=TimeSpan.createMinutes(1);
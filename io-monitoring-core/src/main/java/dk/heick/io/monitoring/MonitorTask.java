@@ -4,17 +4,39 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.heick.io.monitoring.archive.ArchiveContainerWriter;
 import dk.heick.io.monitoring.filter.OnlyFilesNoLockFileFilter;
+import dk.heick.io.monitoring.metrics.MetricsRegistry;
+import dk.heick.io.monitoring.metrics.MonitorTaskMetrics;
+import dk.heick.io.monitoring.utils.BackoffPolicy;
 import dk.heick.io.monitoring.utils.FileUtils;
 import dk.heick.io.monitoring.utils.StringUtils;
 import dk.heick.io.monitoring.validation.ValidateUtils;
@@ -33,12 +55,57 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	
 	private Map<FileType,GenericFileChange<FileType>> fileMonitor = Collections.synchronizedMap(new HashMap<FileType,GenericFileChange<FileType>>());
 	private Logger logger;	
+	//
+	private ExecutorService processingExecutor = null;
+	private Semaphore processingPermits = null;
+	private Set<File> processingInFlight = Collections.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+	//
+	private MonitorTaskMetrics metrics = null;
+	private Map<File,GenericFileChange<?>> processFileChanges = new ConcurrentHashMap<File,GenericFileChange<?>>();
+	//
+	private FileRetryQueue fileRetryQueue = null;
+	//
+	private FileMonitorCheckpoint checkpoint = null;
+	private Map<String,FileMonitorCheckpoint.Entry> restoredFileChanges = new ConcurrentHashMap<String,FileMonitorCheckpoint.Entry>();
+	private volatile long lastCheckpoint = 0;
+	//
+	private ArchiveContainerWriter archiveContainerWriter = null;
+	//
+	private ErrorJournal errorJournal = null;
+	//
+	private Queue<File> processQueue = new ConcurrentLinkedQueue<File>();
+	private Set<File> processQueueFiles = Collections.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+	private AtomicInteger processQueueSize = new AtomicInteger(0);
+	private AtomicLong processingRuns = new AtomicLong(0);
+	private volatile Thread processingStage = null;
+	private volatile boolean stagedShutdown = false;
+	private AtomicInteger processingActive = new AtomicInteger(0);
+	private AtomicBoolean componentsClosed = new AtomicBoolean(false);
+	private volatile boolean closeWhenIdle = false;
 
 	public MonitorTask(Configuration configuration) throws NullPointerException, ValidationException {
 		super();		
 		this.configuration=configuration;
 		this.configuration.validate();
+		this.metrics = MetricsRegistry.register(configuration.getMetricsName(),getClass().getSimpleName(),configuration.isMetricsJmx());
+		if (configuration.isFileRetryQueue()) {
+			this.fileRetryQueue = new FileRetryQueue(configuration.getDirectory().getName(),configuration.getFileRetryPolicy(),metrics.getFileRetryQueueGauge());
+		}
+		//Restored before the initialization, so files detected by the initialization is restored too
+		if (configuration.isCheckpoint()) {
+			this.checkpoint = new FileMonitorCheckpoint(new File(configuration.getDirectoryCheckpoint(),IOMonitoringConstants.CHECKPOINT_FILE_NAME));
+			this.restoredFileChanges.putAll(checkpoint.read());
+			this.lastCheckpoint = System.currentTimeMillis();
+			getLogger().info("Restored ["+restoredFileChanges.size()+"] monitored files from checkpoint ["+checkpoint.getFile().getAbsolutePath()+"].");
+		}
 		initialize();
+		if (configuration.isErrorJournal()) {
+			this.errorJournal = new ErrorJournal();
+		}
+		if ((configuration.isArchiving()) && (configuration.isArchiveContainers())) {
+			this.archiveContainerWriter = new ArchiveContainerWriter(configuration.getDirectory().getName(),configuration.getDirectoryArchive(),configuration.getArchiveContainerMaxSize(),configuration.getArchiveContainerMaxAge().getTime());
+			this.archiveContainerWriter.start();
+		}
 	}
 	
 	/**
@@ -47,14 +114,15 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	protected abstract void initialize();
 	
 	/**
-	 * Here you detect new "files" and add them to the FileMonitor
-	 * @see #getFileMonitor()
+	 * Here you detect new "files" and add them to the FileMonitor with <code>addMonitoredFile</code>, and count them with <code>getMetrics().getFilesDetectedCounter()</code>.
+	 * @see #addMonitoredFile(Object, GenericFileChange)
+	 * @see #getMetrics()
 	 */
 	protected abstract void detecting();
 	
 	/**
 	 * Here you monitor the detected "files" and move them to ".process" directory when they are stable
-	 * @see MonitorTask#moveFileToProcess(File)
+	 * @see MonitorTask#moveFileToProcess(File, GenericFileChange)
 	 * @see MonitorTaskConfiguration#getDirectoryProcess()
 	 * @see IOMonitoringConstants#DIRECTORY_NAME_PROCESS
 	 */
@@ -62,49 +130,320 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	
 	/**
 	 * Here you process the stable "files" that has been moved to ".process" directory.
-	 * Generic implementation is provided. 
+	 * Generic implementation is provided. <br>
+	 * If the configuration has more than one processing thread, each file is handed to the processing pool and 
+	 * this method returns without waiting for the files to be processed. At most <tt>maxFilesInFlight</tt> files is 
+	 * handed to the pool, the rest is picked up by the next run.
+	 * @see MonitorTaskConfiguration#getProcessingThreads()
+	 * @see MonitorTaskConfiguration#getMaxFilesInFlight()
 	 */
 	protected void processing() {
 		verboseDebug("Running task - processing");
 		if (getConfiguration().getFileProcessor()!=null) {
 			boolean doNext=true;
 			long processingStart=System.currentTimeMillis();
-			for (File file : getConfiguration().getDirectoryProcess().listFiles(new OnlyFilesNoLockFileFilter())) {		
-				File lockFile = generateLockFile(file);				
-				if ((doNext) && (file.exists()) && (!lockFile.exists())) {	
-					long start = System.currentTimeMillis();
-					Properties context = new Properties();
-					try {										
-						Files.createFile(lockFile.toPath());
-						getConfiguration().getFileProcessor().beforeProcess(context,file);
-						getConfiguration().getFileProcessor().process(context,file);
-						getLogger().info("Processed file ["+file.getName()+"] successfully in ["+(System.currentTimeMillis()-start)+"] ms.");
-						moveFileToArchive(file);
-						doNext = getConfiguration().getFileProcessor().onSuccess(context, start, file) &&
-								 getConfiguration().doContinueProcessing(processingStart);
-												
-						//
-					} catch (Exception e) {																		
-						moveFileToError(file,e);						
-						getLogger().error("File ["+file.getName()+"]  failed in ["+(System.currentTimeMillis()-start)+"] ms and moved to ["+IOMonitoringConstants.DIRECTORY_NAME_ERROR+"] directory, "+e.getMessage(),e);
-						doNext = getConfiguration().getFileProcessor().onError(context,start,file, e) &&
-								 getConfiguration().doContinueProcessing(processingStart);						
-					} finally {		
-						deleteFile(lockFile);											
+			AtomicBoolean doNextConcurrent = new AtomicBoolean(true);
+			File[] files = getConfiguration().getDirectoryProcess().listFiles(new OnlyFilesNoLockFileFilter());
+			getMetrics().getProcessBacklogGauge().set(files.length);
+			removeGoneProcessFileChanges();
+			for (File file : files) {		
+				File lockFile = generateLockFile(file);
+				if ((processingInFlight.contains(file)) || (isFileRetryPending(file))) {
+					continue;
+				} else if ((doNext) && (file.exists()) && (!lockFile.exists())) {
+					if (getConfiguration().isConcurrentProcessing()) {
+						doNext = submitProcessFile(file, lockFile, processingStart, doNextConcurrent);
+					} else {
+						doNext = processFile(file, lockFile, processingStart);
 					}
 				} else if ((file.exists()) && (lockFile.exists()) && (hasLockFileTimedOut(lockFile))) {
-					if (!FileUtils.isFileLocked(file)) {							
-						String msg = String.format("Lock file [%s] for File [%s] is older than [%d] ms, which is lock file timeout.",lockFile.getAbsolutePath(),file.getAbsolutePath(),getConfiguration().getLockFileTimeout());
-						deleteFile(lockFile);							
-						moveFileToError(file, new Exception(msg));
+					onLockFileTimedOut(file, lockFile);
+				}
+			}	
+		}
+	}
+	
+	private void onLockFileTimedOut(File file,File lockFile) {
+		if (!FileUtils.isFileLocked(file)) {							
+			String msg = String.format("Lock file [%s] for File [%s] is older than [%d] ms, which is lock file timeout.",lockFile.getAbsolutePath(),file.getAbsolutePath(),getConfiguration().getLockFileTimeout());
+			deleteFile(lockFile);							
+			processFileChanges.remove(file);
+			moveFileToError(file, new Exception(msg));
+			getMetrics().getFilesErroredCounter().increment();
+		} else {
+			getLogger().error("Lockfile ["+lockFile.getAbsolutePath()+"] has timed out but File ["+file.getAbsolutePath()+"] still seems to be locked.");
+		}
+	}
+	
+	/**
+	 * The processing stage of the staged pipeline, run by its own thread until the task is shut down.<br>
+	 * Files moved to ".process" by <tt>monitoring()</tt> is handed over in a lock-free queue, so the directory is only scanned 
+	 * when the stage starts and every <tt>PROCESS_RECOVERY_INTERVAL</tt>, to pick up files left by a crash and lock files that has timed out.
+	 * Each run starts a new processing window for the max processing time, when <tt>onSuccess</tt> or <tt>onError</tt> returns <code>false</code> 
+	 * or the max processing time is reached, the stage waits for the next run before it continues.
+	 * @see MonitorTaskConfiguration#isStagedPipeline()
+	 */
+	private void runProcessingStage() {
+		long lastRecovery = 0;
+		long run = -1;
+		long processingStart = 0;
+		AtomicBoolean doNextConcurrent = null;
+		boolean doNext = true;
+		while (!stagedShutdown) {
+			if ((System.currentTimeMillis()-lastRecovery)>=IOMonitoringConstants.PROCESS_RECOVERY_INTERVAL.getTime()) {
+				recoverProcessDirectory();
+				lastRecovery = System.currentTimeMillis();
+			}
+			long currentRun = processingRuns.get();
+			if (currentRun!=run) {
+				run = currentRun;
+				processingStart = System.currentTimeMillis();
+				doNextConcurrent = new AtomicBoolean(true);
+				doNext = true;
+			}
+			if (getConfiguration().isConcurrentProcessing()) {
+				doNext = doNextConcurrent.get() && getConfiguration().doContinueProcessing(processingStart);
+			}
+			long start = System.nanoTime();
+			boolean processed = false;
+			File file = null;
+			//Only this thread takes from the queue, so the head is still the peeked file when it is taken
+			while ((doNext) && (!stagedShutdown) && ((file=processQueue.peek())!=null)) {
+				File lockFile = generateLockFile(file);
+				if ((!file.exists()) || (lockFile.exists()) || (processingInFlight.contains(file)) || (isFileRetryPending(file))) {
+					pollProcessQueue();
+				} else if (getConfiguration().isConcurrentProcessing()) {
+					if (submitProcessFile(file, lockFile, processingStart, doNextConcurrent)) {
+						pollProcessQueue();
+						processed = true;
 					} else {
-						getLogger().error("Lockfile ["+lockFile.getAbsolutePath()+"] has timed out but File ["+file.getAbsolutePath()+"] still seems to be locked.");
+						//Out of permits the stage is woken when a file is done, when stopped it waits for the next run
+						break;
 					}
+				} else {
+					pollProcessQueue();
+					doNext = processFile(file, lockFile, processingStart);
+					processed = true;
 				}
-			}	
+			}
+			if (processed) {
+				getMetrics().getProcessDuration().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start));
+			}
+			getMetrics().getProcessBacklogGauge().set(processQueueSize.get());
+			if (!stagedShutdown) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IOMonitoringConstants.PROCESS_POLL_INTERVAL.getTime()));
+			}
+		}
+	}
+	
+	/**
+	 * Hands a file in ".process" to the processing stage, unless it is already queued.
+	 * @param file the file in the ".process" directory.
+	 */
+	private void offerProcessQueue(File file) {
+		if (processQueueFiles.add(file)) {
+			processQueueSize.incrementAndGet();
+			processQueue.offer(file);
+		}
+	}
+	
+	/**
+	 * Takes the head of the queue, only called by the processing stage.
+	 */
+	private void pollProcessQueue() {
+		File file = processQueue.poll();
+		if (file!=null) {
+			processQueueFiles.remove(file);
+			processQueueSize.decrementAndGet();
+		}
+	}
+	
+	private void recoverProcessDirectory() {
+		removeGoneProcessFileChanges();
+		File[] files = getConfiguration().getDirectoryProcess().listFiles(new OnlyFilesNoLockFileFilter());
+		if (files!=null) {
+			for (File file : files) {
+				File lockFile = generateLockFile(file);
+				if ((processingInFlight.contains(file)) || (isFileRetryPending(file))) {
+					continue;
+				} else if (!lockFile.exists()) {
+					offerProcessQueue(file);
+				} else if (hasLockFileTimedOut(lockFile)) {
+					onLockFileTimedOut(file, lockFile);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Removes the monitored files kept for the time to processed metric, where the file is no longer in the ".process" directory, 
+	 * ex. removed by someone else. So the map do not grow with files that is never processed.
+	 */
+	private void removeGoneProcessFileChanges() {
+		if (!processFileChanges.isEmpty()) {
+			Iterator<File> iterator = processFileChanges.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (!iterator.next().exists()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+	
+	private void wakeProcessingStage() {
+		Thread thread = processingStage;
+		if (thread!=null) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	private synchronized void startProcessingStage() {
+		if ((processingStage==null) && (!stagedShutdown)) {
+			processingActive.incrementAndGet();
+			processingStage = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runProcessingStage();
+					} finally {
+						processingExited();
+					}
+				}
+			},"io-monitoring-process-"+getConfiguration().getDirectory().getName());
+			processingStage.setDaemon(true);
+			processingStage.start();
 		}
 	}
 	
+	/**
+	 * Processes one file; creates the lock file, calls the <tt>FileProcessor</tt> and moves the file to archive or error.
+	 * @param file the file in the ".process" directory.
+	 * @param lockFile the lock file for the file.
+	 * @param processingStart when the processing step began.
+	 * @return if the next file should be processed.
+	 */
+	private boolean processFile(File file,File lockFile,long processingStart) {
+		boolean doNext=true;
+		long start = System.currentTimeMillis();
+		Properties context = new Properties();
+		GenericFileChange<?> fileChange = processFileChanges.remove(file);
+		try {										
+			Files.createFile(lockFile.toPath());
+			getConfiguration().getFileProcessor().beforeProcess(context,file);
+			getConfiguration().getFileProcessor().process(context,file);
+			long end = System.currentTimeMillis();
+			getLogger().info("Processed file ["+file.getName()+"] successfully in ["+(end-start)+"] ms.");
+			moveFileToArchive(file);
+			getMetrics().getFilesProcessedCounter().increment();
+			getMetrics().getFileProcessDuration().record(end-start);
+			if (fileChange!=null) {
+				getMetrics().getTimeToProcessed().record(end-fileChange.getCreated());
+			}
+			doNext = getConfiguration().getFileProcessor().onSuccess(context, start, file) &&
+					 getConfiguration().doContinueProcessing(processingStart);
+									
+			//
+		} catch (Exception e) {																		
+			moveFileToError(file,e,System.currentTimeMillis()-start);
+			getMetrics().getFilesErroredCounter().increment();
+			getLogger().error("File ["+file.getName()+"]  failed in ["+(System.currentTimeMillis()-start)+"] ms and moved to ["+IOMonitoringConstants.DIRECTORY_NAME_ERROR+"] directory, "+e.getMessage(),e);
+			doNext = getConfiguration().getFileProcessor().onError(context,start,file, e) &&
+					 getConfiguration().doContinueProcessing(processingStart);						
+		} finally {		
+			deleteFile(lockFile);											
+		}
+		return doNext;
+	}
+	
+	/**
+	 * Hands a file to the processing pool, if less than <tt>maxFilesInFlight</tt> files is being processed.
+	 * @param file the file in the ".process" directory.
+	 * @param lockFile the lock file for the file.
+	 * @param processingStart when the processing step began.
+	 * @param doNext shared between the processing threads, set to <code>false</code> when <tt>onSuccess</tt> or <tt>onError</tt> returns <code>false</code>.
+	 * @return if the next file should be handed to the processing pool.
+	 */
+	private boolean submitProcessFile(final File file,final File lockFile,final long processingStart,final AtomicBoolean doNext) {
+		if ((!doNext.get()) || (!getConfiguration().doContinueProcessing(processingStart))) {
+			return false;
+		} else if (!getProcessingPermits().tryAcquire()) {
+			verboseDebug("Max files in flight ["+getConfiguration().getMaxFilesInFlight()+"] reached, remaining files is processed in the next run.");
+			return false;
+		} else {
+			processingInFlight.add(file);
+			processingActive.incrementAndGet();
+			try {
+				getProcessingExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (!processFile(file, lockFile, processingStart)) {
+								doNext.set(false);
+							}
+						} finally {
+							processingInFlight.remove(file);
+							getProcessingPermits().release();
+							wakeProcessingStage();
+							processingExited();
+						}
+					}
+				});
+				return true;
+			} catch (RejectedExecutionException e) {
+				processingInFlight.remove(file);
+				getProcessingPermits().release();
+				processingExited();
+				getLogger().error("File ["+file.getName()+"] rejected by the processing pool, "+e.getMessage(),e);
+				return false;
+			}
+		}
+	}
+	
+	private synchronized ExecutorService getProcessingExecutor() {
+		if (processingExecutor==null) {
+			ThreadFactory threadFactory = getConfiguration().getProcessingThreadFactory();
+			if (threadFactory==null) {
+				threadFactory = new ProcessingThreadFactory();
+			}
+			//No more threads than files in flight, as the rest would be idle
+			int threads = Math.min(getConfiguration().getProcessingThreads(),getConfiguration().getMaxFilesInFlight());
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(
+					threads, 
+					threads, 
+					60L, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), 
+					threadFactory);
+			executor.allowCoreThreadTimeOut(true);
+			processingExecutor = executor;
+		}
+		return processingExecutor;
+	}
+	
+	private synchronized Semaphore getProcessingPermits() {
+		if (processingPermits==null) {
+			processingPermits = new Semaphore(getConfiguration().getMaxFilesInFlight());
+		}
+		return processingPermits;
+	}
+	
+	/**
+	 * The number of files currently being processed or waiting for a processing thread.
+	 * @return files in flight, always <code>0</code> when not processing concurrently.
+	 */
+	public final int getFilesInFlight() {
+		return processingInFlight.size();
+	}
+	
+	/**
+	 * If a failed move or delete of the local file is waiting in the retry queue, the task must leave the file alone until then.
+	 * @param file the local file.
+	 * @return <code>true</code> if pending, always <code>false</code> when the task has no retry queue.
+	 * @see MonitorTaskConfiguration#isFileRetryQueue()
+	 */
+	public final boolean isFileRetryPending(File file) {
+		return (fileRetryQueue!=null) && (fileRetryQueue.isPending(file));
+	}
+	
 	/**
 	 * Gets the number of monitored files.
 	 * @return monitored files count.
@@ -113,6 +452,15 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 		return fileMonitor.size(); 
 	}
 	
+	/**
+	 * The metrics of the task, recorded on every run.
+	 * @return the metrics.
+	 * @see MetricsRegistry
+	 */
+	public final MonitorTaskMetrics getMetrics() {
+		return metrics;
+	}
+	
 	public final Configuration getConfiguration() {
 		return configuration;
 	}
@@ -125,12 +473,148 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	
 	public final void runTask() {
 		verboseDebug("Running task");
+		long start = System.nanoTime();
+		if (getConfiguration().isStagedPipeline()) {
+			//A new processing window for the stage, the files moved to ".process" by this run is processed in it
+			processingRuns.incrementAndGet();
+		}
 		//STEP 1 - Detect new files
 		detecting();
+		long detected = System.nanoTime();
+		getMetrics().getDetectDuration().record(TimeUnit.NANOSECONDS.toMillis(detected-start));
 		//STEP 2 - move stable files to process directory
 		monitoring();			
-		//STEP 3 - process files that is not being processed		
-		processing();
+		long monitored = System.nanoTime();
+		getMetrics().getMonitorDuration().record(TimeUnit.NANOSECONDS.toMillis(monitored-detected));
+		//STEP 3 - process files that is not being processed, in the staged pipeline by its own thread
+		if (getConfiguration().isStagedPipeline()) {
+			if (getConfiguration().getFileProcessor()!=null) {
+				startProcessingStage();
+				wakeProcessingStage();
+			}
+		} else {
+			processing();
+			getMetrics().getProcessDuration().record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-monitored));
+		}
+		getMetrics().getFilesMonitoredGauge().set(size());
+		getMetrics().getRunsCounter().increment();
+		if ((checkpoint!=null) && ((System.currentTimeMillis()-lastCheckpoint)>=getConfiguration().getCheckpointInterval().getTime())) {
+			checkpoint();
+		}
+		if (errorJournal!=null) {
+			try {
+				errorJournal.flush();
+			} catch (IOException e) {
+				getLogger().error("Unable to write error journal ["+errorJournal.getJournalFile()+"], "+e.getMessage(),e);
+			}
+		}
+	}
+	
+	/**
+	 * Stores the file monitor in the checkpoint now. Called at the end of a run when the checkpoint interval has passed, and by <tt>shutdown()</tt>. <br>
+	 * Files restored from the previous checkpoint that has not been detected again yet is kept in the checkpoint.
+	 * @see MonitorTaskConfiguration#isCheckpoint()
+	 */
+	public final void checkpoint() {
+		if (checkpoint!=null) {
+			long start = System.currentTimeMillis();
+			List<FileMonitorCheckpoint.Entry> entries = new ArrayList<FileMonitorCheckpoint.Entry>(fileMonitor.size()+restoredFileChanges.size());
+			synchronized (fileMonitor) {
+				for (GenericFileChange<FileType> fileChange : fileMonitor.values()) {
+					entries.add(new FileMonitorCheckpoint.Entry(fileChange));
+				}
+			}
+			entries.addAll(restoredFileChanges.values());
+			try {
+				checkpoint.write(entries);
+				verboseDebug("Checkpoint of ["+entries.size()+"] monitored files written in ["+(System.currentTimeMillis()-start)+"] ms.");
+			} catch (IOException e) {
+				getLogger().error("Unable to write checkpoint ["+checkpoint.getFile().getAbsolutePath()+"], "+e.getMessage(),e);
+			}
+			lastCheckpoint = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Releases any resources held by the task, ex. file system watchers or connections.<br>
+	 * Called when the timer running the task is stopped. Default implementation stops the processing stage and the processing pool, 
+	 * the file being processed by the stage and the files already handed to the pool is processed, 
+	 * and waited for up to <tt>PROCESS_SHUTDOWN_TIMEOUT</tt>, before the archive writer, the retry queue and the error journal is closed.
+	 * If they has not stopped by then they are interrupted, and if still running the components is closed when the last of them exits.<br>
+	 * Remember to call <code>super.shutdown()</code> when overriding.
+	 */
+	public void shutdown() {
+		stagedShutdown = true;
+		long timeout = System.currentTimeMillis()+IOMonitoringConstants.PROCESS_SHUTDOWN_TIMEOUT.getTime();
+		Thread stage = processingStage;
+		if ((stage!=null) && (stage!=Thread.currentThread())) {
+			wakeProcessingStage();
+			try {
+				stage.join(Math.max(1, timeout-System.currentTimeMillis()));
+				if (stage.isAlive()) {
+					getLogger().warn("Processing stage did not stop within ["+IOMonitoringConstants.PROCESS_SHUTDOWN_TIMEOUT+"], interrupting it.");
+					stage.interrupt();
+					stage.join(IOMonitoringConstants.PROCESS_POLL_INTERVAL.getTime());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		ExecutorService executor = null;
+		synchronized (this) {
+			executor = processingExecutor;
+		}
+		if (executor!=null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(Math.max(1, timeout-System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+					getLogger().warn("Processing pool did not terminate within ["+IOMonitoringConstants.PROCESS_SHUTDOWN_TIMEOUT+"], interrupting it.");
+					executor.shutdownNow();
+					executor.awaitTermination(IOMonitoringConstants.PROCESS_POLL_INTERVAL.getTime(), TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		checkpoint();
+		MetricsRegistry.unregister(getMetrics());
+		//A file still being processed moves the file and writes the journal, so the components is closed when it is done
+		closeWhenIdle = true;
+		if (processingActive.get()==0) {
+			closeComponents();
+		} else {
+			getLogger().error("["+processingActive.get()+"] processing threads is still running after shutdown, the archive writer, the retry queue and the error journal is closed when they exit.");
+		}
+	}
+	
+	/**
+	 * Called when the processing stage or a file processed by the pool is done, the last one closes the components after a shutdown.
+	 */
+	private void processingExited() {
+		if ((processingActive.decrementAndGet()==0) && (closeWhenIdle)) {
+			closeComponents();
+		}
+	}
+	
+	/**
+	 * Closes the retry queue, the archive writer and the error journal, only once.
+	 */
+	private void closeComponents() {
+		if (componentsClosed.compareAndSet(false, true)) {
+			if (fileRetryQueue!=null) {
+				fileRetryQueue.shutdown();
+			}
+			if (archiveContainerWriter!=null) {
+				archiveContainerWriter.shutdown();
+			}
+			if (errorJournal!=null) {
+				try {
+					errorJournal.close();
+				} catch (IOException e) {
+					getLogger().error("Unable to close error journal, "+e.getMessage(),e);
+				}
+			}
+		}
 	}
 	
 	@Override
@@ -148,62 +632,237 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	public final GenericFileChange<FileType> getMonitoredFile(FileType fileType) {
 		return getFileMonitor().get(fileType);
 	}
+	
+	/**
+	 * Adds a detected file to the file monitor. If the file was monitored before a restart, its state is restored from the checkpoint.
+	 * @param fileType the file.
+	 * @param fileChange the new file change of the file.
+	 * @see GenericFileChange#restore(FileMonitorCheckpoint.Entry)
+	 */
+	protected final void addMonitoredFile(FileType fileType,GenericFileChange<FileType> fileChange) {
+		if (!restoredFileChanges.isEmpty()) {
+			FileMonitorCheckpoint.Entry entry = restoredFileChanges.remove(fileChange.getFileName());
+			if ((entry!=null) && (fileChange.restore(entry))) {
+				verboseDebug("File ["+fileChange.getFileName()+"] is unchanged since the checkpoint, monitoring is resumed.");
+			}
+		}
+		fileMonitor.put(fileType, fileChange);
+	}
+	
+	/**
+	 * Called by the implementation when a detection has seen all the files in the directory. <br>
+	 * Files restored from the checkpoint is removed from it when they are detected again, so the files left 
+	 * after the first complete detection do not exists any more and is dropped from the checkpoint.
+	 */
+	protected final void detectionCompleted() {
+		if (!restoredFileChanges.isEmpty()) {
+			getLogger().info("Dropped ["+restoredFileChanges.size()+"] files restored from the checkpoint, they was not detected again.");
+			restoredFileChanges.clear();
+		}
+	}
+	
+	/**
+	 * Removes the monitored files that is not in the latest listing, in one pass over the monitored files. <br>
+	 * Used by remote tasks to diff the directory listing they already has fetched, instead of asking the server for each monitored file.
+	 * The listing is complete, so it also completes the detection.
+	 * @param listedFileNames the names of all the files in the latest listing.
+	 * @return the number of files removed from monitor.
+	 */
+	protected final int removeUnlistedFiles(Set<String> listedFileNames) {
+		int removed=0;
+		synchronized (fileMonitor) {
+			Iterator<Map.Entry<FileType,GenericFileChange<FileType>>> iterator = fileMonitor.entrySet().iterator();
+			while (iterator.hasNext()) {
+				GenericFileChange<FileType> fileChange = iterator.next().getValue();
+				if (!listedFileNames.contains(fileChange.getFileName())) {
+					getLogger().warn("File ["+fileChange.getFileName()+"] do not exists any more, removed from monitor.");
+					iterator.remove();
+					removed++;
+				}
+			}
+		}
+		detectionCompleted();
+		return removed;
+	}
 
 	protected final void moveFileToInput(File file) {
 		try {
 			verboseDebug("Moving file ["+file.getAbsolutePath()+"] to input folder ["+getConfiguration().getDirectory()+"].");
 			moveFile(file,"",getConfiguration().getDirectory());
 		} catch (IOException e) {
-			getLogger().error(e.getMessage(),e);
-			getConfiguration().getLocalFileErrorHandler().onMoveFileFailure(file, getConfiguration().getDirectory(), e);    			
+			onMoveFileFailure(file, generateMoveFile(file,"",getConfiguration().getDirectory()), e, null);
 		}
 	}
 	protected final void moveFileToProcess(File file) {
+		moveFileToProcess(file,null);
+	}
+	
+	/**
+	 * Moves a stable file to the ".process" directory.
+	 * @param file the local file.
+	 * @param fileChange the monitored file, kept until the file is processed for the time from the file was first seen, can be <code>null</code>.
+	 */
+	protected final void moveFileToProcess(final File file,final GenericFileChange<?> fileChange) {
+		Runnable onMoved = new Runnable() {
+			@Override
+			public void run() {
+				getMetrics().getFilesStabilizedCounter().increment();
+				File processFile = generateMoveFile(file,"",getConfiguration().getDirectoryProcess());
+				if (fileChange!=null) {
+					processFileChanges.put(processFile, fileChange);
+				}
+				if (getConfiguration().isStagedPipeline()) {
+					offerProcessQueue(processFile);
+					wakeProcessingStage();
+				}
+			}
+		};
 		try {
 			verboseDebug("Moving file ["+file.getAbsolutePath()+"] to process folder ["+getConfiguration().getDirectoryProcess()+"].");
 			moveFile(file,"",getConfiguration().getDirectoryProcess());
+			onMoved.run();
 		} catch (IOException e) {
-			getLogger().error(e.getMessage(),e);			
-			getConfiguration().getLocalFileErrorHandler().onMoveFileFailure(file, getConfiguration().getDirectoryProcess(), e);
+			onMoveFileFailure(file, generateMoveFile(file,"",getConfiguration().getDirectoryProcess()), e, onMoved);
 		}
 	}
 	
-	protected final void moveFileToArchive(File file) {
-		if (getConfiguration().isArchiving()) {
+	protected final void moveFileToArchive(final File file) {
+		if ((getConfiguration().isArchiving()) && (archiveContainerWriter!=null)) {
+			File pendingDirectory = archiveContainerWriter.getPendingDirectory();
+			String prefix = getFilenamePrefix(pendingDirectory,file);
+			final File pendingFile = generateMoveFile(file,prefix,pendingDirectory);
+			Runnable onMoved = new Runnable() {
+				@Override
+				public void run() {
+					archiveContainerWriter.submit(pendingFile);
+				}
+			};
+			try {
+				verboseDebug("Moving file ["+file.getAbsolutePath()+"] to archive container folder ["+pendingDirectory+"].");
+				moveFile(file,prefix,pendingDirectory);
+				onMoved.run();
+			} catch (IOException e) {
+				onMoveFileFailure(file, pendingFile, e, onMoved);
+			}
+		} else if (getConfiguration().isArchiving()) {
+			File archiveDirectory = getDirectoryArchiveSubdirectory();
 			try {
-				verboseDebug("Moving file ["+file.getAbsolutePath()+"] to archive folder ["+getDirectoryArchiveSubdirectory()+"].");
-				moveFile(file,"",getDirectoryArchiveSubdirectory());
+				verboseDebug("Moving file ["+file.getAbsolutePath()+"] to archive folder ["+archiveDirectory+"].");
+				moveFile(file,"",archiveDirectory);
 			} catch (IOException e) {
-				getLogger().error(e.getMessage(),e);				
-				getConfiguration().getLocalFileErrorHandler().onMoveFileFailure(file, getDirectoryArchiveSubdirectory(), e);
+				onMoveFileFailure(file, generateMoveFile(file,"",archiveDirectory), e, null);
 			}
 		} else {
 			deleteFile(file);				
 		}
 		
 	}
-	protected final void moveFileToError(File file,Exception e) {		
-		String prefix = getFilenamePrefix(getDirectoryErrorSubdirectory(),file);
-		File errorFile = createErrorFile(file,prefix,e);
-		try {
-			verboseDebug("Moving file ["+file.getAbsolutePath()+"] to error folder ["+getDirectoryErrorSubdirectory()+"].");
-			File fileInErrorFolder = moveFile(file,prefix,getDirectoryErrorSubdirectory());
-			if (getConfiguration().getLocalFileErrorHandler().onMovedToErrorDirectory(file, errorFile, e)==false) {
-				deleteFile(fileInErrorFolder);
-				deleteFile(errorFile);
+	protected final void moveFileToError(final File file,final Exception e) {
+		moveFileToError(file, e, -1);
+	}
+	
+	/**
+	 * Moves a failed file to the error directory, with the exception in an ".errorlog" file or in the error journal.
+	 * @param file the failed file.
+	 * @param e the exception.
+	 * @param duration the milliseconds the file was processed before it failed, negative if unknown.
+	 * @see MonitorTaskConfiguration#isErrorJournal()
+	 */
+	protected final void moveFileToError(final File file,final Exception e,long duration) {
+		File errorDirectory = getDirectoryErrorSubdirectory();
+		String prefix = getFilenamePrefix(errorDirectory,file);
+		final File errorFile = (errorJournal!=null)?appendErrorJournal(errorDirectory,prefix+file.getName(),duration,e):createErrorFile(file,prefix,e);
+		final File fileInErrorFolder = generateMoveFile(file,prefix,errorDirectory);
+		Runnable onMoved = new Runnable() {
+			@Override
+			public void run() {
+				if (getConfiguration().getLocalFileErrorHandler().onMovedToErrorDirectory(file, errorFile, e)==false) {
+					deleteFile(fileInErrorFolder);
+					if (errorJournal==null) {
+						deleteFile(errorFile);
+					}
+				}
 			}
+		};
+		try {
+			verboseDebug("Moving file ["+file.getAbsolutePath()+"] to error folder ["+errorDirectory+"].");
+			moveFile(file,prefix,errorDirectory);
+			onMoved.run();
 		} catch (IOException e2) {
-			getConfiguration().getLocalFileErrorHandler().onMoveFileFailure(file, getDirectoryErrorSubdirectory(), e2);
+			onMoveFileFailure(file, fileInErrorFolder, e2, onMoved);
 		}
 	}
 
-	protected final void deleteFile(File file) {
+	protected final void deleteFile(final File file) {
 		try {
 			verboseDebug("Deleting file ["+file.getAbsolutePath()+"].");
-			FileUtils.deleteFile(file);
+			FileUtils.deleteFile(file,getFileBackoffPolicy());
 		} catch (IOException e) {
+			if (fileRetryQueue==null) {
+				getLogger().error(e.getMessage(),e);
+				getConfiguration().getLocalFileErrorHandler().onDeleteFileFailure(file, e);
+			} else {
+				fileRetryQueue.submit(new FileRetryQueue.Retry(file,"Delete ["+file.getAbsolutePath()+"]") {
+					@Override
+					protected void execute() throws IOException {
+						if (file.exists()) {
+							FileUtils.deleteFile(file,BackoffPolicy.NO_RETRY);
+						}
+					}
+					@Override
+					protected void onGiveUp(IOException e) {
+						getConfiguration().getLocalFileErrorHandler().onDeleteFileFailure(file, e);
+					}
+				}, e);
+			}
+		}
+	}
+	
+	/**
+	 * A failed move is handed to the retry queue, or to the local file error handler if the task has no retry queue.
+	 * @param file the file that was not moved.
+	 * @param newFile the destination.
+	 * @param e the exception.
+	 * @param onMoved what to do when a retry has moved the file, can be <code>null</code>.
+	 */
+	private void onMoveFileFailure(final File file,final File newFile,IOException e,final Runnable onMoved) {
+		if (fileRetryQueue==null) {
 			getLogger().error(e.getMessage(),e);
-			getConfiguration().getLocalFileErrorHandler().onDeleteFileFailure(file, e);
+			getConfiguration().getLocalFileErrorHandler().onMoveFileFailure(file, newFile.getParentFile(), e);
+		} else {
+			fileRetryQueue.submit(new FileRetryQueue.Retry(file,"Move ["+file.getAbsolutePath()+"] to ["+newFile.getAbsolutePath()+"]") {
+				@Override
+				protected void execute() throws IOException {
+					//A source that is gone while the destination exists, has been moved
+					if ((file.exists()) || (!newFile.exists())) {
+						if (!FileUtils.rename(file, newFile, BackoffPolicy.NO_RETRY)) {
+							deleteFile(file);
+						}
+					}
+				}
+				@Override
+				protected void onSuccess() {
+					if (onMoved!=null) {
+						onMoved.run();
+					}
+				}
+				@Override
+				protected void onGiveUp(IOException e) {
+					getConfiguration().getLocalFileErrorHandler().onMoveFileFailure(file, newFile.getParentFile(), e);
+				}
+			}, e);
+		}
+	}
+	
+	/**
+	 * With a retry queue each operation is only tried once on the timer thread, the retries is made by the queue.
+	 * @return the backoff policy for moving and deleting files.
+	 */
+	private BackoffPolicy getFileBackoffPolicy() {
+		if (fileRetryQueue==null) {
+			return getConfiguration().getFileBackoffPolicy();
+		} else {
+			return BackoffPolicy.NO_RETRY;
 		}
 	}
 	
@@ -217,10 +876,27 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	}
 	
 	private final File moveFile(File file,String prefix,File toDirectory) throws IOException {
-		File newFile = new File(toDirectory,prefix+file.getName());		
-		FileUtils.rename(file, newFile);
+		File newFile = generateMoveFile(file,prefix,toDirectory);		
+		if (!FileUtils.rename(file, newFile, getFileBackoffPolicy())) {
+			//Copied to another file system, the source left behind is deleted like any other file
+			deleteFile(file);
+		}
 		return newFile;
 	}
+	private final File generateMoveFile(File file,String prefix,File toDirectory) {
+		return new File(toDirectory,prefix+file.getName());
+	}
+	private final File appendErrorJournal(File errorDirectory,String fileName,long duration,Exception exception) {
+		try {
+			long offset = errorJournal.append(errorDirectory, fileName, duration, exception);
+			File journalFile = ErrorJournal.getJournalFile(errorDirectory);
+			getLogger().info("Error of file ["+fileName+"] is in journal ["+journalFile.getAbsolutePath()+"] at offset ["+offset+"].");
+			return journalFile;
+		} catch (IOException e) {
+			getLogger().error("Error saving error journal infomation of ["+fileName+"] in ["+errorDirectory.getAbsolutePath()+"]",e);
+			return null;
+		}
+	}
 	private final File createErrorFile(File file,String prefix,Exception exception) {
 		File errorFile = generateErrorFile(file,prefix);		
 		FileWriter fileWriter = null;
@@ -297,7 +973,7 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	 * @return
 	 */
 	protected File createDateSubDirectory(File directory) {
-		File result = new File(directory,IOMonitoringConstants.SUB_DIRECTORY_DATE_FORMATTER.format(new Date()));
+		File result = new File(directory,formatDate(IOMonitoringConstants.SUB_DIRECTORY_DATE_FORMATTER,new Date()));
 		if (!result.exists()) {
 			result.mkdir();
 		}
@@ -308,9 +984,31 @@ public abstract class MonitorTask<FileType,Configuration extends MonitorTaskConf
 	protected final String getFilenamePrefix(File toDirectory,File file) {
 		File newFile = new File(toDirectory,file.getName());
 		if (newFile.exists()) {
-			return IOMonitoringConstants.FILE_DATE_FORMATTER.format(new Date())+"_";
+			return formatDate(IOMonitoringConstants.FILE_DATE_FORMATTER,new Date())+"_";
 		} else {
 			return "";
 		}		
 	}
+	
+	/**
+	 * <tt>SimpleDateFormat</tt> is not thread safe, and the formatters in <tt>IOMonitoringConstants</tt> is shared by all tasks and processing threads.
+	 * @param formatter the shared formatter.
+	 * @param date the date to format.
+	 * @return the formatted date.
+	 */
+	private static final String formatDate(SimpleDateFormat formatter,Date date) {
+		synchronized (formatter) {
+			return formatter.format(date);
+		}
+	}
+	
+	class ProcessingThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger(0);
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,"io-monitoring-process-"+getConfiguration().getDirectory().getName()+"-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 }
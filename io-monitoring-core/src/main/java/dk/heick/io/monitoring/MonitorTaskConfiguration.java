@@ -1,10 +1,12 @@
 package dk.heick.io.monitoring;
 
 import java.io.File;
+import java.util.concurrent.ThreadFactory;
 
 import dk.heick.io.monitoring.errorhandler.DefaultMonitorTaskLocalFileErrorHandler;
 import dk.heick.io.monitoring.errorhandler.MonitorTaskLocalFileErrorHandler;
 import dk.heick.io.monitoring.processor.FileProcessor;
+import dk.heick.io.monitoring.utils.BackoffPolicy;
 import dk.heick.io.monitoring.utils.TimeSpan;
 import dk.heick.io.monitoring.validation.ValidateUtils;
 import dk.heick.io.monitoring.validation.Validation;
@@ -22,6 +24,21 @@ import dk.heick.io.monitoring.validation.ValidationException;
  * 		<li>monitorTimeout : IOMonitoringConstants.DEFAULT_MONITOR_TIMEOUT = 1 hour</li>
  * 		<li>lockFileTimeout : IOMonitoringConstants.DEFAULT_LOCK_FILE_TIMEOUT = 20 minutes</li>
  * 		<li>localFileErrorHandler : new DefaultMonitorTaskLocalFileErrorHandler()</li>
+ * 		<li>processingThreads : IOMonitoringConstants.DEFAULT_PROCESSING_THREADS = 1 (files is processed one at a time on the timer thread)</li>
+ * 		<li>maxFilesInFlight : same as processingThreads</li>
+ * 		<li>processingThreadFactory : <code>null</code> (daemon threads)</li>
+ * 		<li>metricsName : <code>null</code> (the absolute path of the directory)</li>
+ * 		<li>metricsJmx : false (the metrics is not registered as an MBean)</li>
+ * 		<li>fileBackoffPolicy : BackoffPolicy.DEFAULT (3 attempts, waiting 10 ms and 20 ms)</li>
+ * 		<li>fileRetryQueue : false (failed file operations is retried on the timer thread with the fileBackoffPolicy)</li>
+ * 		<li>fileRetryPolicy : IOMonitoringConstants.DEFAULT_FILE_RETRY_POLICY = 8 attempts, waiting from 1 second doubling up to 1 minute</li>
+ * 		<li>checkpoint : false (the file monitor is only in memory)</li>
+ * 		<li>checkpointInterval : IOMonitoringConstants.DEFAULT_CHECKPOINT_INTERVAL = 10 seconds</li>
+ * 		<li>archiveContainers : false (each archived file is moved to the archive directory)</li>
+ * 		<li>archiveContainerMaxSize : IOMonitoringConstants.DEFAULT_ARCHIVE_CONTAINER_MAX_SIZE = 256 MB</li>
+ * 		<li>archiveContainerMaxAge : IOMonitoringConstants.DEFAULT_ARCHIVE_CONTAINER_MAX_AGE = 1 hour</li>
+ * 		<li>errorJournal : false (an ".errorlog" file is written per failed file)</li>
+ * 		<li>stagedPipeline : false (detecting, monitoring and processing runs one after another)</li>
  * </ul>
  * @author Frederik Heick
  * @version 1.0
@@ -44,6 +61,21 @@ public abstract class MonitorTaskConfiguration implements Validation {
 	private TimeSpan lockFileTimeout = IOMonitoringConstants.DEFAULT_LOCK_FILE_TIMEOUT;
 	private MonitorTaskLocalFileErrorHandler localFileErrorHandler = new DefaultMonitorTaskLocalFileErrorHandler();
 	private boolean verbose = false;
+	private int processingThreads = IOMonitoringConstants.DEFAULT_PROCESSING_THREADS;
+	private int maxFilesInFlight = 0;
+	private ThreadFactory processingThreadFactory = null;
+	private String metricsName = null;
+	private boolean metricsJmx = false;
+	private BackoffPolicy fileBackoffPolicy = BackoffPolicy.DEFAULT;
+	private boolean fileRetryQueue = false;
+	private BackoffPolicy fileRetryPolicy = IOMonitoringConstants.DEFAULT_FILE_RETRY_POLICY;
+	private boolean checkpoint = false;
+	private TimeSpan checkpointInterval = IOMonitoringConstants.DEFAULT_CHECKPOINT_INTERVAL;
+	private boolean archiveContainers = false;
+	private long archiveContainerMaxSize = IOMonitoringConstants.DEFAULT_ARCHIVE_CONTAINER_MAX_SIZE;
+	private TimeSpan archiveContainerMaxAge = IOMonitoringConstants.DEFAULT_ARCHIVE_CONTAINER_MAX_AGE;
+	private boolean errorJournal = false;
+	private boolean stagedPipeline = false;
 	
 	/**
 	 * Constructor of MonitorTaskConfiguration
@@ -92,6 +124,17 @@ public abstract class MonitorTaskConfiguration implements Validation {
 		if ((!directoryProcess.exists()) && (!directoryProcess.mkdir())) {
 			throw new ValidationException("Unable to create directory ["+directoryProcess.getAbsolutePath()+"].");
 		}
+		if ((isCheckpoint()) && (!getDirectoryCheckpoint().exists()) && (!getDirectoryCheckpoint().mkdir())) {
+			throw new ValidationException("Unable to create directory ["+getDirectoryCheckpoint().getAbsolutePath()+"].");
+		}
+		if (isArchiveContainers()) {
+			ValidateUtils.validateRange("ArchiveContainerMaxSize", getArchiveContainerMaxSize(), 1L, null);
+			ValidateUtils.validateNotNull("ArchiveContainerMaxAge", getArchiveContainerMaxAge());
+			File directoryArchivePending = new File(directoryArchive,IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE_PENDING);
+			if ((!directoryArchivePending.exists()) && (!directoryArchivePending.mkdir())) {
+				throw new ValidationException("Unable to create directory ["+directoryArchivePending.getAbsolutePath()+"].");
+			}
+		}
 	}
 
 	
@@ -114,6 +157,14 @@ public abstract class MonitorTaskConfiguration implements Validation {
 	public final File getDirectoryProcess() {
 		return directoryProcess;
 	}
+	/**
+	 * The directory the file monitor checkpoint is stored in.
+	 * @return the ".checkpoint" directory.
+	 * @see #isCheckpoint()
+	 */
+	public final File getDirectoryCheckpoint() {
+		return new File(directory,IOMonitoringConstants.DIRECTORY_NAME_CHECKPOINT);
+	}
 	public final TimeSpan getStableTime() {
 		return stableTime;
 	}
@@ -142,6 +193,160 @@ public abstract class MonitorTaskConfiguration implements Validation {
 	public boolean isVerbose() {
 		return verbose;
 	}
+	
+	/**
+	 * The number of threads processing files in the <tt>".process"</tt> directory.
+	 * @return the number of processing threads, if <code>1</code> files is processed one at a time on the timer thread.
+	 */
+	public final int getProcessingThreads() {
+		return processingThreads;
+	}
+	
+	/**
+	 * The maximum number of files being processed or waiting to be processed at the same time, when processing concurrently. <br>
+	 * A value less than <tt>processingThreads</tt> is honoured, and limits the files processed at the same time.
+	 * @return max files in flight, if not set the same as <tt>processingThreads</tt>.
+	 * @see #getProcessingThreads()
+	 */
+	public final int getMaxFilesInFlight() {
+		if (maxFilesInFlight>0) {
+			return maxFilesInFlight;
+		} else {
+			return getProcessingThreads();
+		}
+	}
+	
+	/**
+	 * The thread factory used to create the processing threads, ex. <code>Thread.ofVirtual().factory()</code> on a Java runtime with virtual threads.
+	 * @return the thread factory, if <code>null</code> daemon threads is created.
+	 */
+	public final ThreadFactory getProcessingThreadFactory() {
+		return processingThreadFactory;
+	}
+	
+	/**
+	 * The name the metrics of the task is registered with, a "#2", "#3"... suffix is added if the name is used by another task.
+	 * @return the metrics name, if not set the absolute path of the directory.
+	 * @see dk.heick.io.monitoring.metrics.MetricsRegistry
+	 */
+	public final String getMetricsName() {
+		if (metricsName==null) {
+			return getDirectory().getAbsolutePath();
+		} else {
+			return metricsName;
+		}
+	}
+	
+	/**
+	 * If the metrics of the task is registered as an MBean.
+	 * @return <code>true</code> if registered in JMX.
+	 */
+	public final boolean isMetricsJmx() {
+		return metricsJmx;
+	}
+	
+	/**
+	 * How moving and deleting local files is retried, when the move or delete fails.
+	 * @return the backoff policy, if not set <tt>BackoffPolicy.DEFAULT</tt>.
+	 */
+	public final BackoffPolicy getFileBackoffPolicy() {
+		return fileBackoffPolicy;
+	}
+	
+	/**
+	 * If a failed move or delete of a local file is handed to a background retry queue after its first attempt, 
+	 * instead of being retried on the timer thread. The file is left alone by the task while it waits to be retried, 
+	 * and the local file error handler is called when the <tt>fileRetryPolicy</tt> has no more attempts.
+	 * @return <code>true</code> if using a retry queue.
+	 * @see FileRetryQueue
+	 */
+	public final boolean isFileRetryQueue() {
+		return fileRetryQueue;
+	}
+	
+	/**
+	 * The delays and max attempts of the retry queue.
+	 * @return the retry policy.
+	 * @see #isFileRetryQueue()
+	 */
+	public final BackoffPolicy getFileRetryPolicy() {
+		return fileRetryPolicy;
+	}
+	
+	/**
+	 * If the file monitor is stored in the ".checkpoint" directory every <tt>checkpointInterval</tt> and when the task is shut down. <br>
+	 * When the task is created again the stored state is restored to the files as they are detected, 
+	 * so files that has not changed while the task was stopped do not have to wait out the stable time again, and the monitor timeout counts from when the file was first seen.
+	 * @return <code>true</code> if the file monitor is checkpointed.
+	 * @see FileMonitorCheckpoint
+	 */
+	public final boolean isCheckpoint() {
+		return checkpoint;
+	}
+	
+	/**
+	 * How often the file monitor is checkpointed, checked at the end of every run.
+	 * @return the checkpoint interval.
+	 * @see #isCheckpoint()
+	 */
+	public final TimeSpan getCheckpointInterval() {
+		return checkpointInterval;
+	}
+	
+	/**
+	 * If archived files is appended to rolling zip containers in the archive directory, instead of being moved there one by one. <br>
+	 * A processed file is moved to ".archive/.pending" and appended to the container by a background thread.
+	 * @return <code>true</code> if archiving to containers.
+	 * @see dk.heick.io.monitoring.archive.ArchiveContainerWriter
+	 */
+	public final boolean isArchiveContainers() {
+		return archiveContainers;
+	}
+	
+	/**
+	 * The max number of bytes in an archive container, before a new container is started.
+	 * @return the max container size.
+	 */
+	public final long getArchiveContainerMaxSize() {
+		return archiveContainerMaxSize;
+	}
+	
+	/**
+	 * The max time an archive container is appended to, before a new container is started.
+	 * @return the max container age.
+	 */
+	public final TimeSpan getArchiveContainerMaxAge() {
+		return archiveContainerMaxAge;
+	}
+	
+	/**
+	 * If the exceptions of failed files is appended to a journal per day "[yyyy-MM-dd]/errors.journal" in the error directory, instead of an ".errorlog" file per failed file. <br>
+	 * The offset of the record is logged, and written with the name of the file in the error directory to the index "errors.journal.idx" next to the journal.
+	 * @return <code>true</code> if using the error journal.
+	 * @see ErrorJournal
+	 */
+	public final boolean isErrorJournal() {
+		return errorJournal;
+	}
+	
+	/**
+	 * If the processing runs as a stage of its own, instead of after detecting and monitoring in every run. <br>
+	 * A stable file moved to ".process" is handed to the processing stage in an in-memory queue, 
+	 * so a long processing do not delay detecting and monitoring, and ".process" is only scanned to recover files left by a crash.
+	 * @return <code>true</code> if using the staged pipeline.
+	 * @see IOMonitoringConstants#PROCESS_RECOVERY_INTERVAL
+	 */
+	public final boolean isStagedPipeline() {
+		return stagedPipeline;
+	}
+	
+	/**
+	 * If files is processed concurrently by a pool of processing threads.
+	 * @return <code>true</code> if there is more than one processing thread.
+	 */
+	public final boolean isConcurrentProcessing() {
+		return getProcessingThreads()>1;
+	}
 
 	public final MonitorTaskConfiguration setArchiving(boolean archiving) {
 		this.archiving = archiving;
@@ -213,6 +418,111 @@ public abstract class MonitorTaskConfiguration implements Validation {
 		return this;
 	}
 	
+	public final MonitorTaskConfiguration setProcessingThreads(int processingThreads) {
+		if (processingThreads>0) {
+			this.processingThreads = processingThreads;
+		}
+		return this;
+	}
+	public final MonitorTaskConfiguration setMaxFilesInFlight(int maxFilesInFlight) {
+		this.maxFilesInFlight = maxFilesInFlight;
+		return this;
+	}
+	public final MonitorTaskConfiguration setProcessingThreadFactory(ThreadFactory processingThreadFactory) {
+		this.processingThreadFactory = processingThreadFactory;
+		return this;
+	}
+	
+	public final MonitorTaskConfiguration setMetricsName(String metricsName) {
+		this.metricsName = metricsName;
+		return this;
+	}
+	public final MonitorTaskConfiguration setMetricsJmx(boolean metricsJmx) {
+		this.metricsJmx = metricsJmx;
+		return this;
+	}
+	public final MonitorTaskConfiguration withMetricsJmx() {
+		return setMetricsJmx(true);
+	}
+	public final MonitorTaskConfiguration withNoMetricsJmx() {
+		return setMetricsJmx(false);
+	}
+	
+	public final MonitorTaskConfiguration setFileBackoffPolicy(BackoffPolicy fileBackoffPolicy) {
+		ValidateUtils.validateNotNullNotChecked("FileBackoffPolicy", fileBackoffPolicy);
+		this.fileBackoffPolicy = fileBackoffPolicy;
+		return this;
+	}
+	public final MonitorTaskConfiguration setFileRetryQueue(boolean fileRetryQueue) {
+		this.fileRetryQueue = fileRetryQueue;
+		return this;
+	}
+	public final MonitorTaskConfiguration withFileRetryQueue() {
+		return setFileRetryQueue(true);
+	}
+	public final MonitorTaskConfiguration withNoFileRetryQueue() {
+		return setFileRetryQueue(false);
+	}
+	public final MonitorTaskConfiguration setFileRetryPolicy(BackoffPolicy fileRetryPolicy) {
+		ValidateUtils.validateNotNullNotChecked("FileRetryPolicy", fileRetryPolicy);
+		this.fileRetryPolicy = fileRetryPolicy;
+		return this;
+	}
+	public final MonitorTaskConfiguration setCheckpoint(boolean checkpoint) {
+		this.checkpoint = checkpoint;
+		return this;
+	}
+	public final MonitorTaskConfiguration withCheckpoint() {
+		return setCheckpoint(true);
+	}
+	public final MonitorTaskConfiguration withNoCheckpoint() {
+		return setCheckpoint(false);
+	}
+	public final MonitorTaskConfiguration setCheckpointInterval(TimeSpan checkpointInterval) {
+		ValidateUtils.validateNotNullNotChecked("CheckpointInterval", checkpointInterval);
+		this.checkpointInterval = checkpointInterval;
+		return this;
+	}
+	public final MonitorTaskConfiguration setArchiveContainers(boolean archiveContainers) {
+		this.archiveContainers = archiveContainers;
+		return this;
+	}
+	public final MonitorTaskConfiguration withArchiveContainers() {
+		return setArchiveContainers(true);
+	}
+	public final MonitorTaskConfiguration withNoArchiveContainers() {
+		return setArchiveContainers(false);
+	}
+	public final MonitorTaskConfiguration setArchiveContainerMaxSize(long archiveContainerMaxSize) {
+		this.archiveContainerMaxSize = archiveContainerMaxSize;
+		return this;
+	}
+	public final MonitorTaskConfiguration setArchiveContainerMaxAge(TimeSpan archiveContainerMaxAge) {
+		ValidateUtils.validateNotNullNotChecked("ArchiveContainerMaxAge", archiveContainerMaxAge);
+		this.archiveContainerMaxAge = archiveContainerMaxAge;
+		return this;
+	}
+	public final MonitorTaskConfiguration setErrorJournal(boolean errorJournal) {
+		this.errorJournal = errorJournal;
+		return this;
+	}
+	public final MonitorTaskConfiguration withErrorJournal() {
+		return setErrorJournal(true);
+	}
+	public final MonitorTaskConfiguration withNoErrorJournal() {
+		return setErrorJournal(false);
+	}
+	public final MonitorTaskConfiguration setStagedPipeline(boolean stagedPipeline) {
+		this.stagedPipeline = stagedPipeline;
+		return this;
+	}
+	public final MonitorTaskConfiguration withStagedPipeline() {
+		return setStagedPipeline(true);
+	}
+	public final MonitorTaskConfiguration withNoStagedPipeline() {
+		return setStagedPipeline(false);
+	}
+	
 	public MonitorTaskConfiguration withVerbose() {
 		this.verbose = true;
 		return this;
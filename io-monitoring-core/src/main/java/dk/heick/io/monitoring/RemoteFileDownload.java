@@ -0,0 +1,70 @@
+package dk.heick.io.monitoring;
+
+import java.io.File;
+
+/**
+ * The result of downloading a remote file to a local file, by the <tt>RemoteFileDownloader</tt>.
+ * @author Frederik Heick
+ * @param <T> the remote file type
+ * @see RemoteFileDownloader
+ */
+public class RemoteFileDownload<T> {
+	
+	private GenericFileChange<T> fileChange;
+	private File localFile;
+	private long started;
+	private long finished=-1;
+	private Exception exception=null;
+	
+	/**
+	 * Constructor.
+	 * @param fileChange the stable remote file.
+	 * @param localFile the local file to download to.
+	 */
+	public RemoteFileDownload(GenericFileChange<T> fileChange,File localFile) {
+		super();
+		this.fileChange=fileChange;
+		this.localFile=localFile;
+		this.started=System.currentTimeMillis();
+	}
+	
+	public final GenericFileChange<T> getFileChange() {
+		return fileChange;
+	}
+	public final File getLocalFile() {
+		return localFile;
+	}
+	public final long getStarted() {
+		return started;
+	}
+	public final long getFinished() {
+		return finished;
+	}
+	/**
+	 * The exception if the download or the verification of the local file failed.
+	 * @return the exception, or <code>null</code> if the download succeeded.
+	 */
+	public final Exception getException() {
+		return exception;
+	}
+	/**
+	 * If the remote file was downloaded, and the local file verified.
+	 * @return <code>true</code> if success.
+	 */
+	public final boolean isSuccess() {
+		return (finished>=0) && (exception==null);
+	}
+	
+	protected final void setFinished(long finished) {
+		this.finished = finished;
+	}
+	protected final void setException(Exception exception) {
+		this.exception = exception;
+	}
+
+	@Override
+	public String toString() {
+		return "RemoteFileDownload [file=" + fileChange.getFileName() + ", localFile=" + localFile + ", success=" + isSuccess() + ", time=" + (finished-started) + "]";
+	}
+	
+}
@@ -0,0 +1,216 @@
+package dk.heick.io.monitoring;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Download stage for remote monitor tasks, that downloads stable remote files in parallel while the listing continues. <br>
+ * <ul>
+ * 	<li>At most <tt>threads</tt> downloads runs in parallel for the task, each on its own connection.</li>
+ * 	<li>At most <tt>permitsPerHost</tt> downloads runs in parallel against the same host, shared by all tasks in the JVM.</li>
+ * 	<li>The local file is verified against the remote file size when the download is done.</li>
+ * 	<li>The finished downloads is collected by the task with <tt>drainCompleted()</tt>, 
+ * 		so the remote files can be deleted in one batch on the listing connection.</li>
+ * </ul>
+ * @author Frederik Heick
+ * @param <T> the remote file type
+ * @see RemoteFileDownload
+ */
+public abstract class RemoteFileDownloader<T> {
+	
+	private final static ConcurrentMap<String,Semaphore> HOST_PERMITS = new ConcurrentHashMap<String,Semaphore>();
+	
+	private String name;
+	private String hostKey;
+	private int threads;
+	private int permitsPerHost;
+	private ThreadPoolExecutor executor=null;
+	private Set<String> inFlight = ConcurrentHashMap.newKeySet();
+	private Queue<RemoteFileDownload<T>> completed = new ConcurrentLinkedQueue<RemoteFileDownload<T>>();
+	private Logger logger=null;
+	
+	/**
+	 * Gets the shared download permits for a host, the permits is created by the first caller.
+	 * @param hostKey the host key.
+	 * @param permits number of parallel downloads allowed against the host.
+	 * @return the shared permits.
+	 */
+	public static final Semaphore getHostPermits(String hostKey,int permits) {
+		Semaphore semaphore = HOST_PERMITS.get(hostKey);
+		if (semaphore==null) {
+			Semaphore newSemaphore = new Semaphore(permits,true);
+			semaphore = HOST_PERMITS.putIfAbsent(hostKey, newSemaphore);
+			if (semaphore==null) {
+				semaphore = newSemaphore;
+			}
+		}
+		return semaphore;
+	}
+	
+	/**
+	 * Constructor.
+	 * @param name the name used for the download threads, typically the local directory name.
+	 * @param hostKey the host key, typically <tt>host:port</tt>.
+	 * @param threads max number of parallel downloads for this downloader.
+	 * @param permitsPerHost max number of parallel downloads against the host.
+	 */
+	public RemoteFileDownloader(String name,String hostKey,int threads,int permitsPerHost) {
+		super();
+		this.name=name;
+		this.hostKey=hostKey;
+		this.threads=threads;
+		this.permitsPerHost=permitsPerHost;
+	}
+	
+	/**
+	 * Downloads the remote file to the local file, using a connection of its own. Called from a download thread.
+	 * @param remoteFile the remote file.
+	 * @param localFile the local file.
+	 * @throws Exception if the download failed.
+	 */
+	protected abstract void download(T remoteFile,File localFile) throws Exception;
+	
+	/**
+	 * Verifies the local file after the download, the default implementation compares the local file size with the remote file size.
+	 * @param fileChange the remote file.
+	 * @param localFile the local file.
+	 * @throws IOException if the local file is not a verified copy of the remote file.
+	 */
+	protected void verify(GenericFileChange<T> fileChange,File localFile) throws IOException {
+		if (!localFile.exists()) {
+			throw new IOException("Local file ["+localFile.getAbsolutePath()+"] do not exist after download.");
+		} else if ((fileChange.getSize()>=0) && (localFile.length()!=fileChange.getSize())) {
+			throw new IOException("Local file ["+localFile.getAbsolutePath()+"] size ["+localFile.length()+"] do not match remote file size ["+fileChange.getSize()+"].");
+		}
+	}
+	
+	/**
+	 * Submits a stable remote file for download. 
+	 * @param fileChange the stable remote file.
+	 * @param localFile the local file to download to.
+	 * @return <code>true</code> if submitted, <code>false</code> if the file is already being downloaded.
+	 */
+	public boolean submit(GenericFileChange<T> fileChange,File localFile) {
+		if (inFlight.add(fileChange.getFileName())) {
+			final RemoteFileDownload<T> download = new RemoteFileDownload<T>(fileChange,localFile);
+			getExecutor().execute(new Runnable() {				
+				@Override
+				public void run() {
+					runDownload(download);
+				}
+			});
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * Takes the finished downloads, both succeeded and failed. The files is no longer in flight after this call.
+	 * @return the finished downloads, never <code>null</code>.
+	 */
+	public List<RemoteFileDownload<T>> drainCompleted() {
+		List<RemoteFileDownload<T>> result = new ArrayList<RemoteFileDownload<T>>();
+		RemoteFileDownload<T> download = null;
+		while ((download=completed.poll())!=null) {
+			inFlight.remove(download.getFileChange().getFileName());
+			result.add(download);
+		}
+		return result;
+	}
+	
+	/**
+	 * If the remote file is being downloaded, or is downloaded and not yet drained.
+	 * @param fileName the remote file name.
+	 * @return <code>true</code> if in flight.
+	 */
+	public boolean isInFlight(String fileName) {
+		return inFlight.contains(fileName);
+	}
+	
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+	public final int getThreads() {
+		return threads;
+	}
+	public final int getPermitsPerHost() {
+		return permitsPerHost;
+	}
+	public final String getHostKey() {
+		return hostKey;
+	}
+	
+	/**
+	 * Stops the download threads, downloads already started is finished.
+	 */
+	public void shutdown() {
+		if (executor!=null) {
+			executor.shutdown();
+		}
+	}
+	
+	private void runDownload(RemoteFileDownload<T> download) {
+		Semaphore permits = getHostPermits(hostKey, permitsPerHost);
+		try {
+			permits.acquire();
+			try {
+				download(download.getFileChange().getFile(),download.getLocalFile());
+				verify(download.getFileChange(),download.getLocalFile());
+			} finally {
+				permits.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			download.setException(e);
+		} catch (Exception e) {
+			download.setException(e);
+		} finally {
+			download.setFinished(System.currentTimeMillis());
+			completed.add(download);
+			getLogger().debug(download.toString());
+		}
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor==null) {
+			executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DownloadThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+	private Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName()+"["+name+"]");
+		}
+		return logger;
+	}
+	
+	class DownloadThreadFactory implements ThreadFactory {
+		private AtomicInteger count = new AtomicInteger(0);
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,"io-monitoring-download-"+name+"-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
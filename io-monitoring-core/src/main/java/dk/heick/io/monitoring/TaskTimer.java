@@ -1,11 +1,13 @@
 package dk.heick.io.monitoring;
 
-import java.util.Timer;
-
+/**
+ * A timer that runs tasks periodically.
+ * @author Frederik Heick
+ * @see dk.heick.io.monitoring.timer.MonitorTaskTimer
+ * @see dk.heick.io.monitoring.timer.ScheduledMonitorTaskTimer
+ */
 public interface TaskTimer {
 	
-	public Timer getTimer();
-	
 	public void cancelAll();
 		
 	public void stop();
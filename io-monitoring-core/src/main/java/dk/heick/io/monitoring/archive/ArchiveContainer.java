@@ -0,0 +1,318 @@
+package dk.heick.io.monitoring.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import dk.heick.io.monitoring.IOMonitoringConstants;
+
+/**
+ * A zip container that archived files is appended to, each file is compressed as its own entry. <br>
+ * Next to the container a sidecar index "[container].idx" is written, with a line per entry
+ * <pre>
+ * 	[offset]	[size]	[compressed size]	[modified]	[entry name]
+ * </pre>
+ * separated by tabs, where offset is the position of the entry in the container.
+ * An entry can be read with <tt>readEntry(container,offset)</tt> without reading the rest of the container, even before the container is closed.<br>
+ * The container is a valid zip file when it is closed, also after a failed append, as the partial entry is then cut off when closing. 
+ * Not thread safe, used by one thread at a time.
+ * @author Frederik Heick
+ * @see ArchiveContainerWriter
+ */
+public class ArchiveContainer implements Closeable {
+
+	private final static int BUFFER_SIZE=64*1024;
+	private final static long MAX_UNSIGNED_INT=0xFFFFFFFFL;
+	private final static int MAX_UNSIGNED_SHORT=0xFFFF;
+
+	private File file;
+	private File indexFile;
+	private long created;
+	private FileOutputStream fileOutput;
+	private CountingOutputStream counter;
+	private ZipOutputStream zip;
+	private Writer index;
+	private Set<String> entryNames = new HashSet<String>();
+	private List<ZipEntry> entries = new ArrayList<ZipEntry>();
+	private List<Long> offsets = new ArrayList<Long>();
+	private long failedOffset=-1;
+
+	/**
+	 * Creates a new container.
+	 * @param file the container file, must not exist.
+	 * @throws IOException if the container or index could not be created.
+	 */
+	public ArchiveContainer(File file) throws IOException {
+		super();
+		if (file.exists()) {
+			throw new IOException("Container ["+file.getAbsolutePath()+"] already exists.");
+		}
+		this.file=file;
+		this.indexFile=getIndexFile(file);
+		this.created=System.currentTimeMillis();
+		this.fileOutput=new FileOutputStream(file);
+		this.counter=new CountingOutputStream(new BufferedOutputStream(fileOutput,BUFFER_SIZE));
+		this.zip=new ZipOutputStream(counter);
+		try {
+			this.index=new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(indexFile)),StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			zip.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The index file of a container.
+	 * @param container the container file.
+	 * @return the sidecar index file.
+	 */
+	public static final File getIndexFile(File container) {
+		return new File(container.getParentFile(),container.getName()+IOMonitoringConstants.ARCHIVE_INDEX_EXTENSION);
+	}
+
+	/**
+	 * Reads an entry of a container, by the offset in the index.
+	 * @param container the container file.
+	 * @param offset the offset of the entry.
+	 * @return the uncompressed content of the entry, must be closed.
+	 * @throws IOException if there is no entry at the offset.
+	 */
+	public static final InputStream readEntry(File container,long offset) throws IOException {
+		FileInputStream fis = new FileInputStream(container);
+		try {
+			fis.getChannel().position(offset);
+			ZipInputStream in = new ZipInputStream(new BufferedInputStream(fis,BUFFER_SIZE));
+			if (in.getNextEntry()==null) {
+				throw new IOException("No entry at offset ["+offset+"] in container ["+container.getAbsolutePath()+"].");
+			}
+			return in;
+		} catch (IOException e) {
+			fis.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends a file to the container, and the entry to the index.<br>
+	 * If the container already has an entry with the name, the name is prefixed with a timestamp.
+	 * @param source the file to append.
+	 * @return the offset of the entry.
+	 * @throws IOException if the file could not be appended, the container must be closed and not used any more, 
+	 * the partial entry is cut off by <tt>close()</tt>.
+	 */
+	public long append(File source) throws IOException {
+		if (failedOffset>=0) {
+			throw new IOException("Container ["+file.getAbsolutePath()+"] has a failed entry, and must be closed.");
+		}
+		String name = source.getName();
+		if (entryNames.contains(name)) {
+			name = System.currentTimeMillis()+"_"+entryNames.size()+"_"+name;
+		}
+		long offset = counter.getCount();
+		ZipEntry entry = new ZipEntry(name);
+		entry.setTime(source.lastModified());
+		try {
+			zip.putNextEntry(entry);
+			Files.copy(source.toPath(), zip);
+			zip.closeEntry();
+			zip.flush();
+		} catch (IOException e) {
+			failedOffset=offset;
+			throw e;
+		}
+		entryNames.add(name);
+		entries.add(entry);
+		offsets.add(offset);
+		index.write(offset+"\t"+entry.getSize()+"\t"+entry.getCompressedSize()+"\t"+entry.getTime()+"\t"+name+"\n");
+		index.flush();
+		return offset;
+	}
+
+	/**
+	 * The number of bytes written to the container.
+	 * @return the container size.
+	 */
+	public long size() {
+		return counter.getCount();
+	}
+
+	/**
+	 * The number of entries in the container.
+	 * @return the entry count.
+	 */
+	public int getEntryCount() {
+		return entryNames.size();
+	}
+
+	/**
+	 * When the container was created.
+	 * @return the created timestamp.
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public final File getFile() {
+		return file;
+	}
+
+	public final File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * Finishes the zip file and closes the container and index. <br>
+	 * If an append has failed, the container is truncated to the end of the last complete entry and the central directory 
+	 * is written for the complete entries only, so the partial entry is not finished into the container.
+	 * @see #append(File)
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (failedOffset>=0) {
+				closeTruncated();
+			} else {
+				zip.close();
+			}
+		} finally {
+			index.close();
+		}
+	}
+	
+	/**
+	 * Cuts off the partial entry, the complete entries is already flushed to the file by <tt>append(source)</tt>. 
+	 * The zip stream is not closed, as it would finish the partial entry.
+	 * @throws IOException if the container could not be truncated, or is too large for a zip file without the zip64 extensions.
+	 */
+	private void closeTruncated() throws IOException {
+		try {
+			if ((failedOffset>MAX_UNSIGNED_INT) || (entries.size()>=MAX_UNSIGNED_SHORT) || (hasLargeEntry())) {
+				throw new IOException("Container ["+file.getAbsolutePath()+"] is too large to cut off the failed entry at offset ["+failedOffset+"].");
+			}
+			fileOutput.getChannel().truncate(failedOffset);
+			fileOutput.getChannel().position(failedOffset);
+			LittleEndianOutputStream out = new LittleEndianOutputStream(new BufferedOutputStream(fileOutput,BUFFER_SIZE));
+			for (int i=0;i<entries.size();i++) {
+				ZipEntry entry = entries.get(i);
+				byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+				//Central file header, as written by ZipOutputStream for a deflated entry with a data descriptor and an UTF-8 name
+				out.writeInt(0x02014b50);
+				out.writeShort(20);
+				out.writeShort(20);
+				out.writeShort(0x0808);
+				out.writeShort(ZipEntry.DEFLATED);
+				out.writeInt(toDosTime(entry.getTime()));
+				out.writeInt(entry.getCrc());
+				out.writeInt(entry.getCompressedSize());
+				out.writeInt(entry.getSize());
+				out.writeShort(name.length);
+				out.writeShort(0);
+				out.writeShort(0);
+				out.writeShort(0);
+				out.writeShort(0);
+				out.writeInt(0);
+				out.writeInt(offsets.get(i));
+				out.write(name);
+			}
+			long centralDirectorySize = out.getCount();
+			//End of central directory
+			out.writeInt(0x06054b50);
+			out.writeShort(0);
+			out.writeShort(0);
+			out.writeShort(entries.size());
+			out.writeShort(entries.size());
+			out.writeInt(centralDirectorySize);
+			out.writeInt(failedOffset);
+			out.writeShort(0);
+			out.flush();
+		} finally {
+			fileOutput.close();
+		}
+	}
+	
+	private boolean hasLargeEntry() {
+		for (ZipEntry entry : entries) {
+			if ((entry.getSize()>=MAX_UNSIGNED_INT) || (entry.getCompressedSize()>=MAX_UNSIGNED_INT)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year<1980) {
+			//1980-01-01 00:00:00
+			return (1<<21) | (1<<16);
+		} else {
+			return ((year-1980)<<25) | ((calendar.get(Calendar.MONTH)+1)<<21) | (calendar.get(Calendar.DAY_OF_MONTH)<<16) | 
+				   (calendar.get(Calendar.HOUR_OF_DAY)<<11) | (calendar.get(Calendar.MINUTE)<<5) | (calendar.get(Calendar.SECOND)>>1);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ArchiveContainer [file=" + file + ", entries=" + entryNames.size() + ", size=" + size() + "]";
+	}
+
+	/**
+	 * Counts the bytes written, which is the offset of the next entry.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count=0;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		@Override
+		public void write(byte[] b,int off,int len) throws IOException {
+			out.write(b, off, len);
+			count+=len;
+		}
+		long getCount() {
+			return count;
+		}
+	}
+	
+	/**
+	 * Writes the little endian values of the zip format.
+	 */
+	private static class LittleEndianOutputStream extends CountingOutputStream {
+		LittleEndianOutputStream(OutputStream out) {
+			super(out);
+		}
+		void writeShort(int value) throws IOException {
+			write(value & 0xFF);
+			write((value >>> 8) & 0xFF);
+		}
+		void writeInt(long value) throws IOException {
+			writeShort((int)(value & 0xFFFF));
+			writeShort((int)((value >>> 16) & 0xFFFF));
+		}
+	}
+}
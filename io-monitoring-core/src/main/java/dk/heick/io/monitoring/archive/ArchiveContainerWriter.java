@@ -0,0 +1,252 @@
+package dk.heick.io.monitoring.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.heick.io.monitoring.IOMonitoringConstants;
+import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
+import dk.heick.io.monitoring.utils.FileLastModifiedComparator;
+import dk.heick.io.monitoring.utils.FileUtils;
+
+/**
+ * Appends archived files to rolling <tt>ArchiveContainer</tt>s on a background thread, so processing is not slowed by the compression. <br>
+ * <ul>
+ * 	<li>The task moves a processed file to the ".archive/.pending" directory and submits it, the file is deleted when it is appended to a container.</li>
+ * 	<li>The containers is created in the date sub directory of ".archive" as "archive_[yyyyMMdd_HHmmssSSS].zip".</li>
+ * 	<li>A container is closed and a new one started, when it reaches the max size, the max age or the date changes.</li>
+ * 	<li>A file that could not be appended is submitted again after the retry delay, until it is appended or the writer is shut down.</li>
+ * 	<li>Files left in the ".archive/.pending" directory by a shutdown or a failure is appended when the writer is started again.</li>
+ * </ul>
+ * @author Frederik Heick
+ * @see ArchiveContainer
+ * @see dk.heick.io.monitoring.MonitorTaskConfiguration#isArchiveContainers()
+ */
+public class ArchiveContainerWriter {
+
+	private final static long POLL_MILLISECONDS=1000;
+	private final static long SHUTDOWN_MILLISECONDS=30000;
+	public final static long DEFAULT_RETRY_MILLISECONDS=60000;
+
+	private String name;
+	private File archiveDirectory;
+	private File pendingDirectory;
+	private long maxSize;
+	private long maxAge;
+	private long retryDelay;
+	private BlockingQueue<File> queue = new LinkedBlockingQueue<File>();
+	private Map<File,Long> retries = new LinkedHashMap<File,Long>();
+	private Thread worker=null;
+	private volatile boolean shutdown=false;
+	private ArchiveContainer container=null;
+	private String containerDate=null;
+	private SimpleDateFormat dateFormat = new SimpleDateFormat(IOMonitoringConstants.SUBDIRECTORY_DATE_FORMAT);
+	private SimpleDateFormat fileDateFormat = new SimpleDateFormat(IOMonitoringConstants.FILE_DATE_FORMAT);
+	private Logger logger=null;
+
+	/**
+	 * Constructor.
+	 * @param name the name used for the worker thread, typically the local directory name.
+	 * @param archiveDirectory the ".archive" directory.
+	 * @param maxSize the max number of bytes in a container, before a new is started.
+	 * @param maxAge the max number of milliseconds a container is open, before a new is started.
+	 */
+	public ArchiveContainerWriter(String name,File archiveDirectory,long maxSize,long maxAge) {
+		this(name,archiveDirectory,maxSize,maxAge,DEFAULT_RETRY_MILLISECONDS);
+	}
+
+	/**
+	 * Constructor.
+	 * @param name the name used for the worker thread, typically the local directory name.
+	 * @param archiveDirectory the ".archive" directory.
+	 * @param maxSize the max number of bytes in a container, before a new is started.
+	 * @param maxAge the max number of milliseconds a container is open, before a new is started.
+	 * @param retryDelay the number of milliseconds before a file that could not be appended is submitted again.
+	 */
+	public ArchiveContainerWriter(String name,File archiveDirectory,long maxSize,long maxAge,long retryDelay) {
+		super();
+		this.name=name;
+		this.archiveDirectory=archiveDirectory;
+		this.pendingDirectory=new File(archiveDirectory,IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE_PENDING);
+		this.maxSize=maxSize;
+		this.maxAge=maxAge;
+		this.retryDelay=retryDelay;
+	}
+
+	/**
+	 * The directory processed files is moved to, before they is appended to a container.
+	 * @return the ".archive/.pending" directory.
+	 */
+	public final File getPendingDirectory() {
+		return pendingDirectory;
+	}
+
+	/**
+	 * Submits the files left in the pending directory, oldest first, and starts the worker thread.
+	 */
+	public synchronized void start() {
+		if ((worker==null) && (!shutdown)) {
+			File[] files = pendingDirectory.listFiles(new OnlyFilesFileFilter());
+			if (files!=null) {
+				Arrays.sort(files, new FileLastModifiedComparator());
+				queue.addAll(Arrays.asList(files));
+				if (files.length>0) {
+					getLogger().info("Archiving ["+files.length+"] files left in ["+pendingDirectory.getAbsolutePath()+"].");
+				}
+			}
+			worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWorker();
+				}
+			},"io-monitoring-archive-"+name);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Submits a file in the pending directory to be appended to the current container.
+	 * @param pendingFile the file.
+	 */
+	public void submit(File pendingFile) {
+		queue.add(pendingFile);
+	}
+
+	/**
+	 * The number of files waiting to be appended, not counting the files waiting to be retried.
+	 * @return the queue size.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops the worker thread when the file being appended is done, and closes the container.
+	 * Files not yet appended is left in the pending directory.
+	 */
+	public void shutdown() {
+		shutdown=true;
+		Thread thread = null;
+		synchronized (this) {
+			thread = worker;
+		}
+		if (thread!=null) {
+			try {
+				thread.join(SHUTDOWN_MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void runWorker() {
+		while (!shutdown) {
+			try {
+				File file = queue.poll(POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+				if (file!=null) {
+					append(file);
+				}
+				submitRetries();
+				if ((container!=null) && (isRollDue())) {
+					closeContainer();
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		closeContainer();
+	}
+
+	private void append(File file) {
+		if (file.exists()) {
+			try {
+				if ((container!=null) && (isRollDue())) {
+					closeContainer();
+				}
+				if (container==null) {
+					container = createContainer();
+				}
+				container.append(file);
+			} catch (IOException e) {
+				getLogger().error("Unable to archive ["+file.getAbsolutePath()+"] in ["+container+"], it is left in ["+pendingDirectory.getAbsolutePath()+"] and retried in ["+retryDelay+"] ms. "+e.getMessage(),e);
+				//The partial entry is cut off when closing, so the file is only in the container it is appended to on the retry
+				closeContainer();
+				retries.put(file, System.currentTimeMillis()+retryDelay);
+				return;
+			}
+			try {
+				FileUtils.deleteFile(file);
+			} catch (IOException e) {
+				//Not retried, as it would be appended again
+				getLogger().error("Unable to delete archived ["+file.getAbsolutePath()+"], it is left in ["+pendingDirectory.getAbsolutePath()+"]. "+e.getMessage(),e);
+			}
+		}
+	}
+
+	/**
+	 * Submits the files that could not be appended, when their retry delay has passed. Only used by the worker thread.
+	 */
+	private void submitRetries() {
+		if (!retries.isEmpty()) {
+			long now = System.currentTimeMillis();
+			Iterator<Map.Entry<File,Long>> iterator = retries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<File,Long> retry = iterator.next();
+				if (retry.getValue()<=now) {
+					iterator.remove();
+					queue.add(retry.getKey());
+				}
+			}
+		}
+	}
+
+	private boolean isRollDue() {
+		return (container.size()>=maxSize) ||
+			   ((System.currentTimeMillis()-container.getCreated())>=maxAge) ||
+			   (!dateFormat.format(new Date()).equals(containerDate));
+	}
+
+	private ArchiveContainer createContainer() throws IOException {
+		Date now = new Date();
+		containerDate = dateFormat.format(now);
+		File directory = new File(archiveDirectory,containerDate);
+		FileUtils.createDirectory(directory);
+		String baseName = "archive_"+fileDateFormat.format(now);
+		File file = new File(directory,baseName+IOMonitoringConstants.ARCHIVE_CONTAINER_EXTENSION);
+		for (int i=1;file.exists();i++) {
+			file = new File(directory,baseName+"_"+i+IOMonitoringConstants.ARCHIVE_CONTAINER_EXTENSION);
+		}
+		getLogger().info("Archiving to container ["+file.getAbsolutePath()+"].");
+		return new ArchiveContainer(file);
+	}
+
+	private void closeContainer() {
+		if (container!=null) {
+			try {
+				container.close();
+			} catch (IOException e) {
+				getLogger().error("Unable to close container ["+container.getFile().getAbsolutePath()+"]. "+e.getMessage(),e);
+			}
+			container=null;
+		}
+	}
+
+	private Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName());
+		}
+		return logger;
+	}
+}
@@ -2,6 +2,10 @@ package dk.heick.io.monitoring.cleanup;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import dk.heick.io.monitoring.IOMonitoringConstants;
 import dk.heick.io.monitoring.MonitorTaskConfiguration;
@@ -24,6 +28,14 @@ import dk.heick.io.monitoring.validation.ValidationException;
  * 		<li>deleteEmptyDirectories : true</li>
  * 		<li>maxDepth : -1 (no max depth)</li>
  * 		<li>enabled : true</li>
+ * 		<li>cleanupThreads : IOCleanupConstants.DEFAULT_CLEANUP_THREADS = 1</li>
+ * 		<li>partitionRetention : false (cleanupArchive and cleanupError sets it to true)</li>
+ * 		<li>resumable : true</li>
+ * 		<li>cursorFile : <code>null</code> (the cursor is only in memory)</li>
+ * 		<li>maxSize : IOCleanupConstants.NO_QUOTA = -1 (no size quota)</li>
+ * 		<li>minFreeSpacePercent : IOCleanupConstants.NO_QUOTA = -1 (no free space watermark)</li>
+ * 		<li>diskPressureCheckPeriod : IOCleanupConstants.DEFAULT_DISK_PRESSURE_CHECK_PERIOD = 1 minute</li>
+ * 		<li>excludedDirectories : none (cleanupArchive excludes ".archive/.pending")</li>
  * </ul>
  * @author Frederik Heick
  * @version 1.0
@@ -39,14 +51,24 @@ public class DirectoryCleanupConfiguration implements Validation {
 	private boolean deleteEmptyDirectories=true;
 	private int maxDepth=-1;
 	private boolean enabled=true;
+	private int cleanupThreads=IOCleanupConstants.DEFAULT_CLEANUP_THREADS;
+	private boolean partitionRetention=false;
+	private boolean resumable=true;
+	private File cursorFile=null;
+	private long maxSize=IOCleanupConstants.NO_QUOTA;
+	private double minFreeSpacePercent=IOCleanupConstants.NO_QUOTA;
+	private TimeSpan diskPressureCheckPeriod=IOCleanupConstants.DEFAULT_DISK_PRESSURE_CHECK_PERIOD;
+	private Set<Path> excludedDirectories = new HashSet<Path>();
 	private DirectoryCleanupErrorHandler errorHandler = new DefaultDirectoryCleanupErrorHandler();
 	
 	
 	public final static DirectoryCleanupConfiguration cleanupArchive(MonitorTaskConfiguration monitorTask,int keepContentTimeInDays) {
-		DirectoryCleanupConfiguration result = new DirectoryCleanupConfiguration(monitorTask.getDirectoryError());
+		DirectoryCleanupConfiguration result = new DirectoryCleanupConfiguration(monitorTask.getDirectoryArchive());
 		result.setKeepContentTime(TimeSpan.createDays(keepContentTimeInDays))
 			  .setDeleteEmptyDirectories(true)
 			  .setMaxDepth(1)
+			  .setPartitionRetention(true)
+			  .addExcludedDirectory(new File(monitorTask.getDirectoryArchive(),IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE_PENDING))
 			  .setBasedOnMonitorTask(true);
 		return result;		
 	}
@@ -56,6 +78,7 @@ public class DirectoryCleanupConfiguration implements Validation {
 		result.setKeepContentTime(TimeSpan.createDays(keepContentTimeInDays))
 			  .setDeleteEmptyDirectories(true)
 			  .setMaxDepth(1)
+			  .setPartitionRetention(true)
 			  .setBasedOnMonitorTask(true);
 		return result;		
 	}
@@ -71,6 +94,12 @@ public class DirectoryCleanupConfiguration implements Validation {
 		ValidateUtils.validateDirectory("Directory", getDirectory());
 		ValidateUtils.validateNotNull("FileFilter", getFilter());
 		ValidateUtils.validateNotNull("KeepContentTime", getKeepContentTime());		
+		ValidateUtils.validateRange("CleanupThreads", getCleanupThreads(), 1, null);
+		ValidateUtils.validateRange("MinFreeSpacePercent", getMinFreeSpacePercent(), (double)IOCleanupConstants.NO_QUOTA, 100.0);
+		ValidateUtils.validateNotNull("DiskPressureCheckPeriod", getDiskPressureCheckPeriod());
+		if (getCursorFile()!=null) {
+			ValidateUtils.validateDirectory("CursorFile directory", getCursorFile().getAbsoluteFile().getParentFile());
+		}
 		if (isBasedOnMonitorTask()) {
 			if (getMaxDepth()<1) {
 				throw new ValidationException("To clean MonitorTask ["+getDirectory().getName()+"] directory, the configuration either needs to be recursive or have a maxdepth of at least 1.");
@@ -108,6 +137,86 @@ public class DirectoryCleanupConfiguration implements Validation {
 	public final boolean isDisabled() {
 		return !isEnabled();
 	}
+	/**
+	 * The number of threads in the fork/join pool, that cleans the sub directories, and the files of a large directory in chunks, in parallel.
+	 * @return the number of cleanup threads.
+	 */
+	public final int getCleanupThreads() {
+		return cleanupThreads;
+	}
+	/**
+	 * If the sub directories of the directory named as a date "yyyy-MM-dd", as created by the <tt>MonitorTask</tt> in ".archive" and ".error", is retained as partitions. <br>
+	 * A partition where the whole day is older than <tt>keepContentTime</tt> is deleted without looking at its files, 
+	 * the partition where <tt>keepContentTime</tt> ends is checked file by file, and newer partitions is not entered.
+	 * Other files and directories is cleaned as usual.
+	 * @return <code>true</code> if using partition retention.
+	 */
+	public final boolean isPartitionRetention() {
+		return partitionRetention;
+	}
+	/**
+	 * If a run that reaches <tt>maxDeletingProcessingTime</tt> remembers where it stopped, so the next run continues from there instead of starting over.
+	 * The directories is visited in name order, and a run that completes starts the next from the beginning again.
+	 * @return <code>true</code> if resumable.
+	 */
+	public final boolean isResumable() {
+		return resumable;
+	}
+	/**
+	 * The file the cursor of a resumable cleanup is stored in, so it survives a restart.
+	 * @return the cursor file, <code>null</code> if the cursor is only kept in memory.
+	 */
+	public final File getCursorFile() {
+		return cursorFile;
+	}
+	/**
+	 * The max number of bytes of the files in the directory, when exceeded the oldest files is deleted until it is not, regardless of <tt>keepContentTime</tt>.
+	 * @return the size quota, negative if there is no size quota.
+	 */
+	public final long getMaxSize() {
+		return maxSize;
+	}
+	/**
+	 * The free space watermark of the disk the directory is on, in percent of the disk size. 
+	 * When the usable space is below, the oldest files is deleted until it is not, regardless of <tt>keepContentTime</tt>.
+	 * @return the free space watermark, negative if there is no watermark.
+	 */
+	public final double getMinFreeSpacePercent() {
+		return minFreeSpacePercent;
+	}
+	/**
+	 * How often the timer checks the quota between the scheduled runs, so a burst filling the disk is handled before the next run.
+	 * @return the disk pressure check period.
+	 * @see #isQuota()
+	 */
+	public final TimeSpan getDiskPressureCheckPeriod() {
+		return diskPressureCheckPeriod;
+	}
+	/**
+	 * If a size quota or a free space watermark is configured.
+	 * @return <code>true</code> if the directory has a quota.
+	 * @see #getMaxSize()
+	 * @see #getMinFreeSpacePercent()
+	 */
+	public final boolean isQuota() {
+		return (getMaxSize()>=0) || (getMinFreeSpacePercent()>=0);
+	}
+	/**
+	 * The directories that is not cleaned, their files is not deleted by the cleanup or the quota cleanup, and they is not deleted when empty.
+	 * @return the absolute normalized paths of the excluded directories.
+	 */
+	public final Set<Path> getExcludedDirectories() {
+		return Collections.unmodifiableSet(excludedDirectories);
+	}
+	/**
+	 * If the directory is excluded from the cleanup.
+	 * @param directory the directory.
+	 * @return <code>true</code> if excluded.
+	 * @see #getExcludedDirectories()
+	 */
+	public final boolean isExcludedDirectory(Path directory) {
+		return (!excludedDirectories.isEmpty()) && (excludedDirectories.contains(directory.toAbsolutePath().normalize()));
+	}
 	public final DirectoryCleanupErrorHandler getErrorHandler() {
 		if (errorHandler==null) {
 			errorHandler = new DefaultDirectoryCleanupErrorHandler();
@@ -149,6 +258,38 @@ public class DirectoryCleanupConfiguration implements Validation {
 	public final DirectoryCleanupConfiguration setNoMaxDepth() {
 		return setMaxDepth(IOCleanupConstants.NO_MAX_DEPTH);
 	}
+	public final DirectoryCleanupConfiguration setCleanupThreads(int cleanupThreads) {
+		this.cleanupThreads = cleanupThreads;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration setPartitionRetention(boolean partitionRetention) {
+		this.partitionRetention = partitionRetention;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration setResumable(boolean resumable) {
+		this.resumable = resumable;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration setCursorFile(File cursorFile) {
+		this.cursorFile = cursorFile;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration setMinFreeSpacePercent(double minFreeSpacePercent) {
+		this.minFreeSpacePercent = minFreeSpacePercent;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration setDiskPressureCheckPeriod(TimeSpan diskPressureCheckPeriod) {
+		this.diskPressureCheckPeriod = diskPressureCheckPeriod;
+		return this;
+	}
+	public final DirectoryCleanupConfiguration addExcludedDirectory(File excludedDirectory) {
+		this.excludedDirectories.add(excludedDirectory.toPath().toAbsolutePath().normalize());
+		return this;
+	}
 	
 	protected final DirectoryCleanupConfiguration setEnabled(boolean enabled) {
 		this.enabled = enabled;
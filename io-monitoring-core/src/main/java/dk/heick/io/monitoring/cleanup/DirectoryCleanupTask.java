@@ -2,19 +2,45 @@ package dk.heick.io.monitoring.cleanup;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.heick.io.monitoring.utils.FileLastModifiedComparator;
+import dk.heick.io.monitoring.IOMonitoringConstants;
 import dk.heick.io.monitoring.utils.FileUtils;
 import dk.heick.io.monitoring.validation.ValidateUtils;
 import dk.heick.io.monitoring.validation.Validation;
 import dk.heick.io.monitoring.validation.ValidationException;
 
 /**
- * A task definition that cleans up a directory.
+ * A task definition that cleans up a directory. <br>
+ * The directory is walked with a <tt>DirectoryStream</tt> reading the attributes of each entry once,
+ * and the sub directories, and the files of a large directory in chunks, is cleaned in parallel by a fork/join pool of <tt>cleanupThreads</tt> threads.
+ * With <tt>partitionRetention</tt> the date partitions of the directory is deleted as a whole by their name.
+ * When a run reaches the max deleting processing time, the next run continues where it stopped.
+ * With a size quota or a free space watermark, the oldest files is deleted after the run until the quota is met.
+ * The run and the quota cleanup between the runs is serialized, a disk pressure check while the cleanup runs is skipped, as the run ends with a quota cleanup.
  * @author Frederik Heick
  * @version 1.0
  */
@@ -22,6 +48,10 @@ public class DirectoryCleanupTask implements Validation {
 		
 	private DirectoryCleanupConfiguration configuration;
 	private Logger logger=null;
+	private List<String> cursor=null;
+	private boolean cursorLoaded=false;
+	private RetentionIndex retentionIndex=null;
+	private final ReentrantLock runLock = new ReentrantLock();
 
 	/**
 	 * Constructor
@@ -53,7 +83,131 @@ public class DirectoryCleanupTask implements Validation {
 	 * Runs the cleanup task.
 	 */
 	public void runTask() {
-		cleanup();
+		runLock.lock();
+		try {
+			cleanup();
+			quotaCleanup();
+		} finally {
+			runLock.unlock();
+		}
+	}
+	
+	/**
+	 * Runs the quota cleanup if the disk is below the free space watermark, or if there is a size quota. 
+	 * Called by the timer every <tt>diskPressureCheckPeriod</tt> between the scheduled runs.
+	 * @see DirectoryCleanupConfiguration#isQuota()
+	 */
+	public void checkDiskPressure() {
+		if ((getConfiguration().isEnabled()) && ((getConfiguration().getMaxSize()>=0) || (isUnderDiskPressure()))) {
+			if (runLock.tryLock()) {
+				try {
+					quotaCleanup();
+				} finally {
+					runLock.unlock();
+				}
+			} else {
+				getLogger().debug("Disk pressure check skipped, the cleanup is running.");
+			}
+		}
+	}
+	
+	/**
+	 * If the usable space of the disk the directory is on, is below the free space watermark.
+	 * @return <code>true</code> if below the watermark, <code>false</code> if not or if there is no watermark.
+	 * @see DirectoryCleanupConfiguration#getMinFreeSpacePercent()
+	 */
+	public boolean isUnderDiskPressure() {
+		return getDiskPressureBytes()>0;
+	}
+	
+	/**
+	 * The number of bytes that has to be freed, for the usable space of the disk the directory is on to reach the free space watermark.
+	 * @return the bytes to free, <code>0</code> if above the watermark, if there is no watermark or if the free space could not be read.
+	 * @see DirectoryCleanupConfiguration#getMinFreeSpacePercent()
+	 */
+	protected long getDiskPressureBytes() {
+		if (getConfiguration().getMinFreeSpacePercent()<0) {
+			return 0;
+		} else {
+			try {
+				FileStore store = Files.getFileStore(getConfiguration().getDirectory().toPath());
+				long watermark = (long)Math.ceil((store.getTotalSpace()*getConfiguration().getMinFreeSpacePercent())/100.0);
+				return Math.max(0,watermark-store.getUsableSpace());
+			} catch (IOException e) {
+				getLogger().error("Unable to read the free space of ["+getConfiguration().getDirectory().getAbsolutePath()+"], "+e.getMessage(),e);
+				return 0;
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the oldest files until the directory is within the size quota and the disk is above the free space watermark.
+	 * The files is found in a <tt>RetentionIndex</tt> that is refreshed incrementally, not by walking all the files. <br>
+	 * The free space is read once per batch, and the files is deleted until their sizes cover the bytes missing to the watermark, 
+	 * then the free space is read again, as deleting a file do not always free its size, ex. if the file is still open.
+	 */
+	public void quotaCleanup() {
+		runLock.lock();
+		try {
+			quotaCleanupLocked();
+		} finally {
+			runLock.unlock();
+		}
+	}
+	
+	private void quotaCleanupLocked() {
+		if ((getConfiguration().isEnabled()) && (getConfiguration().isQuota())) {
+			long start = System.currentTimeMillis();
+			int filesDeleted=0;
+			long bytesDeleted=0;
+			try {
+				if (retentionIndex==null) {
+					retentionIndex = new RetentionIndex(getConfiguration().getDirectory().toPath(), getConfiguration().getMaxDepth(), getConfiguration().getExcludedDirectories());
+				}
+				retentionIndex.refresh();
+				long pressureBytes = getDiskPressureBytes();
+				long batchBytesDeleted = 0;
+				while (true) {
+					if ((!isOverSizeQuota()) && (batchBytesDeleted>=pressureBytes)) {
+						if (pressureBytes==0) {
+							break;
+						}
+						//The batch covers the missing bytes, read the free space again
+						pressureBytes = getDiskPressureBytes();
+						batchBytesDeleted = 0;
+						if (pressureBytes==0) {
+							break;
+						}
+					}
+					RetentionIndex.IndexedFile victim = retentionIndex.pollOldest();
+					if (victim==null) {
+						getLogger().warn("Quota cleanup has no more files to delete, the quota is still exceeded.");
+						break;
+					}
+					try {
+						getLogger().debug("File is over quota will be deleted :"+victim.getPath());
+						deleteExistingFile(victim.getPath());
+						filesDeleted++;
+						bytesDeleted+=victim.getSize();
+						batchBytesDeleted+=victim.getSize();
+					} catch (IOException e) {
+						//Kept in the index, so it is counted and tried again by the next quota cleanup
+						retentionIndex.restore(victim);
+						getConfiguration().getErrorHandler().onDeleteFileFailure(victim.getPath().toFile(), e);
+						throw e;
+					}
+				}
+				if (filesDeleted>0) {
+					getLogger().info("Stopped quota cleanup. Deleted files ["+filesDeleted+"], Deleted bytes ["+bytesDeleted+"]. In time ["+(System.currentTimeMillis()-start)+"] ms.");
+				}
+			} catch (IOException e) {
+				getLogger().error(e.getMessage(),e);
+			}
+		}
+	}
+	
+	private boolean isOverSizeQuota() {
+		return (getConfiguration().getMaxSize()>=0) && (retentionIndex.getTotalSize()>getConfiguration().getMaxSize());
 	}
 	
 	/**
@@ -71,114 +225,450 @@ public class DirectoryCleanupTask implements Validation {
 		if (!getConfiguration().isEnabled()) {
 			return;			
 		} else {
-			CleanupProgress progress = new CleanupProgress();			
+			CleanupProgress progress = new CleanupProgress();
+			ForkJoinPool pool = new ForkJoinPool(getConfiguration().getCleanupThreads());
+			try {
+				List<String> resume = getConfiguration().isResumable()?getCursor():null;
+				if (resume!=null) {
+					getLogger().info("Resuming cleanup at ["+resume+"].");
+				}
+				List<String> stoppedAt = pool.invoke(new CleanupDirectoryAction(progress,getConfiguration().getDirectory().toPath(),0,resume));
+				if (getConfiguration().isResumable()) {
+					setCursor(stoppedAt);
+				}
+				if (progress.getFailure()!=null) {
+					getLogger().error(progress.getFailure().getMessage(),progress.getFailure());
+				} else if (progress.isTimedOut()) {
+					getLogger().info("Stopped cleanup. Reached max progress time ["+getConfiguration().getMaxDeletingProcessingTime()+"] Deleted files ["+progress.getFilesDeleted()+"], Deleted directories ["+progress.getDirectoriesDeleted()+"], Deleted partitions ["+progress.getPartitionsDeleted()+"]. In time ["+progress.getProgressTime()+"] ms.");
+				} else {
+					getLogger().info("Stopped cleanup. Done Deleted files ["+progress.getFilesDeleted()+"], Deleted directories ["+progress.getDirectoriesDeleted()+"], Deleted partitions ["+progress.getPartitionsDeleted()+"]. In time ["+progress.getProgressTime()+"] ms.");
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * The path, relative to the directory, where the next run continues, because the previous run reached the max deleting processing time.
+	 * Read from the <tt>cursorFile</tt> the first time, if configured.
+	 * @return the directory names of the path, an empty list is the directory itself, <code>null</code> if the next run starts over.
+	 * @see DirectoryCleanupConfiguration#isResumable()
+	 */
+	public synchronized List<String> getCursor() {
+		if ((!cursorLoaded) && (getConfiguration().getCursorFile()!=null)) {
+			cursorLoaded=true;
+			File file = getConfiguration().getCursorFile();
+			if (file.isFile()) {
+				try {
+					cursor = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+				} catch (IOException e) {
+					getLogger().warn("Unable to read cleanup cursor ["+file.getAbsolutePath()+"], cleanup starts over. "+e.getMessage());
+				}
+			}
+		}
+		return cursor;
+	}
+	
+	private synchronized void setCursor(List<String> cursor) {
+		this.cursor=((cursor!=null) && (cursor.isEmpty()))?null:cursor;
+		this.cursorLoaded=true;
+		File file = getConfiguration().getCursorFile();
+		if (file!=null) {
 			try {
-				internalCleanup(progress,getConfiguration().getDirectory());
-				if (progress.getProgressTime()>getConfiguration().getMaxDeletingProcessingTime().getTime()) {
-					getLogger().info("Stopped cleanup. Reached max progress time ["+getConfiguration().getMaxDeletingProcessingTime()+"] Deleted files ["+progress.getFilesDeleted()+"], Deleted directories ["+progress.getDirectoriesDeleted()+"]. In time ["+progress.getProgressTime()+"] ms.");
+				if (this.cursor==null) {
+					Files.deleteIfExists(file.toPath());
 				} else {
-					getLogger().info("Stopped cleanup. Done Deleted files ["+progress.getFilesDeleted()+"], Deleted directories ["+progress.getDirectoriesDeleted()+"]. In time ["+progress.getProgressTime()+"] ms.");
+					File temporary = new File(file.getParentFile(),file.getName()+".tmp");
+					Files.write(temporary.toPath(), this.cursor, StandardCharsets.UTF_8);
+					Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
 				}
 			} catch (IOException e) {
-				getLogger().error(e.getMessage(),e);
-			}			
+				getLogger().error("Unable to write cleanup cursor ["+file.getAbsolutePath()+"], "+e.getMessage(),e);
+			}
 		}
 	}
 	
-	private boolean processDepth(CleanupProgress progress) {
+	/**
+	 * The clock the max deleting processing time of a run is measured by. Package private, so a test can reach the time without waiting for it.
+	 * @return the current time in milliseconds.
+	 */
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+	
+	private boolean processDepth(int level) {
 		if (getConfiguration().isNoMaxDepth()) {
 			return true;
 		} else {
-			return (progress.getLevel()<=getConfiguration().getMaxDepth());
+			return (level<=getConfiguration().getMaxDepth());
 		}
 	}
 	 
-	private boolean isFileToOld(File file) {
-		long age = System.currentTimeMillis() - file.lastModified();
+	private boolean isFileToOld(BasicFileAttributes attributes) {
+		long age = System.currentTimeMillis() - attributes.lastModifiedTime().toMillis();
 		return age>getConfiguration().getKeepContentTime().getTime();
 	}
 	
-	private void internalCleanup(CleanupProgress progress,File directory) throws IOException {		
-		if (processDepth(progress)) {			
-			File[] paths =directory.listFiles();
-			Arrays.sort(paths,new FileLastModifiedComparator());			
-			for (File path : paths) {
-				if (progress.getProgressTime()>getConfiguration().getMaxDeletingProcessingTime().getTime()) {
-					getLogger().info("Stopped cleanup. Reached max time ["+getConfiguration().getMaxDeletingProcessingTime()+"] Deleted files ["+progress.getFilesDeleted()+"], Deleted directories ["+progress.getDirectoriesDeleted()+"]. In time ["+progress.getProgressTime()+"] ms.");
-					return;
-				} else if (path.isDirectory()) {						
-						progress.incrementLevel();
-						internalCleanup(progress, path);	
-						deleteEmptyDirectory(progress,path);						
-				} else if (path.isFile()) {
-					if (isFileToOld(path)) {
-						try {							
-							getLogger().debug("File is to old will be deleted :"+path.getAbsolutePath());
-							FileUtils.deleteFile(path);
-							progress.incrementFilesDeleted();
-						} catch (IOException e) {
-							getConfiguration().getErrorHandler().onDeleteFileFailure(path, e);
-							throw e;
-						}
-					}
-				}				
-			}			
+	/**
+	 * Reads the entries of a directory with their attributes, oldest first.
+	 * @param directory the directory.
+	 * @return the entries, the attributes is read once per entry.
+	 * @throws IOException if the directory could not be read.
+	 */
+	private List<PathEntry> listEntries(Path directory) throws IOException {
+		List<PathEntry> entries = new ArrayList<PathEntry>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+		try {
+			for (Path path : stream) {
+				try {
+					entries.add(new PathEntry(path,Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+				} catch (NoSuchFileException e) {
+					//Deleted while listing
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		Collections.sort(entries);
+		return entries;
+	}
+	
+	/**
+	 * Deletes a file, a file that is already gone, ex. processed or deleted by others since it was listed, is treated as deleted.
+	 * @param path the file.
+	 * @throws IOException if the file exists and could not be deleted.
+	 */
+	private void deleteExistingFile(Path path) throws IOException {
+		try {
+			FileUtils.deleteFile(path.toFile());
+		} catch (IOException e) {
+			if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+				throw e;
+			}
+			getLogger().debug("File is already deleted :"+path);
+		}
+	}
+	
+	private void deleteFile(CleanupProgress progress,Path path) {
+		try {
+			getLogger().debug("File is to old will be deleted :"+path);
+			deleteExistingFile(path);
+			progress.incrementFilesDeleted();
+		} catch (IOException e) {
+			getConfiguration().getErrorHandler().onDeleteFileFailure(path.toFile(), e);
+			progress.fail(e);
+		}
+	}
+	
+	private void deleteEmptyDirectory(CleanupProgress progress,Path directory) {		
+		if (getConfiguration().isDeleteEmptyDirectories()) {
+			try {
+				if (isEmptyDirectory(directory)) {
+					FileUtils.deleteDirectory(directory.toFile(), false);
+					progress.incrementDirectoriesDeleted();
+				}
+			} catch (IOException e) {
+				getConfiguration().getErrorHandler().onDeleteFileFailure(directory.toFile(), e);
+				progress.fail(e);
+			}
+		}
+	}
+	
+	private void deletePartition(CleanupProgress progress,Path partition) {
+		try {
+			getLogger().debug("Partition is to old will be deleted :"+partition);
+			FileUtils.deleteDirectory(partition.toFile(), true);
+			progress.incrementPartitionsDeleted();
+		} catch (IOException e) {
+			getConfiguration().getErrorHandler().onDeleteFileFailure(partition.toFile(), e);
+			progress.fail(e);
+		}
+	}
+	
+	private boolean isEmptyDirectory(Path directory) throws IOException {
+		if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+			return false;
 		} else {
-			return;
-		}		
-	}	
+			DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+			try {
+				return !stream.iterator().hasNext();
+			} finally {
+				stream.close();
+			}
+		}
+	}
 	
-	private void deleteEmptyDirectory(CleanupProgress progress,File directory) throws IOException {		
-		if ((directory.isDirectory()) && (getConfiguration().isDeleteEmptyDirectories())) {
-			if (directory.list().length==0) {
+	/**
+	 * Cleans one directory; deletes the files that is to old, in chunks of <tt>DELETE_FILES_CHUNK_SIZE</tt> files, and forks a task per sub directory.
+	 * When the sub directories is done, the empty ones is deleted.<br>
+	 * The result is <code>null</code> if the directory was cleaned completely, otherwise the cursor to resume at relative to the directory, 
+	 * an empty cursor if the files of the directory itself was not done.
+	 * When resuming, the files of the directory and the sub directories before the cursor is skipped, as they was done in the previous run.
+	 */
+	class CleanupDirectoryAction extends RecursiveTask<List<String>> implements Comparable<CleanupDirectoryAction> {
+		
+		private static final long serialVersionUID = 1L;
+		private CleanupProgress progress;
+		private Path directory;
+		private int level;
+		private List<String> resume;
+		
+		CleanupDirectoryAction(CleanupProgress progress,Path directory,int level,List<String> resume) {
+			super();
+			this.progress=progress;
+			this.directory=directory;
+			this.level=level;
+			this.resume=resume;
+		}
+		
+		@Override
+		protected List<String> compute() {
+			if (!processDepth(level)) {
+				return null;
+			} else if (progress.isStopped()) {
+				return (resume!=null)?resume:Collections.<String>emptyList();
+			} else {
+				List<PathEntry> entries = null;
 				try {
-					FileUtils.deleteDirectory(directory, false);
-					progress.incrementDirectoriesDeleted();
+					entries = listEntries(directory);
+				} catch (NoSuchFileException e) {
+					return null;
 				} catch (IOException e) {
-					getConfiguration().getErrorHandler().onDeleteFileFailure(directory, e);
-					throw e;
-				}															
+					progress.fail(e);
+					return Collections.<String>emptyList();
+				}
+				boolean resuming = (resume!=null) && (!resume.isEmpty());
+				List<CleanupDirectoryAction> subDirectories = new ArrayList<CleanupDirectoryAction>();
+				List<Path> files = new ArrayList<Path>();
+				PartitionRetention partitions = ((level==0) && (getConfiguration().isPartitionRetention()))?new PartitionRetention():null;
+				for (PathEntry entry : entries) {
+					if (progress.isStopped()) {
+						return (resume!=null)?resume:Collections.<String>emptyList();
+					} else if ((entry.getAttributes().isDirectory()) && (getConfiguration().isExcludedDirectory(entry.getPath()))) {
+						continue;
+					} else if ((partitions!=null) && (entry.getAttributes().isDirectory()) && (partitions.isPartition(entry.getPath()))) {
+						if ((partitions.isExpired(entry.getPath())) && (!resuming)) {
+							deletePartition(progress, entry.getPath());
+						} else if (partitions.isBoundary(entry.getPath())) {
+							addSubDirectory(subDirectories, entry.getPath());
+						}
+					} else if (entry.getAttributes().isDirectory()) {
+						addSubDirectory(subDirectories, entry.getPath());
+					} else if ((!resuming) && (entry.getAttributes().isRegularFile()) && (isFileToOld(entry.getAttributes()))) {
+						files.add(entry.getPath());
+					}
+				}
+				if (!files.isEmpty()) {
+					new DeleteFilesAction(progress, files, 0, files.size()).invoke();
+					if (progress.isStopped()) {
+						return (resume!=null)?resume:Collections.<String>emptyList();
+					}
+				}
+				Collections.sort(subDirectories);
+				invokeAll(subDirectories);
+				for (CleanupDirectoryAction subDirectory : subDirectories) {
+					List<String> cursor = subDirectory.join();
+					if (cursor!=null) {
+						List<String> result = new ArrayList<String>(cursor.size()+1);
+						result.add(subDirectory.getName());
+						result.addAll(cursor);
+						return result;
+					} else if (progress.getFailure()==null) {
+						deleteEmptyDirectory(progress, subDirectory.directory);
+					}
+				}
+				return null;
+			}
+		}
+		
+		/**
+		 * Adds a task for a sub directory, unless it is before the cursor.
+		 */
+		private void addSubDirectory(List<CleanupDirectoryAction> subDirectories,Path subDirectory) {
+			String name = subDirectory.getFileName().toString();
+			if ((resume==null) || (resume.isEmpty())) {
+				subDirectories.add(new CleanupDirectoryAction(progress, subDirectory, level+1, null));
+			} else {
+				int compare = name.compareTo(resume.get(0));
+				if (compare==0) {
+					subDirectories.add(new CleanupDirectoryAction(progress, subDirectory, level+1, resume.subList(1, resume.size())));
+				} else if (compare>0) {
+					subDirectories.add(new CleanupDirectoryAction(progress, subDirectory, level+1, null));
+				}
 			}
 		}
+		
+		public String getName() {
+			return directory.getFileName().toString();
+		}
+		
+		@Override
+		public int compareTo(CleanupDirectoryAction other) {
+			return getName().compareTo(other.getName());
+		}
 	}
 	
+	/**
+	 * Deletes a range of the files of a directory, a range larger than <tt>DELETE_FILES_CHUNK_SIZE</tt> is split in two and deleted in parallel.
+	 */
+	class DeleteFilesAction extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private CleanupProgress progress;
+		private List<Path> files;
+		private int from;
+		private int to;
+		
+		DeleteFilesAction(CleanupProgress progress,List<Path> files,int from,int to) {
+			super();
+			this.progress=progress;
+			this.files=files;
+			this.from=from;
+			this.to=to;
+		}
+		
+		@Override
+		protected void compute() {
+			if ((to-from)>IOCleanupConstants.DELETE_FILES_CHUNK_SIZE) {
+				int middle = (from+to)>>>1;
+				invokeAll(new DeleteFilesAction(progress, files, from, middle), new DeleteFilesAction(progress, files, middle, to));
+			} else {
+				for (int i=from;(i<to) && (!progress.isStopped());i++) {
+					deleteFile(progress, files.get(i));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Decides from the name of a date partition "yyyy-MM-dd" if it is older than <tt>keepContentTime</tt>, without looking at its files.
+	 * Not thread safe, used by the root directory task only.
+	 */
+	class PartitionRetention {
+		
+		private SimpleDateFormat format = new SimpleDateFormat(IOMonitoringConstants.SUBDIRECTORY_DATE_FORMAT);
+		private long cutoff;
+		
+		PartitionRetention() {
+			super();
+			this.format.setLenient(false);
+			this.cutoff = System.currentTimeMillis()-getConfiguration().getKeepContentTime().getTime();
+		}
+		
+		private Date parse(Path partition) {
+			String name = partition.getFileName().toString();
+			if (name.length()!=IOMonitoringConstants.SUBDIRECTORY_DATE_FORMAT.length()) {
+				return null;
+			} else {
+				ParsePosition position = new ParsePosition(0);
+				Date result = format.parse(name, position);
+				return (position.getIndex()==name.length())?result:null;
+			}
+		}
+		private long getEnd(Date start) {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(start);
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+			return calendar.getTimeInMillis();
+		}
+		/**
+		 * If the directory name is a date partition.
+		 */
+		public boolean isPartition(Path directory) {
+			return parse(directory)!=null;
+		}
+		/**
+		 * If the whole day of the partition is older than <tt>keepContentTime</tt>, and the partition can be deleted without looking at the files.
+		 */
+		public boolean isExpired(Path partition) {
+			return getEnd(parse(partition))<=cutoff;
+		}
+		/**
+		 * If <tt>keepContentTime</tt> ends within the day of the partition, and the files has to be checked one by one.
+		 */
+		public boolean isBoundary(Path partition) {
+			Date start = parse(partition);
+			return (start.getTime()<cutoff) && (getEnd(start)>cutoff);
+		}
+	}
+	
+	/**
+	 * A directory entry with the attributes read when listing.
+	 */
+	static class PathEntry implements Comparable<PathEntry> {
+		
+		private Path path;
+		private BasicFileAttributes attributes;
+		
+		PathEntry(Path path,BasicFileAttributes attributes) {
+			this.path=path;
+			this.attributes=attributes;
+		}
+		public Path getPath() {
+			return path;
+		}
+		public BasicFileAttributes getAttributes() {
+			return attributes;
+		}
+		@Override
+		public int compareTo(PathEntry other) {
+			return attributes.lastModifiedTime().compareTo(other.attributes.lastModifiedTime());
+		}
+	}
 	
 	class CleanupProgress {
 		
 		private long startTime;
-		private int filesDeleted;
-		private int directoriesDeleted;
-		private int level;
+		private AtomicInteger filesDeleted = new AtomicInteger(0);
+		private AtomicInteger directoriesDeleted = new AtomicInteger(0);
+		private AtomicInteger partitionsDeleted = new AtomicInteger(0);
+		private volatile IOException failure = null;
 		
 		public CleanupProgress() {
-			this.startTime=System.currentTimeMillis();
-			this.filesDeleted=0;
-			this.directoriesDeleted=0;
-			this.level=0;
+			this.startTime=currentTimeMillis();
 		}
 		public long getStartTime() {
 			return startTime;
 		}
 		public long getProgressTime() {
-			return System.currentTimeMillis() -  getStartTime();
+			return currentTimeMillis() -  getStartTime();
+		}
+		public boolean isTimedOut() {
+			return getProgressTime()>getConfiguration().getMaxDeletingProcessingTime().getTime();
+		}
+		/**
+		 * If the cleanup shall stop, because the max deleting processing time is reached or a delete failed.
+		 * @return <code>true</code> if stopped.
+		 */
+		public boolean isStopped() {
+			return (failure!=null) || (isTimedOut());
 		}
 		public int getDirectoriesDeleted() {
-			return directoriesDeleted;
+			return directoriesDeleted.get();
 		}
 		public int getFilesDeleted() {
-			return filesDeleted;
+			return filesDeleted.get();
+		}
+		public int getPartitionsDeleted() {
+			return partitionsDeleted.get();
 		}
-		public int getLevel() {
-			return level;
+		public IOException getFailure() {
+			return failure;
 		}
 		public void incrementDirectoriesDeleted() {
-			this.directoriesDeleted++;
+			this.directoriesDeleted.incrementAndGet();
 		}
 		public void incrementFilesDeleted() {
-			this.filesDeleted++;
+			this.filesDeleted.incrementAndGet();
 		}
-		public void incrementLevel() {
-			this.level++;
+		public void incrementPartitionsDeleted() {
+			this.partitionsDeleted.incrementAndGet();
+		}
+		public synchronized void fail(IOException e) {
+			if (failure==null) {
+				failure=e;
+			}
 		}
 		@Override
 		public String toString() {
@@ -16,6 +16,7 @@ public class DirectoryCleanupTimer implements TaskTimer {
 	private Timer timer;
 	private boolean running=true;
 	private List<DirectoryCleanupTaskWrapper> tasks = new ArrayList<DirectoryCleanupTaskWrapper>();
+	private List<DiskPressureWrapper> pressureTasks = new ArrayList<DiskPressureWrapper>();
 
 	/**
 	 * Constructor.
@@ -33,7 +34,6 @@ public class DirectoryCleanupTimer implements TaskTimer {
 		return Collections.unmodifiableList(list);		
 	}
 	
-	@Override
 	public Timer getTimer() {
 		return timer;
 	}
@@ -45,6 +45,9 @@ public class DirectoryCleanupTimer implements TaskTimer {
 		for (DirectoryCleanupTaskWrapper task : tasks) {
 			task.cancel();
 		}			
+		for (DiskPressureWrapper task : pressureTasks) {
+			task.cancel();
+		}
 	}
 	
 	@Override
@@ -89,6 +92,30 @@ public class DirectoryCleanupTimer implements TaskTimer {
 			period = IOCleanupConstants.DEFAULT_CLEANUP_TIME;
 		}
 		timer.scheduleAtFixedRate(wrapper, startDelay.getTime(), period.getTime());	
+		if ((task.getConfiguration()!=null) && (task.getConfiguration().isQuota())) {
+			DiskPressureWrapper pressure = new DiskPressureWrapper(task);
+			pressureTasks.add(pressure);
+			long checkPeriod = task.getConfiguration().getDiskPressureCheckPeriod().getTime();
+			timer.schedule(pressure, checkPeriod, checkPeriod);
+		}
+	}
+	
+	class DiskPressureWrapper extends TimerTask {
+		private DirectoryCleanupTask task;
+		public DiskPressureWrapper(DirectoryCleanupTask task) {
+			this.task=task;
+		}
+		/**
+		 * A RuntimeException is logged and not thrown, as it would kill the timer thread and with it every task of the timer.
+		 */
+		@Override
+		public void run() {
+			try {
+				task.checkDiskPressure();
+			} catch (RuntimeException e) {
+				task.getLogger().error("Disk pressure check failed, "+e.getMessage(),e);
+			}
+		}
 	}
 	
 	class DirectoryCleanupTaskWrapper extends TimerTask {
@@ -49,6 +49,26 @@ public interface IOCleanupConstants {
 	 */
 	public final static int NO_MAX_DEPTH=-1;
 	
+	/**
+	 * The default number of threads deleting in parallel "1".
+	 */
+	public final static int DEFAULT_CLEANUP_THREADS=1;
+	
+	/**
+	 * No size quota or free space watermark.
+	 */
+	public final static int NO_QUOTA=-1;
+	
+	/**
+	 * The default time between checking the free space of the disk "1 minute".
+	 */
+	public final static TimeSpan DEFAULT_DISK_PRESSURE_CHECK_PERIOD=TimeSpan.createMinutes(1);
+	
+	/**
+	 * The number of files of a directory deleted by one fork/join task, a directory with more files is split in chunks deleted in parallel "256".
+	 */
+	public final static int DELETE_FILES_CHUNK_SIZE=256;
+	
 	
 
 }
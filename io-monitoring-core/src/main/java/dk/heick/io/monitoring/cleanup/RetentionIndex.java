@@ -0,0 +1,239 @@
+package dk.heick.io.monitoring.cleanup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An index of the files in a directory tree by age, with their total size, used to find the oldest files when a quota is exceeded. <br>
+ * The index is maintained incrementally; <tt>refresh()</tt> reads the attributes of the directories only,
+ * and lists a directory again only if its modified timestamp has changed since it was indexed, so unchanged directories cost one stat.
+ * Files changed in place, without changing the directory, is not seen until the directory changes.
+ * Not thread safe.
+ * @author Frederik Heick
+ * @see DirectoryCleanupConfiguration#isQuota()
+ */
+public class RetentionIndex {
+
+	/**
+	 * A directory modified this close to when it was listed, is listed again on the next refresh, as a later change may have the same timestamp.
+	 */
+	private final static long TIMESTAMP_RESOLUTION=2000;
+
+	private Path root;
+	private int maxDepth;
+	private Set<Path> excludedDirectories;
+	private Map<Path,IndexedDirectory> directories = new HashMap<Path,IndexedDirectory>();
+	private TreeSet<IndexedFile> files = new TreeSet<IndexedFile>();
+	private long totalSize=0;
+
+	/**
+	 * Constructor.
+	 * @param root the root directory.
+	 * @param maxDepth the max depth of sub directories, negative for no max depth.
+	 */
+	public RetentionIndex(Path root,int maxDepth) {
+		this(root,maxDepth,Collections.<Path>emptySet());
+	}
+
+	/**
+	 * Constructor.
+	 * @param root the root directory.
+	 * @param maxDepth the max depth of sub directories, negative for no max depth.
+	 * @param excludedDirectories the absolute normalized paths of the sub directories that is not indexed.
+	 */
+	public RetentionIndex(Path root,int maxDepth,Set<Path> excludedDirectories) {
+		super();
+		this.root=root;
+		this.maxDepth=maxDepth;
+		this.excludedDirectories=excludedDirectories;
+	}
+
+	/**
+	 * Updates the index with the directories that has changed since the last refresh.
+	 * @throws IOException if the root directory could not be read.
+	 */
+	public void refresh() throws IOException {
+		Set<Path> seen = new HashSet<Path>();
+		refreshDirectory(root, 0, seen);
+		Iterator<Map.Entry<Path,IndexedDirectory>> iterator = directories.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Path,IndexedDirectory> entry = iterator.next();
+			if (!seen.contains(entry.getKey())) {
+				removeFiles(entry.getValue());
+				iterator.remove();
+			}
+		}
+	}
+
+	private void refreshDirectory(Path directory,int level,Set<Path> seen) throws IOException {
+		if ((maxDepth<0) || (level<=maxDepth)) {
+			seen.add(directory);
+			long modified = Files.getLastModifiedTime(directory, LinkOption.NOFOLLOW_LINKS).toMillis();
+			IndexedDirectory indexed = directories.get(directory);
+			if ((indexed==null) || (indexed.modified!=modified) || (indexed.modified>=(indexed.listed-TIMESTAMP_RESOLUTION))) {
+				if (indexed!=null) {
+					removeFiles(indexed);
+				}
+				indexed = listDirectory(directory,modified);
+				directories.put(directory, indexed);
+			}
+			for (Path subDirectory : indexed.subDirectories) {
+				try {
+					refreshDirectory(subDirectory, level+1, seen);
+				} catch (NoSuchFileException e) {
+					//Deleted since it was listed
+				}
+			}
+		}
+	}
+
+	private IndexedDirectory listDirectory(Path directory,long modified) throws IOException {
+		IndexedDirectory result = new IndexedDirectory(modified,System.currentTimeMillis());
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+		try {
+			for (Path path : stream) {
+				try {
+					BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					if (attributes.isDirectory()) {
+						if (!isExcluded(path)) {
+							result.subDirectories.add(path);
+						}
+					} else if (attributes.isRegularFile()) {
+						IndexedFile file = new IndexedFile(path,attributes.lastModifiedTime().toMillis(),attributes.size());
+						result.files.add(file);
+						if (files.add(file)) {
+							totalSize+=file.getSize();
+						}
+					}
+				} catch (NoSuchFileException e) {
+					//Deleted while listing
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		return result;
+	}
+
+	private boolean isExcluded(Path directory) {
+		return (!excludedDirectories.isEmpty()) && (excludedDirectories.contains(directory.toAbsolutePath().normalize()));
+	}
+
+	private void removeFiles(IndexedDirectory directory) {
+		for (IndexedFile file : directory.files) {
+			if (files.remove(file)) {
+				totalSize-=file.getSize();
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest file from the index.
+	 * @return the oldest file, <code>null</code> if the index is empty.
+	 */
+	public IndexedFile pollOldest() {
+		IndexedFile result = files.pollFirst();
+		if (result!=null) {
+			totalSize-=result.getSize();
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a file polled from the index back, when it could not be deleted, so it is still counted and polled again by the next cleanup.
+	 * @param file the file returned by <tt>pollOldest()</tt>.
+	 */
+	public void restore(IndexedFile file) {
+		if (files.add(file)) {
+			totalSize+=file.getSize();
+		}
+	}
+
+	/**
+	 * The total size of the files in the index.
+	 * @return the size in bytes.
+	 */
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * The number of files in the index.
+	 * @return the number of files.
+	 */
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * A listed directory.
+	 */
+	private static class IndexedDirectory {
+		private long modified;
+		private long listed;
+		private List<IndexedFile> files = new ArrayList<IndexedFile>();
+		private List<Path> subDirectories = new ArrayList<Path>();
+		IndexedDirectory(long modified,long listed) {
+			this.modified=modified;
+			this.listed=listed;
+		}
+	}
+
+	/**
+	 * A file in the index, ordered by modified timestamp.
+	 * @author Frederik Heick
+	 */
+	public static class IndexedFile implements Comparable<IndexedFile> {
+
+		private Path path;
+		private long modified;
+		private long size;
+
+		IndexedFile(Path path,long modified,long size) {
+			super();
+			this.path=path;
+			this.modified=modified;
+			this.size=size;
+		}
+		public final Path getPath() {
+			return path;
+		}
+		public final long getModified() {
+			return modified;
+		}
+		public final long getSize() {
+			return size;
+		}
+		@Override
+		public int compareTo(IndexedFile other) {
+			int result = Long.compare(modified, other.modified);
+			return (result!=0)?result:path.compareTo(other.path);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof IndexedFile) && (compareTo((IndexedFile)obj)==0);
+		}
+		@Override
+		public int hashCode() {
+			return path.hashCode();
+		}
+		@Override
+		public String toString() {
+			return "IndexedFile [path=" + path + ", modified=" + modified + ", size=" + size + "]";
+		}
+	}
+}
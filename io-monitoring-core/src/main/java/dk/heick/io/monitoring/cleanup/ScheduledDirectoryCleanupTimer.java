@@ -0,0 +1,78 @@
+package dk.heick.io.monitoring.cleanup;
+
+import dk.heick.io.monitoring.timer.ScheduledTaskTimer;
+import dk.heick.io.monitoring.utils.TimeSpan;
+import dk.heick.io.monitoring.validation.ValidateUtils;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * A timer for cleaning up many directories using a pool of scheduler threads, 
+ * so a long running <tt>DirectoryCleanupTask</tt> do not block the other tasks.
+ * @author Frederik Heick
+ * @see ScheduledTaskTimer
+ * @see DirectoryCleanupTimer
+ */
+public class ScheduledDirectoryCleanupTimer extends ScheduledTaskTimer<DirectoryCleanupTask> {
+	
+	/**
+	 * Constructor, using <tt>DEFAULT_POOL_SIZE</tt> scheduler threads.
+	 */
+	public ScheduledDirectoryCleanupTimer() {
+		this(DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param poolSize the number of scheduler threads.
+	 */
+	public ScheduledDirectoryCleanupTimer(int poolSize) {
+		super(poolSize,"io-cleanup-timer");
+	}
+	
+	/**
+	 * Adds new DirectoryCleanupTask to the timer, using default values.
+	 * @param task a new DirectoryCleanupTask
+	 * @throws ValidationException if the task is <code>null</code>.
+	 * @see IOCleanupConstants#DEFAULT_CLEANUP_START_DELAY
+	 * @see IOCleanupConstants#DEFAULT_CLEANUP_TIME
+	 */
+	public void addDirectoryCleanupTask(DirectoryCleanupTask task) throws ValidationException {
+		addDirectoryCleanupTask(task,IOCleanupConstants.DEFAULT_CLEANUP_START_DELAY,IOCleanupConstants.DEFAULT_CLEANUP_TIME);
+	}
+	public void addDirectoryCleanupTask(DirectoryCleanupTask task,TimeSpan period) throws ValidationException {
+		addDirectoryCleanupTask(task,IOCleanupConstants.DEFAULT_CLEANUP_START_DELAY,period);		
+	}	
+	public void addDirectoryCleanupTask(DirectoryCleanupTask task,TimeSpan startDelay,TimeSpan period) throws ValidationException {
+		ValidateUtils.validateNotNull("DirectoryCleanupTask", task);
+		ValidateUtils.validateNotNull("StartDelay", startDelay);
+		ValidateUtils.validateNotNull("Period", period);
+		//
+		if (startDelay.getTime()<IOCleanupConstants.MININUM_TIMER_START_DELAY.getTime()) {
+			startDelay = IOCleanupConstants.DEFAULT_CLEANUP_START_DELAY;
+		}
+		if (period.getTime()<IOCleanupConstants.MININUM_TIMER_PERIOD.getTime()) {
+			period = IOCleanupConstants.DEFAULT_CLEANUP_TIME;
+		}
+		schedule(task, startDelay.getTime(), period.getTime());
+		if ((task.getConfiguration()!=null) && (task.getConfiguration().isQuota())) {
+			final DirectoryCleanupTask pressureTask = task;
+			long checkPeriod = task.getConfiguration().getDiskPressureCheckPeriod().getTime();
+			scheduleAdditional(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pressureTask.checkDiskPressure();
+					} catch (RuntimeException e) {
+						getLogger().error("Disk pressure check failed, "+e.getMessage(),e);
+					}
+				}
+			}, checkPeriod, checkPeriod);
+		}
+	}
+
+	@Override
+	protected void runTask(DirectoryCleanupTask task) {
+		task.runTask();
+	}
+	
+}
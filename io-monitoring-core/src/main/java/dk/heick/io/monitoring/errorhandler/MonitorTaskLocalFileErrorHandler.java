@@ -16,9 +16,9 @@ public interface MonitorTaskLocalFileErrorHandler {
 	/**
 	 * When file failed being processed and shall be moved to the ".error" folder.
 	 * @param file the file path in the error folder.
-	 * @param errorFile the error file containing the complete stacketrace
+	 * @param errorFile the error file containing the complete stacketrace, or the error journal of the day if <tt>errorJournal</tt> is enabled.
 	 * @param e the exception.
-	 * @return <code>true</code>; the files is kept in the error folder, if <code>false</code> than the two files is deleted, because they was handled.
+	 * @return <code>true</code>; the files is kept in the error folder, if <code>false</code> than the two files is deleted, because they was handled. The error journal is never deleted.
 	 * @see MonitorTaskConfiguration#generateErrorFile(File, String)
 	 * @see IOMonitoringConstants#DIRECTORY_NAME_ERROR
 	 */
@@ -6,10 +6,11 @@ import java.io.FileFilter;
 import dk.heick.io.monitoring.utils.FileUtils;
 
 /**
- * File filter the only accepts file which is files and is not a "lock" file.
+ * File filter the only accepts file which is files and is not a "lock" file, or the temporary ".moving" file of a move to another file system.
  * @author Frederik Heick
  * @see File#isFile()
  * @see LockFileUtils#isLockFile(File)
+ * @see FileUtils#isMoveFile(File)
  */
 public class OnlyFilesNoLockFileFilter implements FileFilter {
 	
@@ -21,7 +22,7 @@ public class OnlyFilesNoLockFileFilter implements FileFilter {
 	}
 	@Override
 	public boolean accept(File file) {
-		return file.isFile() && !FileUtils.isLockFile(file);
+		return file.isFile() && !FileUtils.isLockFile(file) && !FileUtils.isMoveFile(file);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package dk.heick.io.monitoring.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter that only goes up. <br>
+ * Backed by a <tt>LongAdder</tt>, so threads counting at the same time do not contend and counting do not create any objects.
+ * @author Frederik Heick
+ */
+public final class Counter {
+	
+	private final LongAdder count = new LongAdder();
+	
+	/**
+	 * Constructor.
+	 */
+	public Counter() {
+		super();
+	}
+	
+	/**
+	 * Adds one to the counter.
+	 */
+	public void increment() {
+		count.increment();
+	}
+	
+	/**
+	 * Adds to the counter.
+	 * @param value the value to add, negative values is ignored.
+	 */
+	public void add(long value) {
+		if (value>0) {
+			count.add(value);
+		}
+	}
+	
+	/**
+	 * The current count.
+	 * @return the count.
+	 */
+	public long get() {
+		return count.sum();
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -0,0 +1,38 @@
+package dk.heick.io.monitoring.metrics;
+
+/**
+ * A value that can go up and down, ex. the number of files waiting in the ".process" directory.
+ * @author Frederik Heick
+ */
+public final class Gauge {
+	
+	private volatile long value = 0;
+	
+	/**
+	 * Constructor.
+	 */
+	public Gauge() {
+		super();
+	}
+	
+	/**
+	 * Sets the current value.
+	 * @param value the value.
+	 */
+	public void set(long value) {
+		this.value = value;
+	}
+	
+	/**
+	 * The current value.
+	 * @return the value.
+	 */
+	public long get() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -0,0 +1,141 @@
+package dk.heick.io.monitoring.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in milliseconds, with fixed bucket bounds. <br>
+ * Recording a duration is lock free and do not create any objects, the bucket counts is kept in an <tt>AtomicLongArray</tt>.
+ * The bucket counts is not cumulative, the last bucket holds the durations greater than the largest bound.
+ * @author Frederik Heick
+ */
+public final class Histogram {
+	
+	/**
+	 * The default bucket bounds in milliseconds, from 1 ms to 30 minutes.
+	 */
+	public final static long[] DEFAULT_BOUNDS = {1L,5L,10L,25L,50L,100L,250L,500L,1000L,2500L,5000L,10000L,30000L,60000L,300000L,1800000L};
+	
+	private final long[] bounds;
+	private final AtomicLongArray buckets;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong(0);
+	
+	/**
+	 * Constructor, with the default bucket bounds.
+	 * @see #DEFAULT_BOUNDS
+	 */
+	public Histogram() {
+		this(DEFAULT_BOUNDS);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param bounds the upper bounds, inclusive, of the buckets in milliseconds in ascending order.
+	 * @throws IllegalArgumentException if the bounds is empty or not in ascending order.
+	 */
+	public Histogram(long[] bounds) throws IllegalArgumentException {
+		super();
+		if ((bounds==null) || (bounds.length==0)) {
+			throw new IllegalArgumentException("Histogram bounds is empty.");
+		}
+		for (int i=1;i<bounds.length;i++) {
+			if (bounds[i]<=bounds[i-1]) {
+				throw new IllegalArgumentException("Histogram bounds is not in ascending order "+Arrays.toString(bounds)+".");
+			}
+		}
+		this.bounds = bounds.clone();
+		this.buckets = new AtomicLongArray(bounds.length+1);
+	}
+	
+	/**
+	 * Records a duration.
+	 * @param duration the duration in milliseconds, negative durations is recorded as <code>0</code>.
+	 */
+	public void record(long duration) {
+		long value = Math.max(0L,duration);
+		buckets.incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+		long current = max.get();
+		while ((value>current) && (!max.compareAndSet(current, value))) {
+			current = max.get();
+		}
+	}
+	
+	private int indexOf(long value) {
+		for (int i=0;i<bounds.length;i++) {
+			if (value<=bounds[i]) {
+				return i;
+			}
+		}
+		return bounds.length;
+	}
+	
+	/**
+	 * The number of recorded durations.
+	 * @return the count.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * The sum of the recorded durations in milliseconds.
+	 * @return the sum.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+	
+	/**
+	 * The largest recorded duration in milliseconds.
+	 * @return the max, <code>0</code> if nothing is recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * The average of the recorded durations in milliseconds.
+	 * @return the average, <code>0</code> if nothing is recorded.
+	 */
+	public long getAverage() {
+		long c = getCount();
+		return (c>0)?(getSum()/c):0;
+	}
+	
+	/**
+	 * The number of buckets, which is the number of bounds plus the bucket for durations greater than the largest bound.
+	 * @return the number of buckets.
+	 */
+	public int getBucketCount() {
+		return buckets.length();
+	}
+	
+	/**
+	 * The upper bound of a bucket.
+	 * @param index the bucket index.
+	 * @return the bound in milliseconds, <code>Long.MAX_VALUE</code> for the last bucket.
+	 */
+	public long getBound(int index) {
+		return (index<bounds.length)?bounds[index]:Long.MAX_VALUE;
+	}
+	
+	/**
+	 * The number of recorded durations in a bucket.
+	 * @param index the bucket index.
+	 * @return the count of the bucket.
+	 */
+	public long getBucket(int index) {
+		return buckets.get(index);
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram [count=" + getCount() + ", sum=" + getSum() + ", max=" + getMax() + ", average=" + getAverage() + "]";
+	}
+}
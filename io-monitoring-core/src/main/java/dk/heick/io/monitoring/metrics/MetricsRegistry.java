@@ -0,0 +1,224 @@
+package dk.heick.io.monitoring.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the metrics of all the running <tt>MonitorTask</tt> instances. <br>
+ * A task registers its metrics when it is created and unregisters them when it is shut down.
+ * If JMX is enabled the metrics is also registered as an MBean named <code>dk.heick.io.monitoring:type=MonitorTask,name="&lt;name&gt;"</code>.<br>
+ * The metrics is only weakly referenced by the registry and the MBean, so the metrics of a task that is never shut down
+ * is removed when the task is garbage collected.
+ * @author Frederik Heick
+ * @see MonitorTaskMetrics
+ * @see PrometheusMetricsServer
+ */
+public final class MetricsRegistry {
+
+	public final static String JMX_DOMAIN="dk.heick.io.monitoring";
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(MetricsRegistry.class.getName());
+	private final static ConcurrentMap<String,MetricsReference> METRICS = new ConcurrentHashMap<String,MetricsReference>();
+	private final static ReferenceQueue<MonitorTaskMetrics> COLLECTED = new ReferenceQueue<MonitorTaskMetrics>();
+
+	private MetricsRegistry() {
+		super();
+	}
+
+	/**
+	 * Creates and registers the metrics of a task. If other metrics is registered with the name, ex. two tasks on the same directory,
+	 * the name is made unique with a "#&lt;number&gt;" suffix.
+	 * @param name the name.
+	 * @param type the type of the task, ex. the simple class name.
+	 * @param jmx if the metrics also is registered as an MBean.
+	 * @return the registered metrics.
+	 */
+	public static MonitorTaskMetrics register(String name,String type,boolean jmx) {
+		String uniqueName = name;
+		int number = 1;
+		while (true) {
+			MonitorTaskMetrics metrics = new MonitorTaskMetrics(uniqueName,type);
+			if (register(metrics,jmx)) {
+				return metrics;
+			}
+			number++;
+			uniqueName = name+"#"+number;
+		}
+	}
+
+	/**
+	 * Registers the metrics.
+	 * @param metrics the metrics.
+	 * @param jmx if the metrics also is registered as an MBean.
+	 * @return <code>true</code> if registered, <code>false</code> if other metrics is registered with the same name.
+	 */
+	public static boolean register(MonitorTaskMetrics metrics,boolean jmx) {
+		removeCollected();
+		MetricsReference reference = new MetricsReference(metrics,jmx);
+		MetricsReference previous = METRICS.putIfAbsent(metrics.getName(), reference);
+		if (previous!=null) {
+			MonitorTaskMetrics registered = previous.get();
+			if (registered==metrics) {
+				return true;
+			} else if ((registered!=null) || (!METRICS.replace(metrics.getName(), previous, reference))) {
+				return false;
+			} else if (previous.jmx) {
+				unregisterMBean(metrics.getName());
+			}
+		}
+		if (jmx) {
+			registerMBean(metrics);
+		}
+		return true;
+	}
+
+	/**
+	 * Unregisters the metrics, and the MBean if registered.
+	 * @param metrics the metrics, if they are not registered nothing happens.
+	 */
+	public static void unregister(MonitorTaskMetrics metrics) {
+		MetricsReference reference = METRICS.get(metrics.getName());
+		if ((reference!=null) && (reference.get()==metrics) && (METRICS.remove(metrics.getName(), reference))) {
+			reference.clear();
+			if (reference.jmx) {
+				unregisterMBean(metrics.getName());
+			}
+		}
+	}
+
+	/**
+	 * Gets the registered metrics with the name.
+	 * @param name the name.
+	 * @return the metrics, <code>null</code> if not registered.
+	 */
+	public static MonitorTaskMetrics get(String name) {
+		removeCollected();
+		MetricsReference reference = METRICS.get(name);
+		return (reference!=null)?reference.get():null;
+	}
+
+	/**
+	 * All the registered metrics.
+	 * @return a snapshot of the registered metrics.
+	 */
+	public static List<MonitorTaskMetrics> getMetrics() {
+		removeCollected();
+		List<MonitorTaskMetrics> result = new ArrayList<MonitorTaskMetrics>(METRICS.size());
+		for (MetricsReference reference : METRICS.values()) {
+			MonitorTaskMetrics metrics = reference.get();
+			if (metrics!=null) {
+				result.add(metrics);
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Creates the MBean name of the metrics.
+	 * @param metrics the metrics.
+	 * @return the object name.
+	 * @throws MalformedObjectNameException if the name can not be used.
+	 */
+	public static ObjectName createObjectName(MonitorTaskMetrics metrics) throws MalformedObjectNameException {
+		return createObjectName(metrics.getName());
+	}
+
+	private static ObjectName createObjectName(String name) throws MalformedObjectNameException {
+		return new ObjectName(JMX_DOMAIN+":type=MonitorTask,name="+ObjectName.quote(name));
+	}
+
+	/**
+	 * Removes the metrics of tasks that has been garbage collected without being shut down.
+	 */
+	private static void removeCollected() {
+		Reference<? extends MonitorTaskMetrics> collected;
+		while ((collected=COLLECTED.poll())!=null) {
+			MetricsReference reference = (MetricsReference)collected;
+			if ((METRICS.remove(reference.name, reference)) && (reference.jmx)) {
+				unregisterMBean(reference.name);
+			}
+		}
+	}
+
+	private static void registerMBean(MonitorTaskMetrics metrics) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = createObjectName(metrics);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(new StandardMBean(createWeakMBean(metrics),MonitorTaskMetricsMBean.class), objectName);
+		} catch (JMException e) {
+			LOGGER.error("Unable to register metrics MBean ["+metrics.getName()+"], "+e.getMessage(),e);
+		}
+	}
+
+	private static void unregisterMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = createObjectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			LOGGER.error("Unable to unregister metrics MBean ["+name+"], "+e.getMessage(),e);
+		}
+	}
+
+	/**
+	 * The MBean server keeps the MBean until it is unregistered, so the MBean only has a weak reference to the metrics.
+	 * @param metrics the metrics.
+	 * @return the MBean.
+	 */
+	private static MonitorTaskMetricsMBean createWeakMBean(MonitorTaskMetrics metrics) {
+		final WeakReference<MonitorTaskMetrics> reference = new WeakReference<MonitorTaskMetrics>(metrics);
+		final String name = metrics.getName();
+		return (MonitorTaskMetricsMBean)Proxy.newProxyInstance(MonitorTaskMetricsMBean.class.getClassLoader(), new Class<?>[] {MonitorTaskMetricsMBean.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				MonitorTaskMetrics target = reference.get();
+				if (target==null) {
+					throw new IllegalStateException("The metrics ["+name+"] has been garbage collected.");
+				}
+				try {
+					return method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+	}
+
+	/**
+	 * A registered metrics.
+	 */
+	private static class MetricsReference extends WeakReference<MonitorTaskMetrics> {
+		private final String name;
+		private final boolean jmx;
+		MetricsReference(MonitorTaskMetrics metrics,boolean jmx) {
+			super(metrics,COLLECTED);
+			this.name=metrics.getName();
+			this.jmx=jmx;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package dk.heick.io.monitoring.metrics;
+
+/**
+ * The metrics of one <tt>MonitorTask</tt>, recorded by the task on every run. <br>
+ * <ul>
+ * 		<li>runs : the number of runs.</li>
+ * 		<li>detectDuration, monitorDuration, processDuration : the duration of each step of a run.</li>
+ * 		<li>filesDetected : files added to the file monitor.</li>
+ * 		<li>filesStabilized : stable files moved to the ".process" directory.</li>
+ * 		<li>filesProcessed, filesErrored : files processed successfully or moved to the ".error" directory.</li>
+ * 		<li>fileProcessDuration : the time the file processor used on a file.</li>
+ * 		<li>timeToProcessed : the time from a file was first seen until it was processed.</li>
+ * 		<li>filesMonitored : the number of files in the file monitor after the latest run.</li>
+ * 		<li>processBacklog : the number of files in the ".process" directory at the latest processing step.</li>
+ * 		<li>fileRetryQueue : the number of failed file operations waiting to be retried.</li>
+ * </ul>
+ * Recording is lock free and do not create any objects.
+ * @author Frederik Heick
+ * @see MetricsRegistry
+ */
+public class MonitorTaskMetrics implements MonitorTaskMetricsMBean {
+	
+	private final String name;
+	private final String type;
+	//
+	private final Counter runs = new Counter();
+	private final Counter filesDetected = new Counter();
+	private final Counter filesStabilized = new Counter();
+	private final Counter filesProcessed = new Counter();
+	private final Counter filesErrored = new Counter();
+	private final Gauge filesMonitored = new Gauge();
+	private final Gauge processBacklog = new Gauge();
+	private final Gauge fileRetryQueue = new Gauge();
+	//
+	private final Histogram detectDuration = new Histogram();
+	private final Histogram monitorDuration = new Histogram();
+	private final Histogram processDuration = new Histogram();
+	private final Histogram fileProcessDuration = new Histogram();
+	private final Histogram timeToProcessed = new Histogram();
+	
+	/**
+	 * Constructor.
+	 * @param name the name of the task, unique among the tasks.
+	 * @param type the type of the task, ex. the simple class name.
+	 */
+	public MonitorTaskMetrics(String name,String type) {
+		super();
+		this.name=name;
+		this.type=type;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+	@Override
+	public String getType() {
+		return type;
+	}
+	
+	public Counter getRunsCounter() {
+		return runs;
+	}
+	public Counter getFilesDetectedCounter() {
+		return filesDetected;
+	}
+	public Counter getFilesStabilizedCounter() {
+		return filesStabilized;
+	}
+	public Counter getFilesProcessedCounter() {
+		return filesProcessed;
+	}
+	public Counter getFilesErroredCounter() {
+		return filesErrored;
+	}
+	public Gauge getFilesMonitoredGauge() {
+		return filesMonitored;
+	}
+	public Gauge getProcessBacklogGauge() {
+		return processBacklog;
+	}
+	public Gauge getFileRetryQueueGauge() {
+		return fileRetryQueue;
+	}
+	public Histogram getDetectDuration() {
+		return detectDuration;
+	}
+	public Histogram getMonitorDuration() {
+		return monitorDuration;
+	}
+	public Histogram getProcessDuration() {
+		return processDuration;
+	}
+	public Histogram getFileProcessDuration() {
+		return fileProcessDuration;
+	}
+	public Histogram getTimeToProcessed() {
+		return timeToProcessed;
+	}
+	
+	@Override
+	public long getRuns() {
+		return runs.get();
+	}
+	@Override
+	public long getFilesDetected() {
+		return filesDetected.get();
+	}
+	@Override
+	public long getFilesStabilized() {
+		return filesStabilized.get();
+	}
+	@Override
+	public long getFilesProcessed() {
+		return filesProcessed.get();
+	}
+	@Override
+	public long getFilesErrored() {
+		return filesErrored.get();
+	}
+	@Override
+	public long getFilesMonitored() {
+		return filesMonitored.get();
+	}
+	@Override
+	public long getProcessBacklog() {
+		return processBacklog.get();
+	}
+	@Override
+	public long getFileRetryQueue() {
+		return fileRetryQueue.get();
+	}
+	@Override
+	public long getDetectDurationAverage() {
+		return detectDuration.getAverage();
+	}
+	@Override
+	public long getDetectDurationMax() {
+		return detectDuration.getMax();
+	}
+	@Override
+	public long getMonitorDurationAverage() {
+		return monitorDuration.getAverage();
+	}
+	@Override
+	public long getMonitorDurationMax() {
+		return monitorDuration.getMax();
+	}
+	@Override
+	public long getProcessDurationAverage() {
+		return processDuration.getAverage();
+	}
+	@Override
+	public long getProcessDurationMax() {
+		return processDuration.getMax();
+	}
+	@Override
+	public long getFileProcessDurationAverage() {
+		return fileProcessDuration.getAverage();
+	}
+	@Override
+	public long getFileProcessDurationMax() {
+		return fileProcessDuration.getMax();
+	}
+	@Override
+	public long getTimeToProcessedAverage() {
+		return timeToProcessed.getAverage();
+	}
+	@Override
+	public long getTimeToProcessedMax() {
+		return timeToProcessed.getMax();
+	}
+
+	@Override
+	public String toString() {
+		return "MonitorTaskMetrics [name=" + name + ", type=" + type + ", runs=" + runs + ", filesDetected=" + filesDetected
+				+ ", filesStabilized=" + filesStabilized + ", filesProcessed=" + filesProcessed + ", filesErrored=" + filesErrored 
+				+ ", filesMonitored=" + filesMonitored + ", processBacklog=" + processBacklog + ", fileRetryQueue=" + fileRetryQueue + "]";
+	}
+	
+}
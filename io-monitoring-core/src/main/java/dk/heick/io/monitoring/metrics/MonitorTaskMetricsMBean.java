@@ -0,0 +1,33 @@
+package dk.heick.io.monitoring.metrics;
+
+/**
+ * The JMX view of the metrics of a <tt>MonitorTask</tt>. All durations is in milliseconds.
+ * @author Frederik Heick
+ * @see MonitorTaskMetrics
+ */
+public interface MonitorTaskMetricsMBean {
+	
+	public String getName();
+	public String getType();
+	//
+	public long getRuns();
+	public long getFilesDetected();
+	public long getFilesStabilized();
+	public long getFilesProcessed();
+	public long getFilesErrored();
+	public long getFilesMonitored();
+	public long getProcessBacklog();
+	public long getFileRetryQueue();
+	//
+	public long getDetectDurationAverage();
+	public long getDetectDurationMax();
+	public long getMonitorDurationAverage();
+	public long getMonitorDurationMax();
+	public long getProcessDurationAverage();
+	public long getProcessDurationMax();
+	public long getFileProcessDurationAverage();
+	public long getFileProcessDurationMax();
+	public long getTimeToProcessedAverage();
+	public long getTimeToProcessedMax();
+
+}
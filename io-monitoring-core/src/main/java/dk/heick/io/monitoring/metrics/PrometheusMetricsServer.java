@@ -0,0 +1,220 @@
+package dk.heick.io.monitoring.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of all the registered tasks in the Prometheus text format, with the JDK built in <tt>HttpServer</tt>. <br>
+ * The page is served on the path {@value #PATH}, durations is in seconds as Prometheus expects.
+ * <pre>
+ * 	PrometheusMetricsServer server = new PrometheusMetricsServer(9400);
+ * 	server.start();
+ * 	...
+ * 	server.stop();
+ * </pre>
+ * @author Frederik Heick
+ * @see MetricsRegistry
+ */
+public class PrometheusMetricsServer {
+	
+	public final static String PATH="/metrics";
+	public final static String CONTENT_TYPE="text/plain; version=0.0.4; charset=utf-8";
+	private final static String PREFIX="io_monitoring_";
+	
+	private final InetSocketAddress address;
+	private HttpServer server = null;
+	
+	/**
+	 * Constructor, listening on all interfaces.
+	 * @param port the port, if <code>0</code> a free port is used.
+	 */
+	public PrometheusMetricsServer(int port) {
+		this(new InetSocketAddress(port));
+	}
+	
+	/**
+	 * Constructor.
+	 * @param address the address to listen on.
+	 */
+	public PrometheusMetricsServer(InetSocketAddress address) {
+		super();
+		this.address=address;
+	}
+	
+	/**
+	 * Starts the server, if not already started.
+	 * @throws IOException if the server can not listen on the address.
+	 */
+	public synchronized void start() throws IOException {
+		if (server==null) {
+			HttpServer httpServer = HttpServer.create(address, 0);
+			httpServer.createContext(PATH, new MetricsHandler());
+			httpServer.start();
+			server = httpServer;
+		}
+	}
+	
+	/**
+	 * Stops the server, if started.
+	 */
+	public synchronized void stop() {
+		if (server!=null) {
+			server.stop(0);
+			server=null;
+		}
+	}
+	
+	/**
+	 * If the server is started.
+	 * @return <code>true</code> if started.
+	 */
+	public synchronized boolean isStarted() {
+		return server!=null;
+	}
+	
+	/**
+	 * The port the server listens on.
+	 * @return the port, or the configured port if not started.
+	 */
+	public synchronized int getPort() {
+		if (server!=null) {
+			return server.getAddress().getPort();
+		} else {
+			return address.getPort();
+		}
+	}
+	
+	class MetricsHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				byte[] body = format(MetricsRegistry.getMetrics()).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(200, -1);
+				} else {
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.flush();
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+	
+	/**
+	 * Formats the metrics in the Prometheus text format.
+	 * @param metrics the metrics.
+	 * @return the text.
+	 */
+	public static String format(Collection<MonitorTaskMetrics> metrics) {
+		StringBuilder sb = new StringBuilder(4096);
+		formatHeader(sb, "runs_total", "counter", "Number of runs of the task.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "runs_total", m, null, m.getRuns());
+		}
+		formatHeader(sb, "files_detected_total", "counter", "Files added to the file monitor.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "files_detected_total", m, null, m.getFilesDetected());
+		}
+		formatHeader(sb, "files_stabilized_total", "counter", "Stable files moved to the process directory.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "files_stabilized_total", m, null, m.getFilesStabilized());
+		}
+		formatHeader(sb, "files_processed_total", "counter", "Files processed successfully.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "files_processed_total", m, null, m.getFilesProcessed());
+		}
+		formatHeader(sb, "files_errored_total", "counter", "Files moved to the error directory.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "files_errored_total", m, null, m.getFilesErrored());
+		}
+		formatHeader(sb, "files_monitored", "gauge", "Files in the file monitor after the latest run.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "files_monitored", m, null, m.getFilesMonitored());
+		}
+		formatHeader(sb, "process_backlog", "gauge", "Files in the process directory at the latest processing step.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "process_backlog", m, null, m.getProcessBacklog());
+		}
+		formatHeader(sb, "file_retry_queue", "gauge", "Failed file operations waiting to be retried.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatValue(sb, "file_retry_queue", m, null, m.getFileRetryQueue());
+		}
+		formatHeader(sb, "step_duration_seconds", "histogram", "Duration of each step of a run.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatHistogram(sb, "step_duration_seconds", m, "step=\"detect\"", m.getDetectDuration());
+			formatHistogram(sb, "step_duration_seconds", m, "step=\"monitor\"", m.getMonitorDuration());
+			formatHistogram(sb, "step_duration_seconds", m, "step=\"process\"", m.getProcessDuration());
+		}
+		formatHeader(sb, "file_process_duration_seconds", "histogram", "Time the file processor used on a file.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatHistogram(sb, "file_process_duration_seconds", m, null, m.getFileProcessDuration());
+		}
+		formatHeader(sb, "time_to_processed_seconds", "histogram", "Time from a file was first seen until it was processed.");
+		for (MonitorTaskMetrics m : metrics) {
+			formatHistogram(sb, "time_to_processed_seconds", m, null, m.getTimeToProcessed());
+		}
+		return sb.toString();
+	}
+	
+	private static void formatHeader(StringBuilder sb,String name,String type,String help) {
+		sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+	
+	private static void formatValue(StringBuilder sb,String name,MonitorTaskMetrics metrics,String labels,long value) {
+		sb.append(PREFIX).append(name);
+		formatLabels(sb, metrics, labels);
+		sb.append(' ').append(value).append('\n');
+	}
+	
+	private static void formatHistogram(StringBuilder sb,String name,MonitorTaskMetrics metrics,String labels,Histogram histogram) {
+		long cumulative = 0;
+		for (int i=0;i<histogram.getBucketCount();i++) {
+			cumulative += histogram.getBucket(i);
+			long bound = histogram.getBound(i);
+			String le = (bound==Long.MAX_VALUE)?"+Inf":toSeconds(bound);
+			sb.append(PREFIX).append(name).append("_bucket");
+			formatLabels(sb, metrics, ((labels!=null)?labels+",":"")+"le=\""+le+"\"");
+			sb.append(' ').append(cumulative).append('\n');
+		}
+		sb.append(PREFIX).append(name).append("_sum");
+		formatLabels(sb, metrics, labels);
+		sb.append(' ').append(toSeconds(histogram.getSum())).append('\n');
+		sb.append(PREFIX).append(name).append("_count");
+		formatLabels(sb, metrics, labels);
+		//The buckets is read one at a time, so the count is taken from the buckets to match the +Inf bucket
+		sb.append(' ').append(cumulative).append('\n');
+	}
+	
+	private static void formatLabels(StringBuilder sb,MonitorTaskMetrics metrics,String labels) {
+		sb.append("{task=\"").append(escape(metrics.getName())).append("\",type=\"").append(escape(metrics.getType())).append('"');
+		if (labels!=null) {
+			sb.append(',').append(labels);
+		}
+		sb.append('}');
+	}
+	
+	private static String toSeconds(long milliseconds) {
+		return String.format(Locale.ROOT, "%.3f", milliseconds/1000.0d);
+	}
+	
+	private static String escape(String value) {
+		if (value==null) {
+			return "";
+		} else {
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package dk.heick.io.monitoring.processor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+/**
+ * JVM wide registry of <tt>JAXBContext</tt> and <tt>UnmarshallerPool</tt> instances, keyed by the annotated class. <br>
+ * Creating a <tt>JAXBContext</tt> is expensive, but it is thread safe, so all the processors of the same annotated class shares one context and one pool of unmarshallers.
+ * @author Frederik Heick
+ * @see UnmarshallerPool
+ */
+public final class JAXBContextRegistry {
+	
+	private final static ConcurrentMap<Class<?>,JAXBContext> CONTEXTS = new ConcurrentHashMap<Class<?>,JAXBContext>();
+	private final static ConcurrentMap<Class<?>,UnmarshallerPool> POOLS = new ConcurrentHashMap<Class<?>,UnmarshallerPool>();
+	
+	private JAXBContextRegistry() {
+		super();
+	}
+	
+	/**
+	 * Gets the shared context of the annotated class, created the first time.
+	 * @param annotatedClass the annotated class.
+	 * @return the context.
+	 * @throws JAXBException if the context can not be created.
+	 * @throws NullPointerException if <tt>annotatedClass</tt> is <code>null</code>.
+	 */
+	public static JAXBContext getContext(Class<?> annotatedClass) throws JAXBException,NullPointerException {
+		JAXBContext context = CONTEXTS.get(annotatedClass);
+		if (context==null) {
+			//Two threads can create a context at the same time, only the first one is kept
+			context = JAXBContext.newInstance(annotatedClass);
+			JAXBContext existing = CONTEXTS.putIfAbsent(annotatedClass, context);
+			if (existing!=null) {
+				context = existing;
+			}
+		}
+		return context;
+	}
+	
+	/**
+	 * Gets the shared unmarshaller pool of the annotated class, created the first time with the default pool size.
+	 * @param annotatedClass the annotated class.
+	 * @return the pool.
+	 * @throws JAXBException if the context can not be created.
+	 * @throws NullPointerException if <tt>annotatedClass</tt> is <code>null</code>.
+	 * @see UnmarshallerPool#DEFAULT_POOL_SIZE
+	 */
+	public static UnmarshallerPool getUnmarshallerPool(Class<?> annotatedClass) throws JAXBException,NullPointerException {
+		UnmarshallerPool pool = POOLS.get(annotatedClass);
+		if (pool==null) {
+			pool = new UnmarshallerPool(getContext(annotatedClass),UnmarshallerPool.DEFAULT_POOL_SIZE);
+			UnmarshallerPool existing = POOLS.putIfAbsent(annotatedClass, pool);
+			if (existing!=null) {
+				pool = existing;
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * Creates the context and one pooled unmarshaller, so the first file do not pay for it.
+	 * @param annotatedClass the annotated class.
+	 * @throws JAXBException if the context or the unmarshaller can not be created.
+	 * @throws NullPointerException if <tt>annotatedClass</tt> is <code>null</code>.
+	 */
+	public static void warmUp(Class<?> annotatedClass) throws JAXBException,NullPointerException {
+		UnmarshallerPool pool = getUnmarshallerPool(annotatedClass);
+		pool.release(pool.borrow());
+	}
+	
+	/**
+	 * If the context of the annotated class has been created.
+	 * @param annotatedClass the annotated class.
+	 * @return <code>true</code> if the context is in the registry.
+	 */
+	public static boolean contains(Class<?> annotatedClass) {
+		return (annotatedClass!=null) && (CONTEXTS.containsKey(annotatedClass));
+	}
+}
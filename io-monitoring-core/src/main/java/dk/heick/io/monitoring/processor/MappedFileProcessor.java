@@ -0,0 +1,124 @@
+package dk.heick.io.monitoring.processor;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import dk.heick.io.monitoring.validation.ValidateUtils;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * An abstract that maps the file into memory with <tt>FileChannel.map</tt>, and hands the read-only buffer to <tt>process(context,buffer,position)</tt>. <br>
+ * The bytes is read directly from the file system cache, they are not copied to the heap.
+ * A <tt>ByteBuffer</tt> can at most hold 2 GB, so larger files, or files larger than the window size,
+ * is mapped as a sequence of windows and <tt>process(context,buffer,position)</tt> is called once per window in file order.
+ * For fixed width records use a window size that is a multiple of the record length, so no record is split between two windows.<br>
+ * The buffer is unmapped when <tt>process(context,buffer,position)</tt> returns, so it must not be used afterwards.<br>
+ * You must implement the method <tt>process(context,buffer,position)</tt>.
+ * @author Frederik Heick
+ * @version 1.0
+ */
+public abstract class MappedFileProcessor extends DefaultFileProcessor {
+
+	public final static long DEFAULT_WINDOW_SIZE=Integer.MAX_VALUE;
+
+	private long windowSize;
+
+	/**
+	 * Constructor, files up to 2 GB is mapped as one buffer.
+	 */
+	public MappedFileProcessor() {
+		this(DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param windowSize the maximum number of bytes mapped at a time, between <code>1</code> and <tt>Integer.MAX_VALUE</tt>.
+	 */
+	public MappedFileProcessor(long windowSize) {
+		super();
+		this.windowSize=windowSize;
+	}
+
+	@Override
+	public void validate() throws ValidationException {
+		ValidateUtils.validateRange("WindowSize", getWindowSize(), 1L, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * The maximum number of bytes mapped at a time.
+	 * @return the window size.
+	 */
+	public final long getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Maps the file window by window, and calls <tt>process(context,buffer,position)</tt> for each window.
+	 * An empty file is processed as one empty window.
+	 */
+	@Override
+	public void process(Properties context, File file) throws Exception {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			long position = 0;
+			do {
+				long length = Math.min(getWindowSize(), size-position);
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, length);
+				try {
+					process(context,buffer,position);
+				} finally {
+					unmap(buffer);
+				}
+				position += length;
+			} while (position<size);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * What to do with a mapped window of the file.
+	 * @param context the properties context initialized in the "beforeProcess".
+	 * @param buffer the read-only window, from <code>0</code> to its limit. Must not be used after the method returns.
+	 * @param position the position in the file of the first byte of the window.
+	 * @throws Exception any exception in processing, stops the processing of the file.
+	 * @see #beforeProcess(Properties, File)
+	 */
+	public abstract void process(Properties context,ByteBuffer buffer,long position) throws Exception;
+
+	/**
+	 * Releases the mapping now instead of when the buffer is garbage collected,
+	 * else the file can not be moved to the archive on some platforms. Best effort, if not possible it is left to the garbage collector.
+	 * @param buffer the mapped buffer.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			//Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			try {
+				//Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner!=null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (Exception e2) {
+			}
+		} catch (Exception e) {
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package dk.heick.io.monitoring.processor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import dk.heick.io.monitoring.validation.ValidateUtils;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * An abstract that streams a XML file with StAX, and converts each repeating element to a XML/JAXB instance one at a time. <br>
+ * Only one element is in memory at a time, so the heap use do not depend on the file size, ex. a file like
+ * <pre>
+ * 	&lt;records&gt;
+ * 		&lt;record&gt;...&lt;/record&gt;
+ * 		&lt;record&gt;...&lt;/record&gt;
+ * 	&lt;/records&gt;
+ * </pre>
+ * is processed with the element name "record", and <tt>processElement(context,T)</tt> is called for each record.<br>
+ * Elements with the name nested inside a matched element is part of the matched element.
+ * After the file is processed the number of elements is set in the context as {@value #ELEMENT_COUNT}.<br>
+ * You must implement the method <tt>processElement(context,T)</tt>.
+ * @author Frederik Heick
+ * @version 1.0
+ * @param <T> class of the repeating element, annotated with &#64;XmlRootElement or &#64;XmlType.
+ * @see XMLFileProcessor
+ */
+public abstract class StreamingXMLFileProcessor<T> extends DefaultFileProcessor {
+
+	public final static String ELEMENT_COUNT="ELEMENT_COUNT";
+	private final static int BUFFER_SIZE=64*1024;
+
+	private Class<T> elementClass=null;
+	private String elementName=null;
+	private String encoding=null;
+	private XMLInputFactory xmlInputFactory=null;
+
+	/**
+	 * Constructor.
+	 * @param elementClass the annotated class of the repeating element.
+	 * @param elementName the local name of the repeating element.
+	 * @param encoding the encoding of the file. If <code>null</code> the encoding is read from the XML declaration.
+	 */
+	public StreamingXMLFileProcessor(Class<T> elementClass,String elementName,String encoding) {
+		super();
+		this.elementClass=elementClass;
+		this.elementName=elementName;
+		this.encoding=encoding;
+	}
+
+	/**
+	 * Constructor, the encoding is read from the XML declaration.
+	 * @param elementClass the annotated class of the repeating element.
+	 * @param elementName the local name of the repeating element.
+	 */
+	public StreamingXMLFileProcessor(Class<T> elementClass,String elementName) {
+		this(elementClass,elementName,null);
+	}
+
+	@Override
+	public void validate() throws ValidationException {
+		ValidateUtils.validateNotNull("ElementClass", getElementClass());
+		ValidateUtils.validateNotEmpty("ElementName", getElementName());
+		try {
+			ValidateUtils.validateNotNull("JAXBContext", getContext());
+			JAXBContextRegistry.warmUp(getElementClass());
+		} catch (JAXBException e) {
+			ValidateUtils.validateFailed("JAXBContext",e);
+		}
+	}
+
+	/**
+	 * Gets the JAXB context, shared by all processors of the element class.
+	 * @return the JAXBContext for the element class.
+	 * @throws JAXBException if not able to create a JAXB Context.
+	 * @see #getElementClass()
+	 * @see JAXBContextRegistry
+	 */
+	public final JAXBContext getContext() throws JAXBException {
+		return JAXBContextRegistry.getContext(getElementClass());
+	}
+
+	/**
+	 * The StAX factory, intialized once. DTDs and external entities is not supported.
+	 * @return the XMLInputFactory.
+	 */
+	protected final synchronized XMLInputFactory getXMLInputFactory() {
+		if (xmlInputFactory==null) {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			xmlInputFactory = factory;
+		}
+		return xmlInputFactory;
+	}
+
+	public final Class<T> getElementClass() {
+		return elementClass;
+	}
+
+	public final String getElementName() {
+		return elementName;
+	}
+
+	/**
+	 * The file encoding if any.
+	 * @return the encoding to use when loading the file, if <code>null</code>, the encoding is read from the XML declaration.
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Streams the file and calls <tt>processElement(context,T)</tt> for each repeating element. <br>
+	 * Each call to this method borrows its own <tt>Unmarshaller</tt> from the shared pool, so the processor can be used by more than one processing thread.
+	 */
+	@Override
+	public void process(Properties context,File file) throws Exception {
+		long count=0;
+		UnmarshallerPool pool = JAXBContextRegistry.getUnmarshallerPool(getElementClass());
+		Unmarshaller unmarshaller = pool.borrow();
+		InputStream inputStream = null;
+		XMLStreamReader reader = null;
+		try {
+			inputStream = new BufferedInputStream(new FileInputStream(file),BUFFER_SIZE);
+			if (getEncoding()==null) {
+				reader = getXMLInputFactory().createXMLStreamReader(inputStream);
+			} else {
+				reader = getXMLInputFactory().createXMLStreamReader(inputStream,getEncoding());
+			}
+			int event = reader.getEventType();
+			while (event!=XMLStreamConstants.END_DOCUMENT) {
+				if ((event==XMLStreamConstants.START_ELEMENT) && (getElementName().equals(reader.getLocalName()))) {
+					T element = unmarshaller.unmarshal(reader, getElementClass()).getValue();
+					count++;
+					processElement(context,element);
+					//The unmarshaller leaves the reader on the event after the end of the element
+					event = reader.getEventType();
+				} else {
+					event = reader.next();
+				}
+			}
+		} finally {
+			close(reader);
+			close(inputStream);
+			pool.release(unmarshaller);
+			context.setProperty(ELEMENT_COUNT, Long.toString(count));
+		}
+	}
+
+	private void close(XMLStreamReader reader) {
+		try {
+			if (reader!=null) {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+		}
+	}
+
+	private void close(InputStream inputStream) {
+		try {
+			if (inputStream!=null) {
+				inputStream.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * What to do with each repeating element. Throwing an exception stops the processing of the file.
+	 * @param context the properties context initialized in the "beforeProcess".
+	 * @param element the element instance.
+	 * @throws Exception any exception in processing the element.
+	 * @see #beforeProcess(Properties, File)
+	 */
+	public abstract void processElement(Properties context,T element) throws Exception;
+
+}
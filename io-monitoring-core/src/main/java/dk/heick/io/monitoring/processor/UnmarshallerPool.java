@@ -0,0 +1,89 @@
+package dk.heick.io.monitoring.processor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Bounded pool of <tt>Unmarshaller</tt> instances of one <tt>JAXBContext</tt>. <br>
+ * An <tt>Unmarshaller</tt> is not thread safe, so a thread borrows one, uses it and releases it again.
+ * If the pool is empty a new unmarshaller is created, so borrowing never waits, 
+ * and at most <tt>poolSize</tt> idle unmarshallers is kept, the rest is left to the garbage collector.
+ * <pre>
+ * 	Unmarshaller unmarshaller = pool.borrow();
+ * 	try {
+ * 		...
+ * 	} finally {
+ * 		pool.release(unmarshaller);
+ * 	}
+ * </pre>
+ * @author Frederik Heick
+ * @see JAXBContextRegistry
+ */
+public class UnmarshallerPool {
+	
+	/**
+	 * The default number of idle unmarshallers kept, the number of processors.
+	 */
+	public final static int DEFAULT_POOL_SIZE=Runtime.getRuntime().availableProcessors();
+	
+	private final JAXBContext context;
+	private final BlockingQueue<Unmarshaller> idle;
+	
+	/**
+	 * Constructor.
+	 * @param context the context the unmarshallers is created from.
+	 * @param poolSize the maximum number of idle unmarshallers, at least <code>1</code>.
+	 * @throws NullPointerException if <tt>context</tt> is <code>null</code>.
+	 */
+	public UnmarshallerPool(JAXBContext context,int poolSize) throws NullPointerException {
+		super();
+		if (context==null) {
+			throw new NullPointerException("JAXBContext is null.");
+		}
+		this.context=context;
+		this.idle = new ArrayBlockingQueue<Unmarshaller>(Math.max(1,poolSize));
+	}
+	
+	/**
+	 * Borrows an idle unmarshaller, or creates a new one if none is idle.
+	 * @return the unmarshaller, must be released after use.
+	 * @throws JAXBException if a new unmarshaller can not be created.
+	 */
+	public Unmarshaller borrow() throws JAXBException {
+		Unmarshaller unmarshaller = idle.poll();
+		if (unmarshaller==null) {
+			unmarshaller = context.createUnmarshaller();
+		}
+		return unmarshaller;
+	}
+	
+	/**
+	 * Returns an unmarshaller to the pool, if the pool is full it is discarded.
+	 * @param unmarshaller the unmarshaller, if <code>null</code> nothing happens.
+	 */
+	public void release(Unmarshaller unmarshaller) {
+		if (unmarshaller!=null) {
+			idle.offer(unmarshaller);
+		}
+	}
+	
+	/**
+	 * The context of the pool.
+	 * @return the context.
+	 */
+	public JAXBContext getContext() {
+		return context;
+	}
+	
+	/**
+	 * The number of idle unmarshallers in the pool.
+	 * @return the idle count.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+}
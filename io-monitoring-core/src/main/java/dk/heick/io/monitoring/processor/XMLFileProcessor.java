@@ -21,6 +21,8 @@ import dk.heick.io.monitoring.validation.ValidationException;
 
 /**
  * An abstract that converts a file to XML/JAXB instance. <br> 
+ * The <tt>JAXBContext</tt> and a pool of unmarshallers is shared by all processors of the same annotated class, 
+ * so the processor can be used by more than one processing thread.<br>
  * You must implement the method <tt>process(T)</tt>.<br>
  * @author Frederik Heick
  * @version 1.0
@@ -31,8 +33,6 @@ public abstract class XMLFileProcessor<T> extends DefaultFileProcessor {
 	
 	private Class<?> annotatedClass=null;	
 	private String encoding;
-	private JAXBContext jaxbContext=null;
-	private Unmarshaller unmarshaller=null;
 	
 	/**
 	 * Constructor
@@ -44,6 +44,7 @@ public abstract class XMLFileProcessor<T> extends DefaultFileProcessor {
 	public XMLFileProcessor(Class<T> annotatedClass,String encoding) {
 		super();
 		this.annotatedClass=annotatedClass;		
+		this.encoding=encoding;
 	}
 
 	/**
@@ -64,23 +65,31 @@ public abstract class XMLFileProcessor<T> extends DefaultFileProcessor {
 			ValidateUtils.validateFailed("JAXBContext",e);
 		}
 		try {			
-			ValidateUtils.validateNotNull("Unmarshaller",getUnmarshaller());
+			JAXBContextRegistry.warmUp(getAnnotatedClass());
 		} catch (JAXBException e) {
 			ValidateUtils.validateFailed("Unmarshaller",e);
 		}		
 	}
 	
 	/**
-	 * Gets the JAXB context, intialized once.
+	 * Gets the JAXB context, shared by all processors of the annotated class.
 	 * @return a JAXBContext the JAXBContext for the annotated class.
 	 * @throws JAXBException if not able to create a JAXB Context.
 	 * @see #getAnnotatedClass()
+	 * @see JAXBContextRegistry
 	 */
 	public final JAXBContext getContext() throws JAXBException {
-		if (jaxbContext==null) {
-			jaxbContext = JAXBContext.newInstance(getAnnotatedClass());
-		}
-		return jaxbContext;
+		return JAXBContextRegistry.getContext(getAnnotatedClass());
+	}
+	
+	/**
+	 * Gets the unmarshaller pool, shared by all processors of the annotated class.
+	 * @return the unmarshaller pool.
+	 * @throws JAXBException if not able to create a JAXB Context.
+	 * @see JAXBContextRegistry
+	 */
+	public final UnmarshallerPool getUnmarshallerPool() throws JAXBException {
+		return JAXBContextRegistry.getUnmarshallerPool(getAnnotatedClass());
 	}
 	
 	public final Class<?> getAnnotatedClass() {
@@ -88,15 +97,14 @@ public abstract class XMLFileProcessor<T> extends DefaultFileProcessor {
 	}
 	
 	/**
-	 * Lazy initializing a Unmarshaller which is stored in the class for future use.
+	 * Creates a new Unmarshaller, it is not pooled and must not be shared between threads.
 	 * @return an Unmarshaller instance. 
 	 * @throws JAXBException unable to create the conetxt or the unmarshaller.
+	 * @deprecated use <tt>getUnmarshallerPool()</tt>, borrow and release the unmarshaller.
 	 */
+	@Deprecated
 	public final Unmarshaller getUnmarshaller() throws JAXBException {
-		if (unmarshaller==null) {
-			unmarshaller = getContext().createUnmarshaller();
-		}
-		return unmarshaller;
+		return getContext().createUnmarshaller();
 	}
 	
 	/**
@@ -109,23 +117,38 @@ public abstract class XMLFileProcessor<T> extends DefaultFileProcessor {
 
 	@Override
 	public void process(Properties context,File file) throws Exception {		
-		if (getEncoding()==null) {
-			@SuppressWarnings("unchecked")
-			T xml = ((T)(getUnmarshaller().unmarshal(file)));
-			process(context,xml);				
-		} else {
-			InputStream inputStream = null;
-			Reader reader = null;
-			try {
-				inputStream = new FileInputStream(file);
-				reader = new InputStreamReader(inputStream, getEncoding());
-				@SuppressWarnings("unchecked")
-				T xml = ((T) unmarshaller.unmarshal(reader));
-				process(context,xml);
-			} finally  {
-				close(reader);
-				close(inputStream);				
+		T xml = unmarshal(file);
+		process(context,xml);
+	}
+	
+	/**
+	 * Unmarshals the file with an unmarshaller borrowed from the pool.
+	 * @param file the file.
+	 * @return the xml instance.
+	 * @throws JAXBException if the file can not be unmarshalled.
+	 * @throws IOException if the file can not be read.
+	 */
+	@SuppressWarnings("unchecked")
+	private T unmarshal(File file) throws JAXBException,IOException {
+		UnmarshallerPool pool = getUnmarshallerPool();
+		Unmarshaller unmarshaller = pool.borrow();
+		try {
+			if (getEncoding()==null) {
+				return ((T)(unmarshaller.unmarshal(file)));
+			} else {
+				InputStream inputStream = null;
+				Reader reader = null;
+				try {
+					inputStream = new FileInputStream(file);
+					reader = new InputStreamReader(inputStream, getEncoding());
+					return ((T) unmarshaller.unmarshal(reader));
+				} finally  {
+					close(reader);
+					close(inputStream);				
+				}
 			}
+		} finally {
+			pool.release(unmarshaller);
 		}
 	}
 	
@@ -73,7 +73,6 @@ public class MonitorTaskTimer implements TaskTimer {
 		timer.scheduleAtFixedRate(wrapper, startDelay, period);	
 	}
 
-	@Override
 	public Timer getTimer() {
 		return timer;
 	}
@@ -93,6 +92,9 @@ public class MonitorTaskTimer implements TaskTimer {
 		cancelAll();
 		getTimer().cancel();
 		getTimer().purge();
+		for (MonitorTaskTimerTaskWrapper wrapper : tasks) {
+			wrapper.getTask().shutdown();
+		}
 		running=false;
 	}
 	@Override
@@ -0,0 +1,67 @@
+package dk.heick.io.monitoring.timer;
+
+import dk.heick.io.monitoring.MonitorTask;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+/**
+ * A timer for monitoring many different directories using a pool of scheduler threads, 
+ * so a slow <tt>MonitorTask</tt> do not block the other tasks.
+ * @author Frederik Heick
+ * @see ScheduledTaskTimer
+ * @see MonitorTaskTimer
+ */
+public class ScheduledMonitorTaskTimer extends ScheduledTaskTimer<MonitorTask<?,?>> {
+	
+	/**
+	 * Constructor, using <tt>DEFAULT_POOL_SIZE</tt> scheduler threads.
+	 */
+	public ScheduledMonitorTaskTimer() {
+		this(DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param poolSize the number of scheduler threads.
+	 */
+	public ScheduledMonitorTaskTimer(int poolSize) {
+		super(poolSize,"io-monitoring-timer");
+	}
+	
+	/**
+	 * Adds a new MonitorTask to the timer, using default values.
+	 * @param task a new MonitorTask
+	 * @throws ValidationException if the task is not valid.
+	 * @see MonitorTaskTimer#DEFAULT_MONITORING_START_DELAY_MS
+	 * @see MonitorTaskTimer#DEFAULT_MONITORING_TIME_MS
+	 */
+	public void addTimerTask(MonitorTask<?,?> task) throws ValidationException {
+		addMonitoringTimerTask(task,MonitorTaskTimer.DEFAULT_MONITORING_START_DELAY_MS,MonitorTaskTimer.DEFAULT_MONITORING_TIME_MS);
+	}
+	public void addMonitoringTask(MonitorTask<?,?> task,long period) throws ValidationException {
+		addMonitoringTimerTask(task,MonitorTaskTimer.DEFAULT_MONITORING_START_DELAY_MS,period);		
+	}	
+	public void addMonitoringTimerTask(MonitorTask<?,?> task,long startDelay,long period) throws ValidationException {
+		task.validate();
+		if (startDelay<10) {
+			startDelay = MonitorTaskTimer.DEFAULT_MONITORING_START_DELAY_MS;
+		}
+		if (period<10) {
+			period = MonitorTaskTimer.DEFAULT_MONITORING_TIME_MS;
+		}
+		schedule(task, startDelay, period);
+	}
+	
+	@Override
+	protected void runTask(MonitorTask<?, ?> task) {
+		task.runTask();
+	}
+	
+	@Override
+	public void stop() {
+		super.stop();
+		for (MonitorTask<?,?> task : getTasks()) {
+			task.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+package dk.heick.io.monitoring.timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.heick.io.monitoring.TaskTimer;
+
+/**
+ * A <tt>TaskTimer</tt> backed by a sized <tt>ScheduledThreadPoolExecutor</tt> instead of a single <tt>java.util.Timer</tt> thread. <br>
+ * <ul>
+ * 	<li>Tasks is scheduled with fixed delay, the next run is due <tt>period</tt> after the previous run ended, so missed runs do not bunch up.</li>
+ * 	<li>As the next run is not due before the previous run has ended, the runs of a task never overlap.</li>
+ * 	<li>A slow task only occupies one of the scheduler threads, other tasks keep running on the remaining threads.</li>
+ * 	<li>An exception or error thrown by a task is logged, and the task stays scheduled.</li>
+ * 	<li><tt>stop()</tt> waits up to <tt>SHUTDOWN_TIMEOUT_MS</tt> for the runs in progress to end.</li>
+ * </ul>
+ * @author Frederik Heick
+ * @param <T> the task type.
+ * @see TaskSchedulingStatistics
+ */
+public abstract class ScheduledTaskTimer<T> implements TaskTimer {
+	
+	/**
+	 * The default number of scheduler threads, the number of available processors.
+	 */
+	public final static int DEFAULT_POOL_SIZE=Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * The max milliseconds <tt>stop()</tt> waits for the runs in progress to end.
+	 */
+	public final static long SHUTDOWN_TIMEOUT_MS=30000;
+	
+	private ScheduledThreadPoolExecutor executor;
+	private volatile boolean running=true;
+	private List<ScheduledTaskWrapper> tasks = new CopyOnWriteArrayList<ScheduledTaskWrapper>();
+	private List<ScheduledFuture<?>> additionals = new CopyOnWriteArrayList<ScheduledFuture<?>>();
+	private Logger logger=null;
+	
+	/**
+	 * Constructor.
+	 * @param poolSize the number of scheduler threads, if less than 1, <tt>DEFAULT_POOL_SIZE</tt> is used.
+	 * @param threadName the prefix of the scheduler thread names.
+	 */
+	public ScheduledTaskTimer(int poolSize,final String threadName) {
+		super();
+		if (poolSize<1) {
+			poolSize = DEFAULT_POOL_SIZE;
+		}
+		executor = new ScheduledThreadPoolExecutor(poolSize,new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable,threadName+"-"+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		running=true;
+	}
+	
+	/**
+	 * Runs the task once.
+	 * @param task the task.
+	 */
+	protected abstract void runTask(T task);
+	
+	/**
+	 * Schedules the task with fixed delay.
+	 * @param task the task.
+	 * @param startDelay delay in milliseconds before the first run.
+	 * @param period delay in milliseconds from the end of one run to the start of the next.
+	 */
+	protected final void schedule(T task,long startDelay,long period) {
+		ScheduledTaskWrapper wrapper = new ScheduledTaskWrapper(task,startDelay,period);
+		tasks.add(wrapper);
+		wrapper.setFuture(executor.scheduleWithFixedDelay(wrapper, startDelay, period, TimeUnit.MILLISECONDS));
+	}
+	
+	/**
+	 * Schedules an additional runnable with fixed delay, that is not a task of the timer, ex. a check between the runs of a task.
+	 * It is cancelled with the tasks.
+	 * @param runnable the runnable.
+	 * @param startDelay delay in milliseconds before the first run.
+	 * @param period delay in milliseconds from the end of one run to the start of the next.
+	 */
+	protected final void scheduleAdditional(Runnable runnable,long startDelay,long period) {
+		additionals.add(executor.scheduleWithFixedDelay(runnable, startDelay, period, TimeUnit.MILLISECONDS));
+	}
+	
+	public final List<T> getTasks() {
+		List<T> list = new ArrayList<T>();
+		for (ScheduledTaskWrapper wrapper : tasks) {
+			list.add(wrapper.getTask());
+		} 
+		return Collections.unmodifiableList(list);
+	}
+	
+	/**
+	 * Gets the scheduling statistics for a task.
+	 * @param task the task.
+	 * @return the statistics, <code>null</code> if the task is not scheduled in this timer.
+	 */
+	public final TaskSchedulingStatistics getStatistics(T task) {
+		for (ScheduledTaskWrapper wrapper : tasks) {
+			if (wrapper.getTask()==task) {
+				return wrapper.getStatistics();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * The number of scheduler threads.
+	 * @return the pool size.
+	 */
+	public final int getPoolSize() {
+		return executor.getCorePoolSize();
+	}
+	
+	/**
+	 * Cancels all tasks, important to do in "contextDestroy".
+	 */
+	@Override
+	public void cancelAll() {
+		for (ScheduledTaskWrapper wrapper : tasks) {
+			wrapper.cancel();
+		}
+		for (ScheduledFuture<?> future : additionals) {
+			future.cancel(false);
+		}
+	}
+	
+	/**
+	 * Cancels all tasks and waits for the runs in progress to end, at most <tt>SHUTDOWN_TIMEOUT_MS</tt>.
+	 */
+	@Override
+	public void stop() {
+		cancelAll();
+		executor.shutdown();
+		running=false;
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				getLogger().warn("Runs in progress has not ended within ["+SHUTDOWN_TIMEOUT_MS+"] ms after stop.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	@Override
+	public boolean isRunning() {		
+		return running;
+	}
+	@Override
+	public boolean isStopped() {
+		return !isRunning();
+	}
+	
+	public final Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName());
+		}
+		return logger;
+	}
+	
+	class ScheduledTaskWrapper implements Runnable {
+		private T task;
+		private long period;
+		private volatile long due;
+		private TaskSchedulingStatistics statistics = new TaskSchedulingStatistics();
+		private ScheduledFuture<?> future;
+		
+		public ScheduledTaskWrapper(T task,long startDelay,long period) {
+			this.task=task;
+			this.period=period;
+			this.due=System.currentTimeMillis()+startDelay;
+		}
+		public T getTask() {
+			return task;
+		}
+		public TaskSchedulingStatistics getStatistics() {
+			return statistics;
+		}
+		public void setFuture(ScheduledFuture<?> future) {
+			this.future = future;
+		}
+		public void cancel() {
+			if (future!=null) {
+				future.cancel(false);
+			}
+		}
+		/**
+		 * An exception or error escaping the run would cancel the schedule of the task, so it is logged instead.
+		 */
+		@Override
+		public void run() {
+			long start = System.currentTimeMillis();
+			boolean failed = false;
+			statistics.started(start, start-due);
+			try {
+				runTask(getTask());
+			} catch (Throwable e) {
+				failed = true;
+				getLogger().error("Task ["+getTask()+"] failed, "+e.getMessage(),e);
+			} finally {
+				long end = System.currentTimeMillis();
+				statistics.finished(end-start, failed);
+				due = end+period;
+			}
+		}
+	}
+
+}
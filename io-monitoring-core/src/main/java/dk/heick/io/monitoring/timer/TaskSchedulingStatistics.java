@@ -0,0 +1,126 @@
+package dk.heick.io.monitoring.timer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduling statistics for one task in a <tt>ScheduledTaskTimer</tt>. <br>
+ * The lag is the time from when a run was due until it actually started, which grows when the scheduler threads are busy with other tasks.
+ * @author Frederik Heick
+ * @see ScheduledTaskTimer
+ */
+public class TaskSchedulingStatistics {
+	
+	private AtomicLong runs = new AtomicLong(0);
+	private AtomicLong failedRuns = new AtomicLong(0);
+	private AtomicLong totalLag = new AtomicLong(0);
+	private AtomicLong maxLag = new AtomicLong(0);
+	private AtomicLong totalDuration = new AtomicLong(0);
+	private AtomicLong maxDuration = new AtomicLong(0);
+	private volatile long lastLag = 0;
+	private volatile long lastDuration = 0;
+	private volatile long lastStart = 0;
+	
+	/**
+	 * Constructor.
+	 */
+	public TaskSchedulingStatistics() {
+		super();
+	}
+	
+	protected void started(long start,long lag) {
+		runs.incrementAndGet();
+		lastStart = start;
+		lastLag = Math.max(0,lag);
+		totalLag.addAndGet(lastLag);
+		updateMax(maxLag,lastLag);
+	}
+	
+	protected void finished(long duration,boolean failed) {
+		if (failed) {
+			failedRuns.incrementAndGet();
+		}
+		lastDuration = duration;
+		totalDuration.addAndGet(duration);
+		updateMax(maxDuration,duration);
+	}
+	
+	private void updateMax(AtomicLong max,long value) {
+		long current = max.get();
+		while ((value>current) && (!max.compareAndSet(current, value))) {
+			current = max.get();
+		}
+	}
+	
+	/**
+	 * The number of times the task has been started.
+	 * @return started runs.
+	 */
+	public long getRuns() {
+		return runs.get();
+	}
+	
+	/**
+	 * The number of runs that ended with an exception.
+	 * @return failed runs.
+	 */
+	public long getFailedRuns() {
+		return failedRuns.get();
+	}
+	
+	/**
+	 * The scheduling lag of the latest run in milliseconds.
+	 * @return last lag.
+	 */
+	public long getLastLag() {
+		return lastLag;
+	}
+	
+	/**
+	 * The largest scheduling lag in milliseconds.
+	 * @return max lag.
+	 */
+	public long getMaxLag() {
+		return maxLag.get();
+	}
+	
+	/**
+	 * The average scheduling lag in milliseconds.
+	 * @return average lag, <code>0</code> if the task has not been run.
+	 */
+	public long getAverageLag() {
+		long count = getRuns();
+		return (count>0)?(totalLag.get()/count):0;
+	}
+	
+	/**
+	 * The duration of the latest completed run in milliseconds.
+	 * @return last duration.
+	 */
+	public long getLastDuration() {
+		return lastDuration;
+	}
+	
+	/**
+	 * The longest duration of a run in milliseconds.
+	 * @return max duration.
+	 */
+	public long getMaxDuration() {
+		return maxDuration.get();
+	}
+	
+	/**
+	 * When the latest run was started.
+	 * @return timestamp, <code>0</code> if the task has not been run.
+	 */
+	public long getLastStart() {
+		return lastStart;
+	}
+
+	@Override
+	public String toString() {
+		return "TaskSchedulingStatistics [runs=" + getRuns() + ", failedRuns=" + getFailedRuns()
+				+ ", lastLag=" + getLastLag() + ", maxLag=" + getMaxLag() + ", averageLag=" + getAverageLag() 
+				+ ", lastDuration=" + getLastDuration() + ", maxDuration=" + getMaxDuration() + "]";
+	}
+	
+}
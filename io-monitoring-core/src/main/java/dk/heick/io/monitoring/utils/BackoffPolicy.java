@@ -0,0 +1,111 @@
+package dk.heick.io.monitoring.utils;
+
+/**
+ * How many times a failing file operation is tried, and how long to wait between the attempts. <br>
+ * The delay before attempt <tt>n+1</tt> is <tt>initialDelay * multiplier^(n-1)</tt>, at most <tt>maxDelay</tt>, ex. the default policy waits 10 ms and 20 ms.
+ * The waiting thread only sleeps, there is no forced garbage collection.
+ * @author Frederik Heick
+ * @version 1.0
+ * @see FileUtils#rename(java.io.File, java.io.File, BackoffPolicy)
+ */
+public class BackoffPolicy {
+
+	/**
+	 * 3 attempts, waiting 10 ms and 20 ms between them.
+	 */
+	public final static BackoffPolicy DEFAULT = new BackoffPolicy(3, 10, 2.0, 1000);
+
+	/**
+	 * 1 attempt, no retries.
+	 */
+	public final static BackoffPolicy NO_RETRY = new BackoffPolicy(1, 0, 1.0, 0);
+
+	private int maxAttempts;
+	private long initialDelay;
+	private double multiplier;
+	private long maxDelay;
+
+	/**
+	 * Creates a backoff policy.
+	 * @param maxAttempts the number of attempts, has to be greater than 0.
+	 * @param initialDelay the milliseconds to wait after the first failed attempt, can not be negative.
+	 * @param multiplier the factor the delay is multiplied with after each failed attempt, has to be 1 or greater.
+	 * @param maxDelay the maximum milliseconds to wait between two attempts, can not be less than <tt>initialDelay</tt>.
+	 * @throws IllegalArgumentException if an argument is out of range.
+	 */
+	public BackoffPolicy(int maxAttempts,long initialDelay,double multiplier,long maxDelay) throws IllegalArgumentException {
+		super();
+		if (maxAttempts<1) {
+			throw new IllegalArgumentException("BackoffPolicy [maxAttempts] must be greather than zero.");
+		} else if (initialDelay<0) {
+			throw new IllegalArgumentException("BackoffPolicy [initialDelay] can not be negative.");
+		} else if (multiplier<1.0) {
+			throw new IllegalArgumentException("BackoffPolicy [multiplier] must be 1 or greather.");
+		} else if (maxDelay<initialDelay) {
+			throw new IllegalArgumentException("BackoffPolicy [maxDelay] can not be less than [initialDelay].");
+		} else {
+			this.maxAttempts=maxAttempts;
+			this.initialDelay=initialDelay;
+			this.multiplier=multiplier;
+			this.maxDelay=maxDelay;
+		}
+	}
+
+	public final int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public final long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public final double getMultiplier() {
+		return multiplier;
+	}
+
+	public final long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * The milliseconds to wait after a failed attempt.
+	 * @param attempt the failed attempt, starting with 1.
+	 * @return the delay in milliseconds.
+	 */
+	public final long getDelay(int attempt) {
+		double delay = initialDelay * Math.pow(multiplier, Math.max(0, attempt-1));
+		return (long)Math.min(delay, maxDelay);
+	}
+
+	/**
+	 * If there is another attempt after a failed attempt.
+	 * @param attempt the failed attempt, starting with 1.
+	 * @return <code>true</code> if <tt>attempt</tt> is less than <tt>maxAttempts</tt>.
+	 */
+	public final boolean hasNext(int attempt) {
+		return attempt<maxAttempts;
+	}
+
+	/**
+	 * Waits the delay after a failed attempt.
+	 * @param attempt the failed attempt, starting with 1.
+	 * @return <code>false</code> if the thread was interrupted while waiting, the interrupt flag is set again and no more attempts should be made.
+	 */
+	public final boolean await(int attempt) {
+		long delay = getDelay(attempt);
+		if (delay>0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "BackoffPolicy [maxAttempts=" + maxAttempts + ", initialDelay=" + initialDelay + ", multiplier=" + multiplier + ", maxDelay=" + maxDelay + "]";
+	}
+}
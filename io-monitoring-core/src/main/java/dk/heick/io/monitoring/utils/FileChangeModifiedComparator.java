@@ -0,0 +1,19 @@
+package dk.heick.io.monitoring.utils;
+
+import java.util.Comparator;
+
+import dk.heick.io.monitoring.GenericFileChange;
+
+/**
+ * File change comparator on the modified timestamp read by the latest update, so sorting do not read the file system.
+ * @author Frederik Heick
+ * @see GenericFileChange#getModified()
+ */
+public class FileChangeModifiedComparator implements Comparator<GenericFileChange<?>> {
+
+	@Override
+	public int compare(GenericFileChange<?> o1, GenericFileChange<?> o2) {
+		return Long.compare(o1.getModified(), o2.getModified());
+	}
+
+}
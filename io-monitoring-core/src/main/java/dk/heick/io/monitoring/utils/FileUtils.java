@@ -1,18 +1,39 @@
 package dk.heick.io.monitoring.utils;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import dk.heick.io.monitoring.IOMonitoringConstants;
 import dk.heick.io.monitoring.validation.ValidateUtils;
@@ -25,6 +46,29 @@ import dk.heick.io.monitoring.validation.ValidationException;
  */
 public class FileUtils {
 	
+	/**
+	 * The largest file <tt>loadAsString</tt> reads into one buffer, the largest array the JVM can allocate.
+	 */
+	private static final long MAX_BULK_SIZE = Integer.MAX_VALUE-8;
+	
+	/**
+	 * The number of times in a row <tt>transferTo</tt> may copy nothing, before a move to another file system is given up.
+	 */
+	private static final int MAX_EMPTY_TRANSFERS = 16;
+	
+	/**
+	 * Part of the name of the temporary copies made by this JVM when moving to another file system, 
+	 * so a copy left by an interrupted JVM can be told from a copy in progress.
+	 */
+	private static final String MOVE_OWNER = UUID.randomUUID().toString().substring(0, 8);
+	
+	/**
+	 * The directories where copies left by an interrupted JVM has been deleted.
+	 */
+	private static final Set<File> MOVE_DIRECTORIES = Collections.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+	
+	private final static Logger LOGGER = LoggerFactory.getLogger(FileUtils.class.getName());
+	
 	public static final String getFilePath(File file) {
 		if (file!=null) {
 			return file.getAbsolutePath();
@@ -78,11 +122,36 @@ public class FileUtils {
 		} else if (destinationDirectory.exists()) {
 			throw new IOException("Destination Directory ["+destinationDirectory.getAbsolutePath()+"] already exists.");
 		} else {
-			renameFileGCAssist(sourceDirectory, destinationDirectory);		
+			moveWithBackoff(sourceDirectory, destinationDirectory, BackoffPolicy.DEFAULT);		
 		}			
 	}
 	
-	public static final void rename(File source,File destination) throws IOException {
+	/**
+	 * Moves a file or directory, retrying with <tt>BackoffPolicy.DEFAULT</tt>.
+	 * @param source the file to move.
+	 * @param destination the new file, must not exist.
+	 * @return <code>true</code> if the file is moved, <code>false</code> if the file is moved to another file system but the source could not be deleted.
+	 * @throws IOException if the file could not be moved.
+	 * @see #rename(File, File, BackoffPolicy)
+	 */
+	public static final boolean rename(File source,File destination) throws IOException {
+		return rename(source,destination,BackoffPolicy.DEFAULT);
+	}
+	
+	/**
+	 * Moves a file or directory with <tt>Files.move</tt> as an atomic move, so the destination is either not there or complete. <br>
+	 * If the destination is on another file system, where an atomic move is not possible, the file is copied with <tt>FileChannel.transferTo</tt> 
+	 * to a temporary ".moving" file next to the destination, which is then moved into place, and the source is deleted. 
+	 * When the destination is in place the move is done, a source that could not be deleted is only logged and left to the caller.
+	 * Directories can not be moved to another file system.<br>
+	 * A failed move is retried as the <tt>backoffPolicy</tt> describes.
+	 * @param source the file to move.
+	 * @param destination the new file, must not exist.
+	 * @param backoffPolicy how a failed move is retried.
+	 * @return <code>true</code> if the file is moved, <code>false</code> if the file is moved to another file system but the source could not be deleted.
+	 * @throws IOException if the file could not be moved.
+	 */
+	public static final boolean rename(File source,File destination,BackoffPolicy backoffPolicy) throws IOException {
 		if (source==null) {
 			throw new IOException("Source is null.");
 		} else if (!source.exists()) {
@@ -91,8 +160,10 @@ public class FileUtils {
 			throw new IOException("Destination is null.");
 		} else if (destination.exists()) {
 			throw new IOException("Destination ["+destination.getAbsolutePath()+"] already exists.");
+		} else if (backoffPolicy==null) {
+			throw new IOException("BackoffPolicy is null.");
 		} else {
-			renameFileGCAssist(source, destination);		
+			return moveWithBackoff(source, destination, backoffPolicy);		
 		}	
 		
 	}
@@ -107,7 +178,7 @@ public class FileUtils {
 		} else {			
 			for (File file : directory.listFiles()) {
 				if (file.isFile()) {
-					deleteFileGCAssist(file);
+					deleteWithBackoff(file, BackoffPolicy.DEFAULT);
 				}
 			}			
 		}
@@ -124,7 +195,7 @@ public class FileUtils {
 			for (File file : directory.listFiles()) {
 				if (file.isDirectory()) {					
 					deleteDirectory(file,true);		
-					deleteFileGCAssist(file);
+					deleteWithBackoff(file, BackoffPolicy.DEFAULT);
 				} 
 			}			
 		}
@@ -160,70 +231,179 @@ public class FileUtils {
 		}
 	}
 	
+	/**
+	 * Deletes a file, retrying with <tt>BackoffPolicy.DEFAULT</tt>.
+	 * @param file the file.
+	 * @throws IOException if the file could not be deleted.
+	 * @see #deleteFile(File, BackoffPolicy)
+	 */
 	public static final void deleteFile(File file) throws IOException {
+		deleteFile(file,BackoffPolicy.DEFAULT);
+	}
+	
+	/**
+	 * Deletes a file, a failed delete is retried as the <tt>backoffPolicy</tt> describes.
+	 * @param file the file.
+	 * @param backoffPolicy how a failed delete is retried.
+	 * @throws IOException if the file could not be deleted.
+	 */
+	public static final void deleteFile(File file,BackoffPolicy backoffPolicy) throws IOException {
 		if (file==null) {
 			throw new IOException("File is null.");
 		} else if (!file.exists()) {
 			throw new IOException("File ["+file.getAbsolutePath()+"] do not exists.");
 		} else if (!file.isFile()) {
 			throw new IOException("File ["+file.getAbsolutePath()+"] is not a file.");
+		} else if (backoffPolicy==null) {
+			throw new IOException("BackoffPolicy is null.");
 		} else {	
-			deleteFileGCAssist(file);
+			deleteWithBackoff(file, backoffPolicy);
 		}
 	}
 	
-	private static final void deleteFileGCAssist(File file) throws IOException {
-		if (!file.exists()) {
-			return;
-		} else {
-			final int RETRY=3;
-			for( int i=0;i<RETRY;i++) {
-				try {
-					if (file.delete()) {
-						break;
-					} else {
-						try {
-							Thread.sleep(50);
-						} catch (InterruptedException e) {						
-						}
-						System.gc();
-						Thread.yield();	
-					}
-				} catch (SecurityException e) {
-					throw new IOException(e);
+	private static final void deleteWithBackoff(File file,BackoffPolicy backoffPolicy) throws IOException {
+		IOException failure=null;
+		int attempt=1;
+		while (true) {
+			try {
+				Files.deleteIfExists(file.toPath());
+				return;
+			} catch (DirectoryNotEmptyException e) {
+				throw new IOException("Can not delete ["+file.getAbsolutePath()+"], the directory is not empty.",e);
+			} catch (SecurityException e) {
+				throw new IOException(e);
+			} catch (IOException e) {
+				failure=e;
+			}
+			if ((!backoffPolicy.hasNext(attempt)) || (!backoffPolicy.await(attempt))) {
+				break;
+			}
+			attempt++;
+		}
+		throw new IOException("Can not delete ["+file.getAbsolutePath()+"].",failure);
+	}
+	
+	private static final boolean moveWithBackoff(File source,File destination,BackoffPolicy backoffPolicy) throws IOException {
+		IOException failure=null;
+		int attempt=1;
+		while (true) {
+			try {
+				Files.move(source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				return true;
+			} catch (AtomicMoveNotSupportedException e) {
+				return moveToFileSystem(source, destination, backoffPolicy);
+			} catch (FileAlreadyExistsException e) {
+				throw new IOException("Destination ["+destination.getAbsolutePath()+"] already exists.",e);
+			} catch (NoSuchFileException e) {
+				if (!source.exists()) {
+					throw new IOException("Source ["+source.getAbsolutePath()+"] do not exists.",e);
 				}
+				failure=e;
+			} catch (SecurityException e) {
+				throw new IOException(e);
+			} catch (IOException e) {
+				failure=e;
 			}
-			if (file.exists()) {
-				throw new IOException("Can not delete ["+file.getAbsolutePath()+"].");
+			if ((!backoffPolicy.hasNext(attempt)) || (!backoffPolicy.await(attempt))) {
+				break;
 			}
+			attempt++;
 		}
+		throw new IOException("Can not rename ["+source.getAbsolutePath()+"] to ["+destination.getAbsolutePath()+"].",failure);
 	}
 	
-	private static final void renameFileGCAssist(File source,File destination) throws IOException {
-		if (!source.exists()) {
-			throw new IOException("Source ["+source.getAbsolutePath()+"] do not exists.");
-		} else if (destination.exists()) {
-			throw new IOException("Destination ["+destination.getAbsolutePath()+"] already exists.");
-		} else {
-			for( int i=0;i<3;i++) {
-				if (source.renameTo(destination)) {
-					break;
-				} else {
-					try {
-						Thread.sleep(100);
-					} catch (InterruptedException e) {						
+	/**
+	 * Moves a file to another file system; copies it to a temporary ".moving" file next to the destination, 
+	 * moves the temporary file into place and deletes the source. 
+	 * The first move into a directory deletes the temporary files left there by an interrupted JVM.
+	 * @return <code>false</code> if the destination is in place but the source could not be deleted.
+	 */
+	private static final boolean moveToFileSystem(File source,File destination,BackoffPolicy backoffPolicy) throws IOException {
+		if (source.isDirectory()) {
+			throw new IOException("Directory ["+source.getAbsolutePath()+"] can not be moved to another file system ["+destination.getAbsolutePath()+"].");
+		}
+		deleteInterruptedMoves(destination.getParentFile());
+		File temporary = new File(destination.getParentFile(),destination.getName()+"."+MOVE_OWNER+IOMonitoringConstants.MOVE_FILE_EXTENSION);
+		FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		try {
+			FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			boolean copied=false;
+			try {
+				transfer(in, out);
+				out.force(true);
+				copied=true;
+			} finally {
+				out.close();
+				if (!copied) {
+					Files.deleteIfExists(temporary.toPath());
+				}
+			}
+		} finally {
+			in.close();
+		}
+		try {
+			Files.setLastModifiedTime(temporary.toPath(), Files.getLastModifiedTime(source.toPath()));
+			Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(temporary.toPath());
+			throw e;
+		}
+		try {
+			deleteWithBackoff(source, backoffPolicy);
+			return true;
+		} catch (IOException e) {
+			LOGGER.error("File ["+source.getAbsolutePath()+"] is moved to ["+destination.getAbsolutePath()+"], but the source could not be deleted.",e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Deletes the temporary files of moves to another file system interrupted by a previous JVM, once per directory.
+	 * Only the ".moving" files in the directory is looked at, and not the ones being copied by this JVM.
+	 * @param directory the destination directory of a move.
+	 */
+	static final void deleteInterruptedMoves(File directory) {
+		if ((directory!=null) && (MOVE_DIRECTORIES.add(directory.getAbsoluteFile()))) {
+			String owned = "."+MOVE_OWNER+IOMonitoringConstants.MOVE_FILE_EXTENSION;
+			try {
+				DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*"+IOMonitoringConstants.MOVE_FILE_EXTENSION);
+				try {
+					for (Path path : stream) {
+						if (!path.getFileName().toString().endsWith(owned)) {
+							LOGGER.info("Deleting the interrupted move ["+path.toAbsolutePath()+"].");
+							Files.deleteIfExists(path);
+						}
 					}
-					System.gc();
-					Thread.yield();	
+				} finally {
+					stream.close();
 				}
+			} catch (IOException e) {
+				MOVE_DIRECTORIES.remove(directory.getAbsoluteFile());
+				LOGGER.warn("Unable to delete the interrupted moves in ["+directory.getAbsolutePath()+"], "+e.getMessage(),e);
 			}
-			if (source.exists()) {
-				throw new IOException("Source still exists, can not rename ["+source.getAbsolutePath()+"].");
-			} else if (!destination.exists()) {				
-				throw new IOException("Destination do not exists, can not rename ["+destination.getAbsolutePath()+"].");
+		}
+	}
+	
+	/**
+	 * Copies the channel with <tt>transferTo</tt>, which lets the operating system copy the bytes without passing them through the heap.
+	 */
+	private static final void transfer(FileChannel in,FileChannel out) throws IOException {
+		long position=0;
+		long size=in.size();
+		int empty=0;
+		while (position<size) {
+			long count = in.transferTo(position, size-position, out);
+			if (count>0) {
+				position+=count;
+				empty=0;
+			} else if (in.size()<size) {
+				//the file has been truncated
+				size=Math.max(position, in.size());
+			} else if (++empty>=MAX_EMPTY_TRANSFERS) {
+				throw new IOException("Copy stopped at ["+position+"] of ["+size+"] bytes, nothing was transferred ["+empty+"] times in a row.");
 			}
 		}
-	}	
+	}
 	
 	/**
 	 * Tests if a file is <b>LOCKED</b> by another process or thread. <br/>
@@ -250,7 +430,8 @@ public class FileUtils {
 		        FileLock lock = null;
 		        try {		            
 		            lock = fileChannel.tryLock();
-		            return false;
+		            //null if the lock is held by another program
+		            return (lock==null);
 		        } catch (Exception ex) {
 		        	return true;
 		        } finally {
@@ -318,7 +499,10 @@ public class FileUtils {
 	}
 	
 	/**
-	 * Loads a file into a string using the InputStreamReader with a charset and buffersize.
+	 * Loads a file into a string with a charset. <br>
+	 * The file length is known up front, so the file is read into one buffer of that size and decoded in bulk by a <tt>CharsetDecoder</tt>.
+	 * Malformed and unmappable bytes is replaced, as the <tt>InputStreamReader</tt> do.
+	 * If the file is larger than a buffer can hold, or it grows while being read, it is read through an <tt>InputStreamReader</tt> with the buffersize.
 	 * @param file the file to read. 
 	 * @param bufferSize the buffer size to load the file with using the <tt>InputStreamReader.read(byte[],int,int)</tt> method, if <tt>bufferSize</tt> is less than 1, 2048 is used.
 	 * @param charset a valid charset for the encoding.
@@ -335,6 +519,10 @@ public class FileUtils {
 			} else if (charset==null) {
 				throw new IOException("Charset is null.");
 			}
+			String result = loadAsStringBulk(file, charset);
+			if (result!=null) {
+				return result;
+			}
 			InputStreamReader in = null;
 			FileInputStream fis = null;
 			final char[] buffer = new char[bufferSize];
@@ -364,12 +552,87 @@ public class FileUtils {
 		
 	}
 	
+	/**
+	 * Reads the whole file into one buffer and decodes it in one go.
+	 * @param file the file to read.
+	 * @param charset the charset.
+	 * @return the file as String, or <code>null</code> if the file is too large for one buffer or it grew while being read.
+	 * @throws IOException if the file could not be read.
+	 */
+	private static final String loadAsStringBulk(File file,Charset charset) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size>MAX_BULK_SIZE) {
+				return null;
+			}
+			ByteBuffer bytes = ByteBuffer.allocate((int)size);
+			while ((bytes.hasRemaining()) && (channel.read(bytes)>=0)) {
+				//read until the buffer is full or end of file
+			}
+			if ((!bytes.hasRemaining()) && (channel.read(ByteBuffer.allocate(1))>0)) {
+				return null;
+			}
+			bytes.flip();
+			return newReplacingDecoder(charset).decode(bytes).toString();
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private static final CharsetDecoder newReplacingDecoder(Charset charset) {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
 	
 	/**
-	 * Load a file to a list of Strings, using the <tt>Files.readAllLines(File,Charset)</tt> and the <tt>Charset.defaultCharset()</tt>.	
+	 * Lazily reads the lines of a file. <br>
+	 * Only one buffer of the file is in memory at a time, the lines is read as the stream is consumed. 
+	 * Malformed and unmappable bytes is replaced. The stream must be closed, to close the file.
+	 * <pre>
+	 * 	try (Stream&lt;String&gt; lines = FileUtils.lines(file,StandardCharsets.UTF_8)) {
+	 * 		lines.forEach(...);
+	 * 	}
+	 * </pre>
+	 * @param file the file to read.
+	 * @param charset the charset.
+	 * @return the lines of the file, an <tt>UncheckedIOException</tt> is thrown by the stream if reading fails.
+	 * @throws IOException if <tt>file</tt> or <tt>charset</tt> is <code>null</code>, or the file can not be opened.
+	 * @see #loadAsLines(File)
+	 */
+	public static final Stream<String> lines(File file,Charset charset) throws IOException {
+		if (file==null) {
+			throw new IOException("File is null.");
+		} else if (charset==null) {
+			throw new IOException("Charset is null.");
+		}
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),newReplacingDecoder(charset)));
+		try {
+			return reader.lines().onClose(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						reader.close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			reader.close();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Load a file to a list of Strings, using the <tt>Files.readAllLines(File,Charset)</tt> and the <tt>Charset.defaultCharset()</tt>.	<br>
+	 * The whole file is held in memory, for large files use <tt>lines(File,Charset)</tt>.
 	 * @param file the file
 	 * @return the list of strings in the file.
 	 * @throws IOException if the file could not be loaded.
+	 * @see #lines(File, Charset)
 	 */
 	public static final StringList loadAsLines(File file) throws IOException {
 		try {			
@@ -449,4 +712,19 @@ public class FileUtils {
 			return false;
 		}		
 	}
+	
+	/**
+	 * Tests if a file is the temporary copy of a move to another file system.
+	 * @param file the file.
+	 * @return <code>true</code> if the file has the ".moving" extension.
+	 * @see IOMonitoringConstants#MOVE_FILE_EXTENSION
+	 */
+	public static final boolean isMoveFile(File file) {
+		if (file!=null) {
+			String ext = "."+getExtension(file);			
+			return (ext.equalsIgnoreCase(IOMonitoringConstants.MOVE_FILE_EXTENSION));
+		} else {
+			return false;
+		}		
+	}
 }
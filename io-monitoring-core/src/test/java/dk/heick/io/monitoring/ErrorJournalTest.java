@@ -0,0 +1,67 @@
+package dk.heick.io.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+
+public class ErrorJournalTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+
+	@Test
+	public void testAppend() throws IOException {
+		File dayA = new File(rootDirectory,"2026-01-01");
+		File dayB = new File(rootDirectory,"2026-01-02");
+		assertTrue(dayA.mkdir());
+		assertTrue(dayB.mkdir());
+		ErrorJournal journal = new ErrorJournal();
+		long offsetA = journal.append(dayA, "a.txt", 12, new IOException("Failed A"));
+		long offsetB = journal.append(dayA, "b.txt", -1, null);
+		assertEquals(0, offsetA);
+		assertTrue(offsetB>offsetA);
+		//buffered until flushed
+		journal.flush();
+		File journalA = ErrorJournal.getJournalFile(dayA);
+		String record = ErrorJournal.readRecord(journalA, offsetA);
+		String[] header = record.split("\n")[0].split("\t");
+		assertEquals("a.txt", header[1]);
+		assertEquals("12", header[2]);
+		assertEquals(IOException.class.getName(), header[3]);
+		assertTrue(record.contains("Failed A"));
+		assertTrue(ErrorJournal.readRecord(journalA, offsetB).contains("Exception is null."));
+		//next day
+		assertEquals(0, journal.append(dayB, "c.txt", 1, new IOException("Failed C")));
+		assertEquals(ErrorJournal.getJournalFile(dayB), journal.getJournalFile());
+		//reopened, appended after the existing records
+		long offsetD = journal.append(dayA, "d.txt", 1, new IOException("Failed D"));
+		assertEquals(journalA.length(), offsetD);
+		journal.close();
+		assertTrue(ErrorJournal.readRecord(journalA, offsetD).contains("Failed D"));
+		assertTrue(ErrorJournal.readRecord(ErrorJournal.getJournalFile(dayB), 0).contains("Failed C"));
+		//index
+		assertEquals(offsetB, ErrorJournal.readOffset(dayA, "b.txt"));
+		assertEquals(offsetD, ErrorJournal.readOffset(dayA, "d.txt"));
+		assertEquals(0, ErrorJournal.readOffset(dayB, "c.txt"));
+		assertEquals(-1, ErrorJournal.readOffset(dayB, "a.txt"));
+		assertTrue(ErrorJournal.readRecord(journalA, ErrorJournal.readOffset(dayA, "a.txt")).contains("Failed A"));
+	}
+}
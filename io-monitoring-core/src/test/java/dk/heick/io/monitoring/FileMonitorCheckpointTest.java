@@ -0,0 +1,105 @@
+package dk.heick.io.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+
+public class FileMonitorCheckpointTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		FileMonitorCheckpoint checkpoint = new FileMonitorCheckpoint(new File(rootDirectory,"filemonitor.dat"));
+		assertTrue(checkpoint.read().isEmpty());
+		checkpoint.write(Arrays.asList(
+				new FileMonitorCheckpoint.Entry("a.txt", 1, 2, 3, 4),
+				new FileMonitorCheckpoint.Entry("\u00e6\u00f8\u00e5.txt", 5, 6, 7, 8)));
+		Map<String,FileMonitorCheckpoint.Entry> entries = checkpoint.read();
+		assertEquals(2, entries.size());
+		FileMonitorCheckpoint.Entry entry = entries.get("\u00e6\u00f8\u00e5.txt");
+		assertEquals(5, entry.getCreated());
+		assertEquals(6, entry.getModified());
+		assertEquals(7, entry.getSize());
+		assertEquals(8, entry.getLastChecked());
+		//replaced
+		checkpoint.write(Arrays.asList(new FileMonitorCheckpoint.Entry("b.txt", 1, 2, 3, 4)));
+		entries = checkpoint.read();
+		assertEquals(1, entries.size());
+		assertTrue(entries.containsKey("b.txt"));
+		assertFalse(new File(rootDirectory,"filemonitor.dat.tmp").exists());
+	}
+
+	@Test
+	public void testReadCorrupt() throws IOException {
+		File file = new File(rootDirectory,"filemonitor.dat");
+		Files.write(file.toPath(), new byte[] {1,2,3});
+		assertTrue(new FileMonitorCheckpoint(file).read().isEmpty());
+	}
+
+	@Test
+	public void testRestore() {
+		long now = System.currentTimeMillis();
+		TestFileChange fileChange = new TestFileChange("a.txt", 100, 200);
+		//unchanged
+		assertTrue(fileChange.restore(new FileMonitorCheckpoint.Entry("a.txt", now-60000, 100, 200, now-30000)));
+		assertEquals(now-60000, fileChange.getCreated());
+		assertEquals(now-30000, fileChange.getLastChecked());
+		fileChange.update("a.txt");
+		assertTrue(fileChange.isStable(1000));
+		//changed while stopped
+		fileChange = new TestFileChange("a.txt", 101, 200);
+		assertFalse(fileChange.restore(new FileMonitorCheckpoint.Entry("a.txt", now-60000, 100, 200, now-30000)));
+		assertEquals(now-60000, fileChange.getCreated());
+		fileChange.update("a.txt");
+		assertFalse(fileChange.isStable(1000));
+	}
+	
+	class TestFileChange extends GenericFileChange<String> {
+		private long modified;
+		private long size;
+		TestFileChange(String file,long modified,long size) {
+			super(file,false);
+			this.modified=modified;
+			this.size=size;
+			init(file);
+		}
+		@Override
+		protected void init(String file) {
+			setModified(modified);
+			setSize(size);
+			setLocked(false);
+		}
+		@Override
+		protected boolean existsFile() {
+			return true;
+		}
+		@Override
+		public String getFileName() {
+			return getFile();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package dk.heick.io.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.metrics.Gauge;
+import dk.heick.io.monitoring.utils.BackoffPolicy;
+
+public class FileRetryQueueTest {
+	
+	private Gauge depth;
+	private FileRetryQueue queue;
+	
+	@Before
+	public void before() {
+		depth = new Gauge();
+		queue = new FileRetryQueue("test", new BackoffPolicy(3, 100, 2.0, 200), depth);
+	}
+	@After
+	public void after() {
+		queue.shutdown();
+	}
+
+	@Test
+	public void testRetrySucceeds() throws InterruptedException {
+		final File file = new File("succeeds.txt");
+		final AtomicInteger attempts = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(1);
+		queue.submit(new FileRetryQueue.Retry(file,"succeeds") {
+			@Override
+			protected void execute() throws IOException {
+				//the first retry fails, the second succeeds
+				if (attempts.incrementAndGet()<2) {
+					throw new IOException("Failed");
+				}
+			}
+			@Override
+			protected void onSuccess() {
+				done.countDown();
+			}
+			@Override
+			protected void onGiveUp(IOException e) {
+			}
+		}, new IOException("First attempt"));
+		assertTrue(queue.isPending(file));
+		assertEquals(1, depth.get());
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, attempts.get());
+		assertFalse(queue.isPending(file));
+		assertEquals(0, queue.size());
+		assertEquals(0, depth.get());
+	}
+
+	@Test
+	public void testRetryGivesUp() throws InterruptedException {
+		final File file = new File("gives-up.txt");
+		final AtomicInteger attempts = new AtomicInteger(0);
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		final CountDownLatch done = new CountDownLatch(1);
+		queue.submit(new FileRetryQueue.Retry(file,"gives up") {
+			@Override
+			protected void execute() throws IOException {
+				throw new IOException("Failed "+attempts.incrementAndGet());
+			}
+			@Override
+			protected void onGiveUp(IOException e) {
+				failure.set(e);
+				done.countDown();
+			}
+		}, new IOException("First attempt"));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		//3 attempts, the first made before submit
+		assertEquals(2, attempts.get());
+		assertNotNull(failure.get());
+		assertEquals("Failed 2", failure.get().getMessage());
+		assertFalse(queue.isPending(file));
+	}
+
+	@Test
+	public void testNoRetry() {
+		final AtomicInteger gaveUp = new AtomicInteger(0);
+		FileRetryQueue noRetry = new FileRetryQueue("test", BackoffPolicy.NO_RETRY, null);
+		noRetry.submit(new FileRetryQueue.Retry(new File("no-retry.txt"),"no retry") {
+			@Override
+			protected void execute() throws IOException {
+			}
+			@Override
+			protected void onGiveUp(IOException e) {
+				gaveUp.incrementAndGet();
+			}
+		}, new IOException("First attempt"));
+		assertEquals(1, gaveUp.get());
+		assertEquals(0, noRetry.size());
+	}
+}
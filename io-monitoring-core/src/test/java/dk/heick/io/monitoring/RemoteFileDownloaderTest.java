@@ -0,0 +1,171 @@
+package dk.heick.io.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+
+public class RemoteFileDownloaderTest {
+
+	private TempFileManager tempManager = new TempFileManager();
+	private File directory = null;
+	private RemoteFileDownloader<String> downloader = null;
+
+	@Before
+	public void before() {
+		directory = tempManager.createTempDirectory();
+	}
+	@After
+	public void after() throws IOException {
+		if (downloader!=null) {
+			downloader.shutdown();
+		}
+		tempManager.cleanup();
+	}
+
+	@Test
+	public void testConcurrentDownload() throws Exception {
+		final int count = 3;
+		final CountDownLatch started = new CountDownLatch(count);
+		final CountDownLatch release = new CountDownLatch(1);
+		downloader = new RemoteFileDownloader<String>("test","concurrent:21",count,count) {
+			@Override
+			protected void download(String remoteFile, File localFile) throws Exception {
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				Files.write(localFile.toPath(), remoteFile.getBytes());
+			}
+		};
+		List<RemoteFile> files = new ArrayList<RemoteFile>();
+		for (int i=0;i<count;i++) {
+			RemoteFile file = new RemoteFile("file-"+i);
+			files.add(file);
+			assertTrue(downloader.submit(file, new File(directory,file.getFileName())));
+		}
+		//All downloads is running at the same time
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertFalse(downloader.submit(files.get(0), new File(directory,"again")));
+		assertEquals(count,downloader.getInFlightCount());
+		release.countDown();
+
+		List<RemoteFileDownload<String>> completed = drain(count);
+		assertEquals(count,completed.size());
+		for (RemoteFileDownload<String> download : completed) {
+			assertTrue(download.toString(),download.isSuccess());
+			assertFalse(downloader.isInFlight(download.getFileChange().getFileName()));
+		}
+		assertEquals(0,downloader.getInFlightCount());
+		assertEquals(0,downloader.drainCompleted().size());
+	}
+
+	@Test
+	public void testHostPermits() throws Exception {
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		downloader = new RemoteFileDownloader<String>("test","permits:21",4,1) {
+			@Override
+			protected void download(String remoteFile, File localFile) throws Exception {
+				int current = running.incrementAndGet();
+				if (current>maxRunning.get()) {
+					maxRunning.set(current);
+				}
+				try {
+					Thread.sleep(50);
+					Files.write(localFile.toPath(), remoteFile.getBytes());
+				} finally {
+					running.decrementAndGet();
+				}
+			}
+		};
+		for (int i=0;i<4;i++) {
+			RemoteFile file = new RemoteFile("file-"+i);
+			downloader.submit(file, new File(directory,file.getFileName()));
+		}
+		assertEquals(4,drain(4).size());
+		assertEquals(1,maxRunning.get());
+	}
+
+	@Test
+	public void testVerifyFails() throws Exception {
+		downloader = new RemoteFileDownloader<String>("test","verify:21",1,1) {
+			@Override
+			protected void download(String remoteFile, File localFile) throws Exception {
+				//Shorter than the remote file
+				Files.write(localFile.toPath(), "x".getBytes());
+			}
+		};
+		RemoteFile file = new RemoteFile("remote-content");
+		downloader.submit(file, new File(directory,file.getFileName()));
+		List<RemoteFileDownload<String>> completed = drain(1);
+		assertFalse(completed.get(0).isSuccess());
+		assertNotNull(completed.get(0).getException());
+		assertTrue(completed.get(0).getException() instanceof IOException);
+	}
+
+	@Test
+	public void testDownloadFails() throws Exception {
+		downloader = new RemoteFileDownloader<String>("test","fails:21",1,1) {
+			@Override
+			protected void download(String remoteFile, File localFile) throws Exception {
+				throw new IOException("Connection refused");
+			}
+		};
+		RemoteFile file = new RemoteFile("remote");
+		downloader.submit(file, new File(directory,file.getFileName()));
+		List<RemoteFileDownload<String>> completed = drain(1);
+		assertFalse(completed.get(0).isSuccess());
+		assertEquals("Connection refused",completed.get(0).getException().getMessage());
+		//A failed file can be submitted again when drained
+		assertTrue(downloader.submit(file, new File(directory,file.getFileName())));
+		drain(1);
+	}
+
+	private List<RemoteFileDownload<String>> drain(int count) throws InterruptedException {
+		List<RemoteFileDownload<String>> result = new ArrayList<RemoteFileDownload<String>>();
+		long timeout = System.currentTimeMillis()+5000;
+		while ((result.size()<count) && (System.currentTimeMillis()<timeout)) {
+			result.addAll(downloader.drainCompleted());
+			Thread.sleep(10);
+		}
+		assertEquals(count,result.size());
+		return result;
+	}
+
+	/**
+	 * A remote file where the name is the content.
+	 */
+	private static class RemoteFile extends GenericFileChange<String> {
+		RemoteFile(String file) {
+			super(file);
+		}
+		@Override
+		protected void init(String file) {
+			setModified(0);
+			setSize(file.length());
+			setLocked(false);
+		}
+		@Override
+		protected boolean existsFile() {
+			return true;
+		}
+		@Override
+		public String getFileName() {
+			return getFile();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package dk.heick.io.monitoring.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.IOMonitoringConstants;
+import dk.heick.io.monitoring.utils.TempFileManager;
+
+public class ArchiveContainerTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+	
+	private File createFile(File directory,String name,String content) throws IOException {
+		File file = new File(directory,name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+	
+	private String read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read=in.read(buffer))!=-1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(),StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testAppend() throws IOException {
+		File file = new File(rootDirectory,"archive.zip");
+		ArchiveContainer container = new ArchiveContainer(file);
+		long offsetA = container.append(createFile(rootDirectory,"a.txt","Hello A"));
+		long offsetB = container.append(createFile(rootDirectory,"b.txt","Hello B"));
+		assertEquals(0, offsetA);
+		assertTrue(offsetB>offsetA);
+		//read while open
+		assertEquals("Hello B", read(ArchiveContainer.readEntry(file, offsetB)));
+		//duplicate name
+		long offsetC = container.append(createFile(rootDirectory,"a.txt","Hello C"));
+		assertEquals(3, container.getEntryCount());
+		container.close();
+		//index
+		List<String> lines = Files.readAllLines(ArchiveContainer.getIndexFile(file).toPath(), StandardCharsets.UTF_8);
+		assertEquals(3, lines.size());
+		String[] index = lines.get(1).split("\t");
+		assertEquals(String.valueOf(offsetB), index[0]);
+		assertEquals("7", index[1]);
+		assertEquals("b.txt", index[4]);
+		assertNotEquals("a.txt", lines.get(2).split("\t")[4]);
+		assertEquals("Hello A", read(ArchiveContainer.readEntry(file, offsetA)));
+		assertEquals("Hello C", read(ArchiveContainer.readEntry(file, offsetC)));
+		//valid zip
+		ZipFile zip = new ZipFile(file);
+		try {
+			int count=0;
+			for (Enumeration<? extends ZipEntry> entries = zip.entries();entries.hasMoreElements();entries.nextElement()) {
+				count++;
+			}
+			assertEquals(3, count);
+		} finally {
+			zip.close();
+		}
+	}
+	
+	@Test
+	public void testAppendFailure() throws IOException {
+		File file = new File(rootDirectory,"archive.zip");
+		ArchiveContainer container = new ArchiveContainer(file);
+		long offsetA = container.append(createFile(rootDirectory,"a.txt","Hello A"));
+		long offsetB = container.append(createFile(rootDirectory,"b.txt","Hello B"));
+		//Fails while copying, after the entry is started
+		File directory = tempManager.createTempDirectory("failing");
+		try {
+			container.append(directory);
+			fail("Appending a directory must fail.");
+		} catch (IOException e) {
+			//Expected
+		}
+		try {
+			container.append(createFile(rootDirectory,"c.txt","Hello C"));
+			fail("A container with a failed entry must be closed.");
+		} catch (IOException e) {
+			//Expected
+		}
+		container.close();
+		assertEquals(2, Files.readAllLines(ArchiveContainer.getIndexFile(file).toPath(), StandardCharsets.UTF_8).size());
+		assertEquals("Hello B", read(ArchiveContainer.readEntry(file, offsetB)));
+		//Valid zip without the partial entry
+		ZipFile zip = new ZipFile(file);
+		try {
+			assertEquals(2, zip.size());
+			assertEquals("Hello A", read(zip.getInputStream(zip.getEntry("a.txt"))));
+			assertEquals("Hello B", read(zip.getInputStream(zip.getEntry("b.txt"))));
+			assertEquals(null, zip.getEntry(directory.getName()));
+		} finally {
+			zip.close();
+		}
+		assertEquals(0, offsetA);
+	}
+	
+	@Test(expected=IOException.class)
+	public void testContainerExists() throws IOException {
+		new ArchiveContainer(createFile(rootDirectory,"archive.zip","")).close();
+	}
+
+	@Test
+	public void testWriter() throws Exception {
+		File pendingDirectory = new File(rootDirectory,IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE_PENDING);
+		assertTrue(pendingDirectory.mkdir());
+		//left from before a restart
+		createFile(pendingDirectory,"left.txt","Left");
+		ArchiveContainerWriter writer = new ArchiveContainerWriter("test", rootDirectory, 1, 3600000);
+		writer.start();
+		writer.submit(createFile(pendingDirectory,"a.txt","Hello A"));
+		long timeout = System.currentTimeMillis()+10000;
+		while ((pendingDirectory.listFiles().length>0) && (System.currentTimeMillis()<timeout)) {
+			Thread.sleep(50);
+		}
+		writer.shutdown();
+		assertEquals(0, pendingDirectory.listFiles().length);
+		//max size 1 byte, a container per file
+		File[] dateDirectories = rootDirectory.listFiles();
+		int containers=0;
+		for (File directory : dateDirectories) {
+			if (!directory.equals(pendingDirectory)) {
+				for (File container : directory.listFiles()) {
+					if (container.getName().endsWith(IOMonitoringConstants.ARCHIVE_CONTAINER_EXTENSION)) {
+						containers++;
+						assertTrue(ArchiveContainer.getIndexFile(container).exists());
+						assertFalse(read(ArchiveContainer.readEntry(container, 0)).isEmpty());
+					}
+				}
+			}
+		}
+		assertEquals(2, containers);
+	}
+
+	@Test
+	public void testWriterRetry() throws Exception {
+		File pendingDirectory = new File(rootDirectory,IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE_PENDING);
+		assertTrue(pendingDirectory.mkdir());
+		//a file in place of the date sub directory, so the container can not be created
+		File blocking = createFile(rootDirectory,new SimpleDateFormat(IOMonitoringConstants.SUBDIRECTORY_DATE_FORMAT).format(new Date()),"");
+		ArchiveContainerWriter writer = new ArchiveContainerWriter("test", rootDirectory, 1024, 3600000, 200);
+		writer.start();
+		File file = createFile(pendingDirectory,"a.txt","Hello A");
+		writer.submit(file);
+		Thread.sleep(500);
+		assertTrue(file.exists());
+		assertTrue(blocking.delete());
+		long timeout = System.currentTimeMillis()+10000;
+		while ((file.exists()) && (System.currentTimeMillis()<timeout)) {
+			Thread.sleep(50);
+		}
+		writer.shutdown();
+		assertFalse(file.exists());
+	}
+}
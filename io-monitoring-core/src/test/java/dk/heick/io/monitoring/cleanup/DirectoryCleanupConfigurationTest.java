@@ -59,6 +59,7 @@ public class DirectoryCleanupConfigurationTest {
 			assertTrue(c.isDeleteEmptyDirectories());
 			assertEquals(-1,c.getMaxDepth());
 			assertTrue(c.isNoMaxDepth());
+			assertEquals(IOCleanupConstants.DEFAULT_CLEANUP_THREADS,c.getCleanupThreads());
 			assertTrue(c.isEnabled());
 			assertFalse(c.isDisabled());
 			assertTrue(c.isDeleteEmptyDirectories());
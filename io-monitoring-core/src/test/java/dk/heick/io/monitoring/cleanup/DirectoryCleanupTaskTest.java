@@ -2,18 +2,31 @@ package dk.heick.io.monitoring.cleanup;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.BasicConfigurator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.heick.io.monitoring.IOMonitoringConstants;
+import dk.heick.io.monitoring.errorhandler.DirectoryCleanupErrorHandler;
 import dk.heick.io.monitoring.utils.TempFileManager;
+import dk.heick.io.monitoring.utils.TimeSpan;
 
 
 /**
@@ -203,6 +216,294 @@ public class DirectoryCleanupTaskTest {
 		 *   			filenotdelete02.xml
 		 */
 	}
+	
+	@Test
+	public void testDirectoryCleanupTaskParallel() {
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(tempFileManager.getTempDirectory("root"));
+		configuration.setCleanupThreads(4);
+		new DirectoryCleanupTask(configuration).runTask();
+		assertFalse(tempFileManager.existsDirectory("dir1"));
+		assertFalse(tempFileManager.existsDirectory("dir5"));
+		assertFalse(tempFileManager.existsDirectory("dir6"));
+		assertFalse(tempFileManager.existsDirectory("dir9"));
+		assertFalse(tempFileManager.existsDirectory("dir10"));
+		assertFalse(tempFileManager.existsDirectory("dir11"));
+		assertEquals(3,tempFileManager.getTempDirectory("root").list().length);
+		assertFalse(tempFileManager.doTempFileExists("file8", "txt"));
+		assertTrue(tempFileManager.doTempFileExists("file9", "txt"));
+		assertTrue(tempFileManager.doTempFileExists("filenotdelete01", "xml"));
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskMaxDepth() {
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(tempFileManager.getTempDirectory("root"));
+		configuration.setMaxDepth(1);
+		new DirectoryCleanupTask(configuration).runTask();
+		//the files in dir8 is below max depth
+		assertTrue(tempFileManager.doTempFileExists("file8", "txt"));
+		//empty directories below max depth is deleted, but not entered
+		assertFalse(tempFileManager.existsDirectory("dir1"));
+		assertFalse(tempFileManager.existsDirectory("dir5"));
+		assertFalse(tempFileManager.existsDirectory("dir11"));
+		assertTrue(tempFileManager.existsDirectory("dir9"));
+		assertTrue(tempFileManager.existsDirectory("dir10"));
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskResume() throws IOException {
+		File cursorFile = new File(tempFileManager.createTempDirectory("cursor"),"cleanup.cursor");
+		//a previous run stopped in dir7
+		Files.write(cursorFile.toPath(), Arrays.asList("dir7"), StandardCharsets.UTF_8);
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(tempFileManager.getTempDirectory("root"));
+		configuration.setCursorFile(cursorFile);
+		DirectoryCleanupTask dct = new DirectoryCleanupTask(configuration);
+		assertEquals(Arrays.asList("dir7"), dct.getCursor());
+		dct.runTask();
+		//before the cursor is skipped
+		assertTrue(tempFileManager.existsDirectory("dir1"));
+		assertTrue(tempFileManager.existsDirectory("dir5"));
+		//after the cursor is cleaned
+		assertFalse(tempFileManager.doTempFileExists("file8", "txt"));
+		assertFalse(tempFileManager.existsDirectory("dir9"));
+		assertFalse(tempFileManager.existsDirectory("dir11"));
+		//completed, the next run starts over
+		assertNull(dct.getCursor());
+		assertFalse(cursorFile.exists());
+		dct.runTask();
+		assertFalse(tempFileManager.existsDirectory("dir1"));
+		assertFalse(tempFileManager.existsDirectory("dir5"));
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskResumeAfterTimeout() throws IOException {
+		File root = tempFileManager.createTempDirectory("timeout");
+		File leaf = tempFileManager.createDirectory(tempFileManager.createDirectory(root, "a"), "b");
+		final File[] files = new File[5];
+		for (int i=0;i<files.length;i++) {
+			files[i] = new File(leaf,"old"+i+".txt");
+			Files.write(files[i].toPath(), new byte[10]);
+			//oldest first
+			tempFileManager.setFileAgeInDays(files[i], 30-i);
+		}
+		File cursorFile = new File(tempFileManager.createTempDirectory("timeoutcursor"),"cleanup.cursor");
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.setCursorFile(cursorFile);
+		//the max deleting processing time is reached when the first file is deleted
+		DirectoryCleanupTask dct = new DirectoryCleanupTask(configuration) {
+			@Override
+			long currentTimeMillis() {
+				long now = super.currentTimeMillis();
+				return files[0].exists()?now:now+getConfiguration().getMaxDeletingProcessingTime().getTime()+1;
+			}
+		};
+		dct.runTask();
+		assertFalse(files[0].exists());
+		assertTrue(files[1].exists());
+		assertEquals(Arrays.asList("a","b"), dct.getCursor());
+		assertEquals(Arrays.asList("a","b"), Files.readAllLines(cursorFile.toPath(), StandardCharsets.UTF_8));
+		//before the cursor, not cleaned by the resumed run
+		File before = new File(root,"before.txt");
+		Files.write(before.toPath(), new byte[10]);
+		tempFileManager.setFileAgeInDays(before, 30);
+		//restarted, resumes from the cursor file
+		dct = new DirectoryCleanupTask(configuration);
+		dct.runTask();
+		for (File file : files) {
+			assertFalse(file.exists());
+		}
+		assertTrue(before.exists());
+		assertNull(dct.getCursor());
+		assertFalse(cursorFile.exists());
+		dct.runTask();
+		assertFalse(before.exists());
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskQuota() throws IOException {
+		File root = tempFileManager.createTempDirectory("quota");
+		File oldest = new File(root,"oldest.txt");
+		File older = new File(root,"older.txt");
+		File newest = new File(root,"newest.txt");
+		Files.write(oldest.toPath(), new byte[100]);
+		Files.write(older.toPath(), new byte[100]);
+		Files.write(newest.toPath(), new byte[100]);
+		tempFileManager.setFileAgeInDays(oldest, 3);
+		tempFileManager.setFileAgeInDays(older, 2);
+		tempFileManager.setFileAgeInDays(newest, 1);
+		
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.setMaxSize(150);
+		assertTrue(configuration.isQuota());
+		DirectoryCleanupTask dct = new DirectoryCleanupTask(configuration);
+		assertFalse(dct.isUnderDiskPressure());
+		//within keepContentTime, but over quota
+		dct.runTask();
+		assertFalse(oldest.exists());
+		assertFalse(older.exists());
+		assertTrue(newest.exists());
+		//within quota
+		dct.checkDiskPressure();
+		assertTrue(newest.exists());
+		
+		configuration.setMaxSize(IOCleanupConstants.NO_QUOTA).setMinFreeSpacePercent(100.0);
+		assertTrue(dct.isUnderDiskPressure());
+		configuration.setMinFreeSpacePercent(0.0);
+		assertFalse(dct.isUnderDiskPressure());
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskLargeDirectory() throws IOException {
+		File root = tempFileManager.createTempDirectory("large");
+		int count = IOCleanupConstants.DELETE_FILES_CHUNK_SIZE*3+1;
+		for (int i=0;i<count;i++) {
+			File file = new File(root,"old"+i+".txt");
+			Files.write(file.toPath(), new byte[10]);
+			tempFileManager.setFileAgeInDays(file, 20);
+		}
+		File newest = new File(root,"newest.txt");
+		Files.write(newest.toPath(), new byte[10]);
+		
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.setCleanupThreads(4);
+		new DirectoryCleanupTask(configuration).runTask();
+		//deleted in chunks in parallel
+		assertEquals(1, root.listFiles().length);
+		assertTrue(newest.exists());
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskExcludedDirectory() throws IOException {
+		File root = tempFileManager.createTempDirectory("excluded");
+		File pending = tempFileManager.createDirectory(root, IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE_PENDING);
+		File pendingOld = new File(pending,"pendingold.txt");
+		File old = new File(root,"old.txt");
+		File newest = new File(root,"newest.txt");
+		Files.write(pendingOld.toPath(), new byte[100]);
+		Files.write(old.toPath(), new byte[100]);
+		Files.write(newest.toPath(), new byte[100]);
+		tempFileManager.setFileAgeInDays(pendingOld, 20);
+		tempFileManager.setFileAgeInDays(old, 20);
+		
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.addExcludedDirectory(pending).setMaxSize(50);
+		DirectoryCleanupTask dct = new DirectoryCleanupTask(configuration);
+		dct.runTask();
+		assertFalse(old.exists());
+		//the quota can not be met without the excluded files, the newest is deleted instead
+		assertFalse(newest.exists());
+		assertTrue(pendingOld.exists());
+		//not deleted when empty
+		assertTrue(pendingOld.delete());
+		dct.runTask();
+		assertTrue(pending.exists());
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskDiskPressure() throws IOException {
+		File root = tempFileManager.createTempDirectory("pressure");
+		File oldest = new File(root,"oldest.txt");
+		File older = new File(root,"older.txt");
+		File newest = new File(root,"newest.txt");
+		Files.write(oldest.toPath(), new byte[100]);
+		Files.write(older.toPath(), new byte[100]);
+		Files.write(newest.toPath(), new byte[100]);
+		tempFileManager.setFileAgeInDays(oldest, 3);
+		tempFileManager.setFileAgeInDays(older, 2);
+		tempFileManager.setFileAgeInDays(newest, 1);
+		
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.setMinFreeSpacePercent(50.0);
+		final AtomicInteger reads = new AtomicInteger(0);
+		DirectoryCleanupTask dct = new DirectoryCleanupTask(configuration) {
+			@Override
+			protected long getDiskPressureBytes() {
+				//150 bytes missing to the watermark, freed by the two oldest files
+				return (reads.incrementAndGet()==1)?150:0;
+			}
+		};
+		dct.quotaCleanup();
+		assertFalse(oldest.exists());
+		assertFalse(older.exists());
+		assertTrue(newest.exists());
+		//Read once for the batch, and once when the deleted files covers it, not once per file
+		assertEquals(2, reads.get());
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskQuotaVictims() throws IOException {
+		File root = tempFileManager.createTempDirectory("victims");
+		File gone = new File(root,"gone.txt");
+		File failing = new File(root,"failing.txt");
+		File older = new File(root,"older.txt");
+		File newest = new File(root,"newest.txt");
+		for (File file : new File[] {gone,failing,older,newest}) {
+			Files.write(file.toPath(), new byte[100]);
+		}
+		tempFileManager.setFileAgeInDays(gone, 4);
+		tempFileManager.setFileAgeInDays(failing, 3);
+		tempFileManager.setFileAgeInDays(older, 2);
+		tempFileManager.setFileAgeInDays(newest, 1);
+		tempFileManager.setFileAgeInDays(root, 1);
+		final List<File> failures = new ArrayList<File>();
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.setMaxSize(1000).setErrorHandler(new DirectoryCleanupErrorHandler() {
+			@Override
+			public void onDeleteFileFailure(File file, Exception e) {
+				failures.add(file);
+			}
+		});
+		DirectoryCleanupTask dct = new DirectoryCleanupTask(configuration);
+		//indexed
+		dct.quotaCleanup();
+		//changed without changing the directory timestamp, so the index is not refreshed
+		FileTime indexed = Files.getLastModifiedTime(root.toPath());
+		assertTrue(gone.delete());
+		assertTrue(failing.delete());
+		assertTrue(failing.mkdir());
+		Files.setLastModifiedTime(root.toPath(), indexed);
+		configuration.setMaxSize(150);
+		//already gone is deleted, the directory can not be deleted as a file
+		dct.quotaCleanup();
+		assertEquals(Arrays.asList(failing), failures);
+		assertTrue(older.exists());
+		//kept in the index, and tried again
+		dct.checkDiskPressure();
+		assertEquals(Arrays.asList(failing,failing), failures);
+	}
+	
+	@Test
+	public void testDirectoryCleanupTaskPartitionRetention() {
+		File root = tempFileManager.createTempDirectory("partitions");
+		SimpleDateFormat format = new SimpleDateFormat(IOMonitoringConstants.SUBDIRECTORY_DATE_FORMAT);
+		long day = TimeSpan.createDays(1).getTime();
+		//expired, deleted without looking at the files
+		File expired = tempFileManager.createDirectory(root, format.format(new Date(System.currentTimeMillis()-20*day)));
+		File expiredFile = tempFileManager.createTempFile(expired, "expired", "txt");
+		//boundary, checked file by file
+		File boundary = tempFileManager.createDirectory(root, format.format(new Date(System.currentTimeMillis()-14*day)));
+		File boundaryOld = tempFileManager.createTempFile(boundary, "boundaryold", "txt");
+		File boundaryNew = tempFileManager.createTempFile(boundary, "boundarynew", "txt");
+		tempFileManager.setFileAgeInDays(boundaryOld, 15);
+		//newer, not entered
+		File newer = tempFileManager.createDirectory(root, format.format(new Date(System.currentTimeMillis()-day)));
+		File newerOld = tempFileManager.createTempFile(newer, "newerold", "txt");
+		tempFileManager.setFileAgeInDays(newerOld, 20);
+		//not a partition, cleaned as usual
+		File other = tempFileManager.createDirectory(root, "2026-13-45");
+		File otherOld = tempFileManager.createTempFile(other, "otherold", "txt");
+		tempFileManager.setFileAgeInDays(otherOld, 20);
+		
+		DirectoryCleanupConfiguration configuration = new DirectoryCleanupConfiguration(root);
+		configuration.setPartitionRetention(true);
+		new DirectoryCleanupTask(configuration).runTask();
+		assertFalse(expiredFile.exists());
+		assertFalse(expired.exists());
+		assertFalse(boundaryOld.exists());
+		assertTrue(boundaryNew.exists());
+		assertTrue(newerOld.exists());
+		assertFalse(otherOld.exists());
+		assertFalse(other.exists());
+	}
 
 
 }
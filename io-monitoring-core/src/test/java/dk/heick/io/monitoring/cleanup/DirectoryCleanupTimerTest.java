@@ -2,6 +2,11 @@ package dk.heick.io.monitoring.cleanup;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 import dk.heick.io.monitoring.validation.ValidationException;
@@ -31,6 +36,31 @@ public class DirectoryCleanupTimerTest {
 			t.stop();
 		}
 	}
-
+	
+	@Test
+	public void testDiskPressureFailureKeepsTimer() throws Exception {
+		DirectoryCleanupTimer t = new DirectoryCleanupTimer();
+		try {
+			DirectoryCleanupTask failing = new DirectoryCleanupTask(new DirectoryCleanupConfiguration(new File(System.getProperty("java.io.tmpdir")))) {
+				@Override
+				public void checkDiskPressure() {
+					throw new IllegalStateException("Failing disk pressure check");
+				}
+			};
+			//Logged, not thrown on to the timer thread, which would cancel the timer
+			t.getTimer().schedule(t.new DiskPressureWrapper(failing), 0);
+			Thread.sleep(200);
+			final CountDownLatch scheduled = new CountDownLatch(1);
+			t.getTimer().schedule(new TimerTask() {
+				@Override
+				public void run() {
+					scheduled.countDown();
+				}
+			}, 0);
+			assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+		} finally {
+			t.stop();
+		}
+	}
 	
 }
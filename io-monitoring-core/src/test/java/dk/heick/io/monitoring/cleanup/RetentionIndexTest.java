@@ -0,0 +1,87 @@
+package dk.heick.io.monitoring.cleanup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+
+public class RetentionIndexTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+	
+	private File createFile(File directory,String name,int size,long ageInMinutes) throws IOException {
+		File file = new File(directory,name);
+		Files.write(file.toPath(), new byte[size]);
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis()-ageInMinutes*60000));
+		return file;
+	}
+	
+	private void setDirectoryAge(File directory,long ageInMinutes) throws IOException {
+		Files.setLastModifiedTime(directory.toPath(), FileTime.fromMillis(System.currentTimeMillis()-ageInMinutes*60000));
+	}
+
+	@Test
+	public void testRefresh() throws IOException {
+		File partition = new File(rootDirectory,"2026-01-01");
+		partition.mkdir();
+		File deeper = new File(partition,"deeper");
+		deeper.mkdir();
+		createFile(rootDirectory,"a.txt",10,30);
+		File b = createFile(partition,"b.txt",20,60);
+		createFile(deeper,"c.txt",40,10);
+		setDirectoryAge(rootDirectory, 5);
+		setDirectoryAge(partition, 5);
+		setDirectoryAge(deeper, 5);
+		
+		RetentionIndex index = new RetentionIndex(rootDirectory.toPath(), 1);
+		index.refresh();
+		//deeper is below max depth
+		assertEquals(2, index.size());
+		assertEquals(30, index.getTotalSize());
+		
+		//unchanged directory is not listed again, a file added without changing the directory timestamp is not seen
+		FileTime indexed = Files.getLastModifiedTime(partition.toPath());
+		createFile(partition,"d.txt",80,120);
+		Files.setLastModifiedTime(partition.toPath(), indexed);
+		index.refresh();
+		assertEquals(30, index.getTotalSize());
+		
+		//changed directory is listed again
+		setDirectoryAge(partition, 1);
+		index.refresh();
+		assertEquals(110, index.getTotalSize());
+		
+		//oldest first
+		assertEquals("d.txt", index.pollOldest().getPath().getFileName().toString());
+		assertEquals(b.toPath(), index.pollOldest().getPath());
+		assertEquals("a.txt", index.pollOldest().getPath().getFileName().toString());
+		assertNull(index.pollOldest());
+		assertEquals(0, index.getTotalSize());
+		
+		//a file that could not be deleted is restored
+		index.restore(new RetentionIndex.IndexedFile(b.toPath(), b.lastModified(), 20));
+		assertEquals(1, index.size());
+		assertEquals(20, index.getTotalSize());
+		assertEquals(b.toPath(), index.pollOldest().getPath());
+	}
+}
@@ -0,0 +1,36 @@
+package dk.heick.io.monitoring.cleanup;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import dk.heick.io.monitoring.validation.ValidationException;
+
+public class ScheduledDirectoryCleanupTimerTest {
+
+	@Test
+	public void testScheduledDirectoryCleanupTimer() {
+		ScheduledDirectoryCleanupTimer t = new ScheduledDirectoryCleanupTimer(2);
+		assertNotNull(t);
+		assertNotNull(t.getTasks());
+		assertEquals(0,t.getTasks().size());
+		assertEquals(2,t.getPoolSize());
+		assertEquals(true,t.isRunning());
+		assertEquals(false,t.isStopped());
+		t.stop();
+		assertEquals(false,t.isRunning());
+	}
+
+	@Test
+	public void testAddDirectoryCleanupTaskDirectoryCleanupTask() {
+		ScheduledDirectoryCleanupTimer t = new ScheduledDirectoryCleanupTimer();
+		try {
+			t.addDirectoryCleanupTask(null);
+			fail();
+		} catch (ValidationException e) {		
+		} finally {
+			t.stop();
+		}
+	}
+	
+}
@@ -0,0 +1,70 @@
+package dk.heick.io.monitoring.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testRecord() {
+		Histogram histogram = new Histogram(new long[]{10L,100L});
+		assertEquals(3, histogram.getBucketCount());
+		assertEquals(0, histogram.getAverage());
+		histogram.record(-5);
+		histogram.record(10);
+		histogram.record(11);
+		histogram.record(5000);
+		assertEquals(2, histogram.getBucket(0));
+		assertEquals(1, histogram.getBucket(1));
+		assertEquals(1, histogram.getBucket(2));
+		assertEquals(4, histogram.getCount());
+		assertEquals(5021, histogram.getSum());
+		assertEquals(5000, histogram.getMax());
+		assertEquals(1255, histogram.getAverage());
+		assertEquals(100L, histogram.getBound(1));
+		assertEquals(Long.MAX_VALUE, histogram.getBound(2));
+	}
+	
+	@Test
+	public void testBounds() {
+		try {
+			new Histogram(new long[0]);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new Histogram(new long[]{10L,10L});
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	@Test
+	public void testConcurrentRecord() throws InterruptedException {
+		final Histogram histogram = new Histogram();
+		Thread[] threads = new Thread[4];
+		for (int i=0;i<threads.length;i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j=0;j<10000;j++) {
+						histogram.record(j%100);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long buckets = 0;
+		for (int i=0;i<histogram.getBucketCount();i++) {
+			buckets += histogram.getBucket(i);
+		}
+		assertEquals(40000, histogram.getCount());
+		assertEquals(40000, buckets);
+		assertEquals(99, histogram.getMax());
+	}
+}
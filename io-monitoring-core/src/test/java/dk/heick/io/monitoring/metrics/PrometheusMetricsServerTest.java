@@ -0,0 +1,124 @@
+package dk.heick.io.monitoring.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PrometheusMetricsServerTest {
+	
+	private MonitorTaskMetrics metrics = new MonitorTaskMetrics("/data/in \"a\"","DirectoryMonitorTask");
+	private PrometheusMetricsServer server = null;
+	
+	@After
+	public void after() {
+		if (server!=null) {
+			server.stop();
+		}
+		MetricsRegistry.unregister(metrics);
+	}
+
+	@Test
+	public void testFormat() {
+		metrics.getFilesProcessedCounter().add(3);
+		metrics.getProcessBacklogGauge().set(7);
+		metrics.getDetectDuration().record(3);
+		metrics.getDetectDuration().record(2000);
+		String text = PrometheusMetricsServer.format(Collections.singletonList(metrics));
+		assertTrue(text.contains("# TYPE io_monitoring_files_processed_total counter\n"));
+		assertTrue(text.contains("io_monitoring_files_processed_total{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\"} 3\n"));
+		assertTrue(text.contains("io_monitoring_process_backlog{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\"} 7\n"));
+		assertTrue(text.contains("io_monitoring_step_duration_seconds_bucket{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\",step=\"detect\",le=\"0.005\"} 1\n"));
+		assertTrue(text.contains("io_monitoring_step_duration_seconds_bucket{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\",step=\"detect\",le=\"+Inf\"} 2\n"));
+		assertTrue(text.contains("io_monitoring_step_duration_seconds_sum{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\",step=\"detect\"} 2.003\n"));
+		assertTrue(text.contains("io_monitoring_step_duration_seconds_count{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\",step=\"monitor\"} 0\n"));
+	}
+	
+	@Test
+	public void testServer() throws Exception {
+		MetricsRegistry.register(metrics, false);
+		metrics.getRunsCounter().increment();
+		server = new PrometheusMetricsServer(0);
+		server.start();
+		assertTrue(server.isStarted());
+		HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:"+server.getPort()+PrometheusMetricsServer.PATH).openConnection();
+		assertEquals(200, connection.getResponseCode());
+		assertEquals(PrometheusMetricsServer.CONTENT_TYPE, connection.getContentType());
+		String body = read(connection.getInputStream());
+		assertTrue(body.contains("io_monitoring_runs_total{task=\"/data/in \\\"a\\\"\",type=\"DirectoryMonitorTask\"} 1\n"));
+		server.stop();
+		assertFalse(server.isStarted());
+	}
+	
+	@Test
+	public void testRegistryJmx() throws Exception {
+		MetricsRegistry.register(metrics, true);
+		assertNotNull(MetricsRegistry.get(metrics.getName()));
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(MetricsRegistry.createObjectName(metrics)));
+		metrics.getFilesErroredCounter().increment();
+		assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(MetricsRegistry.createObjectName(metrics), "FilesErrored"));
+		MetricsRegistry.unregister(metrics);
+		assertNull(MetricsRegistry.get(metrics.getName()));
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(MetricsRegistry.createObjectName(metrics)));
+	}
+	
+	@Test
+	public void testRegistryUniqueName() throws Exception {
+		MonitorTaskMetrics first = MetricsRegistry.register("/data/same","DirectoryMonitorTask",true);
+		MonitorTaskMetrics second = MetricsRegistry.register("/data/same","DirectoryMonitorTask",true);
+		try {
+			assertEquals("/data/same",first.getName());
+			assertEquals("/data/same#2",second.getName());
+			assertSame(first,MetricsRegistry.get("/data/same"));
+			assertSame(second,MetricsRegistry.get("/data/same#2"));
+			assertFalse(MetricsRegistry.register(new MonitorTaskMetrics("/data/same","DirectoryMonitorTask"), false));
+			assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(MetricsRegistry.createObjectName(second)));
+		} finally {
+			MetricsRegistry.unregister(first);
+			MetricsRegistry.unregister(second);
+		}
+		assertNull(MetricsRegistry.get("/data/same"));
+		assertNull(MetricsRegistry.get("/data/same#2"));
+	}
+	
+	@Test
+	public void testRegistryRemovesCollectedMetrics() throws Exception {
+		//The metrics of a task that is never shut down
+		ObjectName objectName = MetricsRegistry.createObjectName(MetricsRegistry.register("/data/collected","DirectoryMonitorTask",true));
+		for (int i=0;(i<50) && (MetricsRegistry.get("/data/collected")!=null);i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(MetricsRegistry.get("/data/collected"));
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+	}
+	
+	private String read(InputStream in) throws Exception {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read=in.read(buffer))!=-1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+}
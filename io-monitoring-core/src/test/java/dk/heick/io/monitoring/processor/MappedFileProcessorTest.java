@@ -0,0 +1,105 @@
+package dk.heick.io.monitoring.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+public class MappedFileProcessorTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+	
+	class WindowProcessor extends MappedFileProcessor {
+		private List<String> windows = new ArrayList<String>();
+		private List<Long> positions = new ArrayList<Long>();
+		public WindowProcessor(long windowSize) {
+			super(windowSize);
+		}
+		@Override
+		public void process(Properties context, ByteBuffer buffer, long position) throws Exception {
+			assertTrue(buffer.isReadOnly());
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			windows.add(new String(bytes,StandardCharsets.US_ASCII));
+			positions.add(position);
+		}
+	}
+	
+	private File createFile(String name,String content) throws Exception {
+		File file = new File(rootDirectory,name);
+		tempManager.add(file);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	@Test
+	public void testProcess() throws Exception {
+		File file = createFile("data.txt", "0123456789");
+		WindowProcessor processor = new WindowProcessor(MappedFileProcessor.DEFAULT_WINDOW_SIZE);
+		processor.validate();
+		processor.process(new Properties(), file);
+		assertEquals(1, processor.windows.size());
+		assertEquals("0123456789", processor.windows.get(0));
+		//The mapping is released, so the file can be moved
+		File moved = new File(rootDirectory,"moved.txt");
+		tempManager.add(moved);
+		Files.move(file.toPath(), moved.toPath());
+	}
+	
+	@Test
+	public void testProcessWindows() throws Exception {
+		File file = createFile("windows.txt", "0123456789");
+		WindowProcessor processor = new WindowProcessor(4);
+		processor.process(new Properties(), file);
+		assertEquals(3, processor.windows.size());
+		assertEquals("0123", processor.windows.get(0));
+		assertEquals("4567", processor.windows.get(1));
+		assertEquals("89", processor.windows.get(2));
+		assertEquals(Long.valueOf(0), processor.positions.get(0));
+		assertEquals(Long.valueOf(4), processor.positions.get(1));
+		assertEquals(Long.valueOf(8), processor.positions.get(2));
+	}
+	
+	@Test
+	public void testProcessEmpty() throws Exception {
+		File file = createFile("empty.txt", "");
+		WindowProcessor processor = new WindowProcessor(4);
+		processor.process(new Properties(), file);
+		assertEquals(1, processor.windows.size());
+		assertEquals("", processor.windows.get(0));
+	}
+	
+	@Test
+	public void testValidate() {
+		try {
+			new WindowProcessor(0).validate();
+			fail();
+		} catch (ValidationException e) {
+		}
+	}
+}
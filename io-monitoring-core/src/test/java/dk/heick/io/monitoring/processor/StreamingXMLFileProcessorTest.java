@@ -0,0 +1,103 @@
+package dk.heick.io.monitoring.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+import dk.heick.io.monitoring.validation.ValidationException;
+
+public class StreamingXMLFileProcessorTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+	
+	@XmlRootElement(name="record")
+	public static class Record {
+		@XmlAttribute
+		public int id;
+		@XmlElement
+		public String name;
+	}
+	
+	class RecordProcessor extends StreamingXMLFileProcessor<Record> {
+		private List<Record> records = new ArrayList<Record>();
+		public RecordProcessor(String encoding) {
+			super(Record.class,"record",encoding);
+		}
+		@Override
+		public void processElement(Properties context, Record element) throws Exception {
+			records.add(element);
+		}
+	}
+
+	@Test
+	public void testProcess() throws Exception {
+		File file = new File(rootDirectory,"records.xml");
+		tempManager.add(file);
+		Files.write(file.toPath(), ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<records><header>h</header>"
+				+ "<record id=\"1\"><name>a</name></record>"
+				+ "<record id=\"2\"><name>bæøå</name></record>\n"
+				+ "<record id=\"3\"><name>c</name></record></records>").getBytes(StandardCharsets.UTF_8));
+		RecordProcessor processor = new RecordProcessor(null);
+		processor.validate();
+		Properties context = new Properties();
+		processor.process(context, file);
+		assertEquals("3", context.getProperty(StreamingXMLFileProcessor.ELEMENT_COUNT));
+		assertEquals(3, processor.records.size());
+		assertEquals(1, processor.records.get(0).id);
+		assertEquals("a", processor.records.get(0).name);
+		assertEquals("bæøå", processor.records.get(1).name);
+		assertEquals(3, processor.records.get(2).id);
+	}
+	
+	@Test
+	public void testProcessEncoding() throws Exception {
+		File file = new File(rootDirectory,"latin1.xml");
+		tempManager.add(file);
+		Files.write(file.toPath(), "<records><record id=\"7\"><name>æøå</name></record></records>".getBytes(StandardCharsets.ISO_8859_1));
+		RecordProcessor processor = new RecordProcessor("ISO-8859-1");
+		Properties context = new Properties();
+		processor.process(context, file);
+		assertEquals(1, processor.records.size());
+		assertEquals("æøå", processor.records.get(0).name);
+	}
+	
+	@Test
+	public void testValidate() {
+		try {
+			new StreamingXMLFileProcessor<Record>(Record.class," ") {
+				@Override
+				public void processElement(Properties context, Record element) throws Exception {
+				}
+			}.validate();
+			fail();
+		} catch (ValidationException e) {
+		}
+	}
+}
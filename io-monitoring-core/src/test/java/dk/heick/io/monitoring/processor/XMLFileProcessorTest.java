@@ -0,0 +1,129 @@
+package dk.heick.io.monitoring.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.heick.io.monitoring.utils.TempFileManager;
+
+public class XMLFileProcessorTest {
+	
+	private TempFileManager tempManager = null;
+	private File rootDirectory;
+	
+	@Before
+	public void before() throws Exception {
+		tempManager = new TempFileManager();
+		rootDirectory = tempManager.createTempDirectory("root");
+	}
+	@After
+	public void after() throws Exception {
+		tempManager.cleanup();			
+	}
+	
+	@XmlRootElement(name="order")
+	public static class Order {
+		@XmlElement
+		public String customer;
+	}
+	
+	class OrderProcessor extends XMLFileProcessor<Order> {
+		private AtomicInteger processed = new AtomicInteger();
+		private String lastCustomer;
+		public OrderProcessor(String encoding) {
+			super(Order.class,encoding);
+		}
+		@Override
+		public void process(Properties context, Order xml) throws Exception {
+			lastCustomer = xml.customer;
+			processed.incrementAndGet();
+		}
+	}
+	
+	private File createOrder(String name,String customer,String encoding) throws Exception {
+		File file = new File(rootDirectory,name);
+		tempManager.add(file);
+		Files.write(file.toPath(), ("<order><customer>"+customer+"</customer></order>").getBytes(encoding));
+		return file;
+	}
+
+	@Test
+	public void testSharedContext() throws Exception {
+		OrderProcessor p1 = new OrderProcessor(null);
+		OrderProcessor p2 = new OrderProcessor(null);
+		p1.validate();
+		assertTrue(JAXBContextRegistry.contains(Order.class));
+		assertSame(p1.getContext(), p2.getContext());
+		assertSame(p1.getUnmarshallerPool(), p2.getUnmarshallerPool());
+		assertTrue(p1.getUnmarshallerPool().getIdleCount()>0);
+	}
+	
+	@Test
+	public void testProcessEncoding() throws Exception {
+		File file = createOrder("latin1.xml", "Søren Ærø", StandardCharsets.ISO_8859_1.name());
+		OrderProcessor processor = new OrderProcessor(StandardCharsets.ISO_8859_1.name());
+		assertEquals(StandardCharsets.ISO_8859_1.name(), processor.getEncoding());
+		processor.validate();
+		processor.process(new Properties(), file);
+		assertEquals("Søren Ærø", processor.lastCustomer);
+	}
+	
+	@Test
+	public void testProcessConcurrent() throws Exception {
+		final OrderProcessor processor = new OrderProcessor(null);
+		processor.validate();
+		final File file = createOrder("order.xml", "Hans", StandardCharsets.UTF_8.name());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] futures = new Future<?>[200];
+			for (int i=0;i<futures.length;i++) {
+				futures[i] = executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						processor.process(new Properties(), file);
+						return null;
+					}
+				});
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(200, processor.processed.get());
+		assertTrue(processor.getUnmarshallerPool().getIdleCount()<=UnmarshallerPool.DEFAULT_POOL_SIZE);
+	}
+	
+	@Test
+	public void testUnmarshallerPool() throws Exception {
+		UnmarshallerPool pool = new UnmarshallerPool(JAXBContextRegistry.getContext(Order.class), 1);
+		Unmarshaller u1 = pool.borrow();
+		Unmarshaller u2 = pool.borrow();
+		assertNotSame(u1, u2);
+		pool.release(u1);
+		pool.release(u2);
+		assertEquals(1, pool.getIdleCount());
+		assertSame(u1, pool.borrow());
+		assertEquals(0, pool.getIdleCount());
+	}
+}
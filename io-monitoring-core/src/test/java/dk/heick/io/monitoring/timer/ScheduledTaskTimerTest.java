@@ -0,0 +1,140 @@
+package dk.heick.io.monitoring.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ScheduledTaskTimerTest {
+	
+	@Test
+	public void testScheduledTaskTimer() {
+		RunnableTaskTimer t = new RunnableTaskTimer(2);
+		assertNotNull(t.getTasks());
+		assertEquals(0,t.getTasks().size());
+		assertEquals(2,t.getPoolSize());
+		assertEquals(true,t.isRunning());
+		assertEquals(false,t.isStopped());
+		t.stop();
+		assertEquals(false,t.isRunning());
+		assertEquals(true,t.isStopped());
+	}
+
+	@Test
+	public void testSlowTaskDoNotBlockOtherTasks() throws InterruptedException {
+		RunnableTaskTimer t = new RunnableTaskTimer(2);
+		final AtomicInteger slowRuns = new AtomicInteger(0);
+		final AtomicInteger fastRuns = new AtomicInteger(0);
+		Runnable slow = new Runnable() {
+			@Override
+			public void run() {
+				slowRuns.incrementAndGet();
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {					
+				}
+			}
+		};
+		Runnable fast = new Runnable() {
+			@Override
+			public void run() {
+				fastRuns.incrementAndGet();
+			}
+		};
+		try {
+			t.schedule(slow, 10, 10);
+			t.schedule(fast, 10, 10);
+			assertEquals(2,t.getTasks().size());
+			Thread.sleep(500);
+			assertEquals(1,slowRuns.get());
+			assertTrue(fastRuns.get()>10);
+			assertNotNull(t.getStatistics(fast));
+			assertTrue(t.getStatistics(fast).getRuns()>10);
+			assertEquals(1,t.getStatistics(slow).getRuns());
+			assertNull(t.getStatistics(new Runnable() {
+				@Override
+				public void run() {					
+				}
+			}));
+		} finally {
+			t.stop();
+		}
+	}
+	
+	@Test
+	public void testFailingTaskStaysScheduled() throws InterruptedException {
+		RunnableTaskTimer t = new RunnableTaskTimer(1);
+		Runnable failing = new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("Failing task");
+			}
+		};
+		try {
+			t.schedule(failing, 10, 10);
+			Thread.sleep(300);
+			//Stop waits for a run in progress to finish, before comparing the counters
+			t.stop();
+			assertTrue(t.getStatistics(failing).getRuns()>1);
+			assertEquals(t.getStatistics(failing).getRuns(),t.getStatistics(failing).getFailedRuns());
+		} finally {
+			t.stop();
+		}
+	}
+	
+	@Test
+	public void testErrorTaskStaysScheduled() throws InterruptedException {
+		RunnableTaskTimer t = new RunnableTaskTimer(1);
+		Runnable error = new Runnable() {
+			@Override
+			public void run() {
+				throw new AssertionError("Error task");
+			}
+		};
+		try {
+			t.schedule(error, 10, 10);
+			Thread.sleep(300);
+			t.stop();
+			assertTrue(t.getStatistics(error).getRuns()>1);
+			assertEquals(t.getStatistics(error).getRuns(),t.getStatistics(error).getFailedRuns());
+		} finally {
+			t.stop();
+		}
+	}
+	
+	@Test
+	public void testStopWaitsForRunInProgress() throws InterruptedException {
+		RunnableTaskTimer t = new RunnableTaskTimer(1);
+		final AtomicInteger completedRuns = new AtomicInteger(0);
+		Runnable slow = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {					
+				}
+				completedRuns.incrementAndGet();
+			}
+		};
+		t.schedule(slow, 10, 10);
+		Thread.sleep(100);
+		t.stop();
+		assertEquals(1,completedRuns.get());
+		assertEquals(1,t.getStatistics(slow).getRuns());
+	}
+	
+	class RunnableTaskTimer extends ScheduledTaskTimer<Runnable> {
+		public RunnableTaskTimer(int poolSize) {
+			super(poolSize,"junit-timer");
+		}
+		@Override
+		protected void runTask(Runnable task) {
+			task.run();
+		}
+	}
+	
+}
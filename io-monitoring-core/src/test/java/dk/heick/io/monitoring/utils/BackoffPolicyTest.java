@@ -0,0 +1,63 @@
+package dk.heick.io.monitoring.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class BackoffPolicyTest {
+
+	@Test
+	public void testBackoffPolicy() {
+		try {
+			new BackoffPolicy(0,10,2.0,100);
+			fail();
+		} catch (IllegalArgumentException e) {			
+		}
+		try {
+			new BackoffPolicy(3,-1,2.0,100);
+			fail();
+		} catch (IllegalArgumentException e) {			
+		}
+		try {
+			new BackoffPolicy(3,10,0.5,100);
+			fail();
+		} catch (IllegalArgumentException e) {			
+		}
+		try {
+			new BackoffPolicy(3,10,2.0,5);
+			fail();
+		} catch (IllegalArgumentException e) {			
+		}
+	}
+
+	@Test
+	public void testGetDelay() {
+		BackoffPolicy policy = new BackoffPolicy(5,10,2.0,50);
+		assertEquals(10, policy.getDelay(1));
+		assertEquals(20, policy.getDelay(2));
+		assertEquals(40, policy.getDelay(3));
+		assertEquals(50, policy.getDelay(4));
+		assertEquals(10, BackoffPolicy.DEFAULT.getDelay(1));
+		assertEquals(20, BackoffPolicy.DEFAULT.getDelay(2));
+		assertEquals(0, BackoffPolicy.NO_RETRY.getDelay(1));
+	}
+
+	@Test
+	public void testHasNext() {
+		assertTrue(BackoffPolicy.DEFAULT.hasNext(1));
+		assertTrue(BackoffPolicy.DEFAULT.hasNext(2));
+		assertFalse(BackoffPolicy.DEFAULT.hasNext(3));
+		assertFalse(BackoffPolicy.NO_RETRY.hasNext(1));
+	}
+
+	@Test
+	public void testAwait() {
+		Thread.currentThread().interrupt();
+		assertFalse(BackoffPolicy.DEFAULT.await(1));
+		assertTrue(Thread.interrupted());
+		assertTrue(BackoffPolicy.NO_RETRY.await(1));
+	}
+}
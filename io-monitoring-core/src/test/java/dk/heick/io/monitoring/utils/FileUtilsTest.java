@@ -6,13 +6,18 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -127,6 +132,63 @@ public class FileUtilsTest {
 		}
 	}
 
+	@Test
+	public void testRename() throws IOException {
+		File source = new File(rootDirectory,"source.txt");
+		File destination = new File(rootDirectory,"destination.txt");
+		Files.write(source.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		try {
+			FileUtils.rename(source, destination, null);
+			fail();
+		} catch (IOException e) {			
+		}
+		FileUtils.rename(source, destination, BackoffPolicy.NO_RETRY);
+		assertFalse(source.exists());
+		assertEquals("abc", FileUtils.loadAsString(destination));
+		try {
+			FileUtils.rename(source, destination);
+			fail();
+		} catch (IOException e) {			
+		}
+		Files.write(source.toPath(), "def".getBytes(StandardCharsets.UTF_8));
+		try {
+			FileUtils.rename(source, destination);
+			fail();
+		} catch (IOException e) {			
+		}
+		assertEquals("abc", FileUtils.loadAsString(destination));
+		//the destination directory do not exists
+		try {
+			FileUtils.rename(source, new File(new File(rootDirectory,"notExists"),"destination.txt"), BackoffPolicy.NO_RETRY);
+			fail();
+		} catch (IOException e) {			
+		}
+		assertTrue(source.exists());
+		FileUtils.deleteFile(source, BackoffPolicy.NO_RETRY);
+		assertFalse(source.exists());
+	}
+	
+	@Test
+	public void testDeleteInterruptedMoves() throws IOException {
+		//left by a copy to another file system interrupted by a crash
+		File moving = new File(rootDirectory,"a.txt.0badf00d"+IOMonitoringConstants.MOVE_FILE_EXTENSION);
+		File lock = new File(rootDirectory,"b.txt"+IOMonitoringConstants.LOCK_FILE_EXTENSION);
+		File file = new File(rootDirectory,"c.txt");
+		Files.write(moving.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		Files.write(lock.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		Files.write(file.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		assertTrue(FileUtils.isMoveFile(moving));
+		assertFalse(FileUtils.isMoveFile(lock));
+		FileUtils.deleteInterruptedMoves(rootDirectory);
+		assertFalse(moving.exists());
+		assertTrue(lock.exists());
+		assertTrue(file.exists());
+		//only once per directory
+		Files.write(moving.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		FileUtils.deleteInterruptedMoves(rootDirectory);
+		assertTrue(moving.exists());
+	}
+	
 	@Test
 	public void testDeleteDirectoryOnlyFiles() {
 		try {
@@ -245,6 +307,58 @@ public class FileUtilsTest {
 		}
 	}
 
+	@Test
+	public void testLoadAsStringBulk() throws IOException {
+		File file = new File(rootDirectory,"bulk.txt");
+		StringBuilder expected = new StringBuilder();
+		for (int i=0;i<10000;i++) {
+			expected.append("line ").append(i).append(" \u00e6\u00f8\u00e5\n");
+		}
+		Files.write(file.toPath(), expected.toString().getBytes(StandardCharsets.UTF_8));
+		assertEquals(expected.toString(), FileUtils.loadAsString(file,16,StandardCharsets.UTF_8));
+		
+		File empty = new File(rootDirectory,"empty.txt");
+		assertTrue(empty.createNewFile());
+		assertEquals("", FileUtils.loadAsString(empty,StandardCharsets.UTF_8));
+		
+		File malformed = new File(rootDirectory,"malformed.txt");
+		Files.write(malformed.toPath(), new byte[] {'a',(byte)0xff,'b'});
+		assertEquals("a\ufffdb", FileUtils.loadAsString(malformed,StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void testLines() throws IOException {
+		try {
+			FileUtils.lines(null,StandardCharsets.UTF_8);
+			fail();
+		} catch (IOException e) {		
+		}
+		try {
+			FileUtils.lines(new File(rootDirectory,"notExists.txt"),null);
+			fail();
+		} catch (IOException e) {		
+		}
+		try {
+			FileUtils.lines(new File(rootDirectory,"notExists.txt"),StandardCharsets.UTF_8);
+			fail();
+		} catch (FileNotFoundException e) {		
+		}
+		File file = new File(rootDirectory,"lines.txt");
+		Files.write(file.toPath(), "aa\r\nbb\ncc\r\ndd".getBytes(StandardCharsets.UTF_8));
+		try (Stream<String> lines = FileUtils.lines(file,StandardCharsets.UTF_8)) {
+			Iterator<String> iterator = lines.iterator();
+			assertEquals("aa", iterator.next());
+			assertEquals("bb", iterator.next());
+			assertEquals("cc", iterator.next());
+			assertEquals("dd", iterator.next());
+			assertFalse(iterator.hasNext());
+		}
+		try (Stream<String> lines = FileUtils.lines(file,StandardCharsets.UTF_8)) {
+			assertEquals(2, lines.filter(line -> line.startsWith("c") || line.startsWith("d")).count());
+		}
+		assertTrue(file.delete());
+	}
+
 	@Test
 	public void testLoadAsLines() {
 		File file = new File("src/test/resources/test01.txt");
@@ -384,4 +498,51 @@ public class FileUtilsTest {
 	}
 	
 	
+	@Test
+	public void testIsFileLockedNotExists() {
+		assertFalse(FileUtils.isFileLocked(new File(rootDirectory,"not-exists.txt")));
+	}
+	
+	@Test
+	public void testIsFileLockedByOtherProcess() throws Exception {
+		File file = new File(rootDirectory,"locked.txt");
+		Files.write(file.toPath(), "locked".getBytes(StandardCharsets.UTF_8));
+		long lastModified = file.lastModified();
+		assertFalse(FileUtils.isFileLocked(file));
+		//tryLock returns null when the lock is held by another program
+		String java = new File(new File(System.getProperty("java.home"),"bin"),"java").getAbsolutePath();
+		Process process = new ProcessBuilder(java,"-cp",System.getProperty("java.class.path"),LockHolder.class.getName(),file.getAbsolutePath()).start();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),StandardCharsets.UTF_8));
+			assertEquals("locked",reader.readLine());
+			assertTrue(FileUtils.isFileLocked(file));
+			assertFalse(FileUtils.isFileUnlocked(file));
+		} finally {
+			//The lock holder releases the lock and exits when its input is closed
+			process.getOutputStream().close();
+			process.waitFor();
+		}
+		assertFalse(FileUtils.isFileLocked(file));
+		assertEquals(lastModified,file.lastModified());
+	}
+	
+	/**
+	 * Holds a lock on a file, until the input is closed.
+	 */
+	public static class LockHolder {
+		public static void main(String[] args) throws IOException {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(args[0], "rw");
+			try {
+				FileLock lock = randomAccessFile.getChannel().lock();
+				System.out.println("locked");
+				System.out.flush();
+				while (System.in.read()!=-1) {
+				}
+				lock.release();
+			} finally {
+				randomAccessFile.close();
+			}
+		}
+	}
+	
 }
@@ -3,18 +3,28 @@ package dk.heick.io.monitoring.file;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import dk.heick.io.monitoring.GenericFileChange;
 import dk.heick.io.monitoring.MonitorTask;
 import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
 import dk.heick.io.monitoring.processor.FileProcessor;
 import dk.heick.io.monitoring.timer.MonitorTaskTimer;
+import dk.heick.io.monitoring.utils.FileChangeModifiedComparator;
 import dk.heick.io.monitoring.utils.FileLastModifiedComparator;
 import dk.heick.io.monitoring.utils.FileUtils;
-import dk.heick.io.monitoring.utils.ListUtils;
 import dk.heick.io.monitoring.validation.ValidationException;
 
 /**
@@ -54,6 +64,18 @@ import dk.heick.io.monitoring.validation.ValidationException;
  *  </li>
  * </ul>
  * 
+ * <b>Detection</b>
+ * <ul>
+ * 	<li>Default the <tt>"input"</tt> directory is listed on every run, and the files sorted by <tt>File.lastModified</tt>.</li>
+ * 	<li>If <tt>watchService</tt> is enabled in the configuration, a <tt>java.nio.file.WatchService</tt> is registered on the <tt>"input"</tt> directory.
+ * 	  <ul>
+ * 		<li>Created and modified files are queued and added to the monitor map, deleted files are removed from the monitor map.</li>
+ * 		<li>The directory is only listed completely on the first run, when the <tt>WatchService</tt> overflows (events lost) and every <tt>fullRescanInterval</tt>.</li>
+ * 		<li>If the <tt>WatchService</tt> can not be registered, the directory is listed on every run.</li>
+ * 	  </ul>
+ * 	</li>
+ * </ul>
+ * 
  * <b>Monitoring</b>
  * <ul>
  * 	<li>When new file is created in the <tt>"input"</tt> directory and it is a <tt>File</tt> and passes the <tt>FileFilter</tt> instance; <br>
@@ -66,6 +88,7 @@ import dk.heick.io.monitoring.validation.ValidationException;
  * 			<li><b>Note:</b> Has tried to implement a file locked test, but have been unsuccessfull.</li>
  * 		</ul>
  * 	</li>
+ * 	<li>The monitored files is checked oldest first, sorted by the modified timestamp read by the previous check.</li>
  * 	<li>When a file is "stable" it will be moved to <tt>".process"</tt> directory.
  * 	  <ul>
  * 		<li>If a file in the <tt>".process"</tt> directory already has that filename, 
@@ -103,7 +126,7 @@ import dk.heick.io.monitoring.validation.ValidationException;
  * 	    section "Exception handling".
  * 	<li>To reprocess a file that has not been moved from <tt>".process"</tt> directory, delete the  <tt>".lock"</tt> file.</li>
  * 	<li>To reprocess a file from archive, move to the <tt>"input"</tt> directory.</li> 
- * 	<li><b>Idea:</b> Should processing start up in a thread, with a max thread pool size, hence can handle timeout issues? Requires fixed constructor.</li>
+ * 	<li>If <tt>processingThreads</tt> is greater than one, files is processed by a pool of threads, and at most <tt>maxFilesInFlight</tt> files is processed at the same time.</li>
  * </ul>
  * <br>
  * @author Frederik Heick
@@ -114,6 +137,12 @@ import dk.heick.io.monitoring.validation.ValidationException;
 public class DirectoryMonitorTask extends MonitorTask<File, DirectoryMonitorTaskConfiguration> {
 	//
 	private OnlyFilesFileFilter instanceOnlyFilesFileFilter = null;
+	//
+	private WatchService watchService = null;
+	private WatchKey watchKey = null;
+	private boolean fullRescanRequired = true;
+	private long lastFullRescan = 0;
+	private Set<File> pendingFiles = new LinkedHashSet<File>();
 
 	/**
 	 * Constructor.
@@ -151,9 +180,16 @@ public class DirectoryMonitorTask extends MonitorTask<File, DirectoryMonitorTask
 		Arrays.sort(list,new FileLastModifiedComparator());
 		return list;
 	}
-	private List<File> getMonitoringFiles() {
-		List<File> list = ListUtils.asList(getFileMonitor().keySet().iterator());
-		Collections.sort(list,new FileLastModifiedComparator());
+	/**
+	 * The monitored files, sorted by the modified timestamp read by the previous update, so the sort do not read the file system.
+	 * @return the monitored files, oldest first.
+	 */
+	private List<GenericFileChange<File>> getMonitoringFiles() {
+		List<GenericFileChange<File>> list = null;
+		synchronized (getFileMonitor()) {
+			list = new ArrayList<GenericFileChange<File>>(getFileMonitor().values());
+		}
+		Collections.sort(list,new FileChangeModifiedComparator());
 		return list;
 	}
 
@@ -161,57 +197,185 @@ public class DirectoryMonitorTask extends MonitorTask<File, DirectoryMonitorTask
 	@Override
 	protected void detecting() {
 		verboseDebug("Running task - detecting");
+		if ((getConfiguration().isWatchService()) && (registerWatchService())) {
+			pollWatchEvents();
+			if (isFullRescanDue()) {
+				verboseDebug("Running task - detecting, full rescan of ["+getConfiguration().getDirectory().getAbsolutePath()+"]");
+				fullRescanRequired=false;
+				lastFullRescan=System.currentTimeMillis();
+				pendingFiles.addAll(Arrays.asList(getDetectedFiles()));
+			}
+			detectingPendingFiles();
+			//All the files of the latest full rescan has been detected
+			if ((lastFullRescan>0) && (pendingFiles.isEmpty())) {
+				detectionCompleted();
+			}
+		} else if (detectingFiles()) {
+			detectionCompleted();
+		}
+	}
+	
+	/**
+	 * Detects the files in the directory, until the maximum files polled is reached.
+	 * @return <code>true</code> if all the files in the directory was detected.
+	 */
+	private boolean detectingFiles() {
 		int filesPolled=0;
 		for (File file : getDetectedFiles()) {			
-			GenericFileChange<File> previousFileChange = getFileMonitor().get(file);	
-			//Other timer executions can have remove the file, check for null.
-			if (previousFileChange!=null) {	
-				if (!file.exists()) {
-					getLogger().warn("File ["+file.getAbsolutePath()+"] do not exists any more, removed from monitor.");
-					getFileMonitor().remove(file);							
-				} /*else {
-					if (!file.isFile()) {
-						getFileMonitor().put(file,currFileChange);
-						filesPolled++;
+			if (detectingFile(file)) {
+				filesPolled++;
+			}
+			if (!getConfiguration().doContinuePollFiles(filesPolled)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void detectingPendingFiles() {
+		int filesPolled=0;
+		Iterator<File> it = pendingFiles.iterator();
+		while ((it.hasNext()) && (getConfiguration().doContinuePollFiles(filesPolled))) {
+			File file = it.next();
+			it.remove();
+			if (getInstanceOnlyFilesFileFilter().accept(file) && detectingFile(file)) {
+				filesPolled++;
+			}
+		}
+	}
+	
+	/**
+	 * Adds the file to the file monitor if not already monitored, or removes it if it do not exists any more.
+	 * @param file the detected file.
+	 * @return <code>true</code> if the file was added to the file monitor, otherwise <code>false</code>.
+	 */
+	private boolean detectingFile(File file) {
+		GenericFileChange<File> previousFileChange = getFileMonitor().get(file);	
+		//Other timer executions can have remove the file, check for null.
+		if (previousFileChange!=null) {	
+			if (!file.exists()) {
+				getLogger().warn("File ["+file.getAbsolutePath()+"] do not exists any more, removed from monitor.");
+				getFileMonitor().remove(file);							
+			}
+			return false;
+		} else if (isFileRetryPending(file)) {
+			//A failed move to ".process" is waiting to be retried
+			return false;
+		} else if (file.isFile()) {
+			addMonitoredFile(file,new FileChange(file,getConfiguration().getLockProbeStrategy()));
+			getMetrics().getFilesDetectedCounter().increment();
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	private boolean isFullRescanDue() {
+		if (fullRescanRequired) {
+			return true;
+		} else if (getConfiguration().getFullRescanInterval()==null) {
+			return false;
+		} else {
+			return (System.currentTimeMillis()-lastFullRescan)>=getConfiguration().getFullRescanInterval().getTime();
+		}
+	}
+	
+	/**
+	 * Registers the <tt>WatchService</tt> on the monitored directory, if not already registered.<br>
+	 * Events that happened before the registration is unknown, so a full rescan is required afterwards.
+	 * @return <code>true</code> if the <tt>WatchService</tt> is registered, otherwise <code>false</code> and the directory has to be listed.
+	 */
+	private boolean registerWatchService() {
+		if ((watchKey!=null) && (watchKey.isValid())) {
+			return true;
+		} else {
+			try {
+				if (watchService==null) {
+					watchService = FileSystems.getDefault().newWatchService();
+				}
+				watchKey = getConfiguration().getDirectory().toPath().register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				fullRescanRequired=true;
+				verboseDebug("WatchService registered on ["+getConfiguration().getDirectory().getAbsolutePath()+"].");
+				return true;
+			} catch (IOException e) {
+				getLogger().error("Unable to register WatchService on ["+getConfiguration().getDirectory().getAbsolutePath()+"], listing directory instead, "+e.getMessage(),e);
+				closeWatchService();
+				return false;
+			}
+		}
+	}
+	
+	private void pollWatchEvents() {
+		WatchKey key = null;
+		while ((key = watchService.poll())!=null) {
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind()==StandardWatchEventKinds.OVERFLOW) {
+					getLogger().warn("WatchService overflow on ["+getConfiguration().getDirectory().getAbsolutePath()+"], events lost, full rescan required.");
+					fullRescanRequired=true;
+				} else {
+					File file = new File(getConfiguration().getDirectory(),((Path)event.context()).toString());
+					if (event.kind()==StandardWatchEventKinds.ENTRY_DELETE) {
+						pendingFiles.remove(file);
+						if (getFileMonitor().remove(file)!=null) {
+							getLogger().warn("File ["+file.getAbsolutePath()+"] do not exists any more, removed from monitor.");
+						}
+					} else {
+						pendingFiles.add(file);
 					}
-				}	*/	
-			} else {
-				if (file.isFile()) {
-					getFileMonitor().put(file,new FileChange(file));
-					filesPolled++;
 				}
 			}
-			if (!getConfiguration().doContinuePollFiles(filesPolled)) {
-				break;
+			if (!key.reset()) {
+				getLogger().warn("WatchService on ["+getConfiguration().getDirectory().getAbsolutePath()+"] is no longer valid.");
+				watchKey=null;
+				fullRescanRequired=true;
 			}
 		}
 	}
+	
+	private void closeWatchService() {
+		if (watchService!=null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				getLogger().warn("Unable to close WatchService, "+e.getMessage(),e);
+			}
+		}
+		watchService=null;
+		watchKey=null;
+		pendingFiles.clear();
+	}
+	
+	@Override
+	public void shutdown() {
+		closeWatchService();
+		super.shutdown();
+	}
+	
 	@Override
 	protected void monitoring() {	
 		verboseDebug("Running task - monitoring");
-		for (File file :getMonitoringFiles()) {			
-			GenericFileChange<File>  previousFileChange = getFileMonitor().get(file);		
-			//System.out.println("PREV_"+previousFileChange.getModified()+"/"+previousFileChange.getSize());
+		for (GenericFileChange<File> monitoredFile : getMonitoringFiles()) {			
+			File file = monitoredFile.getFile();
+			GenericFileChange<File>  fileChange = getFileMonitor().get(file);		
 			//Other timer executions can have remove the file, check for null.
-			if (previousFileChange!=null) {				
-				GenericFileChange<File>  currentFileChange = new FileChange(previousFileChange);
-				//System.out.println("CURR_"+currentFileChange.getModified()+"/"+currentFileChange.getSize());
-				if (currentFileChange.isStable(previousFileChange, getConfiguration().getStableTime().getTime())) {													
+			if (fileChange!=null) {				
+				fileChange.update(file);
+				if (fileChange.isStable(getConfiguration().getStableTime().getTime())) {													
 					verboseDebug("File is stable ["+file.getName()+"].");
-					moveFileToProcess(file);
+					moveFileToProcess(file,fileChange);
 					getFileMonitor().remove(file);									
 				} else {
-					//verboseDebug("File is NOT stable ["+file.getName()+"].");
 					if (!file.exists()) {
 						getLogger().warn("File ["+file.getAbsolutePath()+"] do not exists any more, removed from monitor.");
 						getFileMonitor().remove(file);
-					} else if (!getConfiguration().doContinueMonitorFile(currentFileChange.getMonitoringTime())) {
-						String msg = "File ["+currentFileChange.getFile().getAbsolutePath()+"] has been monitored more than ["+getConfiguration().getMonitorTimeout()+"] ms, removing file from monitor.";
+					} else if (!getConfiguration().doContinueMonitorFile(fileChange.getMonitoringTime())) {
+						String msg = "File ["+fileChange.getFile().getAbsolutePath()+"] has been monitored more than ["+getConfiguration().getMonitorTimeout()+"] ms, removing file from monitor.";
 						getLogger().error(msg);						
 						getFileMonitor().remove(file);
-						moveFileToError(currentFileChange.getFile(), new IOException(msg));
-					} else {
-						getFileMonitor().put(file,currentFileChange);
+						moveFileToError(fileChange.getFile(), new IOException(msg));
 					}
 				}
 			} else {
@@ -219,7 +383,7 @@ public class DirectoryMonitorTask extends MonitorTask<File, DirectoryMonitorTask
 					getLogger().warn("File ["+file.getAbsolutePath()+"] do not exists any more, removed from monitor.");
 					getFileMonitor().remove(file);
 				} else {
-					getFileMonitor().put(file, new FileChange(file));
+					addMonitoredFile(file, new FileChange(file,getConfiguration().getLockProbeStrategy()));
 				}
 			} 
 		}
@@ -3,6 +3,7 @@ package dk.heick.io.monitoring.file;
 import java.io.File;
 import java.io.FileFilter;
 
+import dk.heick.io.monitoring.IOMonitoringConstants;
 import dk.heick.io.monitoring.MonitorTaskConfiguration;
 import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
 import dk.heick.io.monitoring.processor.FileProcessor;
@@ -10,9 +11,24 @@ import dk.heick.io.monitoring.utils.TimeSpan;
 import dk.heick.io.monitoring.validation.ValidateUtils;
 import dk.heick.io.monitoring.validation.ValidationException;
 
+/**
+ * Configuration for monitoring a local directory.<br/>
+ * If not in the constructor or implicit set, the default values is as follows.
+ * <ul>
+ * 		<li>filter : new OnlyFilesFileFilter()</li>
+ * 		<li>watchService : false (the directory is listed on every run)</li>
+ * 		<li>fullRescanInterval : IOMonitoringConstants.DEFAULT_FULL_RESCAN_INTERVAL = 5 minutes</li>
+ * 		<li>lockProbeStrategy : LockProbeStrategy.WHEN_STABLE</li>
+ * </ul>
+ * @author Frederik Heick
+ * @see DirectoryMonitorTask
+ */
 public class DirectoryMonitorTaskConfiguration extends MonitorTaskConfiguration {
 
 	private FileFilter filter = new OnlyFilesFileFilter();	
+	private boolean watchService = false;
+	private TimeSpan fullRescanInterval = IOMonitoringConstants.DEFAULT_FULL_RESCAN_INTERVAL;
+	private LockProbeStrategy lockProbeStrategy = LockProbeStrategy.WHEN_STABLE;
 	
 	public DirectoryMonitorTaskConfiguration(File directory,FileProcessor fileProcessor,FileFilter filter) {
 		super(directory,fileProcessor);
@@ -29,6 +45,7 @@ public class DirectoryMonitorTaskConfiguration extends MonitorTaskConfiguration
 	public void validate() throws ValidationException {	
 		super.validate();
 		ValidateUtils.validateNotNull("FileFilter", getFilter());
+		ValidateUtils.validateNotNull("LockProbeStrategy", getLockProbeStrategy());
 	}
 	
 	
@@ -40,14 +57,65 @@ public class DirectoryMonitorTaskConfiguration extends MonitorTaskConfiguration
 		return filter;
 	}
 	
+	/**
+	 * If new files is detected using a <tt>java.nio.file.WatchService</tt> instead of listing the directory on every run.
+	 * @return <code>true</code> if the <tt>WatchService</tt> is used, otherwise <code>false</code>.
+	 */
+	public boolean isWatchService() {
+		return watchService;
+	}
+	
+	/**
+	 * How often the directory is listed completely when using the <tt>WatchService</tt>, 
+	 * as a safety net for events the file system did not report.
+	 * @return the full rescan interval, if <code>null</code> a full rescan is only done when the <tt>WatchService</tt> overflows.
+	 * @see #isWatchService()
+	 */
+	public TimeSpan getFullRescanInterval() {
+		return fullRescanInterval;
+	}
+	
+	/**
+	 * When a monitored file is probed for a lock, before it is deemed stable.
+	 * @return the lock probe strategy.
+	 * @see LockProbeStrategy
+	 */
+	public LockProbeStrategy getLockProbeStrategy() {
+		return lockProbeStrategy;
+	}
+	
 	public DirectoryMonitorTaskConfiguration setFilter(FileFilter filter) {
 		this.filter = filter;
 		return this;
 	}
+	
+	public DirectoryMonitorTaskConfiguration setWatchService(boolean watchService) {
+		this.watchService = watchService;
+		return this;
+	}
+	public DirectoryMonitorTaskConfiguration withWatchService() {
+		return setWatchService(true);
+	}
+	public DirectoryMonitorTaskConfiguration withNoWatchService() {
+		return setWatchService(false);
+	}
+	
+	public DirectoryMonitorTaskConfiguration setFullRescanInterval(TimeSpan fullRescanInterval) {
+		this.fullRescanInterval = fullRescanInterval;
+		return this;
+	}
+	public DirectoryMonitorTaskConfiguration withNoFullRescanInterval() {
+		return setFullRescanInterval(null);
+	}
+
+	public DirectoryMonitorTaskConfiguration setLockProbeStrategy(LockProbeStrategy lockProbeStrategy) {
+		this.lockProbeStrategy = lockProbeStrategy;
+		return this;
+	}
 
 	@Override
 	public String toString() {
-		return super.toString()+ " - DirectoryMonitorTaskConfiguration [filter=" + filter.getClass().getName() + "]";
+		return super.toString()+ " - DirectoryMonitorTaskConfiguration [filter=" + filter.getClass().getName() + ", watchService=" + watchService + ", fullRescanInterval=" + fullRescanInterval + ", lockProbeStrategy=" + lockProbeStrategy + "]";
 	}
 
 }
@@ -18,12 +18,29 @@ import dk.heick.io.monitoring.utils.FileUtils;
  */
 public class FileChange extends GenericFileChange<File>  {
 	
+	private LockProbeStrategy lockProbeStrategy;
+	private long unlockedModified=-1;
+	private long unlockedSize=-1;
+	private boolean lockProbed=false;
+	
 	/**
-	 * Constructor for the first time the file is monitored.
+	 * Constructor for the first time the file is monitored, with the same lock probe strategy as the default of the configuration, WHEN_STABLE.
 	 * @param file the file
+	 * @see DirectoryMonitorTaskConfiguration#getLockProbeStrategy()
 	 */
 	public FileChange(File file) {
-		super(file);		
+		this(file,LockProbeStrategy.WHEN_STABLE);		
+	}
+	
+	/**
+	 * Constructor for the first time the file is monitored.
+	 * @param file the file
+	 * @param lockProbeStrategy when the file is probed for a lock, if <code>null</code> WHEN_STABLE is used.
+	 */
+	public FileChange(File file,LockProbeStrategy lockProbeStrategy) {
+		super(file,false);
+		this.lockProbeStrategy=lockProbeStrategy;
+		init(file);
 	}
 
 	/**
@@ -45,11 +62,69 @@ public class FileChange extends GenericFileChange<File>  {
 		return getFile().getAbsolutePath();
 	}
 	
+	/**
+	 * Reads the modified timestamp and size, and probes for a lock according to the <tt>LockProbeStrategy</tt>. <br>
+	 * A file that is not probed is not locked, use <tt>isLockProbed()</tt> to tell if the lock state is known.
+	 * @see LockProbeStrategy
+	 * @see #isLockProbed()
+	 */
 	@Override
 	protected void init(File file) {
-		setLocked(FileUtils.isFileLocked(file));
-		setModified(file.lastModified());
-		setSize(file.length());		
+		long modified = file.lastModified();
+		long size = file.length();
+		boolean changed = (getModified()==0) || (modified!=getModified()) || (size!=getSize());
+		setModified(modified);
+		setSize(size);
+		setLocked(probeLock(file,changed));
+	}
+	
+	private boolean probeLock(File file,boolean changed) {
+		switch (getLockProbeStrategy()) {
+		case NEVER:
+			lockProbed=false;
+			return false;
+		case WHEN_STABLE:
+			if (changed) {
+				//Still being written, it can not be stable so there is no need to probe
+				lockProbed=false;
+				return false;
+			} else if ((getModified()==unlockedModified) && (getSize()==unlockedSize)) {
+				lockProbed=true;
+				return false;
+			} else {
+				boolean locked = FileUtils.isFileLocked(file);
+				if (!locked) {
+					unlockedModified=getModified();
+					unlockedSize=getSize();
+				}
+				lockProbed=true;
+				return locked;
+			}
+		default:
+			lockProbed=true;
+			return FileUtils.isFileLocked(file);
+		}
+	}
+	
+	/**
+	 * If the latest check has probed the file for a lock, or used the cached result of a probe for the same size and modified timestamp. <br>
+	 * When <code>false</code> the file is not known to be locked or unlocked, ex. a new or changed file with WHEN_STABLE, or any file with NEVER.
+	 * @return <code>true</code> if <tt>isLocked()</tt> is the result of a probe.
+	 */
+	public final boolean isLockProbed() {
+		return lockProbed;
+	}
+	
+	/**
+	 * When the file is probed for a lock.
+	 * @return the lock probe strategy, if not set WHEN_STABLE.
+	 */
+	public final LockProbeStrategy getLockProbeStrategy() {
+		if (lockProbeStrategy==null) {
+			return LockProbeStrategy.WHEN_STABLE;
+		} else {
+			return lockProbeStrategy;
+		}
 	}
 	
 }
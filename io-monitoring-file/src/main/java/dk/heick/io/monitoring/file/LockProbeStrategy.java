@@ -0,0 +1,28 @@
+package dk.heick.io.monitoring.file;
+
+import dk.heick.io.monitoring.utils.FileUtils;
+
+/**
+ * When a monitored file is probed for a lock with <tt>FileUtils.isFileLocked(File)</tt>, 
+ * which opens the file for writing and tries to obtain a <tt>FileLock</tt>.
+ * @author Frederik Heick
+ * @see DirectoryMonitorTaskConfiguration#getLockProbeStrategy()
+ * @see FileUtils#isFileLocked(java.io.File)
+ */
+public enum LockProbeStrategy {
+	
+	/**
+	 * The file is probed every time it is checked.
+	 */
+	ALWAYS,
+	/**
+	 * The cheap size and modified timestamp is checked first, the file is only probed when they are unchanged since the last check.
+	 * A file that was not locked is not probed again until its size or modified timestamp changes.
+	 */
+	WHEN_STABLE,
+	/**
+	 * The file is never probed, stability is only decided by size and modified timestamp.
+	 */
+	NEVER;
+
+}
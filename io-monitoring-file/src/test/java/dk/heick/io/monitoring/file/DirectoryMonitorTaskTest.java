@@ -1,20 +1,28 @@
 package dk.heick.io.monitoring.file;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
 import java.nio.file.Files;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.heick.io.monitoring.FileMonitorCheckpoint;
+import dk.heick.io.monitoring.IOMonitoringConstants;
 import dk.heick.io.monitoring.filter.EndsWithFileFilter;
 import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
 import dk.heick.io.monitoring.processor.DefaultFileProcessor;
@@ -135,6 +143,9 @@ public class DirectoryMonitorTaskTest {
 			assertEquals(0,task.getConfiguration().getDirectoryProcess().listFiles().length);			
 			assertEquals(3,task.getDirectoryArchiveSubdirectory().listFiles().length);
 			assertEquals(0,task.size());
+			//The time from the processed files was first seen
+			assertEquals(3,task.getMetrics().getTimeToProcessed().getCount());
+			assertTrue(task.getMetrics().getTimeToProcessed().getMax()>STABLE_TIME.getTime());
 		} catch (ValidationException | IOException | InterruptedException e) {
 			e.printStackTrace();
 			fail(e.getMessage());
@@ -142,6 +153,342 @@ public class DirectoryMonitorTaskTest {
 			
 	}
 	
+	@Test
+	public void testDirectoryMonitorTaskWatchService() {
+		try {
+			DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+					ROOT,					
+					getFileProcessor(),
+					getFileFilter(),
+					STABLE_TIME
+			);
+			configuration.withWatchService();
+			DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);	
+			task.validate();
+			//Detected by the first full rescan
+			createFile(new File(configuration.getDirectory(),"before"+EXTENSION),getFileContent());
+			task.runTask();
+			assertEquals(1,task.size());
+			//Detected by WatchService events
+			for (int i=0;i<FILE_COUNT;i++) {
+				createFile(new File(configuration.getDirectory(),"hest_"+i+EXTENSION),getFileContent());
+			}
+			long timeout = System.currentTimeMillis()+STABLE_TIME.getTime()*10;
+			while ((task.size()<FILE_COUNT+1) && (System.currentTimeMillis()<timeout)) {
+				Thread.sleep(100);
+				task.runTask();
+			}
+			assertEquals(FILE_COUNT+1,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			task.runTask();
+			assertEquals(0,task.size());
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(2,task.getDirectoryErrorSubdirectory().listFiles().length);
+			task.shutdown();
+		} catch (ValidationException | IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testDirectoryMonitorTaskConcurrentProcessing() {
+		try {
+			DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+					ROOT,					
+					getFileProcessor(),
+					getFileFilter(),
+					STABLE_TIME
+			);
+			configuration.setProcessingThreads(4).setMaxFilesInFlight(2);
+			DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);	
+			task.validate();
+			for (int i=0;i<FILE_COUNT;i++) {
+				createFile(new File(configuration.getDirectory(),"hest_"+i+EXTENSION),getFileContent());
+			}
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			long timeout = System.currentTimeMillis()+STABLE_TIME.getTime()*10;
+			do {
+				task.runTask();
+				Thread.sleep(100);
+			} while (((task.getFilesInFlight()>0) || (task.getConfiguration().getDirectoryProcess().list().length>0)) && (System.currentTimeMillis()<timeout));
+			assertEquals(0,task.size());
+			assertEquals(0,task.getFilesInFlight());
+			assertEquals(0,task.getConfiguration().getDirectoryProcess().list().length);
+			assertEquals(FILE_COUNT-1,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(2,task.getDirectoryErrorSubdirectory().listFiles().length);
+			task.shutdown();
+		} catch (ValidationException | IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testDirectoryMonitorTaskMaxFilesInFlight() throws Exception {
+		final AtomicInteger processing = new AtomicInteger(0);
+		final AtomicInteger maxProcessing = new AtomicInteger(0);
+		DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+				ROOT,					
+				new DefaultFileProcessor() {
+					@Override
+					public void process(Properties context, File file) throws Exception {
+						int active = processing.incrementAndGet();
+						try {
+							synchronized (maxProcessing) {
+								maxProcessing.set(Math.max(maxProcessing.get(),active));
+							}
+							Thread.sleep(300);
+						} finally {
+							processing.decrementAndGet();
+						}
+					}
+				},
+				getFileFilter(),
+				STABLE_TIME
+		);
+		//Less files in flight than processing threads is honoured
+		configuration.setProcessingThreads(4).setMaxFilesInFlight(2);
+		assertEquals(2,configuration.getMaxFilesInFlight());
+		DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);	
+		try {
+			task.validate();
+			for (int i=0;i<FILE_COUNT;i++) {
+				createFile(new File(configuration.getDirectory(),"hest_"+i+EXTENSION),getFileContent());
+			}
+			task.runTask();
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			task.runTask();
+			assertEquals(2,task.getFilesInFlight());
+			long timeout = System.currentTimeMillis()+STABLE_TIME.getTime()*10;
+			do {
+				task.runTask();
+				Thread.sleep(100);
+			} while (((task.getFilesInFlight()>0) || (task.getConfiguration().getDirectoryProcess().list().length>0)) && (System.currentTimeMillis()<timeout));
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(2,maxProcessing.get());
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testDirectoryMonitorTaskCheckpoint() {
+		try {
+			DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+					ROOT,					
+					getFileProcessor(),
+					getFileFilter(),
+					STABLE_TIME
+			);
+			configuration.withCheckpoint();
+			DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);	
+			task.validate();
+			for (int i=0;i<FILE_COUNT-1;i++) {
+				createFile(new File(configuration.getDirectory(),"hest_"+i+EXTENSION),getFileContent());
+			}
+			task.runTask();
+			assertEquals(FILE_COUNT-1,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			//Restart, the files has been stable while the task was stopped
+			task.shutdown();
+			assertEquals(true,new File(configuration.getDirectoryCheckpoint(),IOMonitoringConstants.CHECKPOINT_FILE_NAME).exists());
+			task = new DirectoryMonitorTask(configuration);
+			task.runTask();
+			assertEquals(0,task.size());
+			assertEquals(FILE_COUNT-1,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			task.shutdown();
+		} catch (ValidationException | IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testDirectoryMonitorTaskCheckpointGoneFiles() throws ValidationException, IOException {
+		DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+				ROOT,
+				getFileProcessor(),
+				getFileFilter(),
+				STABLE_TIME
+		);
+		configuration.withCheckpoint();
+		File checkpointFile = new File(configuration.getDirectoryCheckpoint(),IOMonitoringConstants.CHECKPOINT_FILE_NAME);
+		DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);
+		File kept = new File(configuration.getDirectory(),"hest_0"+EXTENSION);
+		File gone = new File(configuration.getDirectory(),"hest_1"+EXTENSION);
+		createFile(kept,getFileContent());
+		createFile(gone,getFileContent());
+		task.runTask();
+		task.shutdown();
+		assertEquals(2,new FileMonitorCheckpoint(checkpointFile).read().size());
+		//Deleted while the task was stopped
+		assertTrue(gone.delete());
+		task = new DirectoryMonitorTask(configuration);
+		task.runTask();
+		task.shutdown();
+		Map<String,FileMonitorCheckpoint.Entry> entries = new FileMonitorCheckpoint(checkpointFile).read();
+		assertEquals(1,entries.size());
+		assertTrue(entries.containsKey(kept.getAbsolutePath()));
+	}
+
+	@Test
+	public void testDirectoryMonitorTaskStagedPipeline() {
+		try {
+			DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+					ROOT,					
+					getFileProcessor(),
+					getFileFilter(),
+					STABLE_TIME
+			);
+			configuration.withStagedPipeline();
+			DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);	
+			task.validate();
+			//left in the process directory by a crash
+			createFile(new File(configuration.getDirectoryProcess(),"hest_left"+EXTENSION),getFileContent());
+			for (int i=0;i<FILE_COUNT;i++) {
+				createFile(new File(configuration.getDirectory(),"hest_"+i+EXTENSION),getFileContent());
+			}
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			task.runTask();
+			assertEquals(0,task.size());
+			//processed by the processing stage, not by the runs
+			long timeout = System.currentTimeMillis()+STABLE_TIME.getTime()*10;
+			while ((task.getConfiguration().getDirectoryProcess().list().length>0) && (System.currentTimeMillis()<timeout)) {
+				Thread.sleep(100);
+			}
+			assertEquals(0,task.getConfiguration().getDirectoryProcess().list().length);
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(2,task.getDirectoryErrorSubdirectory().listFiles().length);
+			task.shutdown();
+		} catch (ValidationException | IOException | InterruptedException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testDirectoryMonitorTaskStagedPipelineWaitsForRun() throws ValidationException, IOException, InterruptedException {
+		DirectoryMonitorTaskConfiguration configuration = new DirectoryMonitorTaskConfiguration(
+				ROOT,
+				new DefaultFileProcessor() {
+					@Override
+					public void process(Properties context, File file) throws Exception {
+					}
+					@Override
+					public boolean onSuccess(Properties context, long start, File file) {
+						//stop after each file
+						return false;
+					}
+				},
+				getFileFilter(),
+				STABLE_TIME
+		);
+		configuration.withStagedPipeline();
+		DirectoryMonitorTask task = new DirectoryMonitorTask(configuration);
+		for (int i=0;i<2;i++) {
+			createFile(new File(configuration.getDirectory(),"hest_"+i+EXTENSION),getFileContent());
+		}
+		task.runTask();
+		Thread.sleep(STABLE_TIME.getTime()+500);
+		task.runTask();
+		//longer than the poll interval of the stage, but no new run
+		Thread.sleep(IOMonitoringConstants.PROCESS_POLL_INTERVAL.getTime()*2);
+		assertEquals(1,configuration.getDirectoryProcess().list().length);
+		assertEquals(1,task.getDirectoryArchiveSubdirectory().listFiles().length);
+		task.runTask();
+		long timeout = System.currentTimeMillis()+STABLE_TIME.getTime()*10;
+		while ((configuration.getDirectoryProcess().list().length>0) && (System.currentTimeMillis()<timeout)) {
+			Thread.sleep(100);
+		}
+		assertEquals(2,task.getDirectoryArchiveSubdirectory().listFiles().length);
+		assertEquals(2,task.getMetrics().getProcessDuration().getCount());
+		task.shutdown();
+	}
+
+	@Test
+	public void testFileChangeUpdate() throws IOException, InterruptedException {
+		File file = new File(ROOT,"hest_update"+EXTENSION);
+		createFile(file,getFileContent());
+		FileChange fileChange = new FileChange(file,LockProbeStrategy.NEVER);
+		long created = fileChange.getCreated();
+		//Not stable before the first update
+		assertFalse(fileChange.isStable(0));
+		Thread.sleep(20);
+		assertTrue(fileChange.update(file));
+		assertTrue(fileChange.isStable(0));
+		assertFalse(fileChange.isStable(STABLE_TIME.getTime()));
+		long lastChecked = fileChange.getLastChecked();
+		//Unchanged, so last checked is kept and the file gets stable
+		Thread.sleep(STABLE_TIME.getTime()+100);
+		assertTrue(fileChange.update(file));
+		assertEquals(lastChecked,fileChange.getLastChecked());
+		assertTrue(fileChange.isStable(STABLE_TIME.getTime()));
+		//Changed size, last checked is reset
+		createFile(file,getFileContent()+"changed");
+		assertFalse(fileChange.update(file));
+		assertFalse(fileChange.isStable(0));
+		assertTrue(fileChange.getLastChecked()>lastChecked);
+		assertEquals(file.length(),fileChange.getSize());
+		//Changed modified timestamp only
+		assertTrue(fileChange.update(file));
+		assertTrue(file.setLastModified(fileChange.getModified()-10000));
+		assertFalse(fileChange.update(file));
+		assertEquals(file.lastModified(),fileChange.getModified());
+		//Deleted
+		assertTrue(fileChange.update(file));
+		assertTrue(file.delete());
+		assertFalse(fileChange.update(file));
+		assertFalse(fileChange.isStable(0));
+		assertEquals(created,fileChange.getCreated());
+	}
+	
+	@Test
+	public void testLockProbeStrategy() throws IOException {
+		File file = new File(ROOT,"hest_locked"+EXTENSION);
+		createFile(file,getFileContent());
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			FileLock lock = randomAccessFile.getChannel().lock();
+			assertTrue(new FileChange(file,LockProbeStrategy.ALWAYS).isLocked());
+			assertFalse(new FileChange(file,LockProbeStrategy.NEVER).isLocked());
+			//A new or changed file is not probed, it can not be stable yet, and it is not reported as locked
+			FileChange whenStable = new FileChange(file,LockProbeStrategy.WHEN_STABLE);
+			assertFalse(whenStable.isLockProbed());
+			assertFalse(whenStable.isLocked());
+			assertEquals(LockProbeStrategy.WHEN_STABLE,new FileChange(file).getLockProbeStrategy());
+			//Unchanged, so it is probed
+			assertFalse(whenStable.update(file));
+			assertTrue(whenStable.isLockProbed());
+			assertTrue(whenStable.isLocked());
+			lock.release();
+			assertTrue(whenStable.update(file));
+			assertFalse(whenStable.isLocked());
+			//The unlocked result is cached for the size and modified timestamp, so the new lock is not probed
+			lock = randomAccessFile.getChannel().lock();
+			assertTrue(whenStable.update(file));
+			assertFalse(whenStable.isLocked());
+			FileChange always = new FileChange(file,LockProbeStrategy.ALWAYS);
+			assertFalse(always.update(file));
+			assertTrue(always.isLocked());
+			//Changed, the cache is cleared and the file is probed again when unchanged
+			assertTrue(file.setLastModified(whenStable.getModified()-10000));
+			assertFalse(whenStable.update(file));
+			assertFalse(whenStable.isLockProbed());
+			assertFalse(whenStable.isLocked());
+			assertFalse(whenStable.update(file));
+			assertTrue(whenStable.isLockProbed());
+			assertTrue(whenStable.isLocked());
+			lock.release();
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
 	private FileFilter getFileFilter() throws ValidationException {
 		return new EndsWithFileFilter(".txt");
 	}
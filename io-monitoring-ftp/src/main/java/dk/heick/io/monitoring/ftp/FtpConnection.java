@@ -0,0 +1,70 @@
+package dk.heick.io.monitoring.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+ * A connected and logged in <tt>FTPClient</tt>, with the timestamps the <tt>FtpConnectionPool</tt> needs to expire it.
+ * @author Frederik Heick
+ * @see FtpConnectionPool
+ */
+public class FtpConnection {
+	
+	private FTPClient client;
+	private long created;
+	private long lastUsed;
+	private boolean reused;
+	
+	/**
+	 * Constructor.
+	 * @param client a connected and logged in client.
+	 */
+	public FtpConnection(FTPClient client) {
+		super();
+		this.client=client;
+		this.created=System.currentTimeMillis();
+		this.lastUsed=created;
+		this.reused=false;
+	}
+	
+	public final FTPClient getClient() {
+		return client;
+	}
+	
+	/**
+	 * When the connection was created.
+	 * @return created timestamp.
+	 */
+	public final long getCreated() {
+		return created;
+	}
+	
+	/**
+	 * When the connection was last returned to the pool.
+	 * @return last used timestamp.
+	 */
+	public final long getLastUsed() {
+		return lastUsed;
+	}
+	
+	/**
+	 * If the connection has been used before, and therefore can have been closed by the server while idle.
+	 * @return <code>true</code> if the connection was taken from the pool, <code>false</code> if it is new.
+	 */
+	public final boolean isReused() {
+		return reused;
+	}
+	
+	protected final void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+	
+	protected final void setReused(boolean reused) {
+		this.reused = reused;
+	}
+	
+	@Override
+	public String toString() {
+		return "FtpConnection [created=" + created + ", lastUsed=" + lastUsed + ", reused=" + reused + "]";
+	}
+	
+}
@@ -0,0 +1,16 @@
+package dk.heick.io.monitoring.ftp;
+
+import java.io.IOException;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+ * Creates a new connected and logged in <tt>FTPClient</tt>, used by the <tt>FtpConnectionPool</tt>.
+ * @author Frederik Heick
+ * @see FtpConnectionPool
+ */
+public interface FtpConnectionFactory {
+	
+	public FTPClient connect() throws IOException;
+
+}
@@ -0,0 +1,308 @@
+package dk.heick.io.monitoring.ftp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.heick.io.monitoring.utils.TimeSpan;
+
+/**
+ * A pool of logged in FTP connections, shared by all <tt>FtpMonitoringTask</tt> in the JVM connecting to the same host, port and user 
+ * with the same connection settings. <br>
+ * <ul>
+ * 	<li>Connections is kept between runs, so a run only costs the commands it sends, not the connect, login and setup round trips.</li>
+ * 	<li>A connection that has been idle longer than <tt>VALIDATION_IDLE_TIME</tt> is checked with a <tt>NOOP</tt> before being reused.</li>
+ * 	<li>Connections idle longer than <tt>idleTimeout</tt> or older than <tt>maxLifetime</tt> is closed.</li>
+ * 	<li>At most <tt>poolSize</tt> idle connections is kept, extra connections is closed when released.</li>
+ * </ul>
+ * The connections is set up from the configuration that created them, so tasks with a different file type, timeouts, keep alive, proxy, 
+ * additional ftp configuration or pool settings do not share a pool.<br>
+ * A task takes a reference to the pool with <tt>acquire</tt> and releases it with <tt>close</tt> when it is shut down, 
+ * the idle connections is closed and the pool removed when the last task has released it.
+ * @author Frederik Heick
+ * @see FtpMonitorTaskConfiguration#isFtpConnectionPooling()
+ */
+public class FtpConnectionPool {
+	
+	/**
+	 * The default max number of idle connections kept per host, port and user (2).
+	 */
+	public final static int DEFAULT_POOL_SIZE=2;
+	
+	/**
+	 * The default time an idle connection is kept (1 minute).
+	 */
+	public final static TimeSpan DEFAULT_IDLE_TIMEOUT=TimeSpan.createMinutes(1);
+	
+	/**
+	 * The default max lifetime of a connection (30 minutes).
+	 */
+	public final static TimeSpan DEFAULT_MAX_LIFETIME=TimeSpan.createMinutes(30);
+	
+	/**
+	 * Connections idle longer than this is checked with a NOOP before being reused (5 seconds).
+	 */
+	public final static TimeSpan VALIDATION_IDLE_TIME=TimeSpan.createSeconds(5);
+	
+	private final static ConcurrentMap<String,FtpConnectionPool> POOLS = new ConcurrentHashMap<String,FtpConnectionPool>();
+	
+	private String key;
+	private int poolSize;
+	private TimeSpan idleTimeout;
+	private TimeSpan maxLifetime;
+	private Deque<FtpConnection> idle = new ArrayDeque<FtpConnection>();
+	private int references=0;
+	private volatile boolean closed=false;
+	private AtomicLong connectionsCreated = new AtomicLong(0);
+	private AtomicLong connectionsReused = new AtomicLong(0);
+	private Logger logger=null;
+	
+	/**
+	 * Takes a reference to the shared pool for the host, port, user, connection and pool settings of the configuration, the pool is created if it do not exists.
+	 * The reference must be released with <tt>close()</tt>.
+	 * @param configuration the configuration.
+	 * @return the shared pool.
+	 * @see #createKey(FtpMonitorTaskConfiguration)
+	 */
+	public static final FtpConnectionPool acquire(FtpMonitorTaskConfiguration configuration) {
+		String key = createKey(configuration);
+		synchronized (POOLS) {
+			FtpConnectionPool pool = POOLS.get(key);
+			if (pool==null) {
+				pool = new FtpConnectionPool(key,configuration.getFtpPoolSize(),configuration.getFtpPoolIdleTimeout(),configuration.getFtpPoolMaxLifetime());
+				POOLS.put(key, pool);
+			}
+			pool.references++;
+			return pool;
+		}
+	}
+	
+	/**
+	 * Closes all idle connections in all pools.
+	 */
+	public static final void closeAll() {
+		for (FtpConnectionPool pool : POOLS.values()) {
+			pool.closeIdle();
+		}
+	}
+	
+	public static final String createKey(String host,int port,String username) {
+		return username+"@"+host+":"+port;
+	}
+	
+	/**
+	 * The key of the pool for a configuration; the host, port and user, the settings a connection is set up with when it is created, and the pool settings.
+	 * The additional ftp configuration is identified by its instance, as it can set anything on the client.
+	 * @param configuration the configuration.
+	 * @return the key.
+	 */
+	public static final String createKey(FtpMonitorTaskConfiguration configuration) {
+		StringBuilder key = new StringBuilder(createKey(configuration.getHost(),configuration.getPort(),configuration.getUsername()));
+		key.append("[fileType=").append(configuration.getFtpFileType());
+		key.append(", connectTimeout=").append(configuration.getFtpConnectTimeout());
+		key.append(", dataTimeout=").append(configuration.getFtpDataTimeout());
+		key.append(", defaultTimeout=").append(configuration.getFtpDefaultTimeout());
+		key.append(", soTimeout=").append(configuration.getFtpSoTimeout());
+		key.append(", keepAlive=").append(configuration.getFtpKeepAlive());
+		key.append(", proxy=").append(configuration.getFtpProxy());
+		key.append(", poolSize=").append(configuration.getFtpPoolSize());
+		key.append(", idleTimeout=").append(configuration.getFtpPoolIdleTimeout());
+		key.append(", maxLifetime=").append(configuration.getFtpPoolMaxLifetime());
+		if (configuration.getAdditionalFTPConfiguration()!=null) {
+			AdditionalFtpConfiguration additional = configuration.getAdditionalFTPConfiguration();
+			key.append(", additional=").append(additional.getClass().getName()).append("@").append(Integer.toHexString(System.identityHashCode(additional)));
+		}
+		return key.append("]").toString();
+	}
+	
+	/**
+	 * Constructor.
+	 * @param key the host, port, user and connection settings key.
+	 * @param poolSize max number of idle connections kept.
+	 * @param idleTimeout how long an idle connection is kept.
+	 * @param maxLifetime max lifetime of a connection, if <code>null</code> no max lifetime.
+	 */
+	public FtpConnectionPool(String key,int poolSize,TimeSpan idleTimeout,TimeSpan maxLifetime) {
+		super();
+		this.key=key;
+		this.poolSize=poolSize;
+		this.idleTimeout=idleTimeout;
+		this.maxLifetime=maxLifetime;
+	}
+	
+	/**
+	 * Takes an idle connection from the pool, or creates a new if none is available.
+	 * @param factory creates a new connection if needed.
+	 * @return a logged in connection.
+	 * @throws IOException if a new connection could not be created.
+	 */
+	public FtpConnection borrow(FtpConnectionFactory factory) throws IOException {
+		FtpConnection connection = null;
+		while ((connection = pollIdle())!=null) {
+			long now = System.currentTimeMillis();
+			if (isExpired(connection,now)) {
+				close(connection);
+			} else if ((now-connection.getLastUsed()>VALIDATION_IDLE_TIME.getTime()) && (!isAlive(connection))) {
+				getLogger().debug("Idle FTP connection ["+key+"] did not answer NOOP, closing.");
+				close(connection);
+			} else {
+				connection.setReused(true);
+				connectionsReused.incrementAndGet();
+				return connection;
+			}
+		}
+		connection = new FtpConnection(factory.connect());
+		connectionsCreated.incrementAndGet();
+		return connection;
+	}
+	
+	/**
+	 * Returns a connection to the pool. Connections that is no longer connected, 
+	 * that the server has closed, that has expired or when the pool is full is closed.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 */
+	public void release(FtpConnection connection) {
+		if (connection!=null) {
+			long now = System.currentTimeMillis();
+			if ((!connection.getClient().isConnected()) || 
+				(connection.getClient().getReplyCode()==FTPReply.SERVICE_NOT_AVAILABLE) ||
+				(isExpired(connection,now))) {
+				close(connection);
+			} else {
+				connection.setLastUsed(now);
+				boolean pooled = false;
+				synchronized (idle) {
+					if ((!closed) && (idle.size()<poolSize)) {
+						idle.push(connection);
+						pooled = true;
+					}
+				}
+				if (!pooled) {
+					close(connection);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Closes a connection that has failed, it is not returned to the pool.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 */
+	public void invalidate(FtpConnection connection) {
+		if (connection!=null) {
+			close(connection);
+		}
+	}
+	
+	/**
+	 * Closes all idle connections.
+	 */
+	public void closeIdle() {
+		FtpConnection connection = null;
+		while ((connection = pollIdle())!=null) {
+			close(connection);
+		}
+	}
+	
+	/**
+	 * Releases a reference taken by <tt>acquire</tt>. When the last reference is released the pool is removed, its idle connections is closed 
+	 * and connections released to it later is closed.
+	 * @see #acquire(FtpMonitorTaskConfiguration)
+	 */
+	public void close() {
+		synchronized (POOLS) {
+			if (references>0) {
+				references--;
+				if (references==0) {
+					POOLS.remove(key, this);
+					closed=true;
+				}
+			}
+		}
+		if (closed) {
+			closeIdle();
+		}
+	}
+	
+	/**
+	 * The number of tasks using the pool.
+	 * @return the references not yet released.
+	 */
+	public final int getReferences() {
+		synchronized (POOLS) {
+			return references;
+		}
+	}
+	
+	public final String getKey() {
+		return key;
+	}
+	public final int getPoolSize() {
+		return poolSize;
+	}
+	public final int getIdleCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+	public final long getConnectionsCreated() {
+		return connectionsCreated.get();
+	}
+	public final long getConnectionsReused() {
+		return connectionsReused.get();
+	}
+	
+	private FtpConnection pollIdle() {
+		synchronized (idle) {
+			return idle.poll();
+		}
+	}
+	
+	private boolean isExpired(FtpConnection connection,long now) {
+		if ((idleTimeout!=null) && (now-connection.getLastUsed()>idleTimeout.getTime())) {
+			return true;
+		} else if ((maxLifetime!=null) && (now-connection.getCreated()>maxLifetime.getTime())) {
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	private boolean isAlive(FtpConnection connection) {
+		try {
+			return connection.getClient().sendNoOp();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	private void close(FtpConnection connection) {
+		try {
+			if (connection.getClient().isConnected()) {
+				connection.getClient().disconnect();
+			}
+		} catch (IOException e) {
+			getLogger().debug("Error closing FTP connection ["+key+"], "+e.getMessage());
+		}
+	}
+	
+	private Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName()+"["+key+"]");
+		}
+		return logger;
+	}
+
+	@Override
+	public String toString() {
+		return "FtpConnectionPool [key=" + key + ", poolSize=" + poolSize + ", idle=" + getIdleCount() + ", created=" + getConnectionsCreated() + ", reused=" + getConnectionsReused() + "]";
+	}
+	
+}
@@ -44,6 +44,15 @@ public class FtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 	private FtpFileType ftpFileType = FtpFileType.BINARY;
 	private AdditionalFtpConfiguration additionalFTPConfiguration = null;
 	private MonitorTaskRemoteFileErrorHandler<WrappedFTPFile> remoteErrorHandler = new DefaultMonitorTaskRemoteFileErrorHandler<WrappedFTPFile>();
+	//
+	private boolean ftpConnectionPooling=false;
+	private int ftpPoolSize=FtpConnectionPool.DEFAULT_POOL_SIZE;
+	private TimeSpan ftpPoolIdleTimeout=FtpConnectionPool.DEFAULT_IDLE_TIMEOUT;
+	private TimeSpan ftpPoolMaxLifetime=FtpConnectionPool.DEFAULT_MAX_LIFETIME;
+	private boolean ftpMachineListing=false;
+	private boolean ftpModificationTimeCheck=false;
+	private int remoteDownloadThreads=IOMonitoringConstants.DEFAULT_REMOTE_DOWNLOAD_THREADS;
+	private int remoteDownloadsPerHost=IOMonitoringConstants.DEFAULT_REMOTE_DOWNLOADS_PER_HOST;
 	
 	public FtpMonitorTaskConfiguration(String host,int port,String username,String password,String remoteDirectory,File localDirectory,FileProcessor fileProcessor,FTPFileFilter ftpFileFilter) {
 		this(host,port,username,password,remoteDirectory,localDirectory,fileProcessor,ftpFileFilter,IOMonitoringConstants.DEFAULT_STABLE_TIME);
@@ -65,6 +74,12 @@ public class FtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 		ValidateUtils.validateRange("port", port, 21, null);
 		ValidateUtils.validateNotEmpty("username", username);
 		ValidateUtils.validateNotNull("remoteDirectory", remoteDirectory);
+		if (isFtpConnectionPooling()) {
+			ValidateUtils.validateRange("ftpPoolSize", ftpPoolSize, 1, null);
+			ValidateUtils.validateNotNull("ftpPoolIdleTimeout", ftpPoolIdleTimeout);
+		}
+		ValidateUtils.validateRange("remoteDownloadThreads", remoteDownloadThreads, 1, null);
+		ValidateUtils.validateRange("remoteDownloadsPerHost", remoteDownloadsPerHost, 1, null);
 	}
 
 	public final String getHost() {
@@ -118,6 +133,76 @@ public class FtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 		}
 		return remoteErrorHandler;
 	}
+	/**
+	 * If the logged in FTP connection is kept in a <tt>FtpConnectionPool</tt> between runs, instead of connecting and logging in on every run.
+	 * @return <code>true</code> if pooling, default <code>false</code>.
+	 * @see FtpConnectionPool
+	 */
+	public final boolean isFtpConnectionPooling() {
+		return ftpConnectionPooling;
+	}
+	/**
+	 * Max number of idle connections kept in the pool per host, port and user.
+	 * @return the pool size.
+	 * @see FtpConnectionPool#DEFAULT_POOL_SIZE
+	 */
+	public final int getFtpPoolSize() {
+		return ftpPoolSize;
+	}
+	/**
+	 * How long an idle connection is kept in the pool.
+	 * @return the idle timeout.
+	 * @see FtpConnectionPool#DEFAULT_IDLE_TIMEOUT
+	 */
+	public final TimeSpan getFtpPoolIdleTimeout() {
+		return ftpPoolIdleTimeout;
+	}
+	/**
+	 * Max lifetime of a pooled connection, if <code>null</code> a connection is kept as long as it is used.
+	 * @return the max lifetime.
+	 * @see FtpConnectionPool#DEFAULT_MAX_LIFETIME
+	 */
+	public final TimeSpan getFtpPoolMaxLifetime() {
+		return ftpPoolMaxLifetime;
+	}
+	/**
+	 * If the remote directory is listed with <tt>MLSD</tt> when the server announces <tt>MLST</tt> in <tt>FEAT</tt>, 
+	 * which gives precise timestamps and a standard format. Else <tt>LIST</tt> is used.
+	 * @return <code>true</code> if using MLSD when supported, default <code>false</code>.
+	 */
+	public final boolean isFtpMachineListing() {
+		return ftpMachineListing;
+	}
+	/**
+	 * If a file that is stable by the listing is confirmed with <tt>MDTM</tt>, before it is downloaded. 
+	 * The <tt>MDTM</tt> modification time is recorded the first time the listing shows the file unchanged, and the file is only downloaded when it is the same once the file is stable.
+	 * @return <code>true</code> if using MDTM, default <code>false</code>.
+	 */
+	public final boolean isFtpModificationTimeCheck() {
+		return ftpModificationTimeCheck;
+	}
+	/**
+	 * Max number of stable remote files downloaded in parallel by the task, each over its own connection. <br>
+	 * If more than 1, the files is downloaded by a <tt>RemoteFileDownloader</tt> while the listing continues, 
+	 * and the remote files is deleted in one batch when the local files is verified. 
+	 * When pooling, the <tt>ftpPoolSize</tt> should be at least the number of download threads.
+	 * @return number of download threads, default 1 which downloads in the listing loop.
+	 * @see IOMonitoringConstants#DEFAULT_REMOTE_DOWNLOAD_THREADS
+	 */
+	public final int getRemoteDownloadThreads() {
+		return remoteDownloadThreads;
+	}
+	/**
+	 * Max number of parallel downloads against the same host and port, shared by all tasks in the JVM.
+	 * @return downloads per host.
+	 * @see IOMonitoringConstants#DEFAULT_REMOTE_DOWNLOADS_PER_HOST
+	 */
+	public final int getRemoteDownloadsPerHost() {
+		return remoteDownloadsPerHost;
+	}
+	public final boolean isConcurrentDownload() {
+		return getRemoteDownloadThreads()>1;
+	}
 	
 	public final FtpMonitorTaskConfiguration setFtpBufferSize(Integer ftpBufferSize) {
 		this.ftpBufferSize = ftpBufferSize;
@@ -159,5 +244,49 @@ public class FtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 		this.remoteErrorHandler = remoteErrorHandler;
 		return this;
 	}
+	public final FtpMonitorTaskConfiguration setFtpConnectionPooling(boolean ftpConnectionPooling) {
+		this.ftpConnectionPooling = ftpConnectionPooling;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration withFtpConnectionPooling() {
+		return setFtpConnectionPooling(true);
+	}
+	public final FtpMonitorTaskConfiguration withNoFtpConnectionPooling() {
+		return setFtpConnectionPooling(false);
+	}
+	public final FtpMonitorTaskConfiguration setFtpPoolSize(int ftpPoolSize) {
+		this.ftpPoolSize = ftpPoolSize;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration setFtpPoolIdleTimeout(TimeSpan ftpPoolIdleTimeout) {
+		this.ftpPoolIdleTimeout = ftpPoolIdleTimeout;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration setFtpPoolMaxLifetime(TimeSpan ftpPoolMaxLifetime) {
+		this.ftpPoolMaxLifetime = ftpPoolMaxLifetime;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration setFtpMachineListing(boolean ftpMachineListing) {
+		this.ftpMachineListing = ftpMachineListing;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration withFtpMachineListing() {
+		return setFtpMachineListing(true);
+	}
+	public final FtpMonitorTaskConfiguration setFtpModificationTimeCheck(boolean ftpModificationTimeCheck) {
+		this.ftpModificationTimeCheck = ftpModificationTimeCheck;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration withFtpModificationTimeCheck() {
+		return setFtpModificationTimeCheck(true);
+	}
+	public final FtpMonitorTaskConfiguration setRemoteDownloadThreads(int remoteDownloadThreads) {
+		this.remoteDownloadThreads = remoteDownloadThreads;
+		return this;
+	}
+	public final FtpMonitorTaskConfiguration setRemoteDownloadsPerHost(int remoteDownloadsPerHost) {
+		this.remoteDownloadsPerHost = remoteDownloadsPerHost;
+		return this;
+	}
 		
 }
@@ -5,6 +5,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.SocketException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPConnectionClosedException;
@@ -15,9 +21,10 @@ import org.apache.commons.net.io.CopyStreamException;
 
 import dk.heick.io.monitoring.GenericFileChange;
 import dk.heick.io.monitoring.MonitorTask;
+import dk.heick.io.monitoring.RemoteFileDownload;
+import dk.heick.io.monitoring.RemoteFileDownloader;
 import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
 import dk.heick.io.monitoring.utils.FileUtils;
-import dk.heick.io.monitoring.utils.ListUtils;
 import dk.heick.io.monitoring.validation.ValidationException;
 
 /**
@@ -36,7 +43,17 @@ import dk.heick.io.monitoring.validation.ValidationException;
  */
 public class FtpMonitoringTask extends MonitorTask<WrappedFTPFile, FtpMonitorTaskConfiguration> {
 	
+	/**
+	 * The FEAT name servers use to announce support for MLST and MLSD.
+	 */
+	public final static String FEATURE_MLST="MLST";
+	
 	private FtpOnlyFilesFileFilter instanceOnlyFilesFileFilter = null;
+	private RemoteFileDownloader<WrappedFTPFile> downloader = null;
+	private FtpConnectionPool connectionPool = null;
+	private boolean poolReleased = false;
+	private Map<String,Long> modificationTimes = null;
+	private Map<String,RemoteFileDownload<WrappedFTPFile>> pendingRemoteDeletes = null;
 
 
 	public FtpMonitoringTask(FtpMonitorTaskConfiguration configuration) throws ValidationException,NullPointerException {
@@ -151,6 +168,69 @@ public class FtpMonitoringTask extends MonitorTask<WrappedFTPFile, FtpMonitorTas
 	private void doFTPDisconnect(FTPClient client) throws IOException {
 		client.disconnect();
 	}	
+	/**
+	 * Gets a logged in connection, from the <tt>FtpConnectionPool</tt> if pooling, else a new connection.
+	 * @return a logged in connection.
+	 * @throws IOException if connecting or login fails.
+	 * @see FtpMonitorTaskConfiguration#isFtpConnectionPooling()
+	 */
+	protected FtpConnection openConnection() throws IOException {
+		FtpConnectionFactory factory = new FtpConnectionFactory() {			
+			@Override
+			public FTPClient connect() throws IOException {
+				FTPClient client = getNewFTPClient();
+				try {
+					doFTPConnect(client);
+				} catch (IOException e) {
+					try {
+						doFTPDisconnect(client);
+					} catch (IOException e1) {						
+					}
+					throw e;
+				}
+				return client;
+			}
+		};
+		if (getConfiguration().isFtpConnectionPooling()) {
+			return getConnectionPool().borrow(factory);
+		} else {
+			return new FtpConnection(factory.connect());
+		}
+	}
+	
+	/**
+	 * Returns the connection to the pool if pooling, else disconnects it.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 * @param failed if the connection has failed, and must not be reused.
+	 */
+	protected void closeConnection(FtpConnection connection,boolean failed) {
+		if (connection!=null) {
+			if (getConfiguration().isFtpConnectionPooling()) {
+				if (failed) {
+					getConnectionPool().invalidate(connection);
+				} else {
+					getConnectionPool().release(connection);
+				}
+			} else {
+				try {
+					doFTPDisconnect(connection.getClient());					
+				} catch (IOException e1) {								
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The shared connection pool for the host, port, user, connection and pool settings, the task takes its reference to the pool on the first call.
+	 * @return the connection pool.
+	 */
+	public synchronized FtpConnectionPool getConnectionPool() {
+		if (connectionPool==null) {
+			connectionPool = FtpConnectionPool.acquire(getConfiguration());
+		}
+		return connectionPool;
+	}
+	
 	/**
 	 * http://superuser.com/questions/880410/prevent-file-from-being-accessed-as-its-being-uploaded
 	 * http://www.proftpd.org/docs/directives/linked/config_ref_HiddenStores.html
@@ -158,86 +238,328 @@ public class FtpMonitoringTask extends MonitorTask<WrappedFTPFile, FtpMonitorTas
 	@Override
 	protected void detecting() {
 		verboseDebug("Running task - detecting");
-		FTPClient client = getNewFTPClient();
-		int reply = -1;
+		FtpConnection connection = null;
+		boolean failed = false;
 		try {			
-			reply = doFTPConnect(client);			
-			//
-			client.changeWorkingDirectory(getConfiguration().getRemoteDirectory());
-			reply = client.getReplyCode();
-			FTPListParseEngine engine = client.initiateListParsing(getConfiguration().getRemoteDirectory());			
-			FTPFile[] ftpFiles = engine.getFiles(getInstanceOnlyFilesFileFilter());
-			//reply = client.getReplyCode();
-			
-			for (FTPFile ftpFile : ftpFiles) {				
-				WrappedFTPFile wrappedFtpFile = new WrappedFTPFile(ftpFile);
-				
-				GenericFileChange<WrappedFTPFile> previousFileChange = getMonitoredFile(wrappedFtpFile);				
-				if (previousFileChange==null) {
-					getFileMonitor().put(wrappedFtpFile,new FtpFileChange(wrappedFtpFile));
+			connection = openConnection();
+			try {
+				detecting(connection.getClient());
+			} catch (IOException e) {
+				if ((connection.isReused()) && ((e instanceof FTPConnectionClosedException) || (e instanceof SocketException))) {
+					//The server has closed the idle pooled connection, retry once on a new connection
+					getLogger().warn("Pooled FTP connection closed, reconnecting, "+e.getMessage());
+					closeConnection(connection, true);
+					connection = null;
+					connection = openConnection();
+					detecting(connection.getClient());
 				} else {
-					GenericFileChange<WrappedFTPFile> currentFileChange = new FtpFileChange(previousFileChange,wrappedFtpFile);					
-					if (currentFileChange.isStable(previousFileChange, getConfiguration().getStableTime().getTime())) {
-						File localFile = new File(getConfiguration().getDirectory(),wrappedFtpFile.getFile().getName());						
-						copyRemoteToLocal(client,wrappedFtpFile,localFile);
-						deleteRemote(client,wrappedFtpFile);
-						moveFileToProcess(localFile);							
-						getFileMonitor().remove(wrappedFtpFile);						
-					} else if (currentFileChange.getMonitoringTime()>getConfiguration().getMonitorTimeout().getTime()) {
-						getLogger().error("FTPFile ["+currentFileChange.getFileName()+"] has been monitored more than ["+getConfiguration().getMonitorTimeout()+"] ms, removing file from monitor.");						
-						getFileMonitor().remove(wrappedFtpFile);
-					}
+					throw e;
 				}
-			}			
-			for (WrappedFTPFile wrappedFtpFile : ListUtils.asList(getFileMonitor().keySet().iterator())) {
-				FTPFile[] result = client.listFiles(wrappedFtpFile.getFile().getName());
-				reply = client.getReplyCode();
-				if ((result==null) || (result.length==0) || (result[0]==null)) {
-					getLogger().warn("FTPFile ["+wrappedFtpFile.getFile().getName()+"] do not exists any more, removed from monitor.");
-					getFileMonitor().remove(wrappedFtpFile);
-				}
-			}				
+			}
 		} catch (SocketException e) {
-			getLogger().error("SocketException, FTPReply ["+reply+"], "+e.getMessage(),e);
+			failed=true;
+			getLogger().error("SocketException, FTPReply ["+getReplyCode(connection)+"], "+e.getMessage(),e);
 		} catch (IOException e) {
-			getLogger().error("IOException, FTPReply ["+reply+"], "+e.getMessage(),e);
+			failed=true;
+			getLogger().error("IOException, FTPReply ["+getReplyCode(connection)+"], "+e.getMessage(),e);
 		} finally {
-			if (client!=null) {
-				try {
-					doFTPDisconnect(client);					
-				} catch (IOException e1) {								
+			closeConnection(connection, failed);
+		}
+	}
+	
+	private int getReplyCode(FtpConnection connection) {
+		if (connection!=null) {
+			return connection.getClient().getReplyCode();
+		} else {
+			return -1;
+		}
+	}
+	
+	private void detecting(FTPClient client) throws IOException {
+		client.changeWorkingDirectory(getConfiguration().getRemoteDirectory());
+		//Drained before the listing, so the remote files of the downloads is deleted and not detected again
+		completeDownloads(client);
+		FTPFile[] ftpFiles = listRemoteFiles(client);
+		
+		Set<String> listedFileNames = new HashSet<String>();
+		for (FTPFile ftpFile : ftpFiles) {				
+			WrappedFTPFile wrappedFtpFile = new WrappedFTPFile(ftpFile);
+			listedFileNames.add(wrappedFtpFile.getFileName());
+			if ((getConfiguration().isConcurrentDownload()) && (getDownloader().isInFlight(wrappedFtpFile.getFileName()))) {
+				continue;
+			}
+			if (getPendingRemoteDeletes().containsKey(wrappedFtpFile.getFileName())) {
+				continue;
+			}
+			
+			GenericFileChange<WrappedFTPFile> fileChange = getMonitoredFile(wrappedFtpFile);				
+			if (fileChange==null) {
+				addMonitoredFile(wrappedFtpFile,new FtpFileChange(wrappedFtpFile));
+				getMetrics().getFilesDetectedCounter().increment();
+			} else {
+				boolean unchanged = fileChange.update(wrappedFtpFile);
+				if (!unchanged) {
+					getModificationTimes().remove(wrappedFtpFile.getFileName());
+				}
+				if ((fileChange.isStable(getConfiguration().getStableTime().getTime())) && (isModificationTimeConfirmed(client, wrappedFtpFile))) {
+					File localFile = new File(getConfiguration().getDirectory(),wrappedFtpFile.getFile().getName());
+					if (getConfiguration().isConcurrentDownload()) {
+						getDownloader().submit(fileChange, localFile);
+					} else {
+						if (copyRemoteToLocal(client,wrappedFtpFile,localFile)) {
+							//Deleted with the downloads after the listing
+							getPendingRemoteDeletes().put(fileChange.getFileName(), new RemoteFileDownload<WrappedFTPFile>(fileChange, localFile));
+						} else if (localFile.exists()) {
+							localFile.delete();
+						}
+					}
+					getFileMonitor().remove(wrappedFtpFile);						
+				} else if (fileChange.getMonitoringTime()>getConfiguration().getMonitorTimeout().getTime()) {
+					getLogger().error("FTPFile ["+fileChange.getFileName()+"] has been monitored more than ["+getConfiguration().getMonitorTimeout()+"] ms, removing file from monitor.");						
+					getFileMonitor().remove(wrappedFtpFile);
+				} else if (unchanged) {
+					recordModificationTime(client, wrappedFtpFile);
 				}
 			}
 		}
+		//The listing is complete, so monitored files not in it has been removed from the server
+		removeUnlistedFiles(listedFileNames);
+		getModificationTimes().keySet().retainAll(listedFileNames);
+		processUnlistedPendingRemote(listedFileNames);
+		completeDownloads(client);
+	}
+	
+	/**
+	 * Lists the files in the remote directory, with <tt>MLSD</tt> if configured and the server supports it, else with <tt>LIST</tt>.
+	 * @param client the connection, in the remote directory.
+	 * @return the files accepted by the ftp file filter.
+	 * @throws IOException if the listing fails.
+	 * @see FtpMonitorTaskConfiguration#isFtpMachineListing()
+	 */
+	protected FTPFile[] listRemoteFiles(FTPClient client) throws IOException {
+		if ((getConfiguration().isFtpMachineListing()) && (client.hasFeature(FEATURE_MLST))) {
+			return client.mlistDir(getConfiguration().getRemoteDirectory(), getInstanceOnlyFilesFileFilter());
+		} else {
+			FTPListParseEngine engine = client.initiateListParsing(getConfiguration().getRemoteDirectory());			
+			return engine.getFiles(getInstanceOnlyFilesFileFilter());
+		}
+	}
+	
+	/**
+	 * If the configuration uses <tt>MDTM</tt>, a file that is stable by the listing is only confirmed when the precise 
+	 * modification time from <tt>MDTM</tt> is unchanged since it was recorded. 
+	 * The modification time is recorded the first time the listing shows the file unchanged, while the stable time passes, 
+	 * so a stable file is confirmed in the same run. Only if the file is stable at its first unchanged listing, it is recorded here 
+	 * and confirmed in the next run.
+	 * @param client the connection, in the remote directory.
+	 * @param file the stable file.
+	 * @return <code>true</code> if confirmed, or if not using <tt>MDTM</tt> or the server do not support it.
+	 * @throws IOException if the command fails.
+	 * @see FtpMonitorTaskConfiguration#isFtpModificationTimeCheck()
+	 * @see #recordModificationTime(FTPClient, WrappedFTPFile)
+	 */
+	private boolean isModificationTimeConfirmed(FTPClient client,WrappedFTPFile file) throws IOException {
+		if (getConfiguration().isFtpModificationTimeCheck()) {
+			FTPFile mdtmFile = client.mdtmFile(file.getFileName());
+			if ((mdtmFile==null) || (mdtmFile.getTimestamp()==null)) {
+				return true;
+			} else {
+				Long previous = getModificationTimes().put(file.getFileName(), mdtmFile.getTimestamp().getTimeInMillis());
+				return (previous!=null) && (previous.longValue()==mdtmFile.getTimestamp().getTimeInMillis());
+			}
+		} else {
+			return true;
+		}
+	}
+	
+	/**
+	 * Records the <tt>MDTM</tt> modification time of a file the listing shows unchanged, if not already recorded. 
+	 * It costs one round trip per file, as the recorded time is removed only when the listing shows the file changed.
+	 * @param client the connection, in the remote directory.
+	 * @param file the unchanged file, not stable yet.
+	 * @throws IOException if the command fails.
+	 */
+	private void recordModificationTime(FTPClient client,WrappedFTPFile file) throws IOException {
+		if ((getConfiguration().isFtpModificationTimeCheck()) && (!getModificationTimes().containsKey(file.getFileName()))) {
+			FTPFile mdtmFile = client.mdtmFile(file.getFileName());
+			if ((mdtmFile!=null) && (mdtmFile.getTimestamp()!=null)) {
+				getModificationTimes().put(file.getFileName(), mdtmFile.getTimestamp().getTimeInMillis());
+			}
+		}
+	}
+	
+	private Map<String,Long> getModificationTimes() {
+		if (modificationTimes==null) {
+			modificationTimes = new HashMap<String,Long>();
+		}
+		return modificationTimes;
+	}
+	
+	/**
+	 * The download stage used when the configuration has more than one download thread.
+	 * Each download borrows a connection of its own with <tt>openConnection()</tt>.
+	 * @return the downloader.
+	 * @see FtpMonitorTaskConfiguration#getRemoteDownloadThreads()
+	 */
+	protected RemoteFileDownloader<WrappedFTPFile> getDownloader() {
+		if (downloader==null) {
+			downloader = new RemoteFileDownloader<WrappedFTPFile>(getConfiguration().getDirectory().getName(),getConfiguration().getHost()+":"+getConfiguration().getPort(),getConfiguration().getRemoteDownloadThreads(),getConfiguration().getRemoteDownloadsPerHost()) {
+				@Override
+				protected void download(WrappedFTPFile remoteFile, File localFile) throws Exception {
+					FtpConnection connection = null;
+					boolean failed = true;
+					try {
+						connection = openConnection();
+						connection.getClient().changeWorkingDirectory(getConfiguration().getRemoteDirectory());
+						retrieveRemoteToLocal(connection.getClient(), remoteFile, localFile);
+						failed = false;
+					} finally {
+						closeConnection(connection, failed);
+					}
+				}
+				@Override
+				protected void verify(GenericFileChange<WrappedFTPFile> fileChange, File localFile) throws IOException {
+					if (getConfiguration().getFtpFileType()==FtpFileType.BINARY) {
+						super.verify(fileChange, localFile);
+					} else if (!localFile.exists()) {
+						throw new IOException("Local file ["+localFile.getAbsolutePath()+"] do not exist after download.");
+					}
+				}
+			};
+		}
+		return downloader;
+	}
+	
+	/**
+	 * Handles the finished downloads, the remote files of the verified downloads is deleted in one batch 
+	 * on the listing connection and the local files is moved to process. 
+	 * The local files of failed downloads is deleted, and the remote files is detected again.
+	 * @param client the listing connection.
+	 * @see #deletePendingRemote(FTPClient)
+	 */
+	private void completeDownloads(FTPClient client) throws IOException {
+		if (getConfiguration().isConcurrentDownload()) {
+			for (RemoteFileDownload<WrappedFTPFile> download : getDownloader().drainCompleted()) {
+				if (download.isSuccess()) {
+					getLogger().info("FTPFile ["+download.getFileChange().getFileName()+"] transfered to ["+download.getLocalFile().getAbsolutePath()+"], size ["+download.getLocalFile().length()+"]");
+					getPendingRemoteDeletes().put(download.getFileChange().getFileName(), download);
+				} else {
+					getLogger().error("Error copying FTPFile ["+download.getFileChange().getFileName()+"], "+download.getException().getMessage(),download.getException());
+					getConfiguration().getRemoteErrorHandler().onRemoteCopyToLocalFileFailure(download.getFileChange(), download.getLocalFile(), download.getException());
+					if (download.getLocalFile().exists()) {
+						download.getLocalFile().delete();
+					}
+				}
+			}
+		}
+		deletePendingRemote(client);
+	}
+	
+	/**
+	 * Deletes the remote files of the downloaded files, and moves the local file to process when the remote file is deleted. <br>
+	 * A local file is held in the directory until the remote file is deleted, so a file is not processed while it can be downloaded again. 
+	 * The delete is retried on the next runs, and the remote file is not monitored meanwhile.
+	 * @param client the listing connection.
+	 * @throws IOException if the connection is closed, the remaining remote files is deleted on the next run.
+	 */
+	private void deletePendingRemote(FTPClient client) throws IOException {
+		Iterator<RemoteFileDownload<WrappedFTPFile>> iterator = getPendingRemoteDeletes().values().iterator();
+		while (iterator.hasNext()) {
+			RemoteFileDownload<WrappedFTPFile> pending = iterator.next();
+			if (deleteRemote(client, pending.getFileChange().getFile())) {
+				iterator.remove();
+				moveFileToProcess(pending.getLocalFile(),pending.getFileChange());
+			}
+		}
+	}
+	
+	/**
+	 * A remote file that could not be deleted, and is not listed any more, has been removed from the server by others, so the local file is moved to process.
+	 * @param listedFileNames the names of the remote files in the listing.
+	 */
+	private void processUnlistedPendingRemote(Set<String> listedFileNames) {
+		Iterator<RemoteFileDownload<WrappedFTPFile>> iterator = getPendingRemoteDeletes().values().iterator();
+		while (iterator.hasNext()) {
+			RemoteFileDownload<WrappedFTPFile> pending = iterator.next();
+			if (!listedFileNames.contains(pending.getFileChange().getFileName())) {
+				getLogger().warn("FTPFile ["+pending.getFileChange().getFileName()+"] that could not be deleted do not exists any more, moving local file to process.");
+				iterator.remove();
+				moveFileToProcess(pending.getLocalFile(),pending.getFileChange());
+			}
+		}
+	}
+	
+	/**
+	 * The downloaded files which remote file is not deleted yet, by the remote file name.
+	 * @return the pending remote deletes.
+	 */
+	private Map<String,RemoteFileDownload<WrappedFTPFile>> getPendingRemoteDeletes() {
+		if (pendingRemoteDeletes==null) {
+			pendingRemoteDeletes = new LinkedHashMap<String,RemoteFileDownload<WrappedFTPFile>>();
+		}
+		return pendingRemoteDeletes;
+	}
+	
+	/**
+	 * Releases the reference to the connection pool, the idle pooled connections is closed when no other task uses the pool.
+	 */
+	@Override
+	public void shutdown() {
+		if (downloader!=null) {
+			downloader.shutdown();
+		}
+		if ((pendingRemoteDeletes!=null) && (!pendingRemoteDeletes.isEmpty())) {
+			getLogger().warn("["+pendingRemoteDeletes.size()+"] downloaded files is not processed, as the remote files could not be deleted.");
+		}
+		FtpConnectionPool pool = null;
+		synchronized (this) {
+			if (!poolReleased) {
+				pool = connectionPool;
+				poolReleased = true;
+			}
+		}
+		if (pool!=null) {
+			pool.close();
+		}
+		super.shutdown();
 	}
 
-
-	protected void deleteRemote(FTPClient client,WrappedFTPFile remoteFile) throws IOException {
+	/**
+	 * Deletes the remote file.
+	 * @param client the connection, in the remote directory.
+	 * @param remoteFile the remote file.
+	 * @return <code>true</code> if deleted, <code>false</code> if the server refused the delete.
+	 * @throws IOException if the connection is closed or fails.
+	 */
+	protected boolean deleteRemote(FTPClient client,WrappedFTPFile remoteFile) throws IOException {
 		try {
-			client.deleteFile(remoteFile.getFile().getName());
-		} catch (FTPConnectionClosedException e) {
-			getLogger().error(e.getMessage(),e);
-			getConfiguration().getRemoteErrorHandler().onRemoteDeleteFileFailure(new FtpFileChange(remoteFile), e);
-			//
+			if (client.deleteFile(remoteFile.getFile().getName())) {
+				return true;
+			} else {
+				IOException e = new IOException("FTPFile ["+remoteFile.getFileName()+"] not deleted, FTPReply ["+client.getReplyCode()+"] "+String.valueOf(client.getReplyString()).trim());
+				getLogger().error(e.getMessage());
+				getConfiguration().getRemoteErrorHandler().onRemoteDeleteFileFailure(new FtpFileChange(remoteFile), e);
+				return false;
+			}
 		} catch (IOException e) {
 			getLogger().error(e.getMessage(),e);
 			getConfiguration().getRemoteErrorHandler().onRemoteDeleteFileFailure(new FtpFileChange(remoteFile), e);
-			//
+			throw e;
 		}
 	}		
 	
-	protected void copyRemoteToLocal(FTPClient client,WrappedFTPFile remoteFile,File localFile) {
-		OutputStream output=null;		
+	/**
+	 * Downloads the remote file to the local file.
+	 * @param client the connection, in the remote directory.
+	 * @param remoteFile the remote file.
+	 * @param localFile the local file.
+	 * @return <code>true</code> if downloaded, <code>false</code> if the download failed and the remote file must not be deleted.
+	 */
+	protected boolean copyRemoteToLocal(FTPClient client,WrappedFTPFile remoteFile,File localFile) {
 		try {
-			localFile.createNewFile();
-			output = new FileOutputStream(localFile);			
-			if (!client.retrieveFile(remoteFile.getFile().getName(), output)) {				
-				getLogger().error("Error copying FTPFile ["+remoteFile.getFile().getName()+"], retrieveFile method returned [false], FTPReply ["+client.getReplyCode()+"] Status ["+client.getStatus().trim()+"]");
-				getConfiguration().getRemoteErrorHandler().onRemoteCopyToLocalFileFailure(new FtpFileChange(remoteFile), localFile, new IOException("FTPReply ["+client.getReplyCode()+"] Status ["+client.getStatus().trim()+"]"));			
-			} else {
-				getLogger().info("FTPFile ["+remoteFile.toString()+"] transfered to ["+localFile.getAbsolutePath()+"], size ["+remoteFile.getFile().getSize()+"]");
-			}
-			output.flush();
+			retrieveRemoteToLocal(client, remoteFile, localFile);
+			getLogger().info("FTPFile ["+remoteFile.toString()+"] transfered to ["+localFile.getAbsolutePath()+"], size ["+remoteFile.getFile().getSize()+"]");
+			return true;
 		} catch (FTPConnectionClosedException e) {
 			getLogger().error(e.getMessage(),e);
 			getConfiguration().getRemoteErrorHandler().onRemoteCopyToLocalFileFailure(new FtpFileChange(remoteFile), localFile, e);
@@ -250,6 +572,26 @@ public class FtpMonitoringTask extends MonitorTask<WrappedFTPFile, FtpMonitorTas
 			getLogger().error(e.getMessage(),e);
 			getConfiguration().getRemoteErrorHandler().onRemoteCopyToLocalFileFailure(new FtpFileChange(remoteFile), localFile, e);
 			//
+		}
+		return false;
+	}
+	
+	/**
+	 * Retrieves the remote file to the local file.
+	 * @param client the connection, in the remote directory.
+	 * @param remoteFile the remote file.
+	 * @param localFile the local file.
+	 * @throws IOException if the retrieve fails, or the server do not confirm the transfer.
+	 */
+	protected void retrieveRemoteToLocal(FTPClient client,WrappedFTPFile remoteFile,File localFile) throws IOException {
+		OutputStream output=null;		
+		try {
+			localFile.createNewFile();
+			output = new FileOutputStream(localFile);			
+			if (!client.retrieveFile(remoteFile.getFile().getName(), output)) {				
+				throw new IOException("Error copying FTPFile ["+remoteFile.getFile().getName()+"], retrieveFile method returned [false], FTPReply ["+client.getReplyCode()+"] Status ["+client.getStatus().trim()+"]");
+			}
+			output.flush();
 		} finally {
 			if (output!=null) {
 				try {					
@@ -258,7 +600,6 @@ public class FtpMonitoringTask extends MonitorTask<WrappedFTPFile, FtpMonitorTas
 				}
 			}
 		}
-		
 	}
 
 	@Override
@@ -1,26 +1,39 @@
 package dk.heick.io.monitoring.ftp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Properties;
 import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPFileFilter;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.session.Session;
 import org.mockftpserver.fake.FakeFtpServer;
 import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.command.AbstractFakeCommandHandler;
 import org.mockftpserver.fake.filesystem.FileEntry;
 import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.FileSystemEntry;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
 import org.mockftpserver.fake.filesystem.WindowsFakeFileSystem;
 
 import dk.heick.io.monitoring.IOMonitoringConstants;
@@ -69,7 +82,8 @@ public class FtpMonitoringTaskTest {
 		fakeFtpServer = new FakeFtpServer();
 		fakeFtpServer.setServerControlPort(0); // use any free port
 
-		FileSystem fileSystem = new WindowsFakeFileSystem();
+		//The fake file system has to match the absolute paths of the platform
+		FileSystem fileSystem = (File.separatorChar=='\\')?new WindowsFakeFileSystem():new UnixFakeFileSystem();
 		for (int i=0;i<FILE_COUNT;i++) {
 			String afile = new File(FTP_SUBDIR,"/hest_"+i+EXTENSION).getAbsolutePath();
 			fileSystem.add(new FileEntry(afile	, getFileContent()));
@@ -93,9 +107,8 @@ public class FtpMonitoringTaskTest {
 		return s.toString();
 	}
 	
-	@Test
-	public void testDetecting() {
-		FtpMonitorTaskConfiguration conf = new FtpMonitorTaskConfiguration(
+	private FtpMonitorTaskConfiguration createConfiguration() {
+		return new FtpMonitorTaskConfiguration(
 				"localhost",
 				PORT,
 				USERNAME,
@@ -106,6 +119,11 @@ public class FtpMonitoringTaskTest {
 				getFtpFilter(),
 				STABLE_TIME
 		);
+	}
+	
+	@Test
+	public void testDetecting() {
+		FtpMonitorTaskConfiguration conf = createConfiguration();
 		try {
 			FtpMonitoringTask task= new FtpMonitoringTask(conf);
 			task.validate();			
@@ -128,6 +146,241 @@ public class FtpMonitoringTaskTest {
 	}
 	
 
+	@Test
+	public void testConnectionPooling() throws Exception {
+		FtpMonitorTaskConfiguration conf = createConfiguration().withFtpConnectionPooling();
+		FtpMonitoringTask task= new FtpMonitoringTask(conf);
+		try {
+			FtpConnectionPool pool = task.getConnectionPool();
+			long created = pool.getConnectionsCreated();
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			task.runTask();
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			//Both runs used the same logged in connection, which is idle in the pool between the runs
+			assertEquals(created+1,pool.getConnectionsCreated());
+			assertTrue(pool.getConnectionsReused()>=1);
+			assertEquals(1,pool.getIdleCount());
+		} finally {
+			task.shutdown();
+		}
+		assertEquals(0,task.getConnectionPool().getIdleCount());
+	}
+	
+	@Test
+	public void testConnectionPoolInvalidate() throws Exception {
+		FtpMonitorTaskConfiguration conf = createConfiguration().withFtpConnectionPooling();
+		FtpMonitoringTask task= new FtpMonitoringTask(conf);
+		try {
+			FtpConnectionPool pool = task.getConnectionPool();
+			FtpConnection connection = task.openConnection();
+			assertTrue(connection.getClient().isConnected());
+			task.closeConnection(connection, true);
+			assertTrue(!connection.getClient().isConnected());
+			assertEquals(0,pool.getIdleCount());
+			//A connection closed by the server is not pooled
+			connection = task.openConnection();
+			connection.getClient().disconnect();
+			pool.release(connection);
+			assertEquals(0,pool.getIdleCount());
+			//At most pool size idle connections is kept
+			FtpConnection[] connections = new FtpConnection[pool.getPoolSize()+1];
+			for (int i=0;i<connections.length;i++) {
+				connections[i] = task.openConnection();
+			}
+			for (FtpConnection c : connections) {
+				pool.release(c);
+			}
+			assertEquals(pool.getPoolSize(),pool.getIdleCount());
+			assertTrue(!connections[connections.length-1].getClient().isConnected());
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testConnectionPoolShared() throws Exception {
+		FtpMonitoringTask task1 = new FtpMonitoringTask(createConfiguration().withFtpConnectionPooling());
+		FtpMonitoringTask task2 = new FtpMonitoringTask(createConfiguration().withFtpConnectionPooling());
+		FtpConnectionPool pool = task1.getConnectionPool();
+		assertSame(pool,task2.getConnectionPool());
+		assertEquals(2,pool.getReferences());
+		task2.closeConnection(task2.openConnection(), false);
+		assertEquals(1,pool.getIdleCount());
+		//Stopping one task keeps the idle connections of the other
+		task1.shutdown();
+		assertEquals(1,pool.getReferences());
+		assertEquals(1,pool.getIdleCount());
+		FtpConnection connection = task2.openConnection();
+		assertTrue(connection.getClient().isConnected());
+		task2.closeConnection(connection, false);
+		//The last task closes the pool
+		task2.shutdown();
+		assertEquals(0,pool.getReferences());
+		assertEquals(0,pool.getIdleCount());
+		assertTrue(!connection.getClient().isConnected());
+		assertNotSame(pool,FtpConnectionPool.acquire(createConfiguration()));
+	}
+	
+	@Test
+	public void testConnectionPoolKey() throws Exception {
+		FtpConnectionPool pool = FtpConnectionPool.acquire(createConfiguration());
+		assertSame(pool,FtpConnectionPool.acquire(createConfiguration()));
+		assertNotSame(pool,FtpConnectionPool.acquire(createConfiguration().setFtpFileType(FtpFileType.ASCII)));
+		assertNotSame(pool,FtpConnectionPool.acquire(createConfiguration().setFtpConnectTimeout(1000)));
+		assertNotSame(pool,FtpConnectionPool.acquire(createConfiguration().setFtpDataTimeout(1000)));
+		AdditionalFtpConfiguration additional = new AdditionalFtpConfiguration() {
+			@Override
+			public void configure(FTPClient client) throws IOException {
+				client.setListHiddenFiles(true);
+			}
+		};
+		assertNotSame(pool,FtpConnectionPool.acquire(createConfiguration().setFtpPoolSize(FtpConnectionPool.DEFAULT_POOL_SIZE+1)));
+		assertNotSame(pool,FtpConnectionPool.acquire(createConfiguration().setFtpPoolIdleTimeout(TimeSpan.createSeconds(5))));
+		FtpConnectionPool additionalPool = FtpConnectionPool.acquire(createConfiguration().setAdditionalFTPConfiguration(additional));
+		assertNotSame(pool,additionalPool);
+		assertSame(additionalPool,FtpConnectionPool.acquire(createConfiguration().setAdditionalFTPConfiguration(additional)));
+	}
+	
+	@Test
+	public void testConcurrentDownload() throws Exception {
+		FtpMonitorTaskConfiguration conf = createConfiguration().setRemoteDownloadThreads(3);
+		FtpMonitoringTask task= new FtpMonitoringTask(conf);
+		try {
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			//The stable files is submitted to the download threads
+			task.runTask();
+			long timeout = System.currentTimeMillis()+10000;
+			while ((task.getDirectoryArchiveSubdirectory().listFiles().length<FILE_COUNT) && (System.currentTimeMillis()<timeout)) {
+				Thread.sleep(200);
+				task.runTask();
+			}
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(0,task.getDirectoryErrorSubdirectory().listFiles().length);
+			assertEquals(0,task.size());
+			//The downloaded files is deleted on the server before the listing, and not detected again
+			assertEquals(FILE_COUNT,task.getMetrics().getFilesDetectedCounter().get());
+			assertEquals(0,task.getDownloader().getInFlightCount());
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testMachineListing() throws Exception {
+		fakeFtpServer.setCommandHandler("FEAT", new FeatCommandHandler());
+		MlsdCommandHandler mlsd = new MlsdCommandHandler();
+		fakeFtpServer.setCommandHandler("MLSD", mlsd);
+		FtpMonitoringTask task= new FtpMonitoringTask(createConfiguration().withFtpMachineListing());
+		try {
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			task.runTask();
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(2,mlsd.getCount());
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testMachineListingNotSupported() throws Exception {
+		//The server do not answer FEAT with MLST, so the task lists with LIST
+		MlsdCommandHandler mlsd = new MlsdCommandHandler();
+		fakeFtpServer.setCommandHandler("MLSD", mlsd);
+		FtpMonitoringTask task= new FtpMonitoringTask(createConfiguration().withFtpMachineListing());
+		try {
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			assertEquals(0,mlsd.getCount());
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testModificationTimeCheck() throws Exception {
+		MdtmCommandHandler mdtm = new MdtmCommandHandler();
+		fakeFtpServer.setCommandHandler("MDTM", mdtm);
+		FtpMonitoringTask task= new FtpMonitoringTask(createConfiguration().withFtpModificationTimeCheck());
+		try {
+			task.runTask();
+			assertEquals(0,mdtm.getCount());
+			//Unchanged by the listing but not stable yet, the modification time is recorded
+			task.runTask();
+			assertEquals(FILE_COUNT,mdtm.getCount());
+			task.runTask();
+			assertEquals(FILE_COUNT,mdtm.getCount());
+			assertEquals(FILE_COUNT,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			//Stable by the listing, and confirmed by the same modification time in the same run
+			task.runTask();
+			assertEquals(FILE_COUNT*2,mdtm.getCount());
+			assertEquals(0,task.size());
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRemoveUnlistedFiles() throws Exception {
+		FtpMonitoringTask task= new FtpMonitoringTask(createConfiguration());
+		try {
+			task.runTask();
+			assertEquals(FILE_COUNT,task.size());
+			//Removed from the server before they was stable
+			for (int i=0;i<3;i++) {
+				assertTrue(fakeFtpServer.getFileSystem().delete(new File(FTP_SUBDIR,"hest_"+i+EXTENSION).getAbsolutePath()));
+			}
+			task.runTask();
+			assertEquals(FILE_COUNT-3,task.size());
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			task.runTask();
+			assertEquals(0,task.size());
+			assertEquals(FILE_COUNT-3,task.getDirectoryArchiveSubdirectory().listFiles().length);
+		} finally {
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRemoteDeleteFailure() throws Exception {
+		DeleCommandHandler dele = new DeleCommandHandler();
+		dele.setRefused(true);
+		fakeFtpServer.setCommandHandler("DELE", dele);
+		FtpMonitoringTask task= new FtpMonitoringTask(createConfiguration());
+		try {
+			task.runTask();
+			Thread.sleep(STABLE_TIME.getTime()+500);
+			//Downloaded, but the local files is held until the remote files is deleted
+			task.runTask();
+			assertEquals(0,task.size());
+			assertEquals(0,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(FILE_COUNT,LOCAL_HOME_DIR.listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File file) {
+					return file.isFile() && file.getName().endsWith(EXTENSION);
+				}
+			}).length);
+			//Not detected again while the delete is retried
+			task.runTask();
+			assertEquals(0,task.size());
+			assertEquals(FILE_COUNT,task.getMetrics().getFilesDetectedCounter().get());
+			assertEquals(0,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			dele.setRefused(false);
+			task.runTask();
+			assertEquals(FILE_COUNT,task.getDirectoryArchiveSubdirectory().listFiles().length);
+			assertEquals(FILE_COUNT,task.getMetrics().getFilesDetectedCounter().get());
+			assertEquals(0,fakeFtpServer.getFileSystem().listFiles(FTP_SUBDIR.getAbsolutePath()).size());
+		} finally {
+			task.shutdown();
+		}
+	}
 	
 	private FTPFileFilter getFtpFilter() {
 		return new FTPFileFilter() {			
@@ -152,29 +405,112 @@ public class FtpMonitoringTaskTest {
 	public void tearDown() throws Exception {
 		if (fakeFtpServer!=null) {
 			fakeFtpServer.stop();				
-			for (File f: new File(LOCAL_HOME_DIR,IOMonitoringConstants.DIRECTORY_NAME_ARCHIVE).listFiles()) {
-				if (f.isDirectory()) {
-					for (File f2: f.listFiles()) {
-						f2.delete();
-					}
-				}
-				f.delete();
-			}
-			for (File f: new File(LOCAL_HOME_DIR,IOMonitoringConstants.DIRECTORY_NAME_ERROR).listFiles()) {
+			deleteDirectory(LOCAL_HOME_DIR);
+		}
+	}
+	
+	private void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files!=null) {
+			for (File f : files) {
 				if (f.isDirectory()) {
-					for (File f2: f.listFiles()) {
-						f2.delete();
-					}
+					deleteDirectory(f);
+				} else {
+					f.delete();
 				}
-				f.delete();		
-			}
-			for (File f: LOCAL_HOME_DIR.listFiles()) {
-				f.delete();
 			}
-			LOCAL_HOME_DIR.delete();
 		}
+		directory.delete();
 	}
 		
 
 
+	
+	/**
+	 * Answers FEAT with the MLST feature.
+	 */
+	private static class FeatCommandHandler extends AbstractFakeCommandHandler {
+		@Override
+		protected void handle(Command command, Session session) {
+			session.sendReply(211, "Features:\r\n MLST type*;size*;modify*;\r\nEnd");
+		}
+	}
+	
+	/**
+	 * MLSD on the fake file system, with the type, size and modify facts.
+	 */
+	private static class MlsdCommandHandler extends AbstractFakeCommandHandler {
+		private AtomicInteger count = new AtomicInteger(0);
+		@Override
+		protected void handle(Command command, Session session) {
+			verifyLoggedIn(session);
+			count.incrementAndGet();
+			String path = getRealPath(session, command.getParameter(0));
+			StringBuilder listing = new StringBuilder();
+			for (Object entry : getFileSystem().listFiles(path)) {
+				FileSystemEntry fileEntry = (FileSystemEntry)entry;
+				listing.append("type=").append(fileEntry.isDirectory()?"dir":"file").append(';');
+				listing.append("size=").append(fileEntry.getSize()).append(';');
+				listing.append("modify=").append(formatTimestamp(fileEntry.getLastModified())).append(';');
+				listing.append(' ').append(fileEntry.getName()).append("\r\n");
+			}
+			session.sendReply(150, "Opening data connection.");
+			session.openDataConnection();
+			byte[] data = listing.toString().getBytes();
+			session.sendData(data, data.length);
+			session.closeDataConnection();
+			session.sendReply(226, "Transfer complete.");
+		}
+		int getCount() {
+			return count.get();
+		}
+	}
+	
+	/**
+	 * MDTM on the fake file system.
+	 */
+	private static class MdtmCommandHandler extends AbstractFakeCommandHandler {
+		private AtomicInteger count = new AtomicInteger(0);
+		@Override
+		protected void handle(Command command, Session session) {
+			verifyLoggedIn(session);
+			count.incrementAndGet();
+			FileSystemEntry entry = getFileSystem().getEntry(getRealPath(session, command.getParameter(0)));
+			if (entry==null) {
+				session.sendReply(550, "No such file.");
+			} else {
+				session.sendReply(213, formatTimestamp(entry.getLastModified()));
+			}
+		}
+		int getCount() {
+			return count.get();
+		}
+	}
+	
+	/**
+	 * DELE on the fake file system, or refused with <tt>550</tt>.
+	 */
+	private static class DeleCommandHandler extends AbstractFakeCommandHandler {
+		private volatile boolean refused = false;
+		@Override
+		protected void handle(Command command, Session session) {
+			verifyLoggedIn(session);
+			String path = getRealPath(session, command.getParameter(0));
+			if ((refused) || (!getFileSystem().delete(path))) {
+				session.sendReply(550, "Delete refused.");
+			} else {
+				session.sendReply(250, "Deleted.");
+			}
+		}
+		void setRefused(boolean refused) {
+			this.refused = refused;
+		}
+	}
+	
+	private static String formatTimestamp(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date!=null?date:new Date(0));
+	}
+
 }
@@ -22,44 +22,107 @@ public class JSchConnection {
 	private Session session;
 	private Channel channel;
 	private ChannelSftp channelSftp = null;		
+	private boolean reused=false;
 	
 	public JSchConnection(SFtpMonitorTaskConfiguration configuration) {
 		super();
 		this.configuration=configuration;
 	}
+	
+	/**
+	 * Constructor for a connection on a pooled session and channel.
+	 * @param configuration the configuration.
+	 * @param session the connected session.
+	 * @param channelSftp the connected channel.
+	 * @param reused if the channel has been used before.
+	 * @see JSchConnectionPool
+	 */
+	public JSchConnection(SFtpMonitorTaskConfiguration configuration,Session session,ChannelSftp channelSftp,boolean reused) {
+		this(configuration);
+		this.session=session;
+		this.channel=channelSftp;
+		this.channelSftp=channelSftp;
+		this.reused=reused;
+	}
+	
 	public void connect() throws JSchException {
+		//## SESSION #######################################
+		jsch = createJSch(getConfiguration());
+		session = createSession(getConfiguration(),jsch);
+		session.connect((int)getConfiguration().getTimeout().getTime());
 		
-		//## JSCH ##########################################
-		jsch = new JSch();
-		if (getConfiguration().hasAdditionalSFtpConfiguration()) {
-			getConfiguration().getAdditionalSFTPConfiguration().modifyJSch(jsch);				
+		//## CHANNEL #######################################
+		channelSftp = openChannelSftp(getConfiguration(), session);
+		channel = channelSftp;
+	}
+	
+	/**
+	 * Creates a new <tt>JSch</tt>.
+	 * @param configuration the configuration.
+	 * @return the jsch.
+	 */
+	public static final JSch createJSch(SFtpMonitorTaskConfiguration configuration) {
+		JSch jsch = new JSch();
+		if (configuration.hasAdditionalSFtpConfiguration()) {
+			configuration.getAdditionalSFTPConfiguration().modifyJSch(jsch);				
 		}
-		
+		return jsch;
+	}
+	
+	/**
+	 * Creates a new session, which is not yet connected.
+	 * @param configuration the configuration.
+	 * @param jsch the jsch to create the session with.
+	 * @return the session.
+	 * @throws JSchException if the session could not be created.
+	 */
+	public static final Session createSession(SFtpMonitorTaskConfiguration configuration,JSch jsch) throws JSchException {
 		//## CONFIG ########################################
 		Hashtable<String,String> config = new Hashtable<String,String>();
-		JSchConfigName.assignYesNoValue(config, JSchConfigName.Other_StrictHostKeyChecking, getConfiguration().isStrictHostKeyChecking());
-		if (getConfiguration().hasAdditionalSFtpConfiguration()) {
-			getConfiguration().getAdditionalSFTPConfiguration().modifyConfig(config);
+		JSchConfigName.assignYesNoValue(config, JSchConfigName.Other_StrictHostKeyChecking, configuration.isStrictHostKeyChecking());
+		if (configuration.hasAdditionalSFtpConfiguration()) {
+			configuration.getAdditionalSFTPConfiguration().modifyConfig(config);
 		}
 		
 		//## SESSION #######################################
-		session = jsch.getSession(
-				getConfiguration().getUsername(), 
-				getConfiguration().getHost(), 
-				getConfiguration().getPort());		
-		session.setPassword(getConfiguration().getPassword());		 
-		session.connect();
-		
+		Session session = jsch.getSession(
+				configuration.getUsername(), 
+				configuration.getHost(), 
+				configuration.getPort());		
+		session.setPassword(configuration.getPassword());
+		session.setConfig(config);
+		session.setTimeout((int)configuration.getTimeout().getTime());
+		if (configuration.hasAdditionalSFtpConfiguration()) {
+			configuration.getAdditionalSFTPConfiguration().modifySession(session);
+		}
+		return session;
+	}
+	
+	/**
+	 * Opens and connects a new sftp channel on a connected session.
+	 * @param configuration the configuration.
+	 * @param session the connected session.
+	 * @return the connected channel.
+	 * @throws JSchException if the channel could not be opened.
+	 */
+	public static final ChannelSftp openChannelSftp(SFtpMonitorTaskConfiguration configuration,Session session) throws JSchException {
 		//## CHANNEL #######################################
-		channel = session.openChannel(PROTOCOL_SFTP);
-		channel.connect();
+		Channel channel = session.openChannel(PROTOCOL_SFTP);
+		if (configuration.hasAdditionalSFtpConfiguration()) {
+			configuration.getAdditionalSFTPConfiguration().modifyChannel(channel);
+		}
+		channel.connect((int)configuration.getTimeout().getTime());
 
 		//## CHANNELSFTP ###################################			
-		channelSftp = (ChannelSftp) channel;
-		
+		ChannelSftp channelSftp = (ChannelSftp) channel;
+		if (configuration.hasAdditionalSFtpConfiguration()) {
+			configuration.getAdditionalSFTPConfiguration().modifyChannelSftp(channelSftp);
+		}
+		return channelSftp;
 	}
+	
 	public void disconnect() {			
-		if (getChannelSftp()==null) {		
+		if (getChannelSftp()!=null) {		
 			if (getChannelSftp().isConnected()) {
 				getChannelSftp().exit();						
 				getLogger().debug("Disconnected sftp channel");				
@@ -73,6 +136,14 @@ public class JSchConnection {
 		}			
 	}
 	
+	/**
+	 * If the channel has been used before, and its session therefore can have died while idle.
+	 * @return <code>true</code> if the channel was taken from the pool.
+	 */
+	public final boolean isReused() {
+		return reused;
+	}
+	
 	public final boolean isConnected() {
 		if (getChannelSftp()!=null) {
 			return getChannelSftp().isConnected();
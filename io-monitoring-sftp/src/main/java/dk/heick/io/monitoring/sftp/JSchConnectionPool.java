@@ -0,0 +1,375 @@
+package dk.heick.io.monitoring.sftp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import dk.heick.io.monitoring.utils.TimeSpan;
+
+/**
+ * A cache of one authenticated SSH <tt>Session</tt> and a pool of open <tt>ChannelSftp</tt>, 
+ * shared by all <tt>SFtpMonitoringTask</tt> in the JVM connecting to the same host, port and user with the same session settings.<br>
+ * <ul>
+ * 	<li>The session is kept alive with server alive messages, so the key exchange and login is only done once.</li>
+ * 	<li>The channels is opened on the shared session, and returned to the pool after each run.</li>
+ * 	<li>A session that is no longer connected is replaced, and the channels opened on it is closed.</li>
+ * 	<li>The session is connected without holding the pool lock, so a slow connect do not block releasing channels or borrowing them from a connected session.</li>
+ * 	<li>A failed transfer only closes its own channel, the shared session is only closed when the connection is lost.</li>
+ * 	<li>At most <tt>channelPoolSize</tt> idle channels is kept, extra channels is closed when released.</li>
+ * </ul>
+ * The session is set up from the configuration that created the pool, so tasks with a different password, timeout, host key checking, 
+ * server alive settings, channel pool size or additional sftp configuration do not share a pool.<br>
+ * A task takes a reference to the pool with <tt>acquire</tt> and releases it with <tt>close</tt> when it is shut down, 
+ * the idle channels and the session is closed and the pool removed when the last task has released it.
+ * @author Frederik Heick
+ * @see SFtpMonitorTaskConfiguration#isSFtpSessionPooling()
+ */
+public class JSchConnectionPool {
+	
+	/**
+	 * The default max number of idle channels kept per pool (2).
+	 */
+	public final static int DEFAULT_CHANNEL_POOL_SIZE=2;
+	
+	/**
+	 * The default interval between server alive messages on a pooled session (30 seconds).
+	 */
+	public final static TimeSpan DEFAULT_SERVER_ALIVE_INTERVAL=TimeSpan.createSeconds(30);
+	
+	/**
+	 * The default number of unanswered server alive messages before the session is disconnected (3).
+	 */
+	public final static int DEFAULT_SERVER_ALIVE_COUNT_MAX=3;
+	
+	private final static byte[] SALT = createSalt();
+	private final static ConcurrentMap<String,JSchConnectionPool> POOLS = new ConcurrentHashMap<String,JSchConnectionPool>();
+	
+	private String key;
+	private SFtpMonitorTaskConfiguration configuration;
+	private Session session=null;
+	private Deque<ChannelSftp> idle = new ArrayDeque<ChannelSftp>();
+	private int borrowed=0;
+	private long sessionsCreated=0;
+	private long channelsCreated=0;
+	private long channelsReused=0;
+	private int references=0;
+	private boolean closed=false;
+	private Logger logger=null;
+	
+	/**
+	 * Takes a reference to the shared pool for the host, port, user and session settings of the configuration, the pool is created if it do not exists.
+	 * The reference must be released with <tt>close()</tt>.
+	 * @param configuration the configuration.
+	 * @return the shared pool.
+	 * @see #createKey(SFtpMonitorTaskConfiguration)
+	 */
+	public static final JSchConnectionPool acquire(SFtpMonitorTaskConfiguration configuration) {
+		String key = createKey(configuration);
+		synchronized (POOLS) {
+			JSchConnectionPool pool = POOLS.get(key);
+			if (pool==null) {
+				pool = new JSchConnectionPool(key,configuration);
+				POOLS.put(key, pool);
+			}
+			pool.references++;
+			return pool;
+		}
+	}
+	
+	/**
+	 * Closes all idle channels, and the sessions with no channels in use, in all pools.
+	 */
+	public static final void closeAll() {
+		for (JSchConnectionPool pool : POOLS.values()) {
+			pool.closeIdle();
+		}
+	}
+	
+	public static final String createKey(String host,int port,String username) {
+		return username+"@"+host+":"+port;
+	}
+	
+	/**
+	 * The key of the pool for a configuration; the host, port and user, and the settings a session and its channels is set up with.
+	 * The password is in the key as a SHA-256 digest salted per JVM, so the key can be logged, and the additional sftp configuration is identified by its instance, as it can set anything on the session, 
+	 * ex. the private key.
+	 * @param configuration the configuration.
+	 * @return the key.
+	 */
+	public static final String createKey(SFtpMonitorTaskConfiguration configuration) {
+		StringBuilder key = new StringBuilder(createKey(configuration.getHost(),configuration.getPort(),configuration.getUsername()));
+		key.append("[password=").append(digest(configuration.getPassword()));
+		key.append(", timeout=").append(configuration.getTimeout());
+		key.append(", strictHostKeyChecking=").append(configuration.isStrictHostKeyChecking());
+		key.append(", serverAliveInterval=").append(configuration.getSFtpServerAliveInterval());
+		key.append(", serverAliveCountMax=").append(configuration.getSFtpServerAliveCountMax());
+		key.append(", channelPoolSize=").append(configuration.getSFtpChannelPoolSize());
+		if (configuration.hasAdditionalSFtpConfiguration()) {
+			AdditionalSFtpConfiguration additional = configuration.getAdditionalSFTPConfiguration();
+			key.append(", additional=").append(additional.getClass().getName()).append("@").append(Integer.toHexString(System.identityHashCode(additional)));
+		}
+		return key.append("]").toString();
+	}
+	
+	private static byte[] createSalt() {
+		byte[] salt = new byte[16];
+		new SecureRandom().nextBytes(salt);
+		return salt;
+	}
+	
+	private static String digest(String password) {
+		if (password==null) {
+			return "null";
+		}
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			messageDigest.update(SALT);
+			byte[] digest = messageDigest.digest(password.getBytes(StandardCharsets.UTF_8));
+			StringBuilder result = new StringBuilder(digest.length*2);
+			for (byte b : digest) {
+				result.append(String.format("%02x", b&0xff));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported.",e);
+		}
+	}
+	
+	/**
+	 * Constructor.
+	 * @param key the host, port, user and session settings key.
+	 * @param configuration the configuration used to create the session and channels.
+	 */
+	public JSchConnectionPool(String key,SFtpMonitorTaskConfiguration configuration) {
+		super();
+		this.key=key;
+		this.configuration=configuration;
+	}
+	
+	/**
+	 * Takes an idle channel from the pool, or opens a new channel. If the session is not connected a new session is created.<br>
+	 * The session and channel is connected outside the pool lock. If two borrowers both find the session disconnected, 
+	 * both connect a session, the first one is kept and the other is disconnected again.
+	 * @return a connection with a connected session and channel.
+	 * @throws JSchException if the session or channel could not be connected.
+	 */
+	public JSchConnection borrow() throws JSchException {
+		Session current = null;
+		synchronized (this) {
+			if ((session!=null) && (!session.isConnected())) {
+				getLogger().info("SSH session is no longer connected, replacing it.");
+				closeSession();
+			}
+			current = session;
+			if (current!=null) {
+				ChannelSftp channelSftp = null;
+				while ((channelSftp = idle.poll())!=null) {
+					if ((channelSftp.isConnected()) && (!channelSftp.isClosed())) {
+						borrowed++;
+						channelsReused++;
+						return new JSchConnection(configuration, current, channelSftp, true);
+					} else {
+						channelSftp.disconnect();
+					}
+				}
+			}
+			borrowed++;
+		}
+		try {
+			if (current==null) {
+				current = useSession(connectSession());
+			}
+			ChannelSftp channelSftp = JSchConnection.openChannelSftp(configuration, current);
+			synchronized (this) {
+				channelsCreated++;
+			}
+			return new JSchConnection(configuration, current, channelSftp, false);
+		} catch (JSchException e) {
+			synchronized (this) {
+				borrowed--;
+			}
+			throw e;
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				borrowed--;
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the channel of the connection to the pool, the channel is closed if it is no longer connected, its session has been replaced or the pool is full.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 */
+	public synchronized void release(JSchConnection connection) {
+		if (connection!=null) {
+			borrowed--;
+			if ((!closed) && (connection.isConnected()) && (connection.getSession()==session) && (idle.size()<getChannelPoolSize())) {
+				idle.push(connection.getChannelSftp());
+			} else {
+				connection.getChannelSftp().disconnect();
+			}
+		}
+	}
+	
+	/**
+	 * Closes the channel of a connection that has failed, it is not returned to the pool. 
+	 * The session is kept, as the other channels on it can still be in use.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 * @see #invalidateSession(JSchConnection)
+	 */
+	public synchronized void invalidate(JSchConnection connection) {
+		if (connection!=null) {
+			borrowed--;
+			connection.getChannelSftp().disconnect();
+		}
+	}
+	
+	/**
+	 * Closes a connection that has lost its connection to the server. The session is closed as well, unless it has already been replaced, 
+	 * so the next borrow connects a new session.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 * @see #invalidate(JSchConnection)
+	 */
+	public synchronized void invalidateSession(JSchConnection connection) {
+		if (connection!=null) {
+			invalidate(connection);
+			if (connection.getSession()==session) {
+				getLogger().debug("Closing SSH session after the connection was lost.");
+				closeSession();
+			}
+		}
+	}
+	
+	/**
+	 * Closes all idle channels, and the session if no channels is in use.
+	 */
+	public synchronized void closeIdle() {
+		closeIdleChannels();
+		if (borrowed<=0) {
+			closeSession();
+		}
+	}
+	
+	/**
+	 * Releases a reference taken by <tt>acquire</tt>. When the last reference is released the pool is removed, its idle channels 
+	 * and the session is closed, and channels released to it later is closed.
+	 * @see #acquire(SFtpMonitorTaskConfiguration)
+	 */
+	public void close() {
+		boolean last = false;
+		synchronized (POOLS) {
+			if (references>0) {
+				references--;
+				if (references==0) {
+					POOLS.remove(key, this);
+					last = true;
+				}
+			}
+		}
+		if (last) {
+			synchronized (this) {
+				closed = true;
+				closeIdle();
+			}
+		}
+	}
+	
+	/**
+	 * The number of tasks using the pool.
+	 * @return the references not yet released.
+	 */
+	public final int getReferences() {
+		synchronized (POOLS) {
+			return references;
+		}
+	}
+	
+	public final String getKey() {
+		return key;
+	}
+	public final int getChannelPoolSize() {
+		return configuration.getSFtpChannelPoolSize();
+	}
+	public synchronized final int getIdleCount() {
+		return idle.size();
+	}
+	public synchronized final long getSessionsCreated() {
+		return sessionsCreated;
+	}
+	public synchronized final long getChannelsCreated() {
+		return channelsCreated;
+	}
+	public synchronized final long getChannelsReused() {
+		return channelsReused;
+	}
+	
+	/**
+	 * Connects a new session, without holding the pool lock.
+	 * @return the connected session.
+	 * @throws JSchException if the session could not be connected.
+	 */
+	private Session connectSession() throws JSchException {
+		Session newSession = JSchConnection.createSession(configuration,JSchConnection.createJSch(configuration));
+		newSession.setServerAliveInterval((int)configuration.getSFtpServerAliveInterval().getTime());
+		newSession.setServerAliveCountMax(configuration.getSFtpServerAliveCountMax());
+		newSession.connect((int)configuration.getTimeout().getTime());
+		return newSession;
+	}
+	
+	/**
+	 * Makes a newly connected session the shared session, unless another borrower has connected one meanwhile.
+	 * @param newSession the connected session.
+	 * @return the shared session.
+	 */
+	private synchronized Session useSession(Session newSession) {
+		if ((session==null) || (!session.isConnected())) {
+			closeSession();
+			session = newSession;
+			sessionsCreated++;
+		} else if (session!=newSession) {
+			newSession.disconnect();
+		}
+		return session;
+	}
+	
+	private void closeIdleChannels() {
+		ChannelSftp channelSftp = null;
+		while ((channelSftp = idle.poll())!=null) {
+			channelSftp.disconnect();
+		}
+	}
+	
+	private void closeSession() {
+		closeIdleChannels();
+		if (session!=null) {
+			session.disconnect();
+			session=null;
+		}
+	}
+	
+	private Logger getLogger() {
+		if (logger==null) {
+			logger = LoggerFactory.getLogger(getClass().getName()+"["+createKey(configuration.getHost(),configuration.getPort(),configuration.getUsername())+"]");
+		}
+		return logger;
+	}
+
+	@Override
+	public String toString() {
+		return "JSchConnectionPool [key=" + key + ", idle=" + getIdleCount() + ", sessionsCreated=" + getSessionsCreated() + ", channelsCreated=" + getChannelsCreated() + ", channelsReused=" + getChannelsReused() + "]";
+	}
+	
+}
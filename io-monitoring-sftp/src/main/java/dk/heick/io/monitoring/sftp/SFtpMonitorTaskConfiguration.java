@@ -23,6 +23,12 @@ public class SFtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 	private boolean strictHostKeyChecking=false;
 	private AdditionalSFtpConfiguration additionalSFTPConfiguration = null;
 	private MonitorTaskRemoteFileErrorHandler<WrappedSFtpFile> remoteErrorHandler = new DefaultMonitorTaskRemoteFileErrorHandler<WrappedSFtpFile>();
+	private boolean sftpSessionPooling=false;
+	private int sftpChannelPoolSize=JSchConnectionPool.DEFAULT_CHANNEL_POOL_SIZE;
+	private TimeSpan sftpServerAliveInterval=JSchConnectionPool.DEFAULT_SERVER_ALIVE_INTERVAL;
+	private int sftpServerAliveCountMax=JSchConnectionPool.DEFAULT_SERVER_ALIVE_COUNT_MAX;
+	private int remoteDownloadThreads=IOMonitoringConstants.DEFAULT_REMOTE_DOWNLOAD_THREADS;
+	private int remoteDownloadsPerHost=IOMonitoringConstants.DEFAULT_REMOTE_DOWNLOADS_PER_HOST;
 
 	public SFtpMonitorTaskConfiguration(String host,int port,String username,String password,String remoteDirectory,File localDirectory,FileProcessor fileProcessor,SFtpFileFilter sftpFileFilter) {
 		this(host,port,username,password,remoteDirectory,localDirectory,fileProcessor,sftpFileFilter,IOMonitoringConstants.DEFAULT_STABLE_TIME);
@@ -70,6 +76,60 @@ public class SFtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 	public SFtpFileFilter getSFtpFileFilter() {
 		return sftpFileFilter;
 	}
+	/**
+	 * If the authenticated SSH session and the sftp channels is kept in a <tt>JSchConnectionPool</tt> between runs, instead of a new session on every run.
+	 * @return <code>true</code> if pooling, default <code>false</code>.
+	 * @see JSchConnectionPool
+	 */
+	public boolean isSFtpSessionPooling() {
+		return sftpSessionPooling;
+	}
+	/**
+	 * Max number of idle sftp channels kept in the pool per host, port and user.
+	 * @return the channel pool size.
+	 * @see JSchConnectionPool#DEFAULT_CHANNEL_POOL_SIZE
+	 */
+	public int getSFtpChannelPoolSize() {
+		return sftpChannelPoolSize;
+	}
+	/**
+	 * Interval between server alive messages on a pooled session.
+	 * @return the server alive interval.
+	 * @see JSchConnectionPool#DEFAULT_SERVER_ALIVE_INTERVAL
+	 */
+	public TimeSpan getSFtpServerAliveInterval() {
+		return sftpServerAliveInterval;
+	}
+	/**
+	 * Number of unanswered server alive messages before a pooled session is disconnected.
+	 * @return the server alive count max.
+	 * @see JSchConnectionPool#DEFAULT_SERVER_ALIVE_COUNT_MAX
+	 */
+	public int getSFtpServerAliveCountMax() {
+		return sftpServerAliveCountMax;
+	}
+	/**
+	 * Max number of stable remote files downloaded in parallel by the task, each over its own channel. <br>
+	 * If more than 1, the files is downloaded by a <tt>RemoteFileDownloader</tt> while the listing continues, 
+	 * and the remote files is deleted in one batch when the local files is verified. 
+	 * When pooling, the channels is opened on the shared session.
+	 * @return number of download threads, default 1 which downloads in the listing loop.
+	 * @see IOMonitoringConstants#DEFAULT_REMOTE_DOWNLOAD_THREADS
+	 */
+	public int getRemoteDownloadThreads() {
+		return remoteDownloadThreads;
+	}
+	/**
+	 * Max number of parallel downloads against the same host and port, shared by all tasks in the JVM.
+	 * @return downloads per host.
+	 * @see IOMonitoringConstants#DEFAULT_REMOTE_DOWNLOADS_PER_HOST
+	 */
+	public int getRemoteDownloadsPerHost() {
+		return remoteDownloadsPerHost;
+	}
+	public boolean isConcurrentDownload() {
+		return getRemoteDownloadThreads()>1;
+	}
 
 	public SFtpMonitorTaskConfiguration setTimeout(int timeout) {
 		this.timeout = TimeSpan.createMilliSeconds(timeout);
@@ -102,6 +162,37 @@ public class SFtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 		return this;
 	}
 	
+	public SFtpMonitorTaskConfiguration setSFtpSessionPooling(boolean sftpSessionPooling) {
+		this.sftpSessionPooling = sftpSessionPooling;
+		return this;
+	}
+	public SFtpMonitorTaskConfiguration withSFtpSessionPooling() {
+		return setSFtpSessionPooling(true);
+	}
+	public SFtpMonitorTaskConfiguration withNoSFtpSessionPooling() {
+		return setSFtpSessionPooling(false);
+	}
+	public SFtpMonitorTaskConfiguration setSFtpChannelPoolSize(int sftpChannelPoolSize) {
+		this.sftpChannelPoolSize = sftpChannelPoolSize;
+		return this;
+	}
+	public SFtpMonitorTaskConfiguration setSFtpServerAliveInterval(TimeSpan sftpServerAliveInterval) {
+		this.sftpServerAliveInterval = sftpServerAliveInterval;
+		return this;
+	}
+	public SFtpMonitorTaskConfiguration setSFtpServerAliveCountMax(int sftpServerAliveCountMax) {
+		this.sftpServerAliveCountMax = sftpServerAliveCountMax;
+		return this;
+	}
+	public SFtpMonitorTaskConfiguration setRemoteDownloadThreads(int remoteDownloadThreads) {
+		this.remoteDownloadThreads = remoteDownloadThreads;
+		return this;
+	}
+	public SFtpMonitorTaskConfiguration setRemoteDownloadsPerHost(int remoteDownloadsPerHost) {
+		this.remoteDownloadsPerHost = remoteDownloadsPerHost;
+		return this;
+	}
+	
 	public boolean hasAdditionalSFtpConfiguration() {
 		return getAdditionalSFTPConfiguration()!=null; 
 	}
@@ -114,6 +205,13 @@ public class SFtpMonitorTaskConfiguration extends MonitorTaskConfiguration {
 		ValidateUtils.validateNotEmpty("username", username);
 		ValidateUtils.validateNotNull("remoteDirectory", remoteDirectory);
 		ValidateUtils.validateNotNull("remoteErrorHandler", getRemoteErrorHandler());		
+		if (isSFtpSessionPooling()) {
+			ValidateUtils.validateRange("sftpChannelPoolSize", sftpChannelPoolSize, 1, null);
+			ValidateUtils.validateNotNull("sftpServerAliveInterval", sftpServerAliveInterval);
+			ValidateUtils.validateRange("sftpServerAliveCountMax", sftpServerAliveCountMax, 1, null);
+		}
+		ValidateUtils.validateRange("remoteDownloadThreads", remoteDownloadThreads, 1, null);
+		ValidateUtils.validateRange("remoteDownloadsPerHost", remoteDownloadsPerHost, 1, null);
 	}
 	
 	
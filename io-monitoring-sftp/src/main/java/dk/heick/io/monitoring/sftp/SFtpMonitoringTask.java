@@ -4,7 +4,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import com.jcraft.jsch.ChannelSftp;
@@ -13,6 +18,8 @@ import com.jcraft.jsch.SftpException;
 
 import dk.heick.io.monitoring.GenericFileChange;
 import dk.heick.io.monitoring.MonitorTask;
+import dk.heick.io.monitoring.RemoteFileDownload;
+import dk.heick.io.monitoring.RemoteFileDownloader;
 import dk.heick.io.monitoring.filter.OnlyFilesFileFilter;
 import dk.heick.io.monitoring.utils.FileUtils;
 import dk.heick.io.monitoring.validation.ValidationException;
@@ -29,6 +36,10 @@ public class SFtpMonitoringTask extends MonitorTask<WrappedSFtpFile, SFtpMonitor
 	public final static String JSCH_CURRENT_DIRECTORY=".";
 
 	private JSchConnection connection  = null;
+	private RemoteFileDownloader<WrappedSFtpFile> downloader = null;
+	private JSchConnectionPool connectionPool = null;
+	private boolean poolReleased = false;
+	private Map<String,RemoteFileDownload<WrappedSFtpFile>> pendingRemoteDeletes = null;
 	
 	public SFtpMonitoringTask(SFtpMonitorTaskConfiguration configuration) throws ValidationException, NullPointerException {
 		super(configuration);
@@ -65,47 +76,274 @@ public class SFtpMonitoringTask extends MonitorTask<WrappedSFtpFile, SFtpMonitor
 
 	@Override
 	protected void detecting() {
+		Exception failure = null;
 		try {
 			sftpConnect();
-			sftpChangeDirectory();
-			List<ChannelSftp.LsEntry> sftpFiles = getSftpRemoteFiles();
-			for (ChannelSftp.LsEntry sftpFile : sftpFiles) {
-				if (!sftpIsFile(sftpFile)) {
-					continue;
-				} else {
-					WrappedSFtpFile wrappedSFtpFile = new WrappedSFtpFile(sftpFile);
-					//
-					GenericFileChange<WrappedSFtpFile> previousFileChange = getMonitoredFile(wrappedSFtpFile);
-					if (previousFileChange == null) {
-						getFileMonitor().put(wrappedSFtpFile, new SFtpFileChange(wrappedSFtpFile));
-					} else {
-						GenericFileChange<WrappedSFtpFile> currentFileChange = new SFtpFileChange(previousFileChange, wrappedSFtpFile);
-						if (currentFileChange.isStable(previousFileChange, getConfiguration().getStableTime().getTime())) {
-							File localFile = new File(getConfiguration().getDirectory(),wrappedSFtpFile.getFileName());
-							sftpCopyFile(wrappedSFtpFile,localFile);							
-							sftpDeleteFile(wrappedSFtpFile);							
-							moveFileToProcess(localFile);
-							getFileMonitor().remove(wrappedSFtpFile);
-						} else if (!getConfiguration().doContinueMonitorFile(currentFileChange.getMonitoringTime())) {
-							getLogger().error("SFTPFile [" + currentFileChange.getFileName() + "] has been monitored more than ["+ getConfiguration().getMonitorTimeout() + "] ms, removing file from monitor.");
-							getFileMonitor().remove(wrappedSFtpFile);
-						}
-					}
-				}				
-			}			
+			try {
+				detectingRemoteFiles();
+			} catch (JSchException e) {
+				if (!retryOnNewConnection(e)) {
+					throw e;
+				}
+			} catch (SftpException e) {
+				if (!retryOnNewConnection(e)) {
+					throw e;
+				}
+			}
 		} catch (JSchException e) {
-			//TODO			
+			failure = e;
+			getLogger().error("JSchException, "+e.getMessage(),e);
 		} catch (SftpException e) {
-			//TODO
+			failure = e;
+			getLogger().error("SftpException ["+e.id+"], "+e.getMessage(),e);
 		} catch (IOException e) {
+			failure = e;
+			getLogger().error("IOException, "+e.getMessage(),e);
 		} finally {		
-			sftpDisconnect();
+			sftpDisconnect(failure);
 		}	
 	}
 	
-
-
-
+	/**
+	 * If a reused pooled channel has lost its connection, the connection is replaced and detecting is retried once.
+	 * @param e the exception.
+	 * @return <code>true</code> if retried, <code>false</code> if the exception should be handled as normal.
+	 */
+	private boolean retryOnNewConnection(Exception e) throws JSchException, SftpException, IOException {
+		if ((getConnection()!=null) && (getConnection().isReused()) && (isConnectionLost(getConnection(),e))) {
+			getLogger().warn("Pooled SSH session lost, reconnecting, "+e.getMessage());
+			sftpDisconnect(e);
+			sftpConnect();
+			detectingRemoteFiles();
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/**
+	 * If the exception means the connection to the server is lost, and not only that the command failed, ex. a file that do not exists or no permission, 
+	 * or that a session or channel could not be set up, ex. a failed login or an unknown host key.
+	 * @param connection the connection that failed, can be <code>null</code>.
+	 * @param e the exception.
+	 * @return <code>true</code> if the connection is lost.
+	 */
+	static boolean isConnectionLost(JSchConnection connection,Exception e) {
+		if ((connection!=null) && (connection.getSession()!=null) && (!connection.getSession().isConnected())) {
+			return true;
+		} else if (e instanceof JSchException) {
+			return (e.getCause() instanceof IOException);
+		} else if (e instanceof SftpException) {
+			int id = ((SftpException)e).id;
+			return ((id==ChannelSftp.SSH_FX_NO_CONNECTION) || (id==ChannelSftp.SSH_FX_CONNECTION_LOST) || (e.getCause() instanceof IOException));
+		} else {
+			return false;
+		}
+	}
+	
+	private void detectingRemoteFiles() throws JSchException, SftpException, IOException {
+		sftpChangeDirectory();
+		//Drained before the listing, so the remote files of the downloads is deleted and not detected again
+		completeDownloads();
+		List<ChannelSftp.LsEntry> sftpFiles = getSftpRemoteFiles();
+		Set<String> listedFileNames = new HashSet<String>();
+		for (ChannelSftp.LsEntry sftpFile : sftpFiles) {
+			if (!sftpIsFile(sftpFile)) {
+				continue;
+			}
+			listedFileNames.add(sftpFile.getFilename());
+			if ((getConfiguration().isConcurrentDownload()) && (getDownloader().isInFlight(sftpFile.getFilename()))) {
+				continue;
+			} else if (getPendingRemoteDeletes().containsKey(sftpFile.getFilename())) {
+				continue;
+			} else {
+				WrappedSFtpFile wrappedSFtpFile = new WrappedSFtpFile(sftpFile);
+				//
+				GenericFileChange<WrappedSFtpFile> fileChange = getMonitoredFile(wrappedSFtpFile);
+				if (fileChange == null) {
+					addMonitoredFile(wrappedSFtpFile, new SFtpFileChange(wrappedSFtpFile));
+					getMetrics().getFilesDetectedCounter().increment();
+				} else {
+					fileChange.update(wrappedSFtpFile);
+					if (fileChange.isStable(getConfiguration().getStableTime().getTime())) {
+						File localFile = new File(getConfiguration().getDirectory(),wrappedSFtpFile.getFileName());
+						if (getConfiguration().isConcurrentDownload()) {
+							getDownloader().submit(fileChange, localFile);
+						} else {
+							sftpCopyFile(wrappedSFtpFile,localFile);
+							//Deleted with the downloads after the listing
+							getPendingRemoteDeletes().put(fileChange.getFileName(), new RemoteFileDownload<WrappedSFtpFile>(fileChange, localFile));
+						}
+						getFileMonitor().remove(wrappedSFtpFile);
+					} else if (!getConfiguration().doContinueMonitorFile(fileChange.getMonitoringTime())) {
+						getLogger().error("SFTPFile [" + fileChange.getFileName() + "] has been monitored more than ["+ getConfiguration().getMonitorTimeout() + "] ms, removing file from monitor.");
+						getFileMonitor().remove(wrappedSFtpFile);
+					}
+				}
+			}				
+		}
+		removeUnlistedFiles(listedFileNames);
+		processUnlistedPendingRemote(listedFileNames);
+		completeDownloads();
+	}
+	
+	/**
+	 * The download stage used when the configuration has more than one download thread.
+	 * Each download uses a channel of its own, from the pool when pooling.
+	 * @return the downloader.
+	 * @see SFtpMonitorTaskConfiguration#getRemoteDownloadThreads()
+	 */
+	protected RemoteFileDownloader<WrappedSFtpFile> getDownloader() {
+		if (downloader==null) {
+			downloader = new RemoteFileDownloader<WrappedSFtpFile>(getConfiguration().getDirectory().getName(),getConfiguration().getHost()+":"+getConfiguration().getPort(),getConfiguration().getRemoteDownloadThreads(),getConfiguration().getRemoteDownloadsPerHost()) {
+				@Override
+				protected void download(WrappedSFtpFile remoteFile, File localFile) throws Exception {
+					JSchConnection downloadConnection = null;
+					Exception failure = null;
+					try {
+						if (getConfiguration().isSFtpSessionPooling()) {
+							downloadConnection = getConnectionPool().borrow();
+						} else {
+							downloadConnection = new JSchConnection(getConfiguration());
+							downloadConnection.connect();
+						}
+						downloadConnection.getChannelSftp().cd(getConfiguration().getRemoteDirectory());
+						sftpCopyFile(downloadConnection.getChannelSftp(), remoteFile, localFile);
+					} catch (Exception e) {
+						failure = e;
+						throw e;
+					} finally {
+						closeConnection(downloadConnection, failure);
+					}
+				}
+			};
+		}
+		return downloader;
+	}
+	
+	/**
+	 * Handles the finished downloads, the remote files of the verified downloads is deleted in one batch 
+	 * on the listing channel and the local files is moved to process. 
+	 * The local files of failed downloads is deleted, and the remote files is detected again.
+	 * @see #deletePendingRemote()
+	 */
+	private void completeDownloads() throws JSchException, SftpException {
+		if (getConfiguration().isConcurrentDownload()) {
+			for (RemoteFileDownload<WrappedSFtpFile> download : getDownloader().drainCompleted()) {
+				if (download.isSuccess()) {
+					getLogger().info("SFTPFile ["+download.getFileChange().getFileName()+"] transfered to ["+download.getLocalFile().getAbsolutePath()+"], size ["+download.getLocalFile().length()+"]");
+					getPendingRemoteDeletes().put(download.getFileChange().getFileName(), download);
+				} else {
+					getLogger().error("Error copying SFTPFile ["+download.getFileChange().getFileName()+"], "+download.getException().getMessage(),download.getException());
+					getConfiguration().getRemoteErrorHandler().onRemoteCopyToLocalFileFailure(download.getFileChange(), download.getLocalFile(), download.getException());
+					if (download.getLocalFile().exists()) {
+						download.getLocalFile().delete();
+					}
+				}
+			}
+		}
+		deletePendingRemote();
+	}
+	
+	/**
+	 * Deletes the remote files of the downloaded files, and moves the local file to process when the remote file is deleted. <br>
+	 * A local file is held in the directory until the remote file is deleted, so a file is not processed while it can be downloaded again. 
+	 * The delete is retried on the next runs, and the remote file is not monitored meanwhile.
+	 * @throws SftpException if the connection is lost, the remaining remote files is deleted on the next run.
+	 */
+	private void deletePendingRemote() throws JSchException, SftpException {
+		Iterator<RemoteFileDownload<WrappedSFtpFile>> iterator = getPendingRemoteDeletes().values().iterator();
+		while (iterator.hasNext()) {
+			RemoteFileDownload<WrappedSFtpFile> pending = iterator.next();
+			if (deleteRemote(pending.getFileChange())) {
+				iterator.remove();
+				moveFileToProcess(pending.getLocalFile(),pending.getFileChange());
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the remote file.
+	 * @param fileChange the remote file.
+	 * @return <code>true</code> if deleted, <code>false</code> if the server refused the delete.
+	 * @throws SftpException if the connection is lost.
+	 * @see #isConnectionLost(JSchConnection, Exception)
+	 */
+	private boolean deleteRemote(GenericFileChange<WrappedSFtpFile> fileChange) throws JSchException, SftpException {
+		try {
+			sftpDeleteFile(fileChange.getFile());
+			return true;
+		} catch (SftpException e) {
+			getLogger().error("SFTPFile ["+fileChange.getFileName()+"] not deleted, "+e.getMessage(),e);
+			getConfiguration().getRemoteErrorHandler().onRemoteDeleteFileFailure(fileChange, e);
+			if (isConnectionLost(getConnection(),e)) {
+				throw e;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * A remote file that could not be deleted, and is not listed any more, has been removed from the server by others, so the local file is moved to process.
+	 * @param listedFileNames the names of the remote files in the listing.
+	 */
+	private void processUnlistedPendingRemote(Set<String> listedFileNames) {
+		Iterator<RemoteFileDownload<WrappedSFtpFile>> iterator = getPendingRemoteDeletes().values().iterator();
+		while (iterator.hasNext()) {
+			RemoteFileDownload<WrappedSFtpFile> pending = iterator.next();
+			if (!listedFileNames.contains(pending.getFileChange().getFileName())) {
+				getLogger().warn("SFTPFile ["+pending.getFileChange().getFileName()+"] that could not be deleted do not exists any more, moving local file to process.");
+				iterator.remove();
+				moveFileToProcess(pending.getLocalFile(),pending.getFileChange());
+			}
+		}
+	}
+	
+	/**
+	 * The downloaded files which remote file is not deleted yet, by the remote file name.
+	 * @return the pending remote deletes.
+	 */
+	private Map<String,RemoteFileDownload<WrappedSFtpFile>> getPendingRemoteDeletes() {
+		if (pendingRemoteDeletes==null) {
+			pendingRemoteDeletes = new LinkedHashMap<String,RemoteFileDownload<WrappedSFtpFile>>();
+		}
+		return pendingRemoteDeletes;
+	}
+	
+	/**
+	 * The shared session and channel pool for the host, port, user and session settings, the task takes its reference to the pool on the first call.
+	 * @return the connection pool.
+	 */
+	public synchronized JSchConnectionPool getConnectionPool() {
+		if (connectionPool==null) {
+			connectionPool = JSchConnectionPool.acquire(getConfiguration());
+		}
+		return connectionPool;
+	}
+	
+	/**
+	 * Releases the reference to the connection pool, the idle pooled channels and the session is closed when no other task uses the pool.
+	 */
+	@Override
+	public void shutdown() {
+		if (downloader!=null) {
+			downloader.shutdown();
+		}
+		if ((pendingRemoteDeletes!=null) && (!pendingRemoteDeletes.isEmpty())) {
+			getLogger().warn("["+pendingRemoteDeletes.size()+"] downloaded files is not processed, as the remote files could not be deleted.");
+		}
+		JSchConnectionPool pool = null;
+		synchronized (this) {
+			if (!poolReleased) {
+				pool = connectionPool;
+				poolReleased = true;
+			}
+		}
+		if (pool!=null) {
+			pool.close();
+		}
+		super.shutdown();
+	}
 
 	@Override
 	protected final void monitoring() {
@@ -113,8 +351,12 @@ public class SFtpMonitoringTask extends MonitorTask<WrappedSFtpFile, SFtpMonitor
 	}
 	
 	private void sftpConnect() throws JSchException {
-		connection = new JSchConnection(getConfiguration());
-		connection.connect();
+		if (getConfiguration().isSFtpSessionPooling()) {
+			connection = getConnectionPool().borrow();
+		} else {
+			connection = new JSchConnection(getConfiguration());
+			connection.connect();
+		}
 	}
 	
 	private void sftpChangeDirectory() throws JSchException, SftpException {
@@ -150,24 +392,28 @@ public class SFtpMonitoringTask extends MonitorTask<WrappedSFtpFile, SFtpMonitor
 	}
 	private void sftpCopyFile(WrappedSFtpFile wrappedSFtpFile, File localFile) throws JSchException,IOException,SftpException {
 		if (isConnected()) {
-			FileOutputStream fos = null;
-			try {
-				fos = new FileOutputStream(localFile);
-				getConnection().getChannelSftp().get(wrappedSFtpFile.getFileName(), fos);
-			} finally {
-				if (fos!=null) {
-					try {
-						fos.flush();
-						fos.close();
-					} catch (IOException e) {
-						getLogger().warn("SFTP Error flushing and closing file ["+localFile.getAbsolutePath()+"], "+e.getMessage(),e);
-					}					
-				}
-			}			
+			sftpCopyFile(getConnection().getChannelSftp(), wrappedSFtpFile, localFile);
 		} else {
 			throw new JSchException("Can not change directory, is not connected.");
 		}
 	}
+	
+	private void sftpCopyFile(ChannelSftp channelSftp, WrappedSFtpFile wrappedSFtpFile, File localFile) throws IOException,SftpException {
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(localFile);
+			channelSftp.get(wrappedSFtpFile.getFileName(), fos);
+		} finally {
+			if (fos!=null) {
+				try {
+					fos.flush();
+					fos.close();
+				} catch (IOException e) {
+					getLogger().warn("SFTP Error flushing and closing file ["+localFile.getAbsolutePath()+"], "+e.getMessage(),e);
+				}					
+			}
+		}
+	}
 
 	private void sftpDeleteFile(WrappedSFtpFile wrappedSFtpFile) throws JSchException, SftpException {
 		if (isConnected()) {
@@ -179,14 +425,38 @@ public class SFtpMonitoringTask extends MonitorTask<WrappedSFtpFile, SFtpMonitor
 	}
 	
 	private void sftpDisconnect() {
+		sftpDisconnect(null);
+	}
+	
+	private void sftpDisconnect(Exception failure) {
 		try {
-			if (getConnection()!=null) {
-				getConnection().disconnect();
-			}
+			closeConnection(getConnection(), failure);
 		} finally {
 			setConnection(null);
 		}
 	}
+	
+	/**
+	 * Returns the channel to the pool if pooling, else disconnects the connection. <br>
+	 * When pooling, a connection that has failed only has its channel closed, the shared session is only closed if the connection is lost, 
+	 * as it would close the channels of all other tasks and downloads on the session.
+	 * @param connection the connection, if <code>null</code> nothing happens.
+	 * @param failure the exception if the connection failed, <code>null</code> if it did not.
+	 * @see #isConnectionLost(JSchConnection, Exception)
+	 */
+	private void closeConnection(JSchConnection connection,Exception failure) {
+		if (connection!=null) {
+			if (!getConfiguration().isSFtpSessionPooling()) {
+				connection.disconnect();
+			} else if (failure==null) {
+				getConnectionPool().release(connection);
+			} else if (isConnectionLost(connection,failure)) {
+				getConnectionPool().invalidateSession(connection);
+			} else {
+				getConnectionPool().invalidate(connection);
+			}
+		}
+	}
 	private JSchConnection getConnection() {
 		return connection;
 	}
@@ -28,7 +28,7 @@ public class WrappedSFtpFile implements WrappedFile<LsEntry> {
 	
 	@Override
 	public int hashCode() {
-		return Objects.hash(getFile());
+		return Objects.hash(getFileName());
 	}
 	@Override
 	public boolean equals(Object obj) {
@@ -36,7 +36,7 @@ public class WrappedSFtpFile implements WrappedFile<LsEntry> {
 			return false;
 		} else if (obj instanceof WrappedSFtpFile) {
 			WrappedSFtpFile other = (WrappedSFtpFile)obj;
-			return getFile().equals(other.getFile());
+			return getFileName().equals(other.getFileName());
 		} else {
 			return false;
 		}
@@ -91,6 +91,8 @@ public class DummySDFTPTest {
 		 
 		Hashtable<String,String> config = new Hashtable<String,String>();
 		config.put("StrictHostKeyChecking", "no");
+		//The host key is a "ssh-rsa" key, which JSch 0.2.x do not accept by default
+		config.put("server_host_key", JSch.getConfig("server_host_key")+",ssh-rsa");
 		JSch.setConfig(config);
 		
 		Session session = jsch.getSession("remote-username", "localhost", 22999);		
@@ -0,0 +1,196 @@
+package dk.heick.io.monitoring.sftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.SocketTimeoutException;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+import dk.heick.io.monitoring.processor.DefaultFileProcessor;
+import dk.heick.io.monitoring.utils.TempFileManager;
+import dk.heick.io.monitoring.utils.TimeSpan;
+
+public class JSchConnectionPoolTest {
+	
+	private TempFileManager tempManager = new TempFileManager();
+	private MockSFTPServer server = null;
+	private File localDirectory = null;
+	private JSchConnectionPool pool = null;
+
+	@Before
+	public void before() throws Exception {
+		//The server deletes the host key file when stopped
+		server = new MockSFTPServer(MockSFTPServer.SFTP_PORT,new File(tempManager.createTempDirectory(),"hostkey.ser"));
+		server.create();
+		server.start();
+		localDirectory = tempManager.createTempDirectory();
+		pool = JSchConnectionPool.acquire(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR));
+	}
+
+	@After
+	public void after() throws Exception {
+		pool.close();
+		server.stop();
+		tempManager.cleanup();
+	}
+	
+	private SFtpMonitorTaskConfiguration createConfiguration(String remoteDirectory) {
+		return createConfiguration(remoteDirectory,MockSFTPServer.SFTP_PASSWORD);
+	}
+	
+	private SFtpMonitorTaskConfiguration createConfiguration(String remoteDirectory,String password) {
+		return new SFtpMonitorTaskConfiguration(
+				MockSFTPServer.SFTP_HOST,
+				MockSFTPServer.SFTP_PORT,
+				MockSFTPServer.SFTP_USERNAME,
+				password,
+				remoteDirectory,
+				localDirectory,
+				new DefaultFileProcessor() {
+					@Override
+					public void process(Properties context, File file) throws Exception {
+					}
+				},
+				null
+		).setStrictHostKeyChecking(false).withSFtpSessionPooling();
+	}
+	
+	@Test
+	public void testBorrowSharesSession() throws Exception {
+		long sessions = pool.getSessionsCreated();
+		long channels = pool.getChannelsCreated();
+		JSchConnection c1 = pool.borrow();
+		JSchConnection c2 = pool.borrow();
+		assertTrue(c1.isConnected());
+		assertTrue(c2.isConnected());
+		assertSame(c1.getSession(),c2.getSession());
+		assertNotSame(c1.getChannelSftp(),c2.getChannelSftp());
+		assertEquals(sessions+1,pool.getSessionsCreated());
+		assertEquals(channels+2,pool.getChannelsCreated());
+		pool.release(c1);
+		pool.release(c2);
+		assertEquals(2,pool.getIdleCount());
+		//An idle channel is reused on the same session
+		long reused = pool.getChannelsReused();
+		JSchConnection c3 = pool.borrow();
+		assertTrue(c3.isReused());
+		assertSame(c1.getSession(),c3.getSession());
+		assertEquals(reused+1,pool.getChannelsReused());
+		assertEquals(sessions+1,pool.getSessionsCreated());
+		pool.release(c3);
+	}
+	
+	@Test
+	public void testInvalidateKeepsSession() throws Exception {
+		JSchConnection c1 = pool.borrow();
+		JSchConnection c2 = pool.borrow();
+		long sessions = pool.getSessionsCreated();
+		try {
+			c1.getChannelSftp().rm("do-not-exists.txt");
+			fail("File do not exists.");
+		} catch (SftpException e) {
+			assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE,e.id);
+		}
+		pool.invalidate(c1);
+		assertTrue(!c1.isConnected());
+		//The other channel on the shared session is still in use
+		assertTrue(c2.isConnected());
+		assertTrue(c2.getSession().isConnected());
+		JSchConnection c3 = pool.borrow();
+		assertSame(c2.getSession(),c3.getSession());
+		assertEquals(sessions,pool.getSessionsCreated());
+		pool.release(c2);
+		pool.release(c3);
+	}
+	
+	@Test
+	public void testInvalidateSession() throws Exception {
+		JSchConnection c1 = pool.borrow();
+		JSchConnection c2 = pool.borrow();
+		long sessions = pool.getSessionsCreated();
+		pool.invalidateSession(c1);
+		assertTrue(!c1.getSession().isConnected());
+		assertTrue(!c2.isConnected());
+		pool.release(c2);
+		assertEquals(0,pool.getIdleCount());
+		//The next borrow connects a new session
+		JSchConnection c3 = pool.borrow();
+		assertTrue(c3.isConnected());
+		assertNotSame(c1.getSession(),c3.getSession());
+		assertEquals(sessions+1,pool.getSessionsCreated());
+		pool.release(c3);
+	}
+	
+	@Test
+	public void testFailedRunKeepsSharedSession() throws Exception {
+		JSchConnection other = pool.borrow();
+		long sessions = pool.getSessionsCreated();
+		//The remote directory do not exists, so the run fails on the server but the connection is fine
+		SFtpMonitoringTask task = new SFtpMonitoringTask(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR+"/do-not-exists"));
+		try {
+			task.runTask();
+			assertTrue(other.isConnected());
+			assertEquals(sessions,pool.getSessionsCreated());
+		} finally {
+			pool.release(other);
+			task.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSessionReplacedWhenLost() throws Exception {
+		JSchConnection c1 = pool.borrow();
+		pool.release(c1);
+		long sessions = pool.getSessionsCreated();
+		c1.getSession().disconnect();
+		JSchConnection c2 = pool.borrow();
+		assertTrue(c2.isConnected());
+		assertTrue(!c2.isReused());
+		assertEquals(sessions+1,pool.getSessionsCreated());
+		pool.release(c2);
+	}
+	
+	@Test
+	public void testPoolKey() throws Exception {
+		JSchConnectionPool other = JSchConnectionPool.acquire(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR));
+		try {
+			//The remote directory is not a session setting
+			assertSame(pool,other);
+			assertEquals(2,pool.getReferences());
+		} finally {
+			other.close();
+		}
+		assertEquals(1,pool.getReferences());
+		assertFalse(pool.getKey().equals(JSchConnectionPool.createKey(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR,"other-password"))));
+		assertFalse(pool.getKey().equals(JSchConnectionPool.createKey(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR).setStrictHostKeyChecking(true))));
+		assertFalse(pool.getKey().equals(JSchConnectionPool.createKey(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR).setTimeout(TimeSpan.createSeconds(5)))));
+		assertFalse(pool.getKey().equals(JSchConnectionPool.createKey(createConfiguration(MockSFTPServer.SFTP_REMOTE_DIR).setSFtpChannelPoolSize(JSchConnectionPool.DEFAULT_CHANNEL_POOL_SIZE+1))));
+		assertTrue(!pool.getKey().contains(MockSFTPServer.SFTP_PASSWORD));
+	}
+	
+	@Test
+	public void testConnectionLost() throws Exception {
+		JSchConnection connection = pool.borrow();
+		//A login or setup error on a connected session is not a lost connection
+		assertFalse(SFtpMonitoringTask.isConnectionLost(connection, new JSchException("Auth fail")));
+		assertTrue(SFtpMonitoringTask.isConnectionLost(connection, new JSchException("Read timed out", new SocketTimeoutException())));
+		assertFalse(SFtpMonitoringTask.isConnectionLost(connection, new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE,"No such file")));
+		assertTrue(SFtpMonitoringTask.isConnectionLost(connection, new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST,"Connection lost")));
+		connection.getSession().disconnect();
+		assertTrue(SFtpMonitoringTask.isConnectionLost(connection, new JSchException("Auth fail")));
+		pool.invalidateSession(connection);
+	}
+}
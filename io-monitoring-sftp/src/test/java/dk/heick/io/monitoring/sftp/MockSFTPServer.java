@@ -12,6 +12,7 @@ import java.util.Hashtable;
 import java.util.List;
 
 import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.config.keys.KeyUtils;
 import org.apache.sshd.server.Command;
 import org.apache.sshd.server.CommandFactory;
 import org.apache.sshd.server.SshServer;
@@ -33,6 +34,12 @@ import dk.heick.io.monitoring.utils.TempFileManager;
 
 public class MockSFTPServer {
 	
+	public final static int SFTP_PORT=22999;
+	public final static String SFTP_HOST="localhost";
+	public final static String SFTP_USERNAME="remote-username";
+	public final static String SFTP_PASSWORD="remote-password";
+	public final static String SFTP_REMOTE_DIR="src/test/resources/sftpserver/datadir";
+	
 	private Logger logger = LoggerFactory.getLogger(MockSFTPServer.class);	
 	private SshServer sshd = null;
 	private int port;
@@ -63,8 +70,11 @@ public class MockSFTPServer {
 	}
 	public void create() {
 		sshd = SshServer.setUpDefaultServer();
-		sshd.setPort(22999);				
-		sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(getHostkeyFile()));
+		sshd.setPort(getPort());				
+		SimpleGeneratorHostKeyProvider keyPairProvider = new SimpleGeneratorHostKeyProvider(getHostkeyFile());
+		//JSch 0.2.x do not accept "ssh-rsa" host keys by default
+		keyPairProvider.setAlgorithm(KeyUtils.EC_ALGORITHM);
+		sshd.setKeyPairProvider(keyPairProvider);
 		sshd.setPasswordAuthenticator(new PasswordAuthenticator() {
 			public boolean authenticate(String username, String password, ServerSession session) {				
 				return true;